@@ -0,0 +1,18 @@
+package com.danialrekhman.commonevents;
+
+import lombok.*;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CatalogChangedEvent {
+    private String entity; // PRODUCT или CATEGORY
+    private Long id;
+    private long version;  // версия каталога после изменения, проставляет отправитель
+
+    public CatalogChangedEvent(String entity, Long id) {
+        this(entity, id, 0);
+    }
+}
@@ -0,0 +1,16 @@
+package com.danialrekhman.commonevents;
+
+import lombok.*;
+
+import java.math.BigDecimal;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductReservationLine {
+    private Long productId;
+    private int quantity;
+    private BigDecimal priceAtOrder; // filled in by product-service on reply
+}
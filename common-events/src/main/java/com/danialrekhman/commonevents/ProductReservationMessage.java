@@ -0,0 +1,20 @@
+package com.danialrekhman.commonevents;
+
+import lombok.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Одно сообщение на весь заказ: все позиции резервируются атомарно (всё или ничего)
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductReservationMessage {
+    private String correlationId;
+    @Builder.Default
+    private List<ProductReservationLine> items = new ArrayList<>();
+    private Boolean available;
+    private String message;
+}
@@ -0,0 +1,19 @@
+package com.danialrekhman.commonevents;
+
+import lombok.*;
+
+import java.math.BigDecimal;
+
+// Последнее состояние товара в compacted-топике product-snapshots, ключ — id товара.
+// Удалённый товар — tombstone (null) с тем же ключом
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProductSnapshotEvent {
+    private Long productId;
+    private BigDecimal price;
+    private boolean available;
+    private StockLevel stockLevel;
+}
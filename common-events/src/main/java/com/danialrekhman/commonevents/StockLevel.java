@@ -0,0 +1,8 @@
+package com.danialrekhman.commonevents;
+
+// Грубый остаток товара в снимке: точное число меняется на каждом заказе, а границы — редко
+public enum StockLevel {
+    OUT_OF_STOCK,
+    LOW,
+    IN_STOCK
+}
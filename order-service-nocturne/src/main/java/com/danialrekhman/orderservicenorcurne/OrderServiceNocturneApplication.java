@@ -2,8 +2,10 @@ package com.danialrekhman.orderservicenorcurne;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class OrderServiceNocturneApplication {
     public static void main(String[] args) {
         SpringApplication.run(OrderServiceNocturneApplication.class, args);
@@ -1,20 +1,30 @@
 package com.danialrekhman.orderservicenorcurne.config;
 
-import com.danialrekhman.commonevents.OrderCreatedEvent;
 import com.danialrekhman.commonevents.PaymentFailedEvent;
 import com.danialrekhman.commonevents.PaymentProcessedEvent;
 import com.danialrekhman.commonevents.ProductCheckMessage;
+import com.danialrekhman.commonevents.ProductReservationMessage;
+import com.danialrekhman.commonevents.ProductSnapshotEvent;
+import com.danialrekhman.orderservicenorcurne.kafka.producer.ReplyTopic;
+import com.danialrekhman.orderservicenorcurne.replica.ProductReplica;
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.core.*;
 import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
 import org.springframework.kafka.support.serializer.JsonDeserializer;
 import org.springframework.kafka.support.serializer.JsonSerializer;
+import org.springframework.util.backoff.FixedBackOff;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -22,11 +32,22 @@ import java.util.Map;
 @Configuration
 public class KafkaConfig {
 
+    @Value("${spring.kafka.bootstrap-servers:localhost:9092}")
+    private String bootstrapServers;
+
+    // Payment-события обрабатываются пачками: max.poll.records задаёт размер пачки
+    @Value("${order.payment.batch-size:500}")
+    private int paymentBatchSize;
+
+    // Снимки товаров при старте проигрываются с начала топика — крупными пачками
+    @Value("${order.product-replica.max-poll-records:5000}")
+    private int productReplicaMaxPollRecords;
+
     // ================= PRODUCER =================
     @Bean
     public ProducerFactory<String, Object> producerFactory() {
         Map<String, Object> props = new HashMap<>();
-        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
         props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
         props.put(JsonSerializer.ADD_TYPE_INFO_HEADERS, false);
@@ -41,11 +62,13 @@ public class KafkaConfig {
     @Bean
     public ConsumerFactory<String, PaymentFailedEvent> paymentFailedConsumerFactory() {
         Map<String, Object> props = new HashMap<>();
-        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ConsumerConfig.GROUP_ID_CONFIG, "order-service-group");
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, paymentBatchSize);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ErrorHandlingDeserializer.class);
+        props.put(ErrorHandlingDeserializer.VALUE_DESERIALIZER_CLASS, JsonDeserializer.class);
         props.put(JsonDeserializer.VALUE_DEFAULT_TYPE, PaymentFailedEvent.class);
         props.put(JsonDeserializer.TRUSTED_PACKAGES, "*");
         return new DefaultKafkaConsumerFactory<>(props);
@@ -57,30 +80,40 @@ public class KafkaConfig {
         ConcurrentKafkaListenerContainerFactory<String, PaymentFailedEvent> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(paymentFailedConsumerFactory());
+        factory.setBatchListener(true);
+        factory.setCommonErrorHandler(paymentBatchErrorHandler());
         return factory;
     }
 
 
+    // Producer для OutboxRelay: payload уже сериализован в JSON, поэтому StringSerializer.
+    // linger + batch.size + lz4 склеивают пачку outbox в несколько крупных запросов к брокеру
     @Bean
-    public ProducerFactory<String, OrderCreatedEvent> orderProducerFactory() {
+    public ProducerFactory<String, String> outboxProducerFactory(
+            @Value("${order.outbox.producer.linger-ms:5}") int lingerMs,
+            @Value("${order.outbox.producer.batch-size-bytes:65536}") int batchSizeBytes,
+            @Value("${order.outbox.producer.compression:lz4}") String compression) {
         Map<String, Object> props = new HashMap<>();
-        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
-        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
-        props.put(JsonSerializer.ADD_TYPE_INFO_HEADERS, false);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        props.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSizeBytes);
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compression);
         return new DefaultKafkaProducerFactory<>(props);
     }
 
     @Bean
-    public KafkaTemplate<String, OrderCreatedEvent> orderKafkaTemplate(
-            ProducerFactory<String, OrderCreatedEvent> pf) {
-        return new KafkaTemplate<>(pf);
+    public KafkaTemplate<String, String> outboxKafkaTemplate(ProducerFactory<String, String> outboxProducerFactory) {
+        return new KafkaTemplate<>(outboxProducerFactory);
     }
 
     @Bean
     public ProducerFactory<String, ProductCheckMessage> productCheckProducerFactory() {
         Map<String, Object> props = new HashMap<>();
-        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
         props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
         props.put(JsonSerializer.ADD_TYPE_INFO_HEADERS, false);
@@ -93,25 +126,54 @@ public class KafkaConfig {
         return new KafkaTemplate<>(pf);
     }
 
+    @Bean
+    public ProducerFactory<String, ProductReservationMessage> reservationProducerFactory() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+        props.put(JsonSerializer.ADD_TYPE_INFO_HEADERS, false);
+        return new DefaultKafkaProducerFactory<>(props);
+    }
+
+    @Bean
+    public KafkaTemplate<String, ProductReservationMessage> reservationKafkaTemplate(
+            ProducerFactory<String, ProductReservationMessage> pf) {
+        return new KafkaTemplate<>(pf);
+    }
+
+    // Свой топик ответов у каждого инстанса: product-service отвечает туда, откуда пришёл запрос
+    @Bean
+    public ReplyTopic replyTopic(@Value("${order.reply.topic:}") String configuredTopic,
+                                 @Value("${order.instance-id:}") String instanceId,
+                                 Environment environment) {
+        return ReplyTopic.of(configuredTopic, instanceId, environment.matchesProfiles("dev"));
+    }
+
+    @Bean
+    public NewTopic reservationReplyTopic(ReplyTopic replyTopic) {
+        return TopicBuilder.name(replyTopic.name()).partitions(3).replicas(1).build();
+    }
+
     // ================= CONSUMER =================
     @Bean
-    public ConsumerFactory<String, ProductCheckMessage> consumerFactory() {
+    public ConsumerFactory<String, ProductReservationMessage> consumerFactory() {
         Map<String, Object> props = new HashMap<>();
-        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
-        props.put(ConsumerConfig.GROUP_ID_CONFIG, "product-service-group");
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, "order-service-group");
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
         props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
         props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
-        props.put(JsonDeserializer.VALUE_DEFAULT_TYPE, ProductCheckMessage.class);
+        props.put(JsonDeserializer.VALUE_DEFAULT_TYPE, ProductReservationMessage.class);
         props.put(JsonDeserializer.TRUSTED_PACKAGES, "*");
         return new DefaultKafkaConsumerFactory<>(props);
     }
 
     @Bean
-    public ConcurrentKafkaListenerContainerFactory<String, ProductCheckMessage>
-    kafkaListenerContainerFactory(ConsumerFactory<String, ProductCheckMessage> cf) {
-        ConcurrentKafkaListenerContainerFactory<String, ProductCheckMessage> factory =
+    public ConcurrentKafkaListenerContainerFactory<String, ProductReservationMessage>
+    kafkaListenerContainerFactory(ConsumerFactory<String, ProductReservationMessage> cf) {
+        ConcurrentKafkaListenerContainerFactory<String, ProductReservationMessage> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(cf);
         factory.setConcurrency(3);
@@ -122,11 +184,13 @@ public class KafkaConfig {
     @Bean
     public ConsumerFactory<String, PaymentProcessedEvent> paymentProcessedConsumerFactory() {
         Map<String, Object> props = new HashMap<>();
-        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         props.put(ConsumerConfig.GROUP_ID_CONFIG, "order-service-group");
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
-        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, paymentBatchSize);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ErrorHandlingDeserializer.class);
+        props.put(ErrorHandlingDeserializer.VALUE_DESERIALIZER_CLASS, JsonDeserializer.class);
         props.put(JsonDeserializer.VALUE_DEFAULT_TYPE, PaymentProcessedEvent.class);
         props.put(JsonDeserializer.TRUSTED_PACKAGES, "*");
         return new DefaultKafkaConsumerFactory<>(props);
@@ -137,6 +201,41 @@ public class KafkaConfig {
         ConcurrentKafkaListenerContainerFactory<String, PaymentProcessedEvent> factory =
                 new ConcurrentKafkaListenerContainerFactory<>();
         factory.setConsumerFactory(paymentProcessedConsumerFactory());
+        factory.setBatchListener(true);
+        factory.setCommonErrorHandler(paymentBatchErrorHandler());
         return factory;
     }
+
+    @Bean
+    public ConsumerFactory<String, ProductSnapshotEvent> productSnapshotConsumerFactory() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, productReplicaMaxPollRecords);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ErrorHandlingDeserializer.class);
+        props.put(ErrorHandlingDeserializer.VALUE_DESERIALIZER_CLASS, JsonDeserializer.class);
+        props.put(JsonDeserializer.VALUE_DEFAULT_TYPE, ProductSnapshotEvent.class);
+        props.put(JsonDeserializer.TRUSTED_PACKAGES, "*");
+        return new DefaultKafkaConsumerFactory<>(props);
+    }
+
+    // Одна нить: реплика рассчитана на одного писателя. Реплика же следит за назначением партиций —
+    // перематывает их в начало и узнаёт, докуда читать до готовности
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, ProductSnapshotEvent>
+    productSnapshotKafkaListenerContainerFactory(ProductReplica productReplica) {
+        ConcurrentKafkaListenerContainerFactory<String, ProductSnapshotEvent> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(productSnapshotConsumerFactory());
+        factory.setConcurrency(1);
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setConsumerRebalanceListener(productReplica);
+        return factory;
+    }
+
+    // Сбойная запись пачки (BatchListenerFailedException) повторяется 3 раза, затем пропускается с логом
+    private DefaultErrorHandler paymentBatchErrorHandler() {
+        return new DefaultErrorHandler(new FixedBackOff(500L, 3L));
+    }
 }
@@ -1,18 +1,30 @@
 package com.danialrekhman.orderservicenorcurne.controller;
 
+import com.danialrekhman.orderservicenorcurne.idempotency.IdempotentOrderService;
 import com.danialrekhman.orderservicenorcurne.mapper.OrderMapper;
+import com.danialrekhman.orderservicenorcurne.dto.CursorPage;
+import com.danialrekhman.orderservicenorcurne.dto.ExportFormat;
 import com.danialrekhman.orderservicenorcurne.dto.OrderRequestDTO;
 import com.danialrekhman.orderservicenorcurne.dto.OrderResponseDTO;
+import com.danialrekhman.orderservicenorcurne.dto.OrderStatusResponseDTO;
+import com.danialrekhman.orderservicenorcurne.dto.OrderSummaryDTO;
 import com.danialrekhman.orderservicenorcurne.dto.OrderUpdateStatusDTO;
 import com.danialrekhman.orderservicenorcurne.model.Order;
+import com.danialrekhman.orderservicenorcurne.model.OrderStatus;
+import com.danialrekhman.orderservicenorcurne.service.OrderExportService;
 import com.danialrekhman.orderservicenorcurne.service.OrderService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.List;
+import java.net.URI;
+import java.time.LocalDateTime;
 
 @RestController
 @RequestMapping("/api/orders")
@@ -21,14 +33,40 @@ public class OrderController {
 
     private final OrderService orderService;
     private final OrderMapper orderMapper;
+    private final OrderExportService orderExportService;
+    private final IdempotentOrderService idempotentOrderService;
 
+    // Keyset-пагинация: следующую страницу запрашивать с cursor=nextCursor из ответа
     @GetMapping
-    public ResponseEntity<List<OrderResponseDTO>> getAllOrders(Authentication authentication) {
-        List<Order> orders = orderService.getAllOrders(authentication);
-        List<OrderResponseDTO> response = orders.stream()
-                .map(orderMapper::toDto)
-                .toList();
-        return ResponseEntity.ok(response);
+    public ResponseEntity<CursorPage<OrderResponseDTO>> getAllOrders(@RequestParam(required = false) String cursor,
+                                                                     @RequestParam(defaultValue = "20") int size,
+                                                                     Authentication authentication) {
+        CursorPage<Order> orders = orderService.getAllOrders(cursor, size, authentication);
+        return ResponseEntity.ok(orders.map(orderMapper::toDto));
+    }
+
+    // Только заголовки заказов с сохранёнными итогами, без чтения позиций
+    @GetMapping("/summary")
+    public ResponseEntity<CursorPage<OrderSummaryDTO>> getAllOrderSummaries(@RequestParam(required = false) String cursor,
+                                                                            @RequestParam(defaultValue = "20") int size,
+                                                                            Authentication authentication) {
+        CursorPage<Order> orders = orderService.getAllOrderSummaries(cursor, size, authentication);
+        return ResponseEntity.ok(orders.map(orderMapper::toSummaryDto));
+    }
+
+    // Выгрузка для финансов: строки читаются курсором и пишутся в ответ по мере чтения, память не растёт с объёмом
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportOrders(
+            @RequestParam(defaultValue = "NDJSON") ExportFormat format,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) OrderStatus status,
+            Authentication authentication) {
+        StreamingResponseBody body = orderExportService.exportOrders(from, to, status, format, authentication);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(format.getContentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"orders." + format.getExtension() + "\"")
+                .body(body);
     }
 
     @GetMapping("/{orderId}")
@@ -37,21 +75,52 @@ public class OrderController {
         return ResponseEntity.ok(orderMapper.toDto(order));
     }
 
+    @GetMapping("/{orderId}/status")
+    public ResponseEntity<OrderStatusResponseDTO> getOrderStatus(@PathVariable Long orderId, Authentication authentication) {
+        Order order = orderService.getOrderById(orderId, authentication);
+        return ResponseEntity.ok(orderMapper.toStatusDto(order));
+    }
+
     @GetMapping("/my")
-    public ResponseEntity<List<OrderResponseDTO>> getMyOrders(Authentication authentication) {
+    public ResponseEntity<CursorPage<OrderResponseDTO>> getMyOrders(@RequestParam(required = false) String cursor,
+                                                                    @RequestParam(defaultValue = "20") int size,
+                                                                    Authentication authentication) {
         String userEmail = authentication.getName();
-        List<Order> orders = orderService.getOrdersByUserEmail(userEmail, authentication);
-        List<OrderResponseDTO> response = orders.stream()
-                .map(orderMapper::toDto)
-                .toList();
-        return ResponseEntity.ok(response);
+        CursorPage<Order> orders = orderService.getOrdersByUserEmail(userEmail, cursor, size, authentication);
+        return ResponseEntity.ok(orders.map(orderMapper::toDto));
+    }
+
+    @GetMapping("/my/summary")
+    public ResponseEntity<CursorPage<OrderSummaryDTO>> getMyOrderSummaries(@RequestParam(required = false) String cursor,
+                                                                           @RequestParam(defaultValue = "20") int size,
+                                                                           Authentication authentication) {
+        CursorPage<Order> orders = orderService.getOrderSummariesByUserEmail(authentication.getName(), cursor, size, authentication);
+        return ResponseEntity.ok(orders.map(orderMapper::toSummaryDto));
     }
 
     @PostMapping
-    public ResponseEntity<OrderResponseDTO> createOrder(@RequestBody OrderRequestDTO requestDto, Authentication authentication) {
-        Order order = orderService.createOrder(requestDto, authentication);
+    public ResponseEntity<OrderResponseDTO> createOrder(@RequestBody OrderRequestDTO requestDto,
+                                                        @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+                                                        Authentication authentication) {
+        Order order;
+        boolean replayed = false;
+        if (idempotencyKey == null) {
+            order = orderService.createOrder(requestDto, authentication);
+        } else {
+            // повтор с тем же ключом возвращает уже созданный заказ, не резервируя сток ещё раз
+            IdempotentOrderService.Result result = idempotentOrderService.createOrder(idempotencyKey, requestDto, authentication);
+            order = result.order();
+            replayed = result.replayed();
+        }
         OrderResponseDTO responseDTO = orderMapper.toDto(order);
-        return new ResponseEntity<>(responseDTO, HttpStatus.CREATED);
+        // Асинхронное оформление: резерв ещё не подтверждён, клиент опрашивает статус
+        HttpStatus status = order.getStatus() == OrderStatus.PENDING_RESERVATION ? HttpStatus.ACCEPTED : HttpStatus.CREATED;
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(status);
+        if (status == HttpStatus.ACCEPTED)
+            response.location(URI.create("/api/orders/" + order.getId() + "/status"));
+        if (replayed)
+            response.header("Idempotent-Replayed", "true");
+        return response.body(responseDTO);
     }
 
     @PutMapping("/{orderId}/status")
@@ -0,0 +1,20 @@
+package com.danialrekhman.orderservicenorcurne.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.util.List;
+import java.util.function.Function;
+
+// Страница keyset-пагинации: nextCursor == null, если дальше данных нет
+@Getter
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class CursorPage<T> {
+    List<T> items;
+    String nextCursor;
+
+    public <R> CursorPage<R> map(Function<? super T, ? extends R> mapper) {
+        return new CursorPage<>(items.stream().<R>map(mapper).toList(), nextCursor);
+    }
+}
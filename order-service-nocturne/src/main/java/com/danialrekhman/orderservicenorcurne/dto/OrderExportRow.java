@@ -0,0 +1,26 @@
+package com.danialrekhman.orderservicenorcurne.dto;
+
+import com.danialrekhman.orderservicenorcurne.model.OrderStatus;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// Плоская строка выгрузки: заказ × позиция. Проекция, а не сущность — не попадает в persistence context.
+// Для заказа без позиций поля позиции равны null
+@Getter
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class OrderExportRow {
+    Long orderId;
+    String userEmail;
+    LocalDateTime orderDate;
+    OrderStatus status;
+    BigDecimal totalPrice;
+    int itemCount;
+    Long itemId;
+    Long productId;
+    Integer quantity;
+    BigDecimal priceAtOrder;
+}
@@ -20,5 +20,6 @@ public class OrderResponseDTO {
     OrderStatus status;
     List<OrderItemResponseDTO> items;
     BigDecimal totalPrice;
+    int itemCount;
 }
 
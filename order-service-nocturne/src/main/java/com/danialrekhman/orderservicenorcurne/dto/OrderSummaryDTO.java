@@ -0,0 +1,23 @@
+package com.danialrekhman.orderservicenorcurne.dto;
+
+import com.danialrekhman.orderservicenorcurne.model.OrderStatus;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// Заголовок заказа для списков: только поля order_table, позиции не загружаются
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class OrderSummaryDTO {
+    Long id;
+    String userEmail;
+    LocalDateTime orderDate;
+    OrderStatus status;
+    BigDecimal totalPrice;
+    int itemCount;
+}
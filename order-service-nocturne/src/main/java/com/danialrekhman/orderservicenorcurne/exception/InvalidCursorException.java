@@ -0,0 +1,7 @@
+package com.danialrekhman.orderservicenorcurne.exception;
+
+public class InvalidCursorException extends RuntimeException {
+    public InvalidCursorException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.danialrekhman.orderservicenorcurne.exception;
+
+public class InvalidIdempotencyKeyException extends RuntimeException {
+    public InvalidIdempotencyKeyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package com.danialrekhman.orderservicenorcurne.exception;
+
+public class TooManyPendingReservationsException extends RuntimeException {
+    public TooManyPendingReservationsException(String message) {
+        super(message);
+    }
+}
@@ -48,6 +48,36 @@ public class GlobalExceptionHandler extends ResponseEntityExceptionHandler {
         return new ResponseEntity<>(apiError, apiError.getStatus());
     }
 
+    @ExceptionHandler(TooManyPendingReservationsException.class)
+    public ResponseEntity<Object> handleTooManyPendingReservationsException(TooManyPendingReservationsException ex, WebRequest request) {
+        ApiError apiError = new ApiError(HttpStatus.SERVICE_UNAVAILABLE, "Service overloaded", ex.getMessage());
+        return new ResponseEntity<>(apiError, apiError.getStatus());
+    }
+
+    @ExceptionHandler(InvalidCursorException.class)
+    public ResponseEntity<Object> handleInvalidCursorException(InvalidCursorException ex, WebRequest request) {
+        ApiError apiError = new ApiError(HttpStatus.BAD_REQUEST, "Invalid cursor", ex.getMessage());
+        return new ResponseEntity<>(apiError, apiError.getStatus());
+    }
+
+    @ExceptionHandler(InvalidIdempotencyKeyException.class)
+    public ResponseEntity<Object> handleInvalidIdempotencyKeyException(InvalidIdempotencyKeyException ex, WebRequest request) {
+        ApiError apiError = new ApiError(HttpStatus.BAD_REQUEST, "Invalid Idempotency-Key", ex.getMessage());
+        return new ResponseEntity<>(apiError, apiError.getStatus());
+    }
+
+    @ExceptionHandler(IdempotencyKeyReusedException.class)
+    public ResponseEntity<Object> handleIdempotencyKeyReusedException(IdempotencyKeyReusedException ex, WebRequest request) {
+        ApiError apiError = new ApiError(HttpStatus.UNPROCESSABLE_ENTITY, "Idempotency-Key reused", ex.getMessage());
+        return new ResponseEntity<>(apiError, apiError.getStatus());
+    }
+
+    @ExceptionHandler(IdempotentRequestInProgressException.class)
+    public ResponseEntity<Object> handleIdempotentRequestInProgressException(IdempotentRequestInProgressException ex, WebRequest request) {
+        ApiError apiError = new ApiError(HttpStatus.CONFLICT, "Request in progress", ex.getMessage());
+        return new ResponseEntity<>(apiError, apiError.getStatus());
+    }
+
     // Обработчик для всех остальных непредвиденных исключений
     @ExceptionHandler(Exception.class)
     public ResponseEntity<Object> handleAllExceptions(Exception ex, WebRequest request) {
@@ -0,0 +1,50 @@
+package com.danialrekhman.orderservicenorcurne.idempotency;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+
+// Ключи живут только в памяти инстанса: подходит, пока повторы клиента попадают на тот же инстанс
+@Component
+@ConditionalOnProperty(name = "order.idempotency.store", havingValue = "caffeine", matchIfMissing = true)
+public class CaffeineIdempotencyStore implements IdempotencyStore {
+
+    private final Cache<String, IdempotencyRecord> cache;
+
+    // Срок жизни зависит от записи: IN_PROGRESS живёт claim-ttl, результат — полный ttl
+    public CaffeineIdempotencyStore(@Value("${order.idempotency.ttl:PT24H}") Duration ttl,
+                                    @Value("${order.idempotency.claim-ttl:PT30S}") Duration claimTtl,
+                                    @Value("${order.idempotency.max-keys:100000}") long maxKeys) {
+        this.cache = Caffeine.newBuilder()
+                .expireAfter(Expiry.<String, IdempotencyRecord>writing((key, record) ->
+                        record.getStatus() == IdempotencyRecord.Status.IN_PROGRESS ? claimTtl : ttl))
+                .maximumSize(maxKeys)
+                .build();
+    }
+
+    @Override
+    public Optional<IdempotencyRecord> claim(String key, String fingerprint, Duration ttl) {
+        return Optional.ofNullable(cache.asMap().putIfAbsent(key, IdempotencyRecord.inProgress(fingerprint)));
+    }
+
+    @Override
+    public Optional<IdempotencyRecord> find(String key) {
+        return Optional.ofNullable(cache.getIfPresent(key));
+    }
+
+    @Override
+    public void complete(String key, IdempotencyRecord record, Duration ttl) {
+        cache.put(key, record);
+    }
+
+    @Override
+    public void release(String key) {
+        cache.invalidate(key);
+    }
+}
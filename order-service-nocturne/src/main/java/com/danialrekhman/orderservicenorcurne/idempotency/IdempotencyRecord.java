@@ -0,0 +1,29 @@
+package com.danialrekhman.orderservicenorcurne.idempotency;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+// Состояние Idempotency-Key: IN_PROGRESS пока первый запрос выполняется, затем COMPLETED с id заказа
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class IdempotencyRecord {
+
+    public enum Status { IN_PROGRESS, COMPLETED }
+
+    Status status;
+    // хеш тела запроса: тот же ключ с другим телом — ошибка клиента, а не повтор
+    String fingerprint;
+    Long orderId;
+
+    public static IdempotencyRecord inProgress(String fingerprint) {
+        return new IdempotencyRecord(Status.IN_PROGRESS, fingerprint, null);
+    }
+
+    public static IdempotencyRecord completed(String fingerprint, Long orderId) {
+        return new IdempotencyRecord(Status.COMPLETED, fingerprint, orderId);
+    }
+}
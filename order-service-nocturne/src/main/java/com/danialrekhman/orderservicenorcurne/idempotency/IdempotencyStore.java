@@ -0,0 +1,24 @@
+package com.danialrekhman.orderservicenorcurne.idempotency;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Хранилище Idempotency-Key с TTL. Реализация выбирается свойством order.idempotency.store:
+ * caffeine (по умолчанию, в памяти инстанса) или redis (общее для всех инстансов).
+ */
+public interface IdempotencyStore {
+
+    // Атомарно занимает ключ записью IN_PROGRESS. Пустой результат — ключ наш,
+    // иначе возвращается уже существующая запись. ttl короткий (claim-ttl): если инстанс упал,
+    // не записав результат, ключ освободится сам, а не будет отвечать 409 до конца полного TTL
+    Optional<IdempotencyRecord> claim(String key, String fingerprint, Duration ttl);
+
+    Optional<IdempotencyRecord> find(String key);
+
+    // Записывает результат с полным TTL поверх записи IN_PROGRESS
+    void complete(String key, IdempotencyRecord record, Duration ttl);
+
+    // Запрос упал — освобождаем ключ, чтобы клиент мог повторить
+    void release(String key);
+}
@@ -0,0 +1,178 @@
+package com.danialrekhman.orderservicenorcurne.idempotency;
+
+import com.danialrekhman.orderservicenorcurne.dto.OrderItemRequestDTO;
+import com.danialrekhman.orderservicenorcurne.dto.OrderRequestDTO;
+import com.danialrekhman.orderservicenorcurne.exception.IdempotencyKeyReusedException;
+import com.danialrekhman.orderservicenorcurne.exception.IdempotentRequestInProgressException;
+import com.danialrekhman.orderservicenorcurne.exception.InvalidIdempotencyKeyException;
+import com.danialrekhman.orderservicenorcurne.model.Order;
+import com.danialrekhman.orderservicenorcurne.service.OrderService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+
+/**
+ * POST /api/orders с заголовком Idempotency-Key.
+ * <p>
+ * Повтор с тем же ключом не резервирует сток повторно, а возвращает уже созданный заказ — до любого
+ * обращения к Kafka. Параллельные дубли на этом инстансе ждут исходный запрос и получают его результат;
+ * дубль, занятый на другом инстансе (redis-хранилище), опрашивает хранилище до wait-timeout, потом 409.
+ */
+@Service
+@Slf4j
+public class IdempotentOrderService {
+
+    private static final int MAX_KEY_LENGTH = 255;
+    private static final long POLL_INTERVAL_MS = 50;
+
+    private final IdempotencyStore store;
+    private final OrderService orderService;
+    private final Duration ttl;
+    private final Duration claimTtl;
+    private final Duration waitTimeout;
+
+    private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+    private final Counter replayed;
+    private final Counter coalesced;
+
+    public IdempotentOrderService(IdempotencyStore store,
+                                  OrderService orderService,
+                                  MeterRegistry registry,
+                                  @Value("${order.idempotency.ttl:PT24H}") Duration ttl,
+                                  @Value("${order.idempotency.claim-ttl:PT30S}") Duration claimTtl,
+                                  @Value("${order.idempotency.wait-timeout:PT5S}") Duration waitTimeout) {
+        this.store = store;
+        this.orderService = orderService;
+        this.ttl = ttl;
+        this.claimTtl = claimTtl;
+        this.waitTimeout = waitTimeout;
+        this.replayed = Counter.builder("order.idempotency.replayed")
+                .description("Duplicate order requests answered from the idempotency store")
+                .register(registry);
+        this.coalesced = Counter.builder("order.idempotency.coalesced")
+                .description("Concurrent duplicate order requests joined to the in-flight one")
+                .register(registry);
+    }
+
+    public record Result(Order order, boolean replayed) {
+    }
+
+    private record InFlight(String fingerprint, CompletableFuture<Long> orderId) {
+    }
+
+    public Result createOrder(String idempotencyKey, OrderRequestDTO requestDTO, Authentication authentication) {
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH)
+            throw new InvalidIdempotencyKeyException("Idempotency-Key must be 1.." + MAX_KEY_LENGTH + " characters.");
+
+        // ключи разных пользователей не пересекаются
+        String key = authentication.getName() + ":" + idempotencyKey;
+        String fingerprint = fingerprint(requestDTO);
+
+        InFlight mine = new InFlight(fingerprint, new CompletableFuture<>());
+        InFlight running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            checkFingerprint(running.fingerprint(), fingerprint);
+            coalesced.increment();
+            return new Result(orderService.getOrderById(await(running.orderId()), authentication), true);
+        }
+
+        try {
+            Optional<IdempotencyRecord> existing = store.claim(key, fingerprint, claimTtl);
+            Long orderId;
+            boolean isReplay = existing.isPresent();
+            if (isReplay) {
+                checkFingerprint(existing.get().getFingerprint(), fingerprint);
+                orderId = existing.get().getStatus() == IdempotencyRecord.Status.COMPLETED
+                        ? existing.get().getOrderId()
+                        : waitForOtherInstance(key);
+                replayed.increment();
+            } else {
+                orderId = placeOrder(key, fingerprint, requestDTO, authentication);
+            }
+            mine.orderId().complete(orderId);
+            Order order = orderService.getOrderById(orderId, authentication);
+            return new Result(order, isReplay);
+        } catch (RuntimeException e) {
+            mine.orderId().completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private Long placeOrder(String key, String fingerprint, OrderRequestDTO requestDTO, Authentication authentication) {
+        Order order;
+        try {
+            order = orderService.createOrder(requestDTO, authentication);
+        } catch (RuntimeException e) {
+            store.release(key);
+            throw e;
+        }
+        store.complete(key, IdempotencyRecord.completed(fingerprint, order.getId()), ttl);
+        return order.getId();
+    }
+
+    // Ключ занят запросом на другом инстансе — ждём, пока тот запишет результат
+    private Long waitForOtherInstance(String key) {
+        long deadline = System.nanoTime() + waitTimeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            Optional<IdempotencyRecord> record = store.find(key);
+            if (record.isEmpty())
+                throw new IdempotentRequestInProgressException("Original request with this Idempotency-Key failed, retry it.");
+            if (record.get().getStatus() == IdempotencyRecord.Status.COMPLETED)
+                return record.get().getOrderId();
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        throw new IdempotentRequestInProgressException("A request with this Idempotency-Key is still being processed.");
+    }
+
+    private Long await(CompletableFuture<Long> orderId) {
+        try {
+            return orderId.get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            // дубль разделяет исход исходного запроса
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new IdempotentRequestInProgressException("A request with this Idempotency-Key is still being processed.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IdempotentRequestInProgressException("Interrupted while waiting for the original request.");
+        }
+    }
+
+    private void checkFingerprint(String expected, String actual) {
+        if (!expected.equals(actual))
+            throw new IdempotencyKeyReusedException("Idempotency-Key was already used with a different request body.");
+    }
+
+    static String fingerprint(OrderRequestDTO requestDTO) {
+        StringBuilder canonical = new StringBuilder();
+        for (OrderItemRequestDTO item : requestDTO.getItems())
+            canonical.append(item.getProductId()).append('x').append(item.getQuantity()).append(';');
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(canonical.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
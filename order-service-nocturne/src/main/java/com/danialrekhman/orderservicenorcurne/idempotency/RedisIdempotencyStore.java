@@ -0,0 +1,64 @@
+package com.danialrekhman.orderservicenorcurne.idempotency;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+
+// Общие для всех инстансов ключи: SET NX занимает ключ атомарно, TTL снимает его сам
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "order.idempotency.store", havingValue = "redis")
+public class RedisIdempotencyStore implements IdempotencyStore {
+
+    private static final String PREFIX = "order:idempotency:";
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    public Optional<IdempotencyRecord> claim(String key, String fingerprint, Duration ttl) {
+        Boolean claimed = redisTemplate.opsForValue()
+                .setIfAbsent(PREFIX + key, write(IdempotencyRecord.inProgress(fingerprint)), ttl);
+        if (Boolean.TRUE.equals(claimed))
+            return Optional.empty();
+        // ключ мог истечь между SET NX и GET — тогда считаем его занятым другим запросом
+        return Optional.of(find(key).orElseGet(() -> IdempotencyRecord.inProgress(fingerprint)));
+    }
+
+    @Override
+    public Optional<IdempotencyRecord> find(String key) {
+        return Optional.ofNullable(redisTemplate.opsForValue().get(PREFIX + key)).map(this::read);
+    }
+
+    @Override
+    public void complete(String key, IdempotencyRecord record, Duration ttl) {
+        redisTemplate.opsForValue().set(PREFIX + key, write(record), ttl);
+    }
+
+    @Override
+    public void release(String key) {
+        redisTemplate.delete(PREFIX + key);
+    }
+
+    private String write(IdempotencyRecord record) {
+        try {
+            return objectMapper.writeValueAsString(record);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize idempotency record", e);
+        }
+    }
+
+    private IdempotencyRecord read(String json) {
+        try {
+            return objectMapper.readValue(json, IdempotencyRecord.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Corrupted idempotency record: " + json, e);
+        }
+    }
+}
@@ -2,15 +2,23 @@ package com.danialrekhman.orderservicenorcurne.kafka.listener;
 
 import com.danialrekhman.commonevents.PaymentFailedEvent;
 import com.danialrekhman.commonevents.PaymentProcessedEvent;
-import com.danialrekhman.orderservicenorcurne.service.OrderService;
+import com.danialrekhman.orderservicenorcurne.model.OrderStatus;
 import com.danialrekhman.orderservicenorcurne.service.OrderServiceImpl;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.stereotype.Component;
+import org.springframework.kafka.listener.BatchListenerFailedException;
 import org.springframework.stereotype.Service;
 
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class PaymentProcessedListener {
 
     private final OrderServiceImpl orderService;
@@ -20,8 +28,8 @@ public class PaymentProcessedListener {
             groupId = "order-service-group",
             containerFactory = "paymentProcessedKafkaListenerContainerFactory"
     )
-    public void onPaymentProcessed(PaymentProcessedEvent event) {
-        orderService.handlePaymentResult(event);
+    public void onPaymentProcessed(List<ConsumerRecord<String, PaymentProcessedEvent>> records) {
+        applyBatch(records, PaymentProcessedEvent::getOrderId, OrderStatus.PAID);
     }
 
     @KafkaListener(
@@ -29,8 +37,41 @@ public class PaymentProcessedListener {
             groupId = "order-service-group",
             containerFactory = "paymentFailedKafkaListenerContainerFactory"
     )
-    public void onPaymentFailed(PaymentFailedEvent event) {
-        orderService.handlePaymentFailed(event);
+    public void onPaymentFailed(List<ConsumerRecord<String, PaymentFailedEvent>> records) {
+        applyBatch(records, PaymentFailedEvent::getOrderId, OrderStatus.WAITING_FOR_PAYMENT);
     }
-}
 
+    // Вся пачка poll-а применяется одним UPDATE. Если он падает, записи применяются по одной:
+    // на первой сбойной бросаем BatchListenerFailedException с её индексом — error handler
+    // закоммитит offset-ы до неё, повторит её и после исчерпания попыток пропустит, не трогая остальные
+    private <T> void applyBatch(List<ConsumerRecord<String, T>> records, Function<T, Long> orderId, OrderStatus status) {
+        Set<Long> ids = new LinkedHashSet<>();
+        for (ConsumerRecord<String, T> record : records) {
+            // null — запись не десериализовалась (ErrorHandlingDeserializer), повторять её бессмысленно
+            if (record.value() == null || orderId.apply(record.value()) == null) {
+                log.warn("Skipping unreadable {} record at {}-{}@{}", status, record.topic(), record.partition(), record.offset());
+                continue;
+            }
+            ids.add(orderId.apply(record.value()));
+        }
+        if (ids.isEmpty())
+            return;
+
+        try {
+            int updated = orderService.applyPaymentStatus(ids, status);
+            log.info("Set {} for {} orders from {} records", status, updated, records.size());
+        } catch (RuntimeException batchFailure) {
+            log.warn("Bulk update to {} failed for {} orders, retrying one by one", status, ids.size(), batchFailure);
+            for (int i = 0; i < records.size(); i++) {
+                T value = records.get(i).value();
+                if (value == null || orderId.apply(value) == null)
+                    continue;
+                try {
+                    orderService.applyPaymentStatus(List.of(orderId.apply(value)), status);
+                } catch (RuntimeException e) {
+                    throw new BatchListenerFailedException("Failed to set " + status + " for orderId=" + orderId.apply(value), e, i);
+                }
+            }
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.danialrekhman.orderservicenorcurne.kafka.listener;
 
-import com.danialrekhman.commonevents.ProductCheckMessage;
+import com.danialrekhman.commonevents.ProductReservationMessage;
+import com.danialrekhman.orderservicenorcurne.kafka.producer.ProductCheckProducer;
 import com.danialrekhman.orderservicenorcurne.kafka.producer.ResponseStorage;
+import com.danialrekhman.orderservicenorcurne.service.OrderServiceImpl;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import org.springframework.kafka.annotation.KafkaListener;
@@ -12,12 +14,22 @@ import org.springframework.stereotype.Component;
 public class ProductCheckResponseListener {
 
     private final ResponseStorage storage;
+    private final OrderServiceImpl orderService;
+    private final ProductCheckProducer productCheckProducer;
 
-    @KafkaListener(topics="product-check-response",
+    @KafkaListener(topics="#{@replyTopic.name()}",
             groupId="order-service-group",
             containerFactory="kafkaListenerContainerFactory")
-    public void on(ProductCheckMessage resp, Acknowledgment ack){
-        storage.complete(resp.getCorrelationId(), resp);
+    public void on(ProductReservationMessage resp, Acknowledgment ack){
+        switch (storage.complete(resp.getCorrelationId(), resp)) {
+            case COMPLETED -> { }
+            // синхронный запрос уже отвалился по таймауту, заказ не создан — возвращаем резерв
+            case LATE -> {
+                if (Boolean.TRUE.equals(resp.getAvailable()))
+                    productCheckProducer.releaseReservation(resp.getCorrelationId(), resp.getItems());
+            }
+            case ASYNC, UNKNOWN -> orderService.handleReservationResult(resp);
+        }
         ack.acknowledge();
     }
 }
\ No newline at end of file
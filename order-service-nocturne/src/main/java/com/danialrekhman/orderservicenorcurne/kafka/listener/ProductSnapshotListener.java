@@ -0,0 +1,28 @@
+package com.danialrekhman.orderservicenorcurne.kafka.listener;
+
+import com.danialrekhman.commonevents.ProductSnapshotEvent;
+import com.danialrekhman.orderservicenorcurne.replica.ProductReplica;
+import lombok.RequiredArgsConstructor;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+@Component
+@RequiredArgsConstructor
+public class ProductSnapshotListener {
+
+    private final ProductReplica productReplica;
+
+    // Своя consumer group у каждого инстанса: реплика должна получить все партиции топика
+    @KafkaListener(topics = "product-snapshots",
+            groupId = "#{'order-service-products-' + T(java.util.UUID).randomUUID()}",
+            containerFactory = "productSnapshotKafkaListenerContainerFactory",
+            autoStartup = "${order.product-replica.enabled:true}")
+    public void on(List<ConsumerRecord<String, ProductSnapshotEvent>> records, Consumer<?, ?> consumer) {
+        productReplica.apply(records);
+        productReplica.replayed(consumer);
+    }
+}
@@ -0,0 +1,23 @@
+package com.danialrekhman.orderservicenorcurne.kafka.listener;
+
+import com.danialrekhman.commonevents.ProductReservationMessage;
+import com.danialrekhman.orderservicenorcurne.service.OrderServiceImpl;
+import lombok.RequiredArgsConstructor;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+@Component @RequiredArgsConstructor
+public class ReservationExpiredListener {
+
+    private final OrderServiceImpl orderService;
+
+    // Подтверждение резерва опоздало после его TTL, и сток уже разобрали: заказ остался без товара
+    @KafkaListener(topics = "reservation-expired",
+            groupId = "order-service-group",
+            containerFactory = "kafkaListenerContainerFactory")
+    public void on(ProductReservationMessage expired, Acknowledgment ack) {
+        orderService.handleReservationExpired(expired.getCorrelationId());
+        ack.acknowledge();
+    }
+}
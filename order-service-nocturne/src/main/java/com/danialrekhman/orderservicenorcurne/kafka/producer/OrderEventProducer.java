@@ -1,20 +1,62 @@
 package com.danialrekhman.orderservicenorcurne.kafka.producer;
 
 import com.danialrekhman.commonevents.OrderCreatedEvent;
+import com.danialrekhman.commonevents.ProductReservationMessage;
+import com.danialrekhman.orderservicenorcurne.model.OutboxEvent;
+import com.danialrekhman.orderservicenorcurne.repository.OutboxEventRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
 
 @Component
 @RequiredArgsConstructor
 @Slf4j
 public class OrderEventProducer {
 
-    private final KafkaTemplate<String, OrderCreatedEvent> kafkaTemplate;
+    private final OutboxEventRepository outboxEventRepository;
+    private final ObjectMapper objectMapper;
 
+    // Пишет событие в outbox в транзакции заказа: откат заказа откатывает и событие,
+    // а задержки брокера не удлиняют commit. В Kafka событие отправит OutboxRelay.
+    @Transactional(propagation = Propagation.MANDATORY)
     public void publishOrderCreated(OrderCreatedEvent event) {
-        kafkaTemplate.send("order-created", String.valueOf(event.getOrderId()), event);
-        log.info("Published OrderCreatedEvent for orderId={}", event.getOrderId());
+        try {
+            outboxEventRepository.save(OutboxEvent.builder()
+                    .topic("order-created")
+                    .eventKey(String.valueOf(event.getOrderId()))
+                    .payload(objectMapper.writeValueAsString(event))
+                    .createdAt(LocalDateTime.now())
+                    .build());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize OrderCreatedEvent for orderId=" + event.getOrderId(), e);
+        }
+        log.info("Queued OrderCreatedEvent for orderId={}", event.getOrderId());
+    }
+
+    // Подтверждение резерва уходит только вместе с сохранённым заказом; без него product-service
+    // вернёт резерв на склад по TTL
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void publishReservationConfirmed(String reservationId) {
+        ProductReservationMessage confirmation = ProductReservationMessage.builder()
+                .correlationId(reservationId)
+                .available(true)
+                .message("Confirm reservation")
+                .build();
+        try {
+            outboxEventRepository.save(OutboxEvent.builder()
+                    .topic("reservation-confirm")
+                    .eventKey(reservationId)
+                    .payload(objectMapper.writeValueAsString(confirmation))
+                    .createdAt(LocalDateTime.now())
+                    .build());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize confirmation for reservation " + reservationId, e);
+        }
     }
 }
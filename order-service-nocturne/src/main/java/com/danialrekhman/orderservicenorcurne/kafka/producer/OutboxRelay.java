@@ -0,0 +1,166 @@
+package com.danialrekhman.orderservicenorcurne.kafka.producer;
+
+import com.danialrekhman.orderservicenorcurne.model.OutboxEvent;
+import com.danialrekhman.orderservicenorcurne.repository.OutboxEventRepository;
+import io.micrometer.core.instrument.*;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Переносит события из order_outbox в Kafka пачками.
+ * <p>
+ * Каждая пачка блокируется {@code FOR UPDATE SKIP LOCKED}, отправляется целиком (продюсер
+ * сам склеивает записи в batch и сжимает их), после подтверждения брокера строки помечаются
+ * отправленными в той же транзакции. Если брокер не ответил, транзакция откатывается и пачка
+ * уйдёт повторно — доставка at-least-once, получатели должны быть идемпотентны.
+ * <p>
+ * Relay работает в собственном потоке, а не в общем планировщике {@code @Scheduled}: ожидание
+ * подтверждений брокера не задерживает свипер заказов и очистку. Один проход ограничен и числом
+ * пачек, и временем {@code order.outbox.max-run-ms}, после чего обновляется метрика лага.
+ */
+@Slf4j
+@Component
+public class OutboxRelay {
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final KafkaTemplate<String, String> outboxKafkaTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+    private final long maxRunNanos;
+    private final long pollIntervalMs;
+    private final long sendTimeoutMs;
+    private final Duration retention;
+
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final DistributionSummary batchSizeSummary;
+    private final Counter sentCounter;
+    private ScheduledExecutorService executor;
+
+    public OutboxRelay(OutboxEventRepository outboxEventRepository,
+                       KafkaTemplate<String, String> outboxKafkaTemplate,
+                       TransactionTemplate transactionTemplate,
+                       MeterRegistry registry,
+                       @Value("${order.outbox.batch-size:500}") int batchSize,
+                       @Value("${order.outbox.max-batches-per-run:100}") int maxBatchesPerRun,
+                       @Value("${order.outbox.max-run-ms:1000}") long maxRunMs,
+                       @Value("${order.outbox.poll-interval-ms:200}") long pollIntervalMs,
+                       @Value("${order.outbox.send-timeout-ms:10000}") long sendTimeoutMs,
+                       @Value("${order.outbox.retention-hours:24}") long retentionHours) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.outboxKafkaTemplate = outboxKafkaTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+        this.maxRunNanos = TimeUnit.MILLISECONDS.toNanos(maxRunMs);
+        this.pollIntervalMs = pollIntervalMs;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.retention = Duration.ofHours(retentionHours);
+
+        Gauge.builder("order.outbox.lag", lagMillis, l -> l.get() / 1000.0)
+                .description("Age of the oldest unsent outbox event")
+                .baseUnit("seconds")
+                .register(registry);
+        batchSizeSummary = DistributionSummary.builder("order.outbox.batch.size")
+                .description("Events published per relay batch")
+                .register(registry);
+        sentCounter = Counter.builder("order.outbox.sent")
+                .description("Outbox events published to Kafka")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "outbox-relay");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::relay, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    // Исключения не выпускаются наружу: иначе ScheduledExecutorService молча снимет задачу
+    public void relay() {
+        long deadline = System.nanoTime() + maxRunNanos;
+        try {
+            // выбираем, пока пачки полные, чтобы при всплеске не ждать следующего тика
+            for (int i = 0; i < maxBatchesPerRun && System.nanoTime() - deadline < 0; i++) {
+                Integer sent = transactionTemplate.execute(status -> publishBatch());
+                if (sent == null || sent < batchSize)
+                    break;
+            }
+        } catch (Exception e) {
+            log.error("Outbox relay batch failed, will retry", e);
+        }
+        try {
+            updateLag();
+        } catch (Exception e) {
+            log.warn("Failed to update outbox lag", e);
+        }
+    }
+
+    int publishBatch() {
+        List<OutboxEvent> batch = outboxEventRepository.lockNextBatch(batchSize);
+        if (batch.isEmpty())
+            return 0;
+
+        List<CompletableFuture<SendResult<String, String>>> futures = new ArrayList<>(batch.size());
+        List<Long> ids = new ArrayList<>(batch.size());
+        for (OutboxEvent event : batch) {
+            futures.add(outboxKafkaTemplate.send(event.getTopic(), event.getEventKey(), event.getPayload()));
+            ids.add(event.getId());
+        }
+        outboxKafkaTemplate.flush();
+        try {
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                    .get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while publishing outbox batch", e);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to publish outbox batch of " + batch.size() + " events", e);
+        }
+
+        outboxEventRepository.markSent(ids, LocalDateTime.now());
+        batchSizeSummary.record(batch.size());
+        sentCounter.increment(batch.size());
+        return batch.size();
+    }
+
+    private void updateLag() {
+        LocalDateTime oldest = outboxEventRepository.findOldestPendingCreatedAt();
+        lagMillis.set(oldest == null ? 0 : Math.max(0, Duration.between(oldest, LocalDateTime.now()).toMillis()));
+    }
+
+    @Scheduled(fixedDelayString = "${order.outbox.purge-interval-ms:3600000}")
+    public void purgeSent() {
+        Integer deleted = transactionTemplate.execute(status ->
+                outboxEventRepository.deleteSentBefore(LocalDateTime.now().minus(retention)));
+        if (deleted != null && deleted > 0)
+            log.info("Purged {} sent outbox events", deleted);
+    }
+}
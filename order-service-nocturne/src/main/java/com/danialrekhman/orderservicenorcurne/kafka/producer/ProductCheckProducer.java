@@ -1,38 +1,78 @@
 package com.danialrekhman.orderservicenorcurne.kafka.producer;
 
 import com.danialrekhman.commonevents.ProductCheckMessage;
+import com.danialrekhman.commonevents.ProductReservationLine;
+import com.danialrekhman.commonevents.ProductReservationMessage;
 import lombok.RequiredArgsConstructor;
+import org.apache.kafka.clients.producer.ProducerRecord;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.KafkaHeaders;
 import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
 
 @Service
 @RequiredArgsConstructor
 public class ProductCheckProducer {
 
     private final KafkaTemplate<String, ProductCheckMessage> template;
+    private final KafkaTemplate<String, ProductReservationMessage> reservationTemplate;
     private final ResponseStorage storage;
+    private final ReplyTopic replyTopic;
 
-    public CompletableFuture<ProductCheckMessage> check(Long id, int qty) {
-        String corr = UUID.randomUUID().toString();
-        ProductCheckMessage msg = ProductCheckMessage.builder()
-                .correlationId(corr)
-                .productId(id)
-                .quantity(qty)
+    // Один запрос на весь заказ вместо отдельного product-check на каждую позицию.
+    // correlationId — ключ резерва в журнале product-service, по нему резерв потом возвращается
+    public CompletableFuture<ProductReservationMessage> reserve(String correlationId, List<ProductReservationLine> items) {
+        CompletableFuture<ProductReservationMessage> fut = new CompletableFuture<>();
+        storage.register(correlationId, fut);
+
+        // таймаут и очистку берёт на себя ResponseStorage
+        sendReservation(correlationId, items);
+        return fut;
+    }
+
+    // Асинхронный заказ занимает место в том же лимите ожидающих ответа, что и синхронный:
+    // admit — до сохранения заказа, чтобы при перегрузке заказ не создавался; abandon — если сохранить не удалось
+    public void admit(String correlationId) {
+        storage.registerAsync(correlationId);
+    }
+
+    public void abandon(String correlationId) {
+        storage.cancel(correlationId);
+    }
+
+    // Fire-and-forget: ответ обработает ProductCheckResponseListener по correlationId
+    public void sendReservation(String correlationId, List<ProductReservationLine> items) {
+        ProductReservationMessage msg = ProductReservationMessage.builder()
+                .correlationId(correlationId)
+                .items(items)
                 .available(false)
                 .build();
 
-        CompletableFuture<ProductCheckMessage> fut = new CompletableFuture<>();
-        storage.register(corr, fut);
+        ProducerRecord<String, ProductReservationMessage> record =
+                new ProducerRecord<>("product-reserve", correlationId, msg);
+        record.headers().add(KafkaHeaders.REPLY_TOPIC, replyTopic.name().getBytes(StandardCharsets.UTF_8));
+        reservationTemplate.send(record);
+    }
+
+    // Возврат резерва целиком: product-service вернёт сток по своему журналу один раз,
+    // сколько бы раз сообщение ни пришло. Позиции нужны для резервов, выданных до появления журнала
+    public void releaseReservation(String reservationId, List<ProductReservationLine> items) {
+        ProductReservationMessage msg = ProductReservationMessage.builder()
+                .correlationId(reservationId)
+                .items(items)
+                .available(true)
+                .message("Release reservation")
+                .build();
 
-        template.send("product-check", msg);
-        return fut.orTimeout(3, TimeUnit.SECONDS);
+        reservationTemplate.send("reservation-release", reservationId, msg);
     }
 
+    // Для заказов без reservationId (оформленных до журнала резервов): одна позиция на сообщение
     public void release(Long productId, int qty) {
         ProductCheckMessage msg = ProductCheckMessage.builder()
                 .correlationId(UUID.randomUUID().toString())
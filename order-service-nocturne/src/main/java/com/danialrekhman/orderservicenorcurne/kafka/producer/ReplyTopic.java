@@ -0,0 +1,41 @@
+package com.danialrekhman.orderservicenorcurne.kafka.producer;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.UUID;
+
+/**
+ * Топик ответов product-reserve этого инстанса. product-service отвечает в топик из заголовка запроса,
+ * поэтому у каждого инстанса он должен быть свой: иначе ответ попадает тому, кому досталась партиция.
+ * <p>
+ * Имя строится из стабильного order.instance-id (например, порядковый номер pod-а StatefulSet): после
+ * рестарта инстанс читает тот же топик и подхватывает ответы, отправленные до рестарта. Имя хоста
+ * для этого не годится — pod Deployment-а получает новое имя на каждом деплое, и топики копятся, —
+ * поэтому без instance-id старт падает; запасной вариант по имени хоста разрешён только в профиле dev.
+ */
+public record ReplyTopic(String name) {
+
+    static final String PREFIX = "product-reserve-response-";
+
+    public static ReplyTopic of(String configuredTopic, String instanceId, boolean dev) {
+        if (configuredTopic != null && !configuredTopic.isBlank())
+            return new ReplyTopic(configuredTopic);
+        String id = instanceId;
+        if (id == null || id.isBlank()) {
+            if (!dev)
+                throw new IllegalStateException("order.instance-id is required: set a stable id per replica "
+                        + "(e.g. the StatefulSet ordinal) so that replies survive restarts, or set order.reply.topic");
+            id = hostName();
+        }
+        // в имени топика допустимы только [a-zA-Z0-9._-]
+        return new ReplyTopic(PREFIX + id.replaceAll("[^a-zA-Z0-9._-]", "_"));
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return UUID.randomUUID().toString();
+        }
+    }
+}
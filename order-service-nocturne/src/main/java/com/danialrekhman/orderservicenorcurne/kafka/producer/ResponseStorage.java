@@ -1,21 +1,212 @@
 package com.danialrekhman.orderservicenorcurne.kafka.producer;
 
-import com.danialrekhman.commonevents.ProductCheckMessage;
+import com.danialrekhman.commonevents.ProductReservationMessage;
+import com.danialrekhman.orderservicenorcurne.exception.TooManyPendingReservationsException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.Iterator;
 import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Реестр запросов на резервирование, ожидающих ответа от product-service.
+ * <p>
+ * Просроченные записи снимаются hashed-wheel таймером: одна нить раз в {@link #TICK_MS}
+ * обходит только «свою» ячейку колеса, а не всю map. После таймаута запись ещё
+ * {@code timeoutMs} живёт как tombstone, чтобы отличить опоздавший ответ от чужого.
+ * <p>
+ * Асинхронное оформление регистрирует запрос без future ({@link #registerAsync}): он занимает место в
+ * лимите max-pending до ответа или таймаута, а сам ответ обрабатывает заказ.
+ */
+@Slf4j
 @Component
 public class ResponseStorage {
-    private final Map<String, CompletableFuture<ProductCheckMessage>> waiting = new ConcurrentHashMap<>();
-    public void register(String id, CompletableFuture<ProductCheckMessage> future) {
-        waiting.put(id, future);
+
+    public enum Outcome {
+        COMPLETED,  // ответ отдан ожидающему future
+        LATE,       // ответ пришёл после таймаута, future уже завершён с ошибкой
+        ASYNC,      // асинхронный запрос: ответ применяется к заказу, в том числе опоздавший
+        UNKNOWN     // в этом инстансе такой запрос не регистрировался
+    }
+
+    static final long TICK_MS = 50;
+    private static final int WHEEL_SIZE = 128; // степень двойки, один оборот = 6.4 c
+
+    private final Map<String, Entry> waiting = new ConcurrentHashMap<>();
+    private final Map<String, Entry> expired = new ConcurrentHashMap<>();
+    @SuppressWarnings("unchecked")
+    private final Queue<Entry>[] wheel = new Queue[WHEEL_SIZE];
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ScheduledExecutorService ticker;
+    private long lastTick;
+
+    private final long timeoutMs;
+    private final int maxPending;
+
+    private final Counter expiredCounter;
+    private final Counter lateCounter;
+    private final Counter rejectedCounter;
+    private final Timer roundTrip;
+
+    public ResponseStorage(MeterRegistry registry,
+                           @Value("${order.reservation.timeout-ms:3000}") long timeoutMs,
+                           @Value("${order.reservation.max-pending:10000}") int maxPending) {
+        this.timeoutMs = timeoutMs;
+        this.maxPending = maxPending;
+        for (int i = 0; i < WHEEL_SIZE; i++)
+            wheel[i] = new ConcurrentLinkedQueue<>();
+
+        Gauge.builder("order.reservation.pending", pending, AtomicInteger::get)
+                .description("Reservation requests waiting for a reply")
+                .register(registry);
+        expiredCounter = Counter.builder("order.reservation.expired")
+                .description("Reservation requests that timed out without a reply")
+                .register(registry);
+        lateCounter = Counter.builder("order.reservation.late.replies")
+                .description("Replies that arrived after their request had expired")
+                .register(registry);
+        rejectedCounter = Counter.builder("order.reservation.rejected")
+                .description("Requests rejected because max-pending was reached")
+                .register(registry);
+        roundTrip = Timer.builder("order.reservation.round.trip")
+                .description("Time from request registration to reply")
+                .publishPercentileHistogram()
+                .register(registry);
+
+        lastTick = System.currentTimeMillis() / TICK_MS;
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "reservation-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        ticker.scheduleAtFixedRate(this::advance, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
     }
-    public void complete(String id, ProductCheckMessage resp) {
-        Optional.ofNullable(waiting.remove(id)).ifPresent(f -> f.complete(resp));
+
+    public void register(String id, CompletableFuture<ProductReservationMessage> future) {
+        admit(id, future);
     }
-}
 
+    public void registerAsync(String id) {
+        admit(id, null);
+    }
+
+    // Заказ так и не отправлен (не сохранился): место освобождается сразу, запись колеса снимет тик
+    public void cancel(String id) {
+        if (waiting.remove(id) != null)
+            pending.decrementAndGet();
+    }
+
+    private void admit(String id, CompletableFuture<ProductReservationMessage> future) {
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            rejectedCounter.increment();
+            throw new TooManyPendingReservationsException(
+                    "Too many orders are waiting for stock reservation, try again later.");
+        }
+        Entry entry = new Entry(id, future, System.nanoTime(), System.currentTimeMillis() + timeoutMs);
+        waiting.put(id, entry);
+        schedule(entry);
+    }
+
+    public Outcome complete(String id, ProductReservationMessage resp) {
+        Entry entry = waiting.remove(id);
+        if (entry != null) {
+            pending.decrementAndGet();
+            roundTrip.record(System.nanoTime() - entry.startNanos, TimeUnit.NANOSECONDS);
+            if (entry.future == null)
+                return Outcome.ASYNC;
+            entry.future.complete(resp);
+            return Outcome.COMPLETED;
+        }
+        if (expired.remove(id) != null) {
+            lateCounter.increment();
+            return Outcome.LATE;
+        }
+        return Outcome.UNKNOWN;
+    }
+
+    public int pendingCount() {
+        return pending.get();
+    }
+
+    // Ячейка следующего после дедлайна тика: к её обходу дедлайн гарантированно наступил
+    private void schedule(Entry entry) {
+        wheel[(int) ((entry.deadlineMs / TICK_MS + 1) & (WHEEL_SIZE - 1))].add(entry);
+    }
+
+    // Если нить задержалась, догоняем все пропущенные ячейки
+    void advance() {
+        try {
+            long now = System.currentTimeMillis();
+            long currentTick = now / TICK_MS;
+            long from = Math.max(lastTick + 1, currentTick - WHEEL_SIZE + 1);
+            for (long t = from; t <= currentTick; t++)
+                expireBucket(wheel[(int) (t & (WHEEL_SIZE - 1))], now);
+            lastTick = currentTick;
+        } catch (Exception e) {
+            log.error("Reservation expiry tick failed", e);
+        }
+    }
+
+    private void expireBucket(Queue<Entry> bucket, long now) {
+        Iterator<Entry> it = bucket.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.tombstone) {
+                if (entry.deadlineMs <= now) {
+                    it.remove();
+                    expired.remove(entry.id, entry);
+                }
+            } else if (waiting.get(entry.id) != entry) {
+                it.remove(); // ответ уже получен
+            } else if (entry.deadlineMs <= now) {
+                it.remove();
+                if (waiting.remove(entry.id, entry)) {
+                    pending.decrementAndGet();
+                    expiredCounter.increment();
+                    // асинхронный заказ ждёт ответа дольше (order.placement.pending-timeout-seconds),
+                    // таймаут лишь освобождает место в лимите
+                    if (entry.future == null)
+                        continue;
+                    // tombstone ставим до завершения future, иначе ответ, пришедший сразу
+                    // после таймаута, ещё не будет опознан как LATE
+                    entry.tombstone = true;
+                    entry.deadlineMs = now + timeoutMs;
+                    expired.put(entry.id, entry);
+                    schedule(entry);
+                    entry.future.completeExceptionally(
+                            new TimeoutException("No reservation reply for " + entry.id + " within " + timeoutMs + " ms"));
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    private static final class Entry {
+        final String id;
+        final CompletableFuture<ProductReservationMessage> future;
+        final long startNanos;
+        volatile long deadlineMs;
+        volatile boolean tombstone;
+
+        Entry(String id, CompletableFuture<ProductReservationMessage> future, long startNanos, long deadlineMs) {
+            this.id = id;
+            this.future = future;
+            this.startNanos = startNanos;
+            this.deadlineMs = deadlineMs;
+        }
+    }
+}
@@ -4,6 +4,8 @@ import com.danialrekhman.orderservicenorcurne.dto.OrderItemRequestDTO;
 import com.danialrekhman.orderservicenorcurne.dto.OrderItemResponseDTO;
 import com.danialrekhman.orderservicenorcurne.dto.OrderRequestDTO;
 import com.danialrekhman.orderservicenorcurne.dto.OrderResponseDTO;
+import com.danialrekhman.orderservicenorcurne.dto.OrderStatusResponseDTO;
+import com.danialrekhman.orderservicenorcurne.dto.OrderSummaryDTO;
 import com.danialrekhman.orderservicenorcurne.model.Order;
 import com.danialrekhman.orderservicenorcurne.model.OrderItem;
 import com.danialrekhman.orderservicenorcurne.model.OrderStatus;
@@ -25,6 +27,26 @@ public class OrderMapper {
                         .map(this::toDto)
                         .toList())
                 .totalPrice(order.getTotalPrice())
+                .itemCount(order.getItemCount())
+                .build();
+    }
+
+    public OrderSummaryDTO toSummaryDto(Order order) {
+        return OrderSummaryDTO.builder()
+                .id(order.getId())
+                .userEmail(order.getUserEmail())
+                .orderDate(order.getOrderDate())
+                .status(order.getStatus())
+                .totalPrice(order.getTotalPrice())
+                .itemCount(order.getItemCount())
+                .build();
+    }
+
+    // Не трогает items, чтобы опрос статуса не подгружал позиции заказа
+    public OrderStatusResponseDTO toStatusDto(Order order) {
+        return OrderStatusResponseDTO.builder()
+                .id(order.getId())
+                .status(order.getStatus())
                 .build();
     }
 
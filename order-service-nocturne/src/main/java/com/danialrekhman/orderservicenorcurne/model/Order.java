@@ -3,6 +3,7 @@ package com.danialrekhman.orderservicenorcurne.model;
 import jakarta.persistence.*;
 import lombok.*;
 import lombok.experimental.FieldDefaults;
+import org.hibernate.annotations.DynamicUpdate;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -10,7 +11,12 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "order_table")
+@Table(name = "order_table", indexes = {
+        @Index(name = "idx_order_date_id", columnList = "order_date, id"),
+        @Index(name = "idx_order_user_date_id", columnList = "user_email, order_date, id")
+})
+// UPDATE пишет только изменённые колонки: смена статуса не перетирает итоги, поправленные adjustTotals
+@DynamicUpdate
 @Builder
 @Getter
 @Setter
@@ -33,13 +39,28 @@ public class Order {
     @Enumerated(EnumType.STRING)
     OrderStatus status;
 
+    // correlationId запроса на резервирование, по нему listener находит заказ
+    @Column(unique = true)
+    String reservationId;
+
     @OneToMany(mappedBy = "order", cascade = CascadeType.ALL)
     List<OrderItem> items = new ArrayList<>();
 
-    @Transient
-    public BigDecimal getTotalPrice() {
-        return items.stream()
+    // Денормализованные сумма и число позиций: заголовки заказов отдаются без загрузки order_item.
+    // Поддерживаются OrderServiceImpl при оформлении и OrderItemServiceImpl при изменении позиций
+    @Builder.Default
+    @Column(nullable = false, precision = 19, scale = 2, columnDefinition = "numeric(19,2) default 0 not null")
+    BigDecimal totalPrice = BigDecimal.ZERO;
+
+    @Column(nullable = false, columnDefinition = "integer default 0 not null")
+    int itemCount;
+
+    // Пересчёт по загруженным позициям; позиции без цены (ещё не зарезервированные) считаются нулём
+    public void recalculateTotals() {
+        totalPrice = items.stream()
+                .filter(item -> item.getPriceAtOrder() != null)
                 .map(item -> item.getPriceAtOrder().multiply(BigDecimal.valueOf(item.getQuantity())))
                 .reduce(BigDecimal.ZERO, BigDecimal::add);
+        itemCount = items.size();
     }
 }
@@ -7,7 +7,7 @@ import lombok.experimental.FieldDefaults;
 import java.math.BigDecimal;
 
 @Entity
-@Table(name = "order_item")
+@Table(name = "order_item", indexes = @Index(name = "idx_order_item_order_id", columnList = "order_id"))
 @Builder
 @Getter
 @Setter
@@ -1,6 +1,7 @@
 package com.danialrekhman.orderservicenorcurne.model;
 
 public enum OrderStatus {
+    PENDING_RESERVATION, // Accepted, waiting for product-service to reserve stock
     NEW,                // New order just placed
     WAITING_FOR_PAYMENT,   // Waiting for payment (e.g. manual payment)
     PAID,               // Payment received, waiting for processing
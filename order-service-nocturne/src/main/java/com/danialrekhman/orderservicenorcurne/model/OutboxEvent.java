@@ -0,0 +1,36 @@
+package com.danialrekhman.orderservicenorcurne.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.time.LocalDateTime;
+
+// Событие, записанное в одной транзакции с заказом; в Kafka его отправляет OutboxRelay
+@Entity
+@Table(name = "order_outbox", indexes = @Index(name = "idx_order_outbox_pending", columnList = "sent_at, id"))
+@Builder
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class OutboxEvent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    Long id;
+
+    @Column(nullable = false)
+    String topic;
+
+    String eventKey;
+
+    @Column(nullable = false, columnDefinition = "text")
+    String payload;
+
+    @Column(nullable = false)
+    LocalDateTime createdAt;
+
+    LocalDateTime sentAt;
+}
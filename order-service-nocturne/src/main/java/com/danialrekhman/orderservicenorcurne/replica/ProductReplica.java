@@ -0,0 +1,265 @@
+package com.danialrekhman.orderservicenorcurne.replica;
+
+import com.danialrekhman.commonevents.ProductSnapshotEvent;
+import com.danialrekhman.commonevents.StockLevel;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.support.serializer.SerializationUtils;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Локальная копия цен и доступности товаров, собранная из log-compacted топика product-snapshots.
+ * <p>
+ * Хранится в open-addressing таблице на примитивных массивах (id, цена в копейках, байт состояния):
+ * на товар ~17 байт без объектов и боксинга, поэтому миллион товаров проигрывается и держится в памяти
+ * без нагрузки на GC. Пишет одна нить листенера, читатели идут оптимистичным чтением {@link StampedLock}
+ * и берут read lock, только если попали на запись.
+ * <p>
+ * При назначении партиций реплика перематывает их в начало и запоминает конец; до того, как листенер
+ * дочитал до него все партиции, {@link #isReady()} false и реплика не используется для отказов.
+ */
+@Slf4j
+@Component
+public class ProductReplica implements ConsumerAwareRebalanceListener {
+
+    public record ProductView(long productId, BigDecimal price, boolean available, StockLevel stockLevel) {
+    }
+
+    private static final int INITIAL_CAPACITY = 1024; // степень двойки
+    private static final long NO_PRICE = Long.MIN_VALUE;
+    private static final StockLevel[] LEVELS = StockLevel.values();
+
+    // массивы одной таблицы всегда одной длины: resize подменяет таблицу целиком
+    private static final class Table {
+        final long[] keys;     // 0 — пустая ячейка, id товаров положительные
+        final long[] prices;   // цена в копейках
+        final byte[] states;   // бит 0 — available, остальные — ordinal StockLevel
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            prices = new long[capacity];
+            states = new byte[capacity];
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private Table table = new Table(INITIAL_CAPACITY);
+    private int size;
+
+    // партиция -> offset, до которого нужно дочитать при старте
+    private final Map<TopicPartition, Long> replayTargets = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+    private long replayStarted;
+    private final Timer replayTimer;
+
+    public ProductReplica(MeterRegistry registry) {
+        Gauge.builder("order.product-replica.size", this, ProductReplica::size)
+                .description("Products held in the local product replica")
+                .register(registry);
+        Gauge.builder("order.product-replica.ready", this, replica -> replica.ready ? 1 : 0)
+                .description("1 once the product-snapshots topic has been replayed")
+                .register(registry);
+        replayTimer = Timer.builder("order.product-replica.replay")
+                .description("Time to replay the product-snapshots topic from the beginning")
+                .register(registry);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public Optional<ProductView> find(long productId) {
+        if (productId <= 0)
+            return Optional.empty();
+        long stamp = lock.tryOptimisticRead();
+        Table current = table;
+        int slot = slot(current.keys, productId);
+        long price = slot >= 0 ? current.prices[slot] : 0;
+        byte state = slot >= 0 ? current.states[slot] : 0;
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                current = table;
+                slot = slot(current.keys, productId);
+                price = slot >= 0 ? current.prices[slot] : 0;
+                state = slot >= 0 ? current.states[slot] : 0;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        if (slot < 0)
+            return Optional.empty();
+        return Optional.of(new ProductView(productId,
+                price == NO_PRICE ? null : BigDecimal.valueOf(price, 2),
+                (state & 1) != 0,
+                LEVELS[state >> 1]));
+    }
+
+    // Пачка записей топика под одним write lock; tombstone (null без ошибки десериализации) удаляет товар
+    public void apply(List<ConsumerRecord<String, ProductSnapshotEvent>> records) {
+        long stamp = lock.writeLock();
+        try {
+            for (ConsumerRecord<String, ProductSnapshotEvent> record : records) {
+                long productId = productId(record);
+                if (productId <= 0)
+                    continue;
+                ProductSnapshotEvent snapshot = record.value();
+                if (snapshot != null)
+                    put(productId, cents(snapshot.getPrice()), state(snapshot));
+                else
+                    remove(productId);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        // после первой загрузки реплика догоняет топик с закоммиченных offset-ов
+        if (ready)
+            return;
+        replayStarted = System.nanoTime();
+        consumer.seekToBeginning(partitions);
+        Map<TopicPartition, Long> beginning = consumer.beginningOffsets(partitions);
+        consumer.endOffsets(partitions).forEach((partition, end) -> {
+            if (end > beginning.getOrDefault(partition, 0L))
+                replayTargets.put(partition, end);
+        });
+        if (replayTargets.isEmpty())
+            markReady();
+    }
+
+    // Вызывается листенером после каждой пачки, пока реплика не загружена
+    public void replayed(Consumer<?, ?> consumer) {
+        if (ready)
+            return;
+        replayTargets.entrySet().removeIf(target -> consumer.position(target.getKey()) >= target.getValue());
+        if (replayTargets.isEmpty())
+            markReady();
+    }
+
+    private void markReady() {
+        long elapsed = System.nanoTime() - replayStarted;
+        replayTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        ready = true;
+        log.info("Product replica loaded {} products in {} ms", size(), elapsed / 1_000_000);
+    }
+
+    private static long productId(ConsumerRecord<String, ProductSnapshotEvent> record) {
+        if (record.value() == null
+                && record.headers().lastHeader(SerializationUtils.VALUE_DESERIALIZER_EXCEPTION_HEADER) != null) {
+            log.warn("Skipping unreadable product snapshot at {}-{}@{}", record.topic(), record.partition(), record.offset());
+            return 0;
+        }
+        try {
+            return Long.parseLong(record.key());
+        } catch (NumberFormatException e) {
+            log.warn("Skipping product snapshot with key '{}' at {}-{}@{}",
+                    record.key(), record.topic(), record.partition(), record.offset());
+            return 0;
+        }
+    }
+
+    private static long cents(BigDecimal price) {
+        return price == null ? NO_PRICE : price.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    private static byte state(ProductSnapshotEvent snapshot) {
+        StockLevel level = snapshot.getStockLevel() == null ? StockLevel.OUT_OF_STOCK : snapshot.getStockLevel();
+        return (byte) (level.ordinal() << 1 | (snapshot.isAvailable() ? 1 : 0));
+    }
+
+    private static int hash(long key) {
+        int h = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    // Индекс ячейки с ключом или -1. Число проб ограничено: при оптимистичном чтении таблица может
+    // меняться под читателем, результат тогда отбросит validate
+    private static int slot(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            long k = keys[i];
+            if (k == key)
+                return i;
+            if (k == 0)
+                return -1;
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void put(long key, long price, byte state) {
+        if ((size + 1) * 2 > table.keys.length)
+            resize(table.keys.length * 2);
+        long[] keys = table.keys;
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (keys[i] != 0 && keys[i] != key)
+            i = (i + 1) & mask;
+        if (keys[i] == 0) {
+            keys[i] = key;
+            size++;
+        }
+        table.prices[i] = price;
+        table.states[i] = state;
+    }
+
+    // Удаление со сдвигом назад: цепочки проб остаются без дыр, tombstone-ячейки не нужны
+    private void remove(long key) {
+        Table t = table;
+        int hole = slot(t.keys, key);
+        if (hole < 0)
+            return;
+        int mask = t.keys.length - 1;
+        int i = (hole + 1) & mask;
+        while (t.keys[i] != 0) {
+            int home = hash(t.keys[i]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                t.keys[hole] = t.keys[i];
+                t.prices[hole] = t.prices[i];
+                t.states[hole] = t.states[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        t.keys[hole] = 0;
+        t.prices[hole] = 0;
+        t.states[hole] = 0;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        Table old = table;
+        table = new Table(capacity);
+        size = 0;
+        for (int i = 0; i < old.keys.length; i++) {
+            if (old.keys[i] != 0)
+                put(old.keys[i], old.prices[i], old.states[i]);
+        }
+    }
+}
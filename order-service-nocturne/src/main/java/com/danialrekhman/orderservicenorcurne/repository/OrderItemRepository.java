@@ -1,9 +1,12 @@
 package com.danialrekhman.orderservicenorcurne.repository;
 
 import com.danialrekhman.orderservicenorcurne.model.OrderItem;
+import jakarta.persistence.LockModeType;
 import jakarta.transaction.Transactional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -12,6 +15,12 @@ import java.util.Optional;
 @Repository
 public interface OrderItemRepository extends JpaRepository<OrderItem, Long> {
 
+    // Строка позиции блокируется до конца транзакции: параллельные изменения одной позиции
+    // считают дельту итогов заказа по очереди, а не от одного и того же старого количества
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select oi from OrderItem oi where oi.id = :id")
+    Optional<OrderItem> findByIdForUpdate(@Param("id") Long id);
+
     // Найти все товары в конкретном заказе
     List<OrderItem> findAllByOrderId(Long orderId);
 
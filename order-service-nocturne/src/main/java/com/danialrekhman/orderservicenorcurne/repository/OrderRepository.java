@@ -1,15 +1,26 @@
 package com.danialrekhman.orderservicenorcurne.repository;
 
+import com.danialrekhman.orderservicenorcurne.dto.OrderExportRow;
 import com.danialrekhman.orderservicenorcurne.model.Order;
 import com.danialrekhman.orderservicenorcurne.model.OrderStatus;
+import jakarta.persistence.QueryHint;
 import jakarta.transaction.Transactional;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface OrderRepository extends JpaRepository<Order, Long> {
@@ -20,11 +31,110 @@ public interface OrderRepository extends JpaRepository<Order, Long> {
 
     List<Order> findAllByUserEmailOrderByOrderDateDesc(String userEmail);
 
+    // Keyset-пагинация по (orderDate desc, id desc): страница на любой глубине читается
+    // по индексу без OFFSET. Позиции подгружаются отдельно через findAllWithItemsByIdIn
+    @Query("select o from Order o order by o.orderDate desc, o.id desc")
+    List<Order> findFirstPage(Limit limit);
+
+    @Query("""
+            select o from Order o
+            where o.orderDate < :orderDate or (o.orderDate = :orderDate and o.id < :id)
+            order by o.orderDate desc, o.id desc""")
+    List<Order> findPageAfter(@Param("orderDate") LocalDateTime orderDate, @Param("id") Long id, Limit limit);
+
+    @Query("select o from Order o where o.userEmail = :email order by o.orderDate desc, o.id desc")
+    List<Order> findFirstPageByUserEmail(@Param("email") String email, Limit limit);
+
+    @Query("""
+            select o from Order o
+            where o.userEmail = :email
+              and (o.orderDate < :orderDate or (o.orderDate = :orderDate and o.id < :id))
+            order by o.orderDate desc, o.id desc""")
+    List<Order> findPageAfterByUserEmail(@Param("email") String email, @Param("orderDate") LocalDateTime orderDate,
+                                         @Param("id") Long id, Limit limit);
+
+    // Потоковая выгрузка: курсор БД читается порциями по fetch size, строки не копятся в памяти.
+    // Работает только внутри транзакции (иначе PostgreSQL JDBC вычитывает весь результат сразу)
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("""
+            select new com.danialrekhman.orderservicenorcurne.dto.OrderExportRow(
+                o.id, o.userEmail, o.orderDate, o.status, o.totalPrice, o.itemCount, i.id, i.productId, i.quantity, i.priceAtOrder)
+            from Order o left join o.items i
+            where o.orderDate >= :from and o.orderDate < :to and o.status in :statuses
+            order by o.orderDate, o.id, i.id""")
+    Stream<OrderExportRow> streamForExport(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to,
+                                           @Param("statuses") Collection<OrderStatus> statuses);
+
+    // Одним запросом подтягивает позиции для страницы заказов (вместо N+1 в OrderMapper)
+    @EntityGraph(attributePaths = "items")
+    @Query("select o from Order o where o.id in :ids")
+    List<Order> findAllWithItemsByIdIn(@Param("ids") Collection<Long> ids);
+
     @Query("select o.userEmail from Order o where o.id = :orderId")
     Optional<String> findUserEmailById(Long orderId);
     
     List<Order> findAllByStatus(OrderStatus status);
 
+    Optional<Order> findByReservationId(String reservationId);
+
+    // Заказы, на которые так и не пришёл ответ о резервировании
+    @Modifying
+    @Transactional
+    @Query("update Order o set o.status = :failed where o.status = :pending and o.orderDate < :cutoff")
+    int failStalePending(@Param("pending") OrderStatus pending,
+                         @Param("failed") OrderStatus failed,
+                         @Param("cutoff") LocalDateTime cutoff);
+
+    @Query("select o.status from Order o where o.id = :id")
+    Optional<OrderStatus> findStatusById(@Param("id") Long id);
+
+    // Переход только из ожидаемого статуса: параллельный свипер или отмена не перетираются
+    @Modifying
+    @Transactional
+    @Query("update Order o set o.status = :to where o.id = :id and o.status = :from")
+    int transitionStatus(@Param("id") Long id, @Param("from") OrderStatus from, @Param("to") OrderStatus to);
+
+    // Резерв истёк до подтверждения и не восстановлен: FAILED только из статусов, где деньги ещё не получены
+    @Modifying
+    @Transactional
+    @Query("update Order o set o.status = :failed where o.reservationId = :reservationId and o.status in :from")
+    int failByReservationId(@Param("reservationId") String reservationId,
+                            @Param("from") Collection<OrderStatus> from,
+                            @Param("failed") OrderStatus failed);
+
+    // Статус меняется только у заказов в одном из статусов from: переупорядоченные события не откатывают заказ назад
+    @Modifying
+    @Transactional
+    @Query("update Order o set o.status = :status where o.id in :ids and o.status in :from")
+    int updateStatusByIdIn(@Param("ids") Collection<Long> ids,
+                           @Param("from") Collection<OrderStatus> from,
+                           @Param("status") OrderStatus status);
+
+    // Атомарная поправка денормализованных итогов при изменении позиций: без read-modify-write,
+    // поэтому параллельные изменения позиций одного заказа не теряют друг друга
+    @Modifying
+    @Transactional
+    @Query("update Order o set o.totalPrice = o.totalPrice + :amount, o.itemCount = o.itemCount + :count where o.id = :orderId")
+    int adjustTotals(@Param("orderId") Long orderId, @Param("amount") BigDecimal amount, @Param("count") int count);
+
+    @Modifying
+    @Transactional
+    @Query("update Order o set o.totalPrice = 0, o.itemCount = 0 where o.id = :orderId")
+    int resetTotals(@Param("orderId") Long orderId);
+
+    // Разовое заполнение итогов для заказов, созданных до появления колонок
+    @Modifying
+    @Transactional
+    @Query(value = """
+            update order_table o set total_price = s.total, item_count = s.cnt
+            from (select order_id, sum(price_at_order * quantity) as total, count(*) as cnt
+                  from order_item group by order_id) s
+            where s.order_id = o.id""", nativeQuery = true)
+    int recalculateAllTotals();
+
     // Получить заказы, созданные после определенной даты
     List<Order> findAllByOrderDateAfter(LocalDateTime orderDateAfter);
 
@@ -0,0 +1,32 @@
+package com.danialrekhman.orderservicenorcurne.repository;
+
+import com.danialrekhman.orderservicenorcurne.model.OutboxEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    // SKIP LOCKED: несколько инстансов relay разбирают outbox параллельно, не блокируя друг друга
+    @Query(value = "select * from order_outbox where sent_at is null order by id limit :limit for update skip locked",
+            nativeQuery = true)
+    List<OutboxEvent> lockNextBatch(@Param("limit") int limit);
+
+    @Modifying
+    @Query("update OutboxEvent e set e.sentAt = :sentAt where e.id in :ids")
+    int markSent(@Param("ids") Collection<Long> ids, @Param("sentAt") LocalDateTime sentAt);
+
+    @Query("select min(e.createdAt) from OutboxEvent e where e.sentAt is null")
+    LocalDateTime findOldestPendingCreatedAt();
+
+    @Modifying
+    @Query("delete from OutboxEvent e where e.sentAt < :cutoff")
+    int deleteSentBefore(@Param("cutoff") LocalDateTime cutoff);
+}
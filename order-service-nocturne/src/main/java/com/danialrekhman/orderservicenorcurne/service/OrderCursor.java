@@ -0,0 +1,42 @@
+package com.danialrekhman.orderservicenorcurne.service;
+
+import com.danialrekhman.orderservicenorcurne.exception.InvalidCursorException;
+import com.danialrekhman.orderservicenorcurne.model.Order;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Позиция в списке заказов, отсортированном по (orderDate desc, id desc).
+ * Клиенту отдаётся непрозрачной base64url-строкой, следующая страница начинается строго после неё.
+ */
+record OrderCursor(LocalDateTime orderDate, Long id) {
+
+    private static final char SEPARATOR = '|';
+
+    static OrderCursor of(Order order) {
+        return new OrderCursor(order.getOrderDate(), order.getId());
+    }
+
+    String encode() {
+        String raw = orderDate.toString() + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // null или пустая строка — первая страница
+    static OrderCursor decode(String token) {
+        if (token == null || token.isBlank())
+            return null;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int sep = raw.lastIndexOf(SEPARATOR);
+            if (sep < 0)
+                throw new InvalidCursorException("Malformed cursor: " + token);
+            return new OrderCursor(LocalDateTime.parse(raw.substring(0, sep)), Long.parseLong(raw.substring(sep + 1)));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new InvalidCursorException("Malformed cursor: " + token);
+        }
+    }
+}
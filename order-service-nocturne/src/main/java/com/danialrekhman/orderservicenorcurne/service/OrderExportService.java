@@ -0,0 +1,15 @@
+package com.danialrekhman.orderservicenorcurne.service;
+
+import com.danialrekhman.orderservicenorcurne.dto.ExportFormat;
+import com.danialrekhman.orderservicenorcurne.model.OrderStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.time.LocalDateTime;
+
+public interface OrderExportService {
+
+    // Права проверяются сразу, сама выгрузка идёт при записи тела ответа
+    StreamingResponseBody exportOrders(LocalDateTime from, LocalDateTime to, OrderStatus status,
+                                       ExportFormat format, Authentication authentication);
+}
@@ -0,0 +1,199 @@
+package com.danialrekhman.orderservicenorcurne.service;
+
+import com.danialrekhman.orderservicenorcurne.dto.ExportFormat;
+import com.danialrekhman.orderservicenorcurne.dto.OrderExportRow;
+import com.danialrekhman.orderservicenorcurne.dto.OrderItemResponseDTO;
+import com.danialrekhman.orderservicenorcurne.dto.OrderResponseDTO;
+import com.danialrekhman.orderservicenorcurne.exception.CustomAccessDeniedException;
+import com.danialrekhman.orderservicenorcurne.model.OrderStatus;
+import com.danialrekhman.orderservicenorcurne.repository.OrderRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+@Service
+@Slf4j
+public class OrderExportServiceImpl implements OrderExportService {
+
+    private static final LocalDateTime MIN_DATE = LocalDateTime.of(1970, 1, 1, 0, 0);
+    private static final LocalDateTime MAX_DATE = LocalDateTime.of(9999, 12, 31, 0, 0);
+    private static final int WRITE_BUFFER_CHARS = 64 * 1024;
+
+    private final OrderRepository orderRepository;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate readOnlyTransaction;
+
+    public OrderExportServiceImpl(OrderRepository orderRepository, ObjectMapper objectMapper,
+                                  PlatformTransactionManager transactionManager) {
+        this.orderRepository = orderRepository;
+        this.objectMapper = objectMapper;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    @Override
+    public StreamingResponseBody exportOrders(LocalDateTime from, LocalDateTime to, OrderStatus status,
+                                              ExportFormat format, Authentication authentication) {
+        if (!isAdmin(authentication))
+            throw new CustomAccessDeniedException("Only admin can export orders.");
+
+        LocalDateTime fromDate = from != null ? from : MIN_DATE;
+        LocalDateTime toDate = to != null ? to : MAX_DATE;
+        Set<OrderStatus> statuses = status != null ? EnumSet.of(status) : EnumSet.allOf(OrderStatus.class);
+
+        // Транзакция открывается в потоке, который пишет ответ: курсор БД живёт ровно столько, сколько идёт выгрузка
+        return out -> readOnlyTransaction.executeWithoutResult(tx -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITE_BUFFER_CHARS);
+            RowWriter rowWriter = format == ExportFormat.CSV ? new CsvRowWriter(writer) : new NdjsonRowWriter(writer, objectMapper);
+            try (Stream<OrderExportRow> rows = orderRepository.streamForExport(fromDate, toDate, statuses)) {
+                rowWriter.begin();
+                rows.forEach(rowWriter::write);
+                rowWriter.end();
+                writer.flush();
+                log.info("Exported {} orders as {}", rowWriter.orders(), format);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Order export aborted", e);
+            }
+        });
+    }
+
+    private boolean isAdmin(Authentication authentication) {
+        return authentication.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority)
+                .anyMatch(role -> role.equals("ROLE_ADMIN"));
+    }
+
+    // Строки приходят отсортированными по заказу, поэтому заказ собирается из соседних строк
+    private abstract static class RowWriter {
+        final Writer out;
+        long orders;
+
+        RowWriter(Writer out) {
+            this.out = out;
+        }
+
+        void begin() throws IOException {
+        }
+
+        abstract void write(OrderExportRow row);
+
+        void end() throws IOException {
+        }
+
+        long orders() {
+            return orders;
+        }
+    }
+
+    // Одна строка CSV на позицию заказа
+    private static final class CsvRowWriter extends RowWriter {
+        private Long currentOrderId;
+
+        CsvRowWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        void begin() throws IOException {
+            out.write("orderId,userEmail,orderDate,status,itemId,productId,quantity,priceAtOrder\n");
+        }
+
+        @Override
+        void write(OrderExportRow row) {
+            if (!row.getOrderId().equals(currentOrderId)) {
+                currentOrderId = row.getOrderId();
+                orders++;
+            }
+            try {
+                out.write(row.getOrderId() + ","
+                        + escape(row.getUserEmail()) + ","
+                        + row.getOrderDate() + ","
+                        + row.getStatus() + ","
+                        + nullToEmpty(row.getItemId()) + ","
+                        + nullToEmpty(row.getProductId()) + ","
+                        + nullToEmpty(row.getQuantity()) + ","
+                        + (row.getPriceAtOrder() == null ? "" : row.getPriceAtOrder().toPlainString()) + "\n");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static String nullToEmpty(Object value) {
+            return value == null ? "" : value.toString();
+        }
+
+        private static String escape(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+                return value;
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+    }
+
+    // Один JSON-объект на заказ в формате OrderResponseDTO
+    private static final class NdjsonRowWriter extends RowWriter {
+        private final ObjectMapper objectMapper;
+        private OrderExportRow head;
+        private final List<OrderItemResponseDTO> items = new ArrayList<>();
+
+        NdjsonRowWriter(Writer out, ObjectMapper objectMapper) {
+            super(out);
+            this.objectMapper = objectMapper;
+        }
+
+        @Override
+        void write(OrderExportRow row) {
+            if (head != null && !head.getOrderId().equals(row.getOrderId()))
+                flushOrder();
+            if (head == null)
+                head = row;
+            if (row.getItemId() != null)
+                items.add(OrderItemResponseDTO.builder()
+                        .id(row.getItemId())
+                        .productId(row.getProductId())
+                        .quantity(row.getQuantity())
+                        .priceAtOrder(row.getPriceAtOrder())
+                        .build());
+        }
+
+        @Override
+        void end() {
+            if (head != null)
+                flushOrder();
+        }
+
+        private void flushOrder() {
+            OrderResponseDTO dto = OrderResponseDTO.builder()
+                    .id(head.getOrderId())
+                    .userEmail(head.getUserEmail())
+                    .orderDate(head.getOrderDate())
+                    .status(head.getStatus())
+                    .items(List.copyOf(items))
+                    .totalPrice(head.getTotalPrice())
+                    .itemCount(head.getItemCount())
+                    .build();
+            try {
+                out.write(objectMapper.writeValueAsString(dto));
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            orders++;
+            head = null;
+            items.clear();
+        }
+    }
+}
@@ -14,6 +14,7 @@ import org.springframework.security.core.GrantedAuthority;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
 import java.util.List;
 import java.util.Optional;
 
@@ -39,7 +40,11 @@ public class OrderItemServiceImpl implements OrderItemService {
             throw new InvalidOrderItemDataException("Product ID must be provided.");
         if (item.getQuantity() <= 0)
             throw new InvalidQuantityException("Quantity must be greater than 0.");
-        return orderItemRepository.save(item);
+        if (item.getPriceAtOrder() == null)
+            throw new InvalidOrderItemDataException("Price must be provided.");
+        OrderItem saved = orderItemRepository.save(item);
+        orderRepository.adjustTotals(orderId, lineTotal(saved.getPriceAtOrder(), saved.getQuantity()), 1);
+        return saved;
     }
 
     @Override
@@ -73,7 +78,7 @@ public class OrderItemServiceImpl implements OrderItemService {
     public OrderItem updateOrderItemQuantity(Long orderItemId, int newQuantity, Authentication authentication) {
         if(!isAdmin(authentication))
             throw new CustomAccessDeniedException("You don't have access to update quantity of this order item.");
-        OrderItem orderItem = orderItemRepository.findById(orderItemId)
+        OrderItem orderItem = orderItemRepository.findByIdForUpdate(orderItemId)
                 .orElseThrow(() -> new OrderItemNotFoundException("No order item found with ID: " + orderItemId));
         Order order = orderItem.getOrder();
         if (order == null)
@@ -82,8 +87,12 @@ public class OrderItemServiceImpl implements OrderItemService {
             throw new CustomAccessDeniedException("You don't have access to update this order item.");
         if (newQuantity <= 0)
             throw new InvalidQuantityException("Quantity must be greater than 0.");
+        int delta = newQuantity - orderItem.getQuantity();
         orderItem.setQuantity(newQuantity);
-        return orderItemRepository.save(orderItem);
+        OrderItem saved = orderItemRepository.save(orderItem);
+        if (delta != 0)
+            orderRepository.adjustTotals(order.getId(), lineTotal(orderItem.getPriceAtOrder(), delta), 0);
+        return saved;
     }
 
     @Transactional
@@ -91,7 +100,7 @@ public class OrderItemServiceImpl implements OrderItemService {
     public void deleteOrderItem(Long orderItemId, Authentication authentication) {
         if(!isAdmin(authentication))
             throw new CustomAccessDeniedException("You don't have access to delete this order item.");
-        OrderItem orderItem = orderItemRepository.findById(orderItemId)
+        OrderItem orderItem = orderItemRepository.findByIdForUpdate(orderItemId)
                 .orElseThrow(() -> new OrderItemNotFoundException("No order item found with ID: " + orderItemId));
         Order order = orderItem.getOrder();
         if (order == null)
@@ -99,8 +108,10 @@ public class OrderItemServiceImpl implements OrderItemService {
         if (!isAdmin(authentication) && !order.getUserEmail().equals(authentication.getName()))
             throw new CustomAccessDeniedException("You don't have access to delete this order item.");
         orderItemRepository.deleteById(orderItemId);
+        orderRepository.adjustTotals(order.getId(), lineTotal(orderItem.getPriceAtOrder(), orderItem.getQuantity()).negate(), -1);
     }
 
+    @Transactional
     @Override
     public void deleteItemsByOrderId(Long orderId, Authentication authentication) {
         if(!isAdmin(authentication))
@@ -113,6 +124,11 @@ public class OrderItemServiceImpl implements OrderItemService {
         if (items.isEmpty())
             throw new OrderItemNotFoundException("No items found to delete for order with ID: " + orderId);
         orderItemRepository.deleteByOrderId(orderId);
+        orderRepository.resetTotals(orderId);
+    }
+
+    private BigDecimal lineTotal(BigDecimal price, int quantity) {
+        return price.multiply(BigDecimal.valueOf(quantity));
     }
 
     private boolean isAdmin(Authentication authentication) {
@@ -1,19 +1,20 @@
 package com.danialrekhman.orderservicenorcurne.service;
 
+import com.danialrekhman.orderservicenorcurne.dto.CursorPage;
 import com.danialrekhman.orderservicenorcurne.dto.OrderRequestDTO;
 import com.danialrekhman.orderservicenorcurne.dto.OrderUpdateStatusDTO;
 import com.danialrekhman.orderservicenorcurne.model.Order;
 import org.springframework.security.core.Authentication;
 
-import java.util.List;
-
 public interface OrderService {
 
     Order createOrder(OrderRequestDTO requestDTO, Authentication authentication);
 
     Order getOrderById(Long orderId,  Authentication authentication);
 
-    List<Order> getOrdersByUserEmail(String email, Authentication authentication);
+    CursorPage<Order> getOrdersByUserEmail(String email, String cursor, int size, Authentication authentication);
+
+    CursorPage<Order> getOrderSummariesByUserEmail(String email, String cursor, int size, Authentication authentication);
 
     Order updateOrderStatus(Long orderId, OrderUpdateStatusDTO status, Authentication authentication);
 
@@ -21,7 +22,9 @@ public interface OrderService {
 
     void deleteOrder(Long orderId, Authentication authentication);
 
-    List<Order> getAllOrders(Authentication authentication);
+    CursorPage<Order> getAllOrders(String cursor, int size, Authentication authentication);
+
+    CursorPage<Order> getAllOrderSummaries(String cursor, int size, Authentication authentication);
 
     boolean isOrderPaid(Long orderId, Authentication authentication);
 
@@ -3,9 +3,13 @@ package com.danialrekhman.orderservicenorcurne.service;
 import com.danialrekhman.commonevents.OrderCreatedEvent;
 import com.danialrekhman.commonevents.PaymentFailedEvent;
 import com.danialrekhman.commonevents.PaymentProcessedEvent;
-import com.danialrekhman.commonevents.ProductCheckMessage;
+import com.danialrekhman.commonevents.ProductReservationLine;
+import com.danialrekhman.commonevents.ProductReservationMessage;
+import com.danialrekhman.commonevents.StockLevel;
+import com.danialrekhman.orderservicenorcurne.dto.CursorPage;
 import com.danialrekhman.orderservicenorcurne.dto.OrderItemRequestDTO;
 import com.danialrekhman.orderservicenorcurne.exception.CustomAccessDeniedException;
+import com.danialrekhman.orderservicenorcurne.exception.InvalidOrderItemDataException;
 import com.danialrekhman.orderservicenorcurne.exception.OrderCancellationException;
 import com.danialrekhman.orderservicenorcurne.exception.OrderNotFoundException;
 import com.danialrekhman.orderservicenorcurne.kafka.producer.OrderEventProducer;
@@ -15,96 +19,252 @@ import com.danialrekhman.orderservicenorcurne.dto.OrderUpdateStatusDTO;
 import com.danialrekhman.orderservicenorcurne.model.Order;
 import com.danialrekhman.orderservicenorcurne.model.OrderItem;
 import com.danialrekhman.orderservicenorcurne.model.OrderStatus;
+import com.danialrekhman.orderservicenorcurne.replica.ProductReplica;
 import com.danialrekhman.orderservicenorcurne.repository.OrderRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.common.errors.ResourceNotFoundException;
-import org.apache.kafka.common.errors.TimeoutException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class OrderServiceImpl implements OrderService {
 
+    // Из каких статусов заказ может перейти по событию оплаты. Неудачная попытка после успешной,
+    // как и оплата отменённого или уже проваленного заказа, статус не меняет
+    private static final Map<OrderStatus, List<OrderStatus>> PAYMENT_SOURCE_STATUSES = Map.of(
+            OrderStatus.PAID, List.of(OrderStatus.NEW, OrderStatus.WAITING_FOR_PAYMENT),
+            OrderStatus.WAITING_FOR_PAYMENT, List.of(OrderStatus.NEW));
+
+    private static final int MAX_CANCEL_ATTEMPTS = 3;
+
     private final OrderRepository orderRepository;
     private final ProductCheckProducer productCheckProducer;
     private final OrderEventProducer orderEventProducer;
+    private final TransactionTemplate transactionTemplate;
+    private final ProductReplica productReplica;
 
-    @Transactional
+    // true — POST /api/orders только сохраняет заказ в PENDING_RESERVATION и сразу отвечает 202,
+    // дальше статус двигает ProductCheckResponseListener; false — старое блокирующее ожидание ответа
+    @Value("${order.placement.async:true}")
+    private boolean asyncPlacement;
+
+    @Value("${order.placement.pending-timeout-seconds:30}")
+    private long pendingTimeoutSeconds;
+
+    @Value("${order.listing.max-page-size:100}")
+    private int maxPageSize = 100;
+
+    // Без @Transactional: ни поток, ни соединение из пула не держатся на время похода в Kafka,
+    // заказ сохраняется одним коротким save()
     @Override
     public Order createOrder(OrderRequestDTO requestDTO, Authentication authentication) {
         if (authentication == null || authentication.getName() == null)
             throw new CustomAccessDeniedException("You don't have access to create an order.");
+        rejectUnavailable(requestDTO.getItems());
 
-        List<CompletableFuture<ProductCheckMessage>> futures = new ArrayList<>();
-        for (OrderItemRequestDTO item : requestDTO.getItems()) {
-            futures.add(productCheckProducer.check(item.getProductId(), item.getQuantity()));
-        }
+        List<ProductReservationLine> lines = requestDTO.getItems().stream()
+                .map(item -> ProductReservationLine.builder()
+                        .productId(item.getProductId())
+                        .quantity(item.getQuantity())
+                        .build())
+                .toList();
 
-        Map<Long, ProductCheckMessage> responsesMap = new HashMap<>();
-        List<ProductCheckMessage> reservedProducts = new ArrayList<>();
+        return asyncPlacement
+                ? placeOrderAsync(requestDTO, lines, authentication)
+                : placeOrderSync(requestDTO, lines, authentication);
+    }
 
-        try {
-            for (CompletableFuture<ProductCheckMessage> future : futures) {
-                ProductCheckMessage response = future.get(3, TimeUnit.SECONDS);
+    private Order placeOrderAsync(OrderRequestDTO requestDTO, List<ProductReservationLine> lines,
+                                  Authentication authentication) {
+        Order order = buildOrder(requestDTO, authentication, OrderStatus.PENDING_RESERVATION);
+        order.setReservationId(UUID.randomUUID().toString());
+        productCheckProducer.admit(order.getReservationId());
+        // до ответа product-service — цена из локальной реплики (или 0, пока её нет); ответ подставит точную
+        order.getItems().forEach(item -> item.setPriceAtOrder(replicaPrice(item.getProductId())));
+        order.recalculateTotals();
 
-                if (!Boolean.TRUE.equals(response.getAvailable())) {
-                    releaseReservedStock(reservedProducts);
-                    throw new RuntimeException("Product with ID " + response.getProductId() + " is not available.");
-                }
+        // сохраняем до отправки, чтобы ответ гарантированно нашёл заказ по reservationId
+        Order saved;
+        try {
+            saved = orderRepository.save(order);
+        } catch (RuntimeException e) {
+            productCheckProducer.abandon(order.getReservationId());
+            throw e;
+        }
+        productCheckProducer.sendReservation(saved.getReservationId(), lines);
+        return saved;
+    }
 
-                responsesMap.put(response.getProductId(), response);
-                reservedProducts.add(response);
-            }
-        } catch (InterruptedException | ExecutionException | TimeoutException e) {
-            releaseReservedStock(reservedProducts);
+    private Order placeOrderSync(OrderRequestDTO requestDTO, List<ProductReservationLine> lines,
+                                 Authentication authentication) {
+        // Весь заказ резервируется одним сообщением: product-service либо списывает
+        // все позиции, либо ничего, поэтому компенсирующий release здесь не нужен
+        String reservationId = UUID.randomUUID().toString();
+        ProductReservationMessage response;
+        try {
+            // дедлайн один — order.reservation.timeout-ms в ResponseStorage: колесо завершит future
+            // с TimeoutException и пометит запрос, чтобы опоздавший ответ вернул резерв
+            response = productCheckProducer.reserve(reservationId, lines).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reserving products", e);
+        } catch (ExecutionException e) {
             throw new RuntimeException("Failed to check product availability", e);
-        } catch (java.util.concurrent.TimeoutException e) {
-            throw new RuntimeException(e);
         }
 
+        if (!Boolean.TRUE.equals(response.getAvailable()))
+            throw new RuntimeException("Products are not available: " + response.getMessage());
+
+        Order order = buildOrder(requestDTO, authentication, OrderStatus.NEW);
+        order.setReservationId(reservationId);
+        applyPrices(order, response);
+
+        // заказ и строка outbox коммитятся вместе; транзакция открывается только после ответа Kafka
+        return transactionTemplate.execute(status -> {
+            Order saved = orderRepository.save(order);
+            publishOrderCreated(saved);
+            return saved;
+        });
+    }
+
+    // Реплика снимков товаров отсекает заведомо невыполнимые заказы без похода в product-service.
+    // Остаток в снимке — только уровень, поэтому нехватку конкретного количества по-прежнему решает резерв
+    private void rejectUnavailable(List<OrderItemRequestDTO> items) {
+        if (!productReplica.isReady())
+            return;
+        for (OrderItemRequestDTO item : items) {
+            if (item.getProductId() == null)
+                continue;
+            ProductReplica.ProductView product = productReplica.find(item.getProductId())
+                    .orElseThrow(() -> new InvalidOrderItemDataException(
+                            "Product with id " + item.getProductId() + " does not exist."));
+            if (!product.available() || product.stockLevel() == StockLevel.OUT_OF_STOCK)
+                throw new InvalidOrderItemDataException("Product with id " + item.getProductId() + " is not available.");
+        }
+    }
+
+    private BigDecimal replicaPrice(Long productId) {
+        if (productId == null)
+            return BigDecimal.ZERO;
+        return productReplica.find(productId)
+                .map(ProductReplica.ProductView::price)
+                .orElse(BigDecimal.ZERO);
+    }
+
+    // Ответ на асинхронное резервирование: переводит заказ в NEW или FAILED
+    @Transactional
+    public void handleReservationResult(ProductReservationMessage response) {
+        Optional<Order> found = orderRepository.findByReservationId(response.getCorrelationId());
+        if (found.isEmpty()) {
+            log.warn("No order found for reservation {}", response.getCorrelationId());
+            return;
+        }
+        Order order = found.get();
+        boolean reserved = Boolean.TRUE.equals(response.getAvailable());
+        OrderStatus target = reserved ? OrderStatus.NEW : OrderStatus.FAILED;
+
+        // статус меняется условным UPDATE: свипер мог уже перевести заказ в FAILED, а отмена — в CANCELLED
+        if (order.getStatus() != OrderStatus.PENDING_RESERVATION
+                || orderRepository.transitionStatus(order.getId(), OrderStatus.PENDING_RESERVATION, target) == 0) {
+            OrderStatus current = order.getStatus() != OrderStatus.PENDING_RESERVATION
+                    ? order.getStatus()
+                    : orderRepository.findStatusById(order.getId()).orElse(null);
+            // Резерв возвращается только заказу, который так и не получил сток: отменён до ответа или просрочен.
+            // Для живого заказа это дубль ответа (повторная доставка, повторный product-reserve) —
+            // его резерв уже подтверждён, возвращать его нельзя
+            if (reserved && (current == OrderStatus.CANCELLED || current == OrderStatus.FAILED))
+                productCheckProducer.releaseReservation(response.getCorrelationId(), response.getItems());
+            log.info("Ignoring reservation reply for orderId={} in status {}", order.getId(), current);
+            return;
+        }
+        order.setStatus(target);
+
+        if (!reserved) {
+            log.info("Reservation rejected for orderId={}: {}", order.getId(), response.getMessage());
+            return;
+        }
+
+        applyPrices(order, response);
+        Order saved = orderRepository.save(order);
+        publishOrderCreated(saved);
+    }
+
+    // product-service вернул резерв по TTL раньше, чем дошло подтверждение, и списать сток заново не смог.
+    // Неоплаченный заказ переводится в FAILED; оплаченный без стока можно решить только вручную
+    public void handleReservationExpired(String reservationId) {
+        if (orderRepository.failByReservationId(reservationId,
+                List.of(OrderStatus.NEW, OrderStatus.WAITING_FOR_PAYMENT), OrderStatus.FAILED) > 0) {
+            log.warn("Order with reservation {} failed: the reservation expired before it was confirmed", reservationId);
+            return;
+        }
+        orderRepository.findByReservationId(reservationId).ifPresentOrElse(
+                order -> {
+                    if (order.getStatus() != OrderStatus.FAILED && order.getStatus() != OrderStatus.CANCELLED)
+                        log.error("Order {} in status {} has lost its stock reservation {}",
+                                order.getId(), order.getStatus(), reservationId);
+                },
+                () -> log.warn("No order found for expired reservation {}", reservationId));
+    }
+
+    @Scheduled(fixedDelayString = "${order.placement.sweep-interval-ms:10000}")
+    public void failStalePendingOrders() {
+        int failed = orderRepository.failStalePending(OrderStatus.PENDING_RESERVATION, OrderStatus.FAILED,
+                LocalDateTime.now().minusSeconds(pendingTimeoutSeconds));
+        if (failed > 0)
+            log.warn("Marked {} orders without reservation reply as FAILED", failed);
+    }
+
+    private Order buildOrder(OrderRequestDTO requestDTO, Authentication authentication, OrderStatus status) {
         Order order = new Order();
         order.setUserEmail(authentication.getName());
         order.setOrderDate(LocalDateTime.now());
-        order.setStatus(OrderStatus.NEW);
+        order.setStatus(status);
 
         List<OrderItem> items = new ArrayList<>();
         for (OrderItemRequestDTO itemDTO : requestDTO.getItems()) {
-            ProductCheckMessage productResponse = responsesMap.get(itemDTO.getProductId());
             OrderItem orderItem = new OrderItem();
             orderItem.setProductId(itemDTO.getProductId());
             orderItem.setQuantity(itemDTO.getQuantity());
-            orderItem.setPriceAtOrder(productResponse.getPriceAtOrder());
             orderItem.setOrder(order);
             items.add(orderItem);
         }
         order.setItems(items);
+        return order;
+    }
 
-        Order saved = orderRepository.save(order);
+    // ответ содержит позиции в том же порядке, что и запрос
+    private void applyPrices(Order order, ProductReservationMessage response) {
+        for (int i = 0; i < order.getItems().size(); i++)
+            order.getItems().get(i).setPriceAtOrder(response.getItems().get(i).getPriceAtOrder());
+        order.recalculateTotals();
+    }
 
-        // публикуем событие
+    // Вместе с событием заказа в outbox пишется подтверждение резерва: пока оно не дошло,
+    // product-service считает резерв брошенным и по TTL вернёт его на склад
+    private void publishOrderCreated(Order saved) {
         OrderCreatedEvent event = OrderCreatedEvent.builder()
                 .orderId(saved.getId())
                 .userEmail(saved.getUserEmail())
-                .totalPrice(saved.getItems().stream()
-                        .map(i -> i.getPriceAtOrder().multiply(BigDecimal.valueOf(i.getQuantity())))
-                        .reduce(BigDecimal.ZERO, BigDecimal::add))
+                .totalPrice(saved.getTotalPrice())
                 .build();
 
         orderEventProducer.publishOrderCreated(event);
-
-        return saved;
+        if (saved.getReservationId() != null)
+            orderEventProducer.publishReservationConfirmed(saved.getReservationId());
     }
 
     @Override
@@ -119,10 +279,24 @@ public class OrderServiceImpl implements OrderService {
 
     @Override
     @Transactional(readOnly = true)
-    public List<Order> getOrdersByUserEmail(String email, Authentication authentication) {
+    public CursorPage<Order> getOrdersByUserEmail(String email, String cursor, int size, Authentication authentication) {
+        return toPage(userOrderRows(email, cursor, size, authentication), pageSize(size), true);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public CursorPage<Order> getOrderSummariesByUserEmail(String email, String cursor, int size, Authentication authentication) {
+        return toPage(userOrderRows(email, cursor, size, authentication), pageSize(size), false);
+    }
+
+    private List<Order> userOrderRows(String email, String cursor, int size, Authentication authentication) {
         if (!isAdmin(authentication) && !authentication.getName().equals(email))
             throw new CustomAccessDeniedException("You don't have access to this order.");
-        return orderRepository.findAllByUserEmailOrderByOrderDateDesc(email);
+        OrderCursor after = OrderCursor.decode(cursor);
+        Limit limit = Limit.of(pageSize(size) + 1);
+        return after == null
+                ? orderRepository.findFirstPageByUserEmail(email, limit)
+                : orderRepository.findPageAfterByUserEmail(email, after.orderDate(), after.id(), limit);
     }
 
     @Transactional
@@ -157,6 +331,21 @@ public class OrderServiceImpl implements OrderService {
         orderRepository.save(order);
     }
 
+    // Пакетный вариант handlePaymentResult/handlePaymentFailed: один UPDATE на всю пачку вместо findById + save на событие
+    @Transactional
+    public int applyPaymentStatus(Collection<Long> orderIds, OrderStatus status) {
+        if (orderIds.isEmpty())
+            return 0;
+        List<OrderStatus> from = PAYMENT_SOURCE_STATUSES.get(status);
+        if (from == null)
+            throw new IllegalArgumentException("Not a payment status: " + status);
+        int updated = orderRepository.updateStatusByIdIn(orderIds, from, status);
+        if (updated < orderIds.size())
+            log.warn("Payment status {}: {} of {} orders not found or not in {}",
+                    status, orderIds.size() - updated, orderIds.size(), from);
+        return updated;
+    }
+
     @Transactional
     @Override
     public Order cancelOrder(Long orderId, Authentication authentication) {
@@ -164,16 +353,43 @@ public class OrderServiceImpl implements OrderService {
                 .orElseThrow(() -> new OrderNotFoundException("Order with id " + orderId + " not found for cancellation."));
         if (!isAdmin(authentication) && !order.getUserEmail().equals(authentication.getName()))
             throw new CustomAccessDeniedException("Only admin or order owner can cancel order.");
-        if (order.getStatus() == OrderStatus.DELIVERED)
-            throw new OrderCancellationException("Delivered orders can't be cancelled.");
-
-        // Возврат зарезервированного стока
-        for (OrderItem item : order.getItems()) {
-            productCheckProducer.release(item.getProductId(), item.getQuantity());
+        // Отмена — условный переход из прочитанного статуса. Если статус успел смениться (пришёл ответ
+        // резерва, оплата), решение принимается заново по свежему статусу; сток возвращается только после перехода
+        OrderStatus observed = order.getStatus();
+        for (int attempt = 0; ; attempt++) {
+            if (observed == OrderStatus.DELIVERED)
+                throw new OrderCancellationException("Delivered orders can't be cancelled.");
+            // повторная отмена ничего не возвращает второй раз
+            if (observed == OrderStatus.CANCELLED) {
+                order.setStatus(OrderStatus.CANCELLED);
+                return order;
+            }
+            if (orderRepository.transitionStatus(orderId, observed, OrderStatus.CANCELLED) > 0)
+                break;
+            if (attempt == MAX_CANCEL_ATTEMPTS - 1)
+                throw new OrderCancellationException("Order status is changing, try to cancel again.");
+            observed = orderRepository.findStatusById(orderId)
+                    .orElseThrow(() -> new OrderNotFoundException("Order with id " + orderId + " not found for cancellation."));
         }
-
         order.setStatus(OrderStatus.CANCELLED);
-        return orderRepository.save(order);
+
+        // Возврат зарезервированного стока. Для PENDING_RESERVATION резерва ещё нет —
+        // если он всё же придёт, handleReservationResult вернёт его сам
+        if (observed != OrderStatus.PENDING_RESERVATION && observed != OrderStatus.FAILED) {
+            if (order.getReservationId() != null) {
+                productCheckProducer.releaseReservation(order.getReservationId(), order.getItems().stream()
+                        .map(item -> ProductReservationLine.builder()
+                                .productId(item.getProductId())
+                                .quantity(item.getQuantity())
+                                .build())
+                        .toList());
+            } else {
+                for (OrderItem item : order.getItems()) {
+                    productCheckProducer.release(item.getProductId(), item.getQuantity());
+                }
+            }
+        }
+        return order;
     }
 
     @Transactional
@@ -188,10 +404,45 @@ public class OrderServiceImpl implements OrderService {
 
     @Override
     @Transactional(readOnly = true)
-    public List<Order> getAllOrders(Authentication authentication) {
+    public CursorPage<Order> getAllOrders(String cursor, int size, Authentication authentication) {
+        return toPage(allOrderRows(cursor, size, authentication), pageSize(size), true);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public CursorPage<Order> getAllOrderSummaries(String cursor, int size, Authentication authentication) {
+        return toPage(allOrderRows(cursor, size, authentication), pageSize(size), false);
+    }
+
+    private List<Order> allOrderRows(String cursor, int size, Authentication authentication) {
         if (!isAdmin(authentication))
             throw new CustomAccessDeniedException("Only admin can get all orders.");
-        return orderRepository.findAllByOrderByOrderDateDesc();
+        OrderCursor after = OrderCursor.decode(cursor);
+        Limit limit = Limit.of(pageSize(size) + 1);
+        return after == null
+                ? orderRepository.findFirstPage(limit)
+                : orderRepository.findPageAfter(after.orderDate(), after.id(), limit);
+    }
+
+    private int pageSize(int requested) {
+        return Math.clamp(requested, 1, maxPageSize);
+    }
+
+    // Запрашивается size + 1 строк: лишняя означает, что есть следующая страница.
+    // Позиции страницы грузятся одним запросом, порядок берётся из keyset-выборки;
+    // для заголовков (withItems = false) order_item не читается вовсе
+    private CursorPage<Order> toPage(List<Order> rows, int size, boolean withItems) {
+        boolean hasNext = rows.size() > size;
+        List<Order> page = hasNext ? rows.subList(0, size) : rows;
+        String next = hasNext ? OrderCursor.of(page.get(page.size() - 1)).encode() : null;
+        if (page.isEmpty() || !withItems)
+            return new CursorPage<>(List.copyOf(page), next);
+
+        Map<Long, Order> loaded = new HashMap<>();
+        orderRepository.findAllWithItemsByIdIn(page.stream().map(Order::getId).toList())
+                .forEach(o -> loaded.put(o.getId(), o));
+        List<Order> ordered = page.stream().map(o -> loaded.getOrDefault(o.getId(), o)).toList();
+        return new CursorPage<>(ordered, next);
     }
 
     @Override
@@ -212,12 +463,6 @@ public class OrderServiceImpl implements OrderService {
                         "Order with id " + orderId + " not found for user email check."));
     }
 
-    private void releaseReservedStock(List<ProductCheckMessage> reservedProducts) {
-        for (ProductCheckMessage product : reservedProducts) {
-            productCheckProducer.release(product.getProductId(), product.getQuantity());
-        }
-    }
-
     private boolean isAdmin(Authentication authentication) {
         return authentication.getAuthorities().stream()
                 .map(GrantedAuthority::getAuthority)
@@ -0,0 +1,26 @@
+package com.danialrekhman.orderservicenorcurne.service;
+
+import com.danialrekhman.orderservicenorcurne.repository.OrderRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+// Заполняет total_price/item_count у заказов, созданных до их появления. Включается один раз
+// (order.totals.backfill-on-startup=true) после выката, дальше итоги поддерживаются сервисами
+@Component
+@RequiredArgsConstructor
+@Slf4j
+@ConditionalOnProperty(name = "order.totals.backfill-on-startup", havingValue = "true")
+public class OrderTotalsBackfill implements ApplicationRunner {
+
+    private final OrderRepository orderRepository;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        int updated = orderRepository.recalculateAllTotals();
+        log.info("Recalculated stored totals for {} orders", updated);
+    }
+}
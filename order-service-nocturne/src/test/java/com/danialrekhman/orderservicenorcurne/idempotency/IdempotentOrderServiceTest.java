@@ -0,0 +1,137 @@
+package com.danialrekhman.orderservicenorcurne.idempotency;
+
+import com.danialrekhman.orderservicenorcurne.dto.OrderItemRequestDTO;
+import com.danialrekhman.orderservicenorcurne.dto.OrderRequestDTO;
+import com.danialrekhman.orderservicenorcurne.exception.IdempotencyKeyReusedException;
+import com.danialrekhman.orderservicenorcurne.exception.InvalidIdempotencyKeyException;
+import com.danialrekhman.orderservicenorcurne.model.Order;
+import com.danialrekhman.orderservicenorcurne.model.OrderStatus;
+import com.danialrekhman.orderservicenorcurne.service.OrderService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.core.Authentication;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class IdempotentOrderServiceTest {
+
+    @Mock
+    private OrderService orderService;
+    @Mock
+    private Authentication authentication;
+
+    private IdempotentOrderService idempotentOrderService;
+    private final OrderRequestDTO request = new OrderRequestDTO(null, List.of(new OrderItemRequestDTO(101L, 2, null)));
+    private Order order;
+
+    @BeforeEach
+    void setUp() {
+        Duration ttl = Duration.ofMinutes(5);
+        idempotentOrderService = new IdempotentOrderService(new CaffeineIdempotencyStore(ttl, ttl, 1000), orderService,
+                new SimpleMeterRegistry(), ttl, ttl, Duration.ofSeconds(2));
+        order = new Order();
+        order.setId(1L);
+        order.setStatus(OrderStatus.PENDING_RESERVATION);
+        lenient().when(authentication.getName()).thenReturn("user@example.com");
+        lenient().when(orderService.getOrderById(1L, authentication)).thenReturn(order);
+    }
+
+    @Test
+    void createOrder_WhenRetriedWithSameKey_ReplaysWithoutCreatingAgain() {
+        when(orderService.createOrder(request, authentication)).thenReturn(order);
+
+        IdempotentOrderService.Result first = idempotentOrderService.createOrder("key-1", request, authentication);
+        IdempotentOrderService.Result retry = idempotentOrderService.createOrder("key-1", request, authentication);
+
+        assertFalse(first.replayed());
+        assertTrue(retry.replayed());
+        assertEquals(1L, retry.order().getId());
+        verify(orderService, times(1)).createOrder(any(), any());
+    }
+
+    @Test
+    void createOrder_WhenKeyReusedWithDifferentBody_Throws() {
+        when(orderService.createOrder(request, authentication)).thenReturn(order);
+        idempotentOrderService.createOrder("key-1", request, authentication);
+
+        OrderRequestDTO other = new OrderRequestDTO(null, List.of(new OrderItemRequestDTO(101L, 3, null)));
+
+        assertThrows(IdempotencyKeyReusedException.class,
+                () -> idempotentOrderService.createOrder("key-1", other, authentication));
+        verify(orderService, times(1)).createOrder(any(), any());
+    }
+
+    @Test
+    void createOrder_WhenOriginalFails_ReleasesKeyForRetry() {
+        when(orderService.createOrder(request, authentication))
+                .thenThrow(new RuntimeException("Failed to check product availability"))
+                .thenReturn(order);
+
+        assertThrows(RuntimeException.class, () -> idempotentOrderService.createOrder("key-1", request, authentication));
+        IdempotentOrderService.Result retry = idempotentOrderService.createOrder("key-1", request, authentication);
+
+        assertFalse(retry.replayed());
+        verify(orderService, times(2)).createOrder(any(), any());
+    }
+
+    @Test
+    void createOrder_ConcurrentDuplicatesCoalesceOntoOneRequest() throws Exception {
+        CountDownLatch inside = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(orderService.createOrder(request, authentication)).thenAnswer(invocation -> {
+            inside.countDown();
+            release.await(2, TimeUnit.SECONDS);
+            return order;
+        });
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            Future<IdempotentOrderService.Result> original =
+                    pool.submit(() -> idempotentOrderService.createOrder("key-1", request, authentication));
+            assertTrue(inside.await(2, TimeUnit.SECONDS));
+            List<Future<IdempotentOrderService.Result>> duplicates = List.of(
+                    pool.submit(() -> idempotentOrderService.createOrder("key-1", request, authentication)),
+                    pool.submit(() -> idempotentOrderService.createOrder("key-1", request, authentication)));
+            release.countDown();
+
+            assertFalse(original.get(2, TimeUnit.SECONDS).replayed());
+            for (Future<IdempotentOrderService.Result> duplicate : duplicates)
+                assertEquals(1L, duplicate.get(2, TimeUnit.SECONDS).order().getId());
+        } finally {
+            pool.shutdownNow();
+        }
+        verify(orderService, times(1)).createOrder(any(), any());
+    }
+
+    @Test
+    void caffeineStore_AbandonedClaimExpiresBeforeResult() throws Exception {
+        CaffeineIdempotencyStore store = new CaffeineIdempotencyStore(Duration.ofMinutes(5), Duration.ofMillis(100), 1000);
+        store.claim("abandoned", "fp", Duration.ofMillis(100));
+        store.claim("done", "fp", Duration.ofMillis(100));
+        store.complete("done", IdempotencyRecord.completed("fp", 1L), Duration.ofMinutes(5));
+
+        Thread.sleep(250);
+
+        // упавший запрос больше не держит ключ, записанный результат остаётся
+        assertTrue(store.claim("abandoned", "fp", Duration.ofMillis(100)).isEmpty());
+        assertEquals(1L, store.find("done").orElseThrow().getOrderId());
+    }
+
+    @Test
+    void createOrder_WhenKeyTooLong_Throws() {
+        assertThrows(InvalidIdempotencyKeyException.class,
+                () -> idempotentOrderService.createOrder("k".repeat(256), request, authentication));
+        verifyNoInteractions(orderService);
+    }
+}
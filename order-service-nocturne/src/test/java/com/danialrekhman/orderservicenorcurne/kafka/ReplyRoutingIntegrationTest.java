@@ -0,0 +1,181 @@
+package com.danialrekhman.orderservicenorcurne.kafka;
+
+import com.danialrekhman.commonevents.ProductReservationLine;
+import com.danialrekhman.commonevents.ProductReservationMessage;
+import com.danialrekhman.orderservicenorcurne.config.KafkaConfig;
+import com.danialrekhman.orderservicenorcurne.kafka.listener.ProductCheckResponseListener;
+import com.danialrekhman.orderservicenorcurne.kafka.producer.ProductCheckProducer;
+import com.danialrekhman.orderservicenorcurne.kafka.producer.ReplyTopic;
+import com.danialrekhman.orderservicenorcurne.kafka.producer.ResponseStorage;
+import com.danialrekhman.orderservicenorcurne.replica.ProductReplica;
+import com.danialrekhman.orderservicenorcurne.service.OrderServiceImpl;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.kafka.annotation.EnableKafka;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.messaging.handler.annotation.Header;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Два контекста order-service с разными order.instance-id (топик ответов выводится из него)
+ * и заглушка product-service на одном embedded-брокере: каждый ответ должен вернуться в тот инстанс, который ждёт его future.
+ */
+class ReplyRoutingIntegrationTest {
+
+    private static EmbeddedKafkaKraftBroker broker;
+    private static AnnotationConfigApplicationContext productStub;
+    private static final List<AnnotationConfigApplicationContext> instances = new ArrayList<>();
+
+    @BeforeAll
+    static void startContexts() {
+        broker = new EmbeddedKafkaKraftBroker(1, 3,
+                "product-reserve", "product-reserve-response-1", "product-reserve-response-2");
+        broker.afterPropertiesSet();
+
+        productStub = context("product-stub", ProductServiceStub.class);
+        instances.add(context("1", OrderServiceInstance.class));
+        instances.add(context("2", OrderServiceInstance.class));
+
+        for (AnnotationConfigApplicationContext ctx : List.of(productStub, instances.get(0), instances.get(1)))
+            ctx.getBean(KafkaListenerEndpointRegistry.class).getListenerContainers()
+                    .forEach(c -> ContainerTestUtils.waitForAssignment(c, 3));
+    }
+
+    @AfterAll
+    static void stopContexts() {
+        instances.forEach(AnnotationConfigApplicationContext::close);
+        if (productStub != null) productStub.close();
+        if (broker != null) broker.destroy();
+    }
+
+    @Test
+    void replyTopicIsPerInstanceByDefault() {
+        assertEquals("product-reserve-response-1", instances.get(0).getBean(ReplyTopic.class).name());
+        assertEquals("product-reserve-response-2", instances.get(1).getBean(ReplyTopic.class).name());
+        // без order.instance-id старт падает; имя хоста — только в профиле dev
+        assertThrows(IllegalStateException.class, () -> ReplyTopic.of("", null, false));
+        assertTrue(ReplyTopic.of("", null, true).name().startsWith("product-reserve-response-"));
+        assertNotEquals("product-reserve-response-", ReplyTopic.of("", null, true).name());
+        assertEquals("custom", ReplyTopic.of("custom", null, false).name());
+    }
+
+    @Test
+    void everyInstanceReceivesRepliesToItsOwnRequests() throws Exception {
+        List<CompletableFuture<ProductReservationMessage>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            ProductCheckProducer producer = instances.get(i % 2).getBean(ProductCheckProducer.class);
+            futures.add(producer.reserve(UUID.randomUUID().toString(), List.of(ProductReservationLine.builder().productId((long) i).quantity(1).build())));
+        }
+
+        for (CompletableFuture<ProductReservationMessage> future : futures) {
+            ProductReservationMessage reply = future.get(10, TimeUnit.SECONDS);
+            assertTrue(reply.getAvailable());
+        }
+        for (AnnotationConfigApplicationContext ctx : instances) {
+            assertEquals(0, ctx.getBean(ResponseStorage.class).pendingCount());
+            // ни один ответ не ушёл «не тому» инстансу
+            verify(ctx.getBean(OrderServiceImpl.class), never()).handleReservationResult(any());
+        }
+    }
+
+    private static AnnotationConfigApplicationContext context(String instanceId, Class<?> config) {
+        AnnotationConfigApplicationContext ctx = new AnnotationConfigApplicationContext();
+        ctx.getEnvironment().getPropertySources().addFirst(new MapPropertySource("test", Map.of(
+                "spring.kafka.bootstrap-servers", broker.getBrokersAsString(),
+                "order.instance-id", instanceId)));
+        ctx.register(config);
+        ctx.refresh();
+        return ctx;
+    }
+
+    @Configuration
+    @EnableKafka
+    @Import({KafkaConfig.class, ProductReplica.class, ResponseStorage.class, ProductCheckProducer.class,
+            ProductCheckResponseListener.class})
+    static class OrderServiceInstance {
+
+        @Bean
+        static PropertySourcesPlaceholderConfigurer placeholderConfigurer() {
+            return new PropertySourcesPlaceholderConfigurer();
+        }
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+        @Bean
+        OrderServiceImpl orderService() {
+            return mock(OrderServiceImpl.class);
+        }
+    }
+
+    // Отвечает так же, как ProductReservationListener в product-service
+    @Configuration
+    @EnableKafka
+    @Import({KafkaConfig.class, ProductReplica.class})
+    static class ProductServiceStub {
+
+        @Bean
+        static PropertySourcesPlaceholderConfigurer placeholderConfigurer() {
+            return new PropertySourcesPlaceholderConfigurer();
+        }
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+        @Bean
+        Responder responder(KafkaTemplate<String, ProductReservationMessage> reservationKafkaTemplate) {
+            return new Responder(reservationKafkaTemplate);
+        }
+    }
+
+    static class Responder {
+        private final KafkaTemplate<String, ProductReservationMessage> template;
+
+        Responder(KafkaTemplate<String, ProductReservationMessage> template) {
+            this.template = template;
+        }
+
+        @KafkaListener(topics = "product-reserve", groupId = "product-service-group",
+                containerFactory = "kafkaListenerContainerFactory")
+        public void onMessage(ProductReservationMessage request,
+                              @Header(name = KafkaHeaders.REPLY_TOPIC, required = false) byte[] replyTopic,
+                              Acknowledgment ack) {
+            request.getItems().forEach(line -> line.setPriceAtOrder(BigDecimal.TEN));
+            request.setAvailable(true);
+            String topic = replyTopic != null ? new String(replyTopic, StandardCharsets.UTF_8) : "product-reserve-response";
+            template.send(topic, request.getCorrelationId(), request);
+            ack.acknowledge();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.danialrekhman.orderservicenorcurne.kafka.listener;
+
+import com.danialrekhman.commonevents.PaymentFailedEvent;
+import com.danialrekhman.commonevents.PaymentProcessedEvent;
+import com.danialrekhman.orderservicenorcurne.model.OrderStatus;
+import com.danialrekhman.orderservicenorcurne.service.OrderServiceImpl;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PaymentProcessedListenerTest {
+
+    @Mock
+    private OrderServiceImpl orderService;
+
+    @InjectMocks
+    private PaymentProcessedListener listener;
+
+    private static List<ConsumerRecord<String, PaymentProcessedEvent>> processed(Long... orderIds) {
+        List<ConsumerRecord<String, PaymentProcessedEvent>> records = new ArrayList<>();
+        for (int i = 0; i < orderIds.length; i++) {
+            PaymentProcessedEvent event = orderIds[i] == null ? null : PaymentProcessedEvent.builder().orderId(orderIds[i]).build();
+            records.add(new ConsumerRecord<>("payment-processed", 0, i, null, event));
+        }
+        return records;
+    }
+
+    @Test
+    void onPaymentProcessed_AppliesWholeBatchWithOneUpdate() {
+        when(orderService.applyPaymentStatus(anyCollection(), eq(OrderStatus.PAID))).thenReturn(3);
+
+        listener.onPaymentProcessed(processed(1L, 2L, 2L, 3L));
+
+        verify(orderService, times(1)).applyPaymentStatus(eq(new LinkedHashSet<>(List.of(1L, 2L, 3L))), eq(OrderStatus.PAID));
+    }
+
+    @Test
+    void onPaymentProcessed_SkipsUndeserializableRecords() {
+        listener.onPaymentProcessed(processed(null, 5L));
+
+        verify(orderService).applyPaymentStatus(eq(Set.of(5L)), eq(OrderStatus.PAID));
+    }
+
+    @Test
+    void onPaymentFailed_WhenBulkUpdateFails_ReportsIndexOfFailingRecord() {
+        List<ConsumerRecord<String, PaymentFailedEvent>> records = List.of(
+                new ConsumerRecord<>("payment-failed", 0, 0, null, PaymentFailedEvent.builder().orderId(1L).build()),
+                new ConsumerRecord<>("payment-failed", 0, 1, null, PaymentFailedEvent.builder().orderId(2L).build()),
+                new ConsumerRecord<>("payment-failed", 0, 2, null, PaymentFailedEvent.builder().orderId(3L).build()));
+        when(orderService.applyPaymentStatus(anyCollection(), eq(OrderStatus.WAITING_FOR_PAYMENT)))
+                .thenAnswer(invocation -> {
+                    if (invocation.getArgument(0, java.util.Collection.class).contains(2L))
+                        throw new IllegalStateException("db error");
+                    return 1;
+                });
+
+        BatchListenerFailedException ex = assertThrows(BatchListenerFailedException.class,
+                () -> listener.onPaymentFailed(records));
+
+        assertEquals(1, ex.getIndex());
+        // первая запись применена отдельно, третья будет обработана при повторной доставке
+        verify(orderService).applyPaymentStatus(List.of(1L), OrderStatus.WAITING_FOR_PAYMENT);
+        verify(orderService, never()).applyPaymentStatus(List.of(3L), OrderStatus.WAITING_FOR_PAYMENT);
+    }
+}
@@ -0,0 +1,125 @@
+package com.danialrekhman.orderservicenorcurne.kafka.producer;
+
+import com.danialrekhman.orderservicenorcurne.model.OutboxEvent;
+import com.danialrekhman.orderservicenorcurne.repository.OutboxEventRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Пропускная способность публикации OrderCreatedEvent на embedded-брокере: отправка по одному событию
+ * с ожиданием подтверждения (как было до outbox) против {@link OutboxRelay} с пачками и продюсером
+ * из KafkaConfig (acks=all, idempotence, linger, lz4). Outbox в памяти — замеряется только Kafka-часть.
+ * <p>
+ * Запуск: {@code mvn test -Dtest=OutboxRelayBenchmark -Dbenchmark=true}
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class OutboxRelayBenchmark {
+
+    private static final int EVENTS = 200_000;
+    private static final int SINGLE_EVENTS = 5_000;
+    private static final String PAYLOAD = "{\"orderId\":123456,\"userEmail\":\"user@example.com\",\"totalPrice\":1999.90}";
+
+    private static EmbeddedKafkaKraftBroker broker;
+    private static DefaultKafkaProducerFactory<String, String> producerFactory;
+
+    @BeforeAll
+    static void startBroker() {
+        broker = new EmbeddedKafkaKraftBroker(1, 3, "order-created");
+        broker.afterPropertiesSet();
+
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString());
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.ACKS_CONFIG, "all");
+        props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        props.put(ProducerConfig.LINGER_MS_CONFIG, 5);
+        props.put(ProducerConfig.BATCH_SIZE_CONFIG, 65536);
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        producerFactory = new DefaultKafkaProducerFactory<>(props);
+    }
+
+    @AfterAll
+    static void stopBroker() {
+        if (producerFactory != null) producerFactory.destroy();
+        if (broker != null) broker.destroy();
+    }
+
+    @Test
+    void singleSendVsBatchedRelay() throws Exception {
+        KafkaTemplate<String, String> template = new KafkaTemplate<>(producerFactory);
+        template.send("order-created", "warmup", PAYLOAD).get(10, TimeUnit.SECONDS);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < SINGLE_EVENTS; i++)
+            template.send("order-created", String.valueOf(i), PAYLOAD).get(10, TimeUnit.SECONDS);
+        double single = report("send + get per event", SINGLE_EVENTS, System.nanoTime() - start);
+
+        for (int batchSize : new int[]{100, 500, 2000}) {
+            double batched = runRelay(template, batchSize);
+            assertTrue(batched > single, "batched relay should outpace per-event sends");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private double runRelay(KafkaTemplate<String, String> template, int batchSize) {
+        List<OutboxEvent> outbox = new ArrayList<>(EVENTS);
+        for (long id = 1; id <= EVENTS; id++)
+            outbox.add(OutboxEvent.builder().id(id).topic("order-created").eventKey(String.valueOf(id))
+                    .payload(PAYLOAD).createdAt(LocalDateTime.now()).build());
+
+        OutboxEventRepository repository = mock(OutboxEventRepository.class);
+        int[] position = {0};
+        when(repository.lockNextBatch(anyInt())).thenAnswer(invocation -> {
+            int from = position[0];
+            int to = Math.min(outbox.size(), from + invocation.getArgument(0, Integer.class));
+            position[0] = to;
+            return outbox.subList(from, to);
+        });
+        TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.getArgument(0, TransactionCallback.class).doInTransaction(null));
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        // без ограничения числа пачек и времени: один проход вычерпывает весь outbox
+        OutboxRelay relay = new OutboxRelay(repository, template, transactionTemplate, registry,
+                batchSize, Integer.MAX_VALUE, 600_000, 200, 30_000, 24);
+
+        long start = System.nanoTime();
+        relay.relay();
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(EVENTS, registry.get("order.outbox.sent").counter().count());
+        return report("relay, batch of " + batchSize, EVENTS, elapsed);
+    }
+
+    private static double report(String name, int events, long nanos) {
+        double perSecond = events / (nanos / 1e9);
+        System.out.printf("%-28s %,12.0f events/s%n", name, perSecond);
+        return perSecond;
+    }
+}
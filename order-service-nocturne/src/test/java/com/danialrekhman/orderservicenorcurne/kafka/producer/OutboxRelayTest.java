@@ -0,0 +1,106 @@
+package com.danialrekhman.orderservicenorcurne.kafka.producer;
+
+import com.danialrekhman.orderservicenorcurne.model.OutboxEvent;
+import com.danialrekhman.orderservicenorcurne.repository.OutboxEventRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class OutboxRelayTest {
+
+    @Mock
+    private OutboxEventRepository outboxEventRepository;
+    @Mock
+    private KafkaTemplate<String, String> kafkaTemplate;
+    @Mock
+    private TransactionTemplate transactionTemplate;
+
+    private SimpleMeterRegistry registry;
+    private OutboxRelay relay;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        relay = new OutboxRelay(outboxEventRepository, kafkaTemplate, transactionTemplate, registry, 2, 10, 60_000, 200, 1000, 24);
+        lenient().when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.getArgument(0, TransactionCallback.class).doInTransaction(null));
+    }
+
+    private static List<OutboxEvent> events(long fromId, long toId) {
+        return LongStream.rangeClosed(fromId, toId)
+                .mapToObj(id -> OutboxEvent.builder()
+                        .id(id).topic("order-created").eventKey(String.valueOf(id)).payload("{}")
+                        .createdAt(LocalDateTime.now()).build())
+                .toList();
+    }
+
+    @Test
+    void relay_DrainsFullBatchesAndMarksThemSent() {
+        when(outboxEventRepository.lockNextBatch(2)).thenReturn(events(1, 2), events(3, 3));
+        when(kafkaTemplate.send(anyString(), anyString(), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(mock(SendResult.class)));
+
+        relay.relay();
+
+        verify(kafkaTemplate, times(3)).send(eq("order-created"), anyString(), eq("{}"));
+        verify(kafkaTemplate, times(2)).flush();
+        verify(outboxEventRepository).markSent(eq(List.of(1L, 2L)), any());
+        verify(outboxEventRepository).markSent(eq(List.of(3L)), any());
+        assertEquals(3.0, registry.get("order.outbox.sent").counter().count());
+        assertEquals(2, registry.get("order.outbox.batch.size").summary().count());
+    }
+
+    @Test
+    void relay_WhenBrokerFails_DoesNotMarkBatchSent() {
+        when(outboxEventRepository.lockNextBatch(2)).thenReturn(events(1, 2));
+        when(kafkaTemplate.send(anyString(), anyString(), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(mock(SendResult.class)))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")));
+
+        relay.relay();
+
+        verify(outboxEventRepository, never()).markSent(anyCollection(), any());
+        assertEquals(0.0, registry.get("order.outbox.sent").counter().count());
+    }
+
+    @Test
+    void relay_StopsRunWhenTimeBudgetIsSpent() {
+        relay = new OutboxRelay(outboxEventRepository, kafkaTemplate, transactionTemplate, registry, 2, 10, 0, 200, 1000, 24);
+
+        relay.relay();
+
+        // бюджет 0 мс: ни одной пачки, но лаг всё равно обновляется
+        verify(outboxEventRepository, never()).lockNextBatch(anyInt());
+        verify(outboxEventRepository).findOldestPendingCreatedAt();
+    }
+
+    @Test
+    void relay_ReportsLagOfOldestPendingEvent() {
+        when(outboxEventRepository.lockNextBatch(2)).thenReturn(List.of());
+        when(outboxEventRepository.findOldestPendingCreatedAt()).thenReturn(LocalDateTime.now().minusSeconds(30));
+
+        relay.relay();
+
+        double lag = registry.get("order.outbox.lag").gauge().value();
+        assertTrue(lag >= 29 && lag < 60, "lag was " + lag);
+        verifyNoInteractions(kafkaTemplate);
+    }
+}
@@ -0,0 +1,93 @@
+package com.danialrekhman.orderservicenorcurne.kafka.producer;
+
+import com.danialrekhman.commonevents.ProductReservationMessage;
+import com.danialrekhman.orderservicenorcurne.exception.TooManyPendingReservationsException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseStorageTest {
+
+    private SimpleMeterRegistry registry;
+    private ResponseStorage storage;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        storage = new ResponseStorage(registry, 200, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.shutdown();
+    }
+
+    @Test
+    void complete_WhenWaiting_CompletesFutureAndRecordsRoundTrip() throws Exception {
+        CompletableFuture<ProductReservationMessage> future = new CompletableFuture<>();
+        storage.register("corr-1", future);
+        ProductReservationMessage reply = ProductReservationMessage.builder().correlationId("corr-1").available(true).build();
+
+        assertEquals(ResponseStorage.Outcome.COMPLETED, storage.complete("corr-1", reply));
+
+        assertSame(reply, future.get(1, TimeUnit.SECONDS));
+        assertEquals(0, storage.pendingCount());
+        assertEquals(1, registry.get("order.reservation.round.trip").timer().count());
+    }
+
+    @Test
+    void register_WhenNoReply_ExpiresEntryAndCountsLateReply() throws Exception {
+        CompletableFuture<ProductReservationMessage> future = new CompletableFuture<>();
+        storage.register("corr-1", future);
+
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> future.get(2, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, ex.getCause());
+        assertEquals(0, storage.pendingCount());
+        assertEquals(1.0, registry.get("order.reservation.expired").counter().count());
+
+        assertEquals(ResponseStorage.Outcome.LATE, storage.complete("corr-1", new ProductReservationMessage()));
+        assertEquals(1.0, registry.get("order.reservation.late.replies").counter().count());
+    }
+
+    @Test
+    void register_WhenFull_RejectsFast() {
+        storage.register("corr-1", new CompletableFuture<>());
+        storage.register("corr-2", new CompletableFuture<>());
+
+        assertThrows(TooManyPendingReservationsException.class,
+                () -> storage.register("corr-3", new CompletableFuture<>()));
+        assertEquals(2, storage.pendingCount());
+        assertEquals(1.0, registry.get("order.reservation.rejected").counter().count());
+    }
+
+    @Test
+    void registerAsync_SharesLimitAndFreesSlotOnReplyOrTimeout() throws Exception {
+        storage.registerAsync("async-1");
+        storage.registerAsync("async-2");
+        assertThrows(TooManyPendingReservationsException.class,
+                () -> storage.register("corr-1", new CompletableFuture<>()));
+
+        assertEquals(ResponseStorage.Outcome.ASYNC, storage.complete("async-1", new ProductReservationMessage()));
+        storage.cancel("async-2");
+        assertEquals(0, storage.pendingCount());
+
+        // по таймауту место освобождается без tombstone: опоздавший ответ применяется к заказу как обычно
+        storage.registerAsync("async-3");
+        Thread.sleep(600);
+        assertEquals(0, storage.pendingCount());
+        assertEquals(ResponseStorage.Outcome.UNKNOWN, storage.complete("async-3", new ProductReservationMessage()));
+    }
+
+    @Test
+    void complete_WhenNeverRegistered_ReturnsUnknown() {
+        assertEquals(ResponseStorage.Outcome.UNKNOWN, storage.complete("other", new ProductReservationMessage()));
+    }
+}
@@ -0,0 +1,84 @@
+package com.danialrekhman.orderservicenorcurne.replica;
+
+import com.danialrekhman.commonevents.ProductSnapshotEvent;
+import com.danialrekhman.commonevents.StockLevel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.kafka.support.serializer.JsonDeserializer;
+import org.springframework.kafka.support.serializer.JsonSerializer;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Время старта реплики: проигрывание compacted-топика product-snapshots с нуля для каталога из 1M товаров
+ * (по записи на товар плюс 5% tombstone-ов удалённых). Записи заранее сериализованы тем же JsonSerializer,
+ * что и в product-service; измеряются десериализация и применение пачками по max-poll-records, без сети
+ * и брокера — это нижняя граница, к которой добавляется скорость fetch-а.
+ * <p>
+ * Запуск: {@code mvn test -Dtest=ProductReplicaBenchmark -Dbenchmark=true}
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ProductReplicaBenchmark {
+
+    private static final int PRODUCTS = 1_000_000;
+    private static final int BATCH = 5000;
+    private static final long REPLAY_BUDGET_MS = 10_000;
+    private static final String TOPIC = "product-snapshots";
+
+    @Test
+    void replayMillionProductsFromZero() {
+        List<String> keys = new ArrayList<>(PRODUCTS + PRODUCTS / 20);
+        List<byte[]> values = new ArrayList<>(PRODUCTS + PRODUCTS / 20);
+        SplittableRandom random = new SplittableRandom(42);
+        try (JsonSerializer<ProductSnapshotEvent> serializer = new JsonSerializer<>()) {
+            serializer.configure(Map.of(JsonSerializer.ADD_TYPE_INFO_HEADERS, false), false);
+            for (long id = 1; id <= PRODUCTS; id++) {
+                ProductSnapshotEvent event = new ProductSnapshotEvent(id, BigDecimal.valueOf(100 + random.nextInt(1_000_000), 2),
+                        random.nextInt(10) > 0, StockLevel.values()[random.nextInt(3)]);
+                keys.add(String.valueOf(id));
+                values.add(serializer.serialize(TOPIC, event));
+                if (id % 20 == 0) {
+                    keys.add(String.valueOf(id));
+                    values.add(null);
+                }
+            }
+        }
+
+        for (int run = 0; run < 3; run++) {
+            ProductReplica replica = new ProductReplica(new SimpleMeterRegistry());
+            long started = System.nanoTime();
+            try (JsonDeserializer<ProductSnapshotEvent> deserializer = new JsonDeserializer<>(ProductSnapshotEvent.class, false)) {
+                List<ConsumerRecord<String, ProductSnapshotEvent>> batch = new ArrayList<>(BATCH);
+                for (int i = 0; i < keys.size(); i++) {
+                    byte[] value = values.get(i);
+                    batch.add(new ConsumerRecord<>(TOPIC, 0, i, keys.get(i),
+                            value == null ? null : deserializer.deserialize(TOPIC, value)));
+                    if (batch.size() == BATCH || i == keys.size() - 1) {
+                        replica.apply(batch);
+                        batch.clear();
+                    }
+                }
+            }
+            long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+            Runtime runtime = Runtime.getRuntime();
+            System.gc();
+            System.out.printf("run %d: replayed %,d records into %,d products in %,d ms (%,d records/s), heap used ~%,d MB%n",
+                    run, keys.size(), replica.size(), elapsedMs, keys.size() * 1000L / Math.max(1, elapsedMs),
+                    (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+
+            assertEquals(PRODUCTS - PRODUCTS / 20, replica.size());
+            assertTrue(replica.find(21).isPresent());
+            assertTrue(replica.find(40).isEmpty());
+            assertTrue(elapsedMs < REPLAY_BUDGET_MS, "replay took " + elapsedMs + " ms");
+        }
+    }
+}
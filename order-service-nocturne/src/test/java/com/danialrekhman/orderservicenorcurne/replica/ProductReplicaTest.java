@@ -0,0 +1,123 @@
+package com.danialrekhman.orderservicenorcurne.replica;
+
+import com.danialrekhman.commonevents.ProductSnapshotEvent;
+import com.danialrekhman.commonevents.StockLevel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.support.serializer.SerializationUtils;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ProductReplicaTest {
+
+    private static final TopicPartition P0 = new TopicPartition("product-snapshots", 0);
+    private static final TopicPartition P1 = new TopicPartition("product-snapshots", 1);
+
+    private final ProductReplica replica = new ProductReplica(new SimpleMeterRegistry());
+    private long offset;
+
+    private ConsumerRecord<String, ProductSnapshotEvent> snapshot(long id, String price, boolean available, StockLevel level) {
+        return new ConsumerRecord<>("product-snapshots", 0, offset++, String.valueOf(id),
+                new ProductSnapshotEvent(id, new BigDecimal(price), available, level));
+    }
+
+    private ConsumerRecord<String, ProductSnapshotEvent> tombstone(long id) {
+        return new ConsumerRecord<>("product-snapshots", 0, offset++, String.valueOf(id), null);
+    }
+
+    @Test
+    void apply_LatestSnapshotWinsAndTombstoneRemoves() {
+        replica.apply(List.of(
+                snapshot(1, "19.99", true, StockLevel.IN_STOCK),
+                snapshot(2, "5", true, StockLevel.LOW),
+                snapshot(1, "17.50", false, StockLevel.OUT_OF_STOCK),
+                tombstone(2)));
+
+        ProductReplica.ProductView product = replica.find(1).orElseThrow();
+        assertEquals(new BigDecimal("17.50"), product.price());
+        assertFalse(product.available());
+        assertEquals(StockLevel.OUT_OF_STOCK, product.stockLevel());
+        assertTrue(replica.find(2).isEmpty());
+        assertTrue(replica.find(3).isEmpty());
+        assertEquals(1, replica.size());
+    }
+
+    @Test
+    void apply_UnreadableRecordDoesNotDeleteProduct() {
+        replica.apply(List.of(snapshot(1, "10.00", true, StockLevel.IN_STOCK)));
+        ConsumerRecord<String, ProductSnapshotEvent> broken = tombstone(1);
+        broken.headers().add(SerializationUtils.VALUE_DESERIALIZER_EXCEPTION_HEADER, new byte[0]);
+
+        replica.apply(List.of(broken));
+
+        assertTrue(replica.find(1).isPresent());
+    }
+
+    @Test
+    void apply_MatchesHashMapUnderRandomPutsAndDeletes() {
+        Random random = new Random(42);
+        Map<Long, BigDecimal> expected = new HashMap<>();
+        for (int round = 0; round < 50; round++) {
+            List<ConsumerRecord<String, ProductSnapshotEvent>> batch = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                long id = 1 + random.nextInt(5000);
+                if (random.nextInt(3) == 0) {
+                    batch.add(tombstone(id));
+                    expected.remove(id);
+                } else {
+                    BigDecimal price = BigDecimal.valueOf(random.nextInt(100_000), 2);
+                    batch.add(snapshot(id, price.toPlainString(), true, StockLevel.IN_STOCK));
+                    expected.put(id, price);
+                }
+            }
+            replica.apply(batch);
+        }
+
+        assertEquals(expected.size(), replica.size());
+        for (long id = 1; id <= 5000; id++) {
+            BigDecimal price = expected.get(id);
+            Optional<ProductReplica.ProductView> found = replica.find(id);
+            if (price == null)
+                assertTrue(found.isEmpty(), "id " + id);
+            else
+                assertEquals(price, found.orElseThrow().price(), "id " + id);
+        }
+    }
+
+    @Test
+    void isReady_OnceEveryPartitionIsReadToItsEnd() {
+        Consumer<?, ?> consumer = mock(Consumer.class);
+        when(consumer.beginningOffsets(anyCollection())).thenReturn(Map.of(P0, 0L, P1, 0L));
+        when(consumer.endOffsets(anyCollection())).thenReturn(Map.of(P0, 10L, P1, 0L));
+
+        replica.onPartitionsAssigned(consumer, List.of(P0, P1));
+        verify(consumer).seekToBeginning(List.of(P0, P1));
+        assertFalse(replica.isReady());
+
+        when(consumer.position(P0)).thenReturn(4L);
+        replica.replayed(consumer);
+        assertFalse(replica.isReady());
+
+        when(consumer.position(P0)).thenReturn(10L);
+        replica.replayed(consumer);
+        assertTrue(replica.isReady());
+    }
+
+    @Test
+    void isReady_ImmediatelyForEmptyTopic() {
+        Consumer<?, ?> consumer = mock(Consumer.class);
+        when(consumer.beginningOffsets(anyCollection())).thenReturn(Map.of(P0, 3L));
+        when(consumer.endOffsets(anyCollection())).thenReturn(Map.of(P0, 3L));
+
+        replica.onPartitionsAssigned(consumer, List.of(P0));
+
+        assertTrue(replica.isReady());
+    }
+}
@@ -0,0 +1,112 @@
+package com.danialrekhman.orderservicenorcurne.service;
+
+import com.danialrekhman.orderservicenorcurne.dto.ExportFormat;
+import com.danialrekhman.orderservicenorcurne.dto.OrderExportRow;
+import com.danialrekhman.orderservicenorcurne.exception.CustomAccessDeniedException;
+import com.danialrekhman.orderservicenorcurne.model.OrderStatus;
+import com.danialrekhman.orderservicenorcurne.repository.OrderRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class OrderExportServiceImplTest {
+
+    @Mock
+    private OrderRepository orderRepository;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+    @Mock
+    private Authentication authentication;
+
+    private OrderExportServiceImpl exportService;
+
+    private final LocalDateTime DATE = LocalDateTime.of(2025, 3, 1, 12, 0);
+
+    @BeforeEach
+    void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        exportService = new OrderExportServiceImpl(orderRepository, objectMapper, transactionManager);
+    }
+
+    private void mockAdminAuthentication() {
+        when(authentication.getAuthorities()).thenAnswer(invocation -> Collections.singletonList(
+                new SimpleGrantedAuthority("ROLE_ADMIN")));
+    }
+
+    private Stream<OrderExportRow> rows() {
+        return Stream.of(
+                new OrderExportRow(1L, "a@example.com", DATE, OrderStatus.PAID, new BigDecimal("25.50"), 2, 10L, 101L, 2, new BigDecimal("10.00")),
+                new OrderExportRow(1L, "a@example.com", DATE, OrderStatus.PAID, new BigDecimal("25.50"), 2, 11L, 102L, 1, new BigDecimal("5.50")),
+                new OrderExportRow(2L, "b,c@example.com", DATE, OrderStatus.PAID, BigDecimal.ZERO, 0, null, null, null, null));
+    }
+
+    private String run(StreamingResponseBody body) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void exportOrders_Ndjson_WritesOneLinePerOrder() throws Exception {
+        mockAdminAuthentication();
+        when(orderRepository.streamForExport(any(), any(), eq(EnumSet.of(OrderStatus.PAID)))).thenReturn(rows());
+
+        String result = run(exportService.exportOrders(null, null, OrderStatus.PAID, ExportFormat.NDJSON, authentication));
+
+        List<String> lines = result.lines().toList();
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).contains("\"id\":1"));
+        assertTrue(lines.get(0).contains("\"totalPrice\":25.50"));
+        assertTrue(lines.get(0).contains("\"itemCount\":2"));
+        assertTrue(lines.get(0).contains("\"productId\":102"));
+        assertTrue(lines.get(1).contains("\"items\":[]"));
+        verify(transactionManager).commit(any());
+    }
+
+    @Test
+    void exportOrders_Csv_WritesHeaderAndOneLinePerItem() throws Exception {
+        mockAdminAuthentication();
+        when(orderRepository.streamForExport(eq(DATE), any(), eq(EnumSet.allOf(OrderStatus.class)))).thenReturn(rows());
+
+        String result = run(exportService.exportOrders(DATE, null, null, ExportFormat.CSV, authentication));
+
+        List<String> lines = result.lines().toList();
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(0).startsWith("orderId,userEmail"));
+        assertEquals("1,a@example.com,2025-03-01T12:00,PAID,11,102,1,5.50", lines.get(2));
+        assertEquals("2,\"b,c@example.com\",2025-03-01T12:00,PAID,,,,", lines.get(3));
+    }
+
+    @Test
+    void exportOrders_WhenNotAdmin_ThrowsBeforeStreaming() {
+        when(authentication.getAuthorities()).thenAnswer(invocation -> Collections.emptyList());
+
+        assertThrows(CustomAccessDeniedException.class,
+                () -> exportService.exportOrders(null, null, null, ExportFormat.CSV, authentication));
+        verifyNoInteractions(orderRepository, transactionManager);
+    }
+}
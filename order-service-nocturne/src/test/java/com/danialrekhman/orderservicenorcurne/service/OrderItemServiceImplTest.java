@@ -82,6 +82,7 @@ class OrderItemServiceImplTest {
         assertEquals(ORDER_ITEM_ID, createdItem.getId());
         verify(orderRepository).findById(ORDER_ID);
         verify(orderItemRepository).save(orderItem);
+        verify(orderRepository).adjustTotals(ORDER_ID, new BigDecimal("100.00"), 1);
     }
 
     @Test
@@ -187,14 +188,18 @@ class OrderItemServiceImplTest {
     void updateOrderItemQuantity_AsAdmin_Success() {
         mockUserRole(true);
         int newQuantity = 5;
-        when(orderItemRepository.findById(ORDER_ITEM_ID)).thenReturn(Optional.of(orderItem));
+        when(orderItemRepository.findByIdForUpdate(ORDER_ITEM_ID)).thenReturn(Optional.of(orderItem));
         when(orderItemRepository.save(any(OrderItem.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
         OrderItem updatedItem = orderItemService.updateOrderItemQuantity(ORDER_ITEM_ID, newQuantity, authentication);
 
         assertEquals(newQuantity, updatedItem.getQuantity());
-        verify(orderItemRepository).findById(ORDER_ITEM_ID);
+        // дельта считается от количества, прочитанного под блокировкой строки
+        verify(orderItemRepository).findByIdForUpdate(ORDER_ITEM_ID);
+        verify(orderItemRepository, never()).findById(any());
         verify(orderItemRepository).save(orderItem);
+        // 2 -> 5 штук по 50.00: итог заказа растёт на 150.00, число позиций не меняется
+        verify(orderRepository).adjustTotals(ORDER_ID, new BigDecimal("150.00"), 0);
     }
 
     @Test
@@ -209,13 +214,14 @@ class OrderItemServiceImplTest {
     @Test
     void deleteOrderItem_AsAdmin_Success() {
         mockUserRole(true);
-        when(orderItemRepository.findById(ORDER_ITEM_ID)).thenReturn(Optional.of(orderItem));
+        when(orderItemRepository.findByIdForUpdate(ORDER_ITEM_ID)).thenReturn(Optional.of(orderItem));
         doNothing().when(orderItemRepository).deleteById(ORDER_ITEM_ID);
 
         orderItemService.deleteOrderItem(ORDER_ITEM_ID, authentication);
 
-        verify(orderItemRepository).findById(ORDER_ITEM_ID);
+        verify(orderItemRepository).findByIdForUpdate(ORDER_ITEM_ID);
         verify(orderItemRepository).deleteById(ORDER_ITEM_ID);
+        verify(orderRepository).adjustTotals(ORDER_ID, new BigDecimal("-100.00"), -1);
     }
 
     @Test
@@ -3,24 +3,35 @@ package com.danialrekhman.orderservicenorcurne.service;
 import com.danialrekhman.commonevents.OrderCreatedEvent;
 import com.danialrekhman.commonevents.PaymentFailedEvent;
 import com.danialrekhman.commonevents.PaymentProcessedEvent;
-import com.danialrekhman.commonevents.ProductCheckMessage;
+import com.danialrekhman.commonevents.ProductReservationLine;
+import com.danialrekhman.commonevents.ProductReservationMessage;
+import com.danialrekhman.commonevents.StockLevel;
+import com.danialrekhman.orderservicenorcurne.dto.CursorPage;
 import com.danialrekhman.orderservicenorcurne.dto.OrderItemRequestDTO;
 import com.danialrekhman.orderservicenorcurne.dto.OrderRequestDTO;
 import com.danialrekhman.orderservicenorcurne.exception.CustomAccessDeniedException;
+import com.danialrekhman.orderservicenorcurne.exception.InvalidCursorException;
+import com.danialrekhman.orderservicenorcurne.exception.InvalidOrderItemDataException;
 import com.danialrekhman.orderservicenorcurne.exception.OrderCancellationException;
+import com.danialrekhman.orderservicenorcurne.exception.TooManyPendingReservationsException;
 import com.danialrekhman.orderservicenorcurne.kafka.producer.OrderEventProducer;
 import com.danialrekhman.orderservicenorcurne.kafka.producer.ProductCheckProducer;
 import com.danialrekhman.orderservicenorcurne.model.Order;
 import com.danialrekhman.orderservicenorcurne.model.OrderItem;
 import com.danialrekhman.orderservicenorcurne.model.OrderStatus;
+import com.danialrekhman.orderservicenorcurne.replica.ProductReplica;
 import com.danialrekhman.orderservicenorcurne.repository.OrderRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.*;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -32,6 +43,9 @@ import java.util.concurrent.TimeoutException;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -44,6 +58,10 @@ class OrderServiceImplTest {
     @Mock
     private OrderEventProducer orderEventProducer;
     @Mock
+    private TransactionTemplate transactionTemplate;
+    @Mock
+    private ProductReplica productReplica;
+    @Mock
     private Authentication authentication;
 
     @InjectMocks
@@ -75,6 +93,12 @@ class OrderServiceImplTest {
         when(authentication.getName()).thenReturn(USER_EMAIL);
     }
 
+    @SuppressWarnings("unchecked")
+    private void runTransactionCallbacks() {
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.getArgument(0, TransactionCallback.class).doInTransaction(null));
+    }
+
     private void mockAdminAuthentication() {
         when(authentication.getAuthorities()).thenAnswer(invocation -> Collections.singletonList(
                 new SimpleGrantedAuthority("ROLE_ADMIN")));
@@ -87,12 +111,16 @@ class OrderServiceImplTest {
         OrderItemRequestDTO item1DTO = new OrderItemRequestDTO(PRODUCT_ID_1, 2, null);
         OrderRequestDTO requestDTO = new OrderRequestDTO(USER_EMAIL, List.of(item1DTO));
 
-        ProductCheckMessage response = ProductCheckMessage.builder()
-                .productId(PRODUCT_ID_1).available(true).priceAtOrder(new BigDecimal("10.00")).quantity(2).build();
+        ProductReservationMessage response = ProductReservationMessage.builder()
+                .available(true)
+                .items(List.of(ProductReservationLine.builder()
+                        .productId(PRODUCT_ID_1).quantity(2).priceAtOrder(new BigDecimal("10.00")).build()))
+                .build();
 
-        when(productCheckProducer.check(PRODUCT_ID_1, 2)).thenReturn(CompletableFuture.completedFuture(response));
-        when(orderRepository.save(any(Order.class))).thenReturn(order);
+        when(productCheckProducer.reserve(anyString(), anyList())).thenReturn(CompletableFuture.completedFuture(response));
+        when(orderRepository.save(any(Order.class))).thenAnswer(invocation -> invocation.getArgument(0));
         doNothing().when(orderEventProducer).publishOrderCreated(any(OrderCreatedEvent.class));
+        runTransactionCallbacks();
 
         Order createdOrder = orderService.createOrder(requestDTO, authentication);
 
@@ -100,31 +128,68 @@ class OrderServiceImplTest {
         assertEquals(USER_EMAIL, createdOrder.getUserEmail());
         assertEquals(OrderStatus.NEW, createdOrder.getStatus());
 
-        verify(productCheckProducer, times(1)).check(PRODUCT_ID_1, 2);
-        verify(orderRepository, times(1)).save(any(Order.class));
+        verify(productCheckProducer, times(1)).reserve(anyString(), anyList());
+        verify(orderRepository).save(orderCaptor.capture());
+        assertEquals(0, new BigDecimal("10.00").compareTo(orderCaptor.getValue().getItems().get(0).getPriceAtOrder()));
+        // отмена вернёт резерв по тому же id, подтверждение уходит в outbox вместе с заказом
+        assertNotNull(orderCaptor.getValue().getReservationId());
         verify(orderEventProducer, times(1)).publishOrderCreated(any(OrderCreatedEvent.class));
+        verify(orderEventProducer).publishReservationConfirmed(orderCaptor.getValue().getReservationId());
+        verify(transactionTemplate).execute(any());
         verify(productCheckProducer, never()).release(anyLong(), anyInt());
     }
 
     @Test
-    void createOrder_WhenOneProductIsUnavailable_ThrowsExceptionAndReleasesStock() {
+    void createOrder_SendsAllItemsInOneReservation() {
+        mockUserAuthentication();
+
+        OrderItemRequestDTO item1DTO = new OrderItemRequestDTO(PRODUCT_ID_1, 2, null);
+        OrderItemRequestDTO item2DTO = new OrderItemRequestDTO(PRODUCT_ID_2, 1, null);
+        OrderRequestDTO requestDTO = new OrderRequestDTO(USER_EMAIL, List.of(item1DTO, item2DTO));
+
+        ProductReservationMessage response = ProductReservationMessage.builder()
+                .available(true)
+                .items(List.of(
+                        ProductReservationLine.builder().productId(PRODUCT_ID_1).quantity(2).priceAtOrder(new BigDecimal("10.00")).build(),
+                        ProductReservationLine.builder().productId(PRODUCT_ID_2).quantity(1).priceAtOrder(new BigDecimal("5.00")).build()))
+                .build();
+
+        when(productCheckProducer.reserve(anyString(), anyList())).thenReturn(CompletableFuture.completedFuture(response));
+        when(orderRepository.save(any(Order.class))).thenReturn(order);
+        runTransactionCallbacks();
+
+        orderService.createOrder(requestDTO, authentication);
+
+        ArgumentCaptor<List<ProductReservationLine>> linesCaptor = ArgumentCaptor.forClass(List.class);
+        verify(productCheckProducer, times(1)).reserve(anyString(), linesCaptor.capture());
+        assertEquals(2, linesCaptor.getValue().size());
+        assertEquals(PRODUCT_ID_2, linesCaptor.getValue().get(1).getProductId());
+
+        verify(orderRepository).save(orderCaptor.capture());
+        assertEquals(0, new BigDecimal("5.00").compareTo(orderCaptor.getValue().getItems().get(1).getPriceAtOrder()));
+        // итоги сохраняются в order_table вместе с заказом
+        assertEquals(0, new BigDecimal("25.00").compareTo(orderCaptor.getValue().getTotalPrice()));
+        assertEquals(2, orderCaptor.getValue().getItemCount());
+    }
+
+    @Test
+    void createOrder_WhenReservationIsRejected_ThrowsExceptionWithoutRelease() {
         mockUserAuthentication();
 
         OrderItemRequestDTO item1DTO = new OrderItemRequestDTO(PRODUCT_ID_1, 2, null);
         OrderItemRequestDTO item2DTO = new OrderItemRequestDTO(PRODUCT_ID_2, 1, null);
         OrderRequestDTO requestDTO = new OrderRequestDTO(USER_EMAIL, List.of(item1DTO, item2DTO));
 
-        ProductCheckMessage availableResponse = ProductCheckMessage.builder()
-                .productId(PRODUCT_ID_1).available(true).priceAtOrder(new BigDecimal("10.00")).quantity(2).build();
-        ProductCheckMessage unavailableResponse = ProductCheckMessage.builder()
-                .productId(PRODUCT_ID_2).available(false).quantity(1).build();
+        ProductReservationMessage response = ProductReservationMessage.builder()
+                .available(false)
+                .message("Not enough stock for product with id " + PRODUCT_ID_2 + ".")
+                .build();
 
-        when(productCheckProducer.check(PRODUCT_ID_1, 2)).thenReturn(CompletableFuture.completedFuture(availableResponse));
-        when(productCheckProducer.check(PRODUCT_ID_2, 1)).thenReturn(CompletableFuture.completedFuture(unavailableResponse));
+        when(productCheckProducer.reserve(anyString(), anyList())).thenReturn(CompletableFuture.completedFuture(response));
 
         assertThrows(RuntimeException.class, () -> orderService.createOrder(requestDTO, authentication));
 
-        verify(productCheckProducer, times(1)).release(PRODUCT_ID_1, 2);
+        verify(productCheckProducer, never()).release(anyLong(), anyInt());
         verify(orderRepository, never()).save(any(Order.class));
         verify(orderEventProducer, never()).publishOrderCreated(any());
     }
@@ -135,13 +200,225 @@ class OrderServiceImplTest {
 
         OrderRequestDTO requestDTO = new OrderRequestDTO(USER_EMAIL, List.of(new OrderItemRequestDTO(PRODUCT_ID_1, 2, null)));
 
-        when(productCheckProducer.check(PRODUCT_ID_1, 2)).thenReturn(CompletableFuture.failedFuture(new TimeoutException("Timeout!")));
+        when(productCheckProducer.reserve(anyString(), anyList())).thenReturn(CompletableFuture.failedFuture(new TimeoutException("Timeout!")));
 
         assertThrows(RuntimeException.class, () -> orderService.createOrder(requestDTO, authentication));
 
         verify(orderRepository, never()).save(any());
     }
 
+    @Test
+    void createOrder_Async_SavesPendingOrderAndSendsReservation() {
+        ReflectionTestUtils.setField(orderService, "asyncPlacement", true);
+        mockUserAuthentication();
+
+        OrderRequestDTO requestDTO = new OrderRequestDTO(USER_EMAIL, List.of(new OrderItemRequestDTO(PRODUCT_ID_1, 2, null)));
+        when(orderRepository.save(any(Order.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        Order created = orderService.createOrder(requestDTO, authentication);
+
+        assertEquals(OrderStatus.PENDING_RESERVATION, created.getStatus());
+        assertNotNull(created.getReservationId());
+        InOrder inOrder = inOrder(productCheckProducer, orderRepository);
+        inOrder.verify(productCheckProducer).admit(created.getReservationId());
+        inOrder.verify(orderRepository).save(created);
+        inOrder.verify(productCheckProducer).sendReservation(eq(created.getReservationId()), anyList());
+        verify(productCheckProducer, never()).reserve(anyString(), anyList());
+        verify(orderEventProducer, never()).publishOrderCreated(any());
+    }
+
+    @Test
+    void createOrder_Async_WhenTooManyPending_DoesNotSaveOrder() {
+        ReflectionTestUtils.setField(orderService, "asyncPlacement", true);
+        mockUserAuthentication();
+        doThrow(new TooManyPendingReservationsException("busy")).when(productCheckProducer).admit(anyString());
+
+        OrderRequestDTO requestDTO = new OrderRequestDTO(USER_EMAIL, List.of(new OrderItemRequestDTO(PRODUCT_ID_1, 2, null)));
+
+        assertThrows(TooManyPendingReservationsException.class, () -> orderService.createOrder(requestDTO, authentication));
+        verify(orderRepository, never()).save(any());
+        verify(productCheckProducer, never()).sendReservation(anyString(), anyList());
+    }
+
+    @Test
+    void createOrder_WhenReplicaShowsProductSoldOut_RejectsWithoutReservation() {
+        mockUserAuthentication();
+        when(productReplica.isReady()).thenReturn(true);
+        when(productReplica.find(PRODUCT_ID_1)).thenReturn(Optional.of(
+                new ProductReplica.ProductView(PRODUCT_ID_1, new BigDecimal("10.00"), true, StockLevel.IN_STOCK)));
+        when(productReplica.find(PRODUCT_ID_2)).thenReturn(Optional.of(
+                new ProductReplica.ProductView(PRODUCT_ID_2, new BigDecimal("5.00"), true, StockLevel.OUT_OF_STOCK)));
+
+        OrderRequestDTO requestDTO = new OrderRequestDTO(USER_EMAIL, List.of(
+                new OrderItemRequestDTO(PRODUCT_ID_1, 2, null), new OrderItemRequestDTO(PRODUCT_ID_2, 1, null)));
+
+        InvalidOrderItemDataException e = assertThrows(InvalidOrderItemDataException.class,
+                () -> orderService.createOrder(requestDTO, authentication));
+        assertTrue(e.getMessage().contains(String.valueOf(PRODUCT_ID_2)));
+        verifyNoInteractions(productCheckProducer, orderRepository);
+    }
+
+    @Test
+    void createOrder_WhenReplicaDoesNotKnowProduct_RejectsWithoutReservation() {
+        ReflectionTestUtils.setField(orderService, "asyncPlacement", true);
+        mockUserAuthentication();
+        when(productReplica.isReady()).thenReturn(true);
+
+        OrderRequestDTO requestDTO = new OrderRequestDTO(USER_EMAIL, List.of(new OrderItemRequestDTO(PRODUCT_ID_1, 2, null)));
+
+        assertThrows(InvalidOrderItemDataException.class, () -> orderService.createOrder(requestDTO, authentication));
+        verifyNoInteractions(productCheckProducer, orderRepository);
+    }
+
+    @Test
+    void createOrder_Async_UsesReplicaPricesUntilReply() {
+        ReflectionTestUtils.setField(orderService, "asyncPlacement", true);
+        mockUserAuthentication();
+        when(productReplica.isReady()).thenReturn(true);
+        when(productReplica.find(PRODUCT_ID_1)).thenReturn(Optional.of(
+                new ProductReplica.ProductView(PRODUCT_ID_1, new BigDecimal("10.00"), true, StockLevel.LOW)));
+        when(orderRepository.save(any(Order.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        OrderRequestDTO requestDTO = new OrderRequestDTO(USER_EMAIL, List.of(new OrderItemRequestDTO(PRODUCT_ID_1, 2, null)));
+        Order created = orderService.createOrder(requestDTO, authentication);
+
+        assertEquals(0, new BigDecimal("10.00").compareTo(created.getItems().get(0).getPriceAtOrder()));
+        assertEquals(0, new BigDecimal("20.00").compareTo(created.getTotalPrice()));
+        verify(productCheckProducer).sendReservation(eq(created.getReservationId()), anyList());
+    }
+
+    @Test
+    void handleReservationResult_WhenReserved_SetsNewAndPublishesEvent() {
+        order.setStatus(OrderStatus.PENDING_RESERVATION);
+        order.setReservationId("corr-1");
+        order.getItems().get(0).setPriceAtOrder(BigDecimal.ZERO);
+        ProductReservationMessage response = ProductReservationMessage.builder()
+                .correlationId("corr-1")
+                .available(true)
+                .items(List.of(ProductReservationLine.builder()
+                        .productId(PRODUCT_ID_1).quantity(2).priceAtOrder(new BigDecimal("10.00")).build()))
+                .build();
+        when(orderRepository.findByReservationId("corr-1")).thenReturn(Optional.of(order));
+        when(orderRepository.transitionStatus(ORDER_ID, OrderStatus.PENDING_RESERVATION, OrderStatus.NEW)).thenReturn(1);
+        when(orderRepository.save(any(Order.class))).thenReturn(order);
+
+        orderService.handleReservationResult(response);
+
+        assertEquals(OrderStatus.NEW, order.getStatus());
+        assertEquals(0, new BigDecimal("10.00").compareTo(order.getItems().get(0).getPriceAtOrder()));
+        verify(orderEventProducer).publishOrderCreated(any(OrderCreatedEvent.class));
+        verify(orderEventProducer).publishReservationConfirmed("corr-1");
+    }
+
+    @Test
+    void handleReservationResult_WhenRejected_SetsFailed() {
+        order.setStatus(OrderStatus.PENDING_RESERVATION);
+        order.setReservationId("corr-1");
+        ProductReservationMessage response = ProductReservationMessage.builder()
+                .correlationId("corr-1")
+                .available(false)
+                .message("Not enough stock")
+                .build();
+        when(orderRepository.findByReservationId("corr-1")).thenReturn(Optional.of(order));
+        when(orderRepository.transitionStatus(ORDER_ID, OrderStatus.PENDING_RESERVATION, OrderStatus.FAILED)).thenReturn(1);
+
+        orderService.handleReservationResult(response);
+
+        assertEquals(OrderStatus.FAILED, order.getStatus());
+        verify(orderRepository, never()).save(any());
+        verify(orderEventProducer, never()).publishOrderCreated(any());
+    }
+
+    @Test
+    void handleReservationResult_WhenSweeperFailedOrderConcurrently_ReleasesReservedStock() {
+        order.setStatus(OrderStatus.PENDING_RESERVATION);
+        order.setReservationId("corr-1");
+        ProductReservationMessage response = ProductReservationMessage.builder()
+                .correlationId("corr-1")
+                .available(true)
+                .items(List.of(ProductReservationLine.builder()
+                        .productId(PRODUCT_ID_1).quantity(2).priceAtOrder(new BigDecimal("10.00")).build()))
+                .build();
+        when(orderRepository.findByReservationId("corr-1")).thenReturn(Optional.of(order));
+        // свипер успел перевести заказ в FAILED между чтением и обновлением
+        when(orderRepository.transitionStatus(ORDER_ID, OrderStatus.PENDING_RESERVATION, OrderStatus.NEW)).thenReturn(0);
+        when(orderRepository.findStatusById(ORDER_ID)).thenReturn(Optional.of(OrderStatus.FAILED));
+
+        orderService.handleReservationResult(response);
+
+        verify(productCheckProducer).releaseReservation("corr-1", response.getItems());
+        verify(orderRepository, never()).save(any());
+        verify(orderEventProducer, never()).publishOrderCreated(any());
+    }
+
+    @Test
+    void handleReservationResult_WhenOrderAlreadyCancelled_ReleasesReservedStock() {
+        order.setStatus(OrderStatus.CANCELLED);
+        order.setReservationId("corr-1");
+        ProductReservationMessage response = ProductReservationMessage.builder()
+                .correlationId("corr-1")
+                .available(true)
+                .items(List.of(ProductReservationLine.builder()
+                        .productId(PRODUCT_ID_1).quantity(2).priceAtOrder(new BigDecimal("10.00")).build()))
+                .build();
+        when(orderRepository.findByReservationId("corr-1")).thenReturn(Optional.of(order));
+
+        orderService.handleReservationResult(response);
+
+        verify(productCheckProducer).releaseReservation("corr-1", response.getItems());
+        verify(orderRepository, never()).save(any());
+    }
+
+    @Test
+    void handleReservationResult_WhenDuplicateReplyForLiveOrder_DoesNotRelease() {
+        order.setStatus(OrderStatus.NEW);
+        order.setReservationId("corr-1");
+        ProductReservationMessage response = ProductReservationMessage.builder()
+                .correlationId("corr-1")
+                .available(true)
+                .items(List.of(ProductReservationLine.builder()
+                        .productId(PRODUCT_ID_1).quantity(2).priceAtOrder(new BigDecimal("10.00")).build()))
+                .build();
+        when(orderRepository.findByReservationId("corr-1")).thenReturn(Optional.of(order));
+
+        orderService.handleReservationResult(response);
+
+        // дубль, пришедший одновременно с первым ответом: заказ уже NEW в базе
+        Order pending = new Order();
+        pending.setId(ORDER_ID);
+        pending.setStatus(OrderStatus.PENDING_RESERVATION);
+        pending.setReservationId("corr-1");
+        when(orderRepository.findByReservationId("corr-1")).thenReturn(Optional.of(pending));
+        when(orderRepository.transitionStatus(ORDER_ID, OrderStatus.PENDING_RESERVATION, OrderStatus.NEW)).thenReturn(0);
+        when(orderRepository.findStatusById(ORDER_ID)).thenReturn(Optional.of(OrderStatus.NEW));
+
+        orderService.handleReservationResult(response);
+
+        verify(productCheckProducer, never()).releaseReservation(any(), any());
+        verify(orderRepository, never()).save(any());
+        verify(orderEventProducer, never()).publishOrderCreated(any());
+    }
+
+    @Test
+    void handleReservationExpired_FailsOnlyUnpaidOrder() {
+        List<OrderStatus> unpaid = List.of(OrderStatus.NEW, OrderStatus.WAITING_FOR_PAYMENT);
+        when(orderRepository.failByReservationId("corr-1", unpaid, OrderStatus.FAILED)).thenReturn(1);
+
+        orderService.handleReservationExpired("corr-1");
+
+        verify(orderRepository, never()).findByReservationId(any());
+
+        // оплаченный заказ не трогаем
+        order.setStatus(OrderStatus.PAID);
+        when(orderRepository.failByReservationId("corr-2", unpaid, OrderStatus.FAILED)).thenReturn(0);
+        when(orderRepository.findByReservationId("corr-2")).thenReturn(Optional.of(order));
+
+        orderService.handleReservationExpired("corr-2");
+
+        assertEquals(OrderStatus.PAID, order.getStatus());
+        verify(orderRepository, never()).save(any());
+    }
+
     @Test
     void getOrderById_AsOwner_Success() {
         mockUserAuthentication();
@@ -205,12 +482,74 @@ class OrderServiceImplTest {
         mockUserAuthentication();
         order.setStatus(OrderStatus.PAID);
         when(orderRepository.findById(ORDER_ID)).thenReturn(Optional.of(order));
+        when(orderRepository.transitionStatus(ORDER_ID, OrderStatus.PAID, OrderStatus.CANCELLED)).thenReturn(1);
 
-        orderService.cancelOrder(ORDER_ID, authentication);
+        assertEquals(OrderStatus.CANCELLED, orderService.cancelOrder(ORDER_ID, authentication).getStatus());
 
         verify(productCheckProducer).release(PRODUCT_ID_1, 2);
-        verify(orderRepository).save(orderCaptor.capture());
-        assertEquals(OrderStatus.CANCELLED, orderCaptor.getValue().getStatus());
+        verify(orderRepository, never()).save(any());
+    }
+
+    @Test
+    void cancelOrder_WithReservationId_ReleasesWholeReservation() {
+        mockUserAuthentication();
+        order.setStatus(OrderStatus.NEW);
+        order.setReservationId("corr-1");
+        when(orderRepository.findById(ORDER_ID)).thenReturn(Optional.of(order));
+        when(orderRepository.transitionStatus(ORDER_ID, OrderStatus.NEW, OrderStatus.CANCELLED)).thenReturn(1);
+
+        orderService.cancelOrder(ORDER_ID, authentication);
+
+        ArgumentCaptor<List<ProductReservationLine>> linesCaptor = ArgumentCaptor.forClass(List.class);
+        verify(productCheckProducer).releaseReservation(eq("corr-1"), linesCaptor.capture());
+        assertEquals(PRODUCT_ID_1, linesCaptor.getValue().get(0).getProductId());
+        assertEquals(2, linesCaptor.getValue().get(0).getQuantity());
+        verify(productCheckProducer, never()).release(anyLong(), anyInt());
+    }
+
+    @Test
+    void cancelOrder_WhenAlreadyCancelled_DoesNotReleaseAgain() {
+        mockUserAuthentication();
+        order.setStatus(OrderStatus.CANCELLED);
+        order.setReservationId("corr-1");
+        when(orderRepository.findById(ORDER_ID)).thenReturn(Optional.of(order));
+
+        assertEquals(OrderStatus.CANCELLED, orderService.cancelOrder(ORDER_ID, authentication).getStatus());
+
+        verify(productCheckProducer, never()).releaseReservation(anyString(), anyList());
+        verify(productCheckProducer, never()).release(anyLong(), anyInt());
+        verify(orderRepository, never()).save(any());
+    }
+
+    @Test
+    void cancelOrder_WhenPendingReservation_DoesNotReleaseStock() {
+        mockUserAuthentication();
+        order.setStatus(OrderStatus.PENDING_RESERVATION);
+        when(orderRepository.findById(ORDER_ID)).thenReturn(Optional.of(order));
+        when(orderRepository.transitionStatus(ORDER_ID, OrderStatus.PENDING_RESERVATION, OrderStatus.CANCELLED))
+                .thenReturn(1);
+
+        assertEquals(OrderStatus.CANCELLED, orderService.cancelOrder(ORDER_ID, authentication).getStatus());
+
+        verify(productCheckProducer, never()).release(anyLong(), anyInt());
+        verify(productCheckProducer, never()).releaseReservation(anyString(), anyList());
+    }
+
+    @Test
+    void cancelOrder_WhenReservedConcurrently_CancelsFromNewAndReleases() {
+        mockUserAuthentication();
+        order.setStatus(OrderStatus.PENDING_RESERVATION);
+        order.setReservationId("corr-1");
+        when(orderRepository.findById(ORDER_ID)).thenReturn(Optional.of(order));
+        // между чтением и отменой ответ резерва перевёл заказ в NEW
+        when(orderRepository.transitionStatus(ORDER_ID, OrderStatus.PENDING_RESERVATION, OrderStatus.CANCELLED))
+                .thenReturn(0);
+        when(orderRepository.findStatusById(ORDER_ID)).thenReturn(Optional.of(OrderStatus.NEW));
+        when(orderRepository.transitionStatus(ORDER_ID, OrderStatus.NEW, OrderStatus.CANCELLED)).thenReturn(1);
+
+        assertEquals(OrderStatus.CANCELLED, orderService.cancelOrder(ORDER_ID, authentication).getStatus());
+
+        verify(productCheckProducer).releaseReservation(eq("corr-1"), anyList());
     }
 
     @Test
@@ -224,4 +563,102 @@ class OrderServiceImplTest {
         verify(productCheckProducer, never()).release(anyLong(), anyInt());
         verify(orderRepository, never()).save(any());
     }
-}
\ No newline at end of file
+
+    private Order orderAt(long id, LocalDateTime date) {
+        Order o = new Order();
+        o.setId(id);
+        o.setUserEmail(USER_EMAIL);
+        o.setStatus(OrderStatus.NEW);
+        o.setOrderDate(date);
+        return o;
+    }
+
+    @Test
+    void getAllOrders_WhenMoreRowsThanPage_ReturnsNextCursorAndBatchLoadsItems() {
+        mockAdminAuthentication();
+        LocalDateTime now = LocalDateTime.now();
+        List<Order> rows = List.of(orderAt(3L, now), orderAt(2L, now.minusMinutes(1)), orderAt(1L, now.minusMinutes(2)));
+        when(orderRepository.findFirstPage(Limit.of(3))).thenReturn(rows);
+        when(orderRepository.findAllWithItemsByIdIn(List.of(3L, 2L))).thenReturn(List.of(rows.get(1), rows.get(0)));
+
+        CursorPage<Order> page = orderService.getAllOrders(null, 2, authentication);
+
+        assertEquals(List.of(3L, 2L), page.getItems().stream().map(Order::getId).toList());
+        assertNotNull(page.getNextCursor());
+
+        // курсор указывает на последний заказ страницы
+        when(orderRepository.findPageAfter(now.minusMinutes(1), 2L, Limit.of(3))).thenReturn(List.of(rows.get(2)));
+        when(orderRepository.findAllWithItemsByIdIn(List.of(1L))).thenReturn(List.of(rows.get(2)));
+
+        CursorPage<Order> next = orderService.getAllOrders(page.getNextCursor(), 2, authentication);
+
+        assertEquals(List.of(1L), next.getItems().stream().map(Order::getId).toList());
+        assertNull(next.getNextCursor());
+        verify(orderRepository, never()).findAllByOrderByOrderDateDesc();
+    }
+
+    @Test
+    void getAllOrders_WhenNotAdmin_ThrowsAccessDenied() {
+        when(authentication.getAuthorities()).thenAnswer(invocation -> Collections.emptyList());
+
+        assertThrows(CustomAccessDeniedException.class, () -> orderService.getAllOrders(null, 20, authentication));
+        verifyNoInteractions(orderRepository);
+    }
+
+    @Test
+    void getOrdersByUserEmail_WhenCursorIsMalformed_ThrowsInvalidCursor() {
+        mockUserAuthentication();
+        when(authentication.getAuthorities()).thenAnswer(invocation -> Collections.emptyList());
+
+        assertThrows(InvalidCursorException.class,
+                () -> orderService.getOrdersByUserEmail(USER_EMAIL, "not-a-cursor", 20, authentication));
+        verifyNoInteractions(orderRepository);
+    }
+
+    @Test
+    void getOrdersByUserEmail_ClampsPageSizeAndSkipsItemQueryForEmptyPage() {
+        mockUserAuthentication();
+        when(authentication.getAuthorities()).thenAnswer(invocation -> Collections.emptyList());
+        when(orderRepository.findFirstPageByUserEmail(USER_EMAIL, Limit.of(101))).thenReturn(List.of());
+
+        CursorPage<Order> page = orderService.getOrdersByUserEmail(USER_EMAIL, null, 10_000, authentication);
+
+        assertTrue(page.getItems().isEmpty());
+        assertNull(page.getNextCursor());
+        verify(orderRepository, never()).findAllWithItemsByIdIn(any());
+    }
+
+    @Test
+    void getAllOrderSummaries_DoesNotLoadItems() {
+        mockAdminAuthentication();
+        LocalDateTime now = LocalDateTime.now();
+        when(orderRepository.findFirstPage(Limit.of(3))).thenReturn(List.of(orderAt(2L, now), orderAt(1L, now)));
+
+        CursorPage<Order> page = orderService.getAllOrderSummaries(null, 2, authentication);
+
+        assertEquals(2, page.getItems().size());
+        assertNull(page.getNextCursor());
+        verify(orderRepository, never()).findAllWithItemsByIdIn(any());
+    }
+
+    @Test
+    void applyPaymentStatus_UpdatesAllOrdersWithOneStatement() {
+        when(orderRepository.updateStatusByIdIn(List.of(1L, 2L),
+                List.of(OrderStatus.NEW, OrderStatus.WAITING_FOR_PAYMENT), OrderStatus.PAID)).thenReturn(2);
+
+        assertEquals(2, orderService.applyPaymentStatus(List.of(1L, 2L), OrderStatus.PAID));
+
+        verify(orderRepository, never()).findById(any());
+        verify(orderRepository, never()).save(any());
+    }
+
+    @Test
+    void applyPaymentStatus_FailedPaymentDoesNotMovePaidOrderBack() {
+        // неудачная попытка, пришедшая после успешной, не должна вернуть PAID в WAITING_FOR_PAYMENT
+        when(orderRepository.updateStatusByIdIn(List.of(1L), List.of(OrderStatus.NEW), OrderStatus.WAITING_FOR_PAYMENT))
+                .thenReturn(0);
+
+        assertEquals(0, orderService.applyPaymentStatus(List.of(1L), OrderStatus.WAITING_FOR_PAYMENT));
+        assertThrows(IllegalArgumentException.class, () -> orderService.applyPaymentStatus(List.of(1L), OrderStatus.SHIPPED));
+    }
+}
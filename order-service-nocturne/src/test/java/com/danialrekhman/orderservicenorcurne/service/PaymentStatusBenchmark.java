@@ -0,0 +1,146 @@
+package com.danialrekhman.orderservicenorcurne.service;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * События payment-processed в секунду на Postgres: findById + save в своей транзакции на каждое событие
+ * (как {@link OrderServiceImpl#handlePaymentResult}) против одного условного UPDATE на пачку poll-а
+ * (как {@link OrderServiceImpl#applyPaymentStatus}). Один поток — как потребитель одной партиции.
+ * <p>
+ * Запуск: {@code mvn test -Dtest=PaymentStatusBenchmark -Dbenchmark=true} (нужен Docker)
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@Testcontainers(disabledWithoutDocker = true)
+class PaymentStatusBenchmark {
+
+    @Container
+    static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private static final int ORDERS = 200_000;
+    private static final int SINGLE_EVENTS = 10_000;
+    private static final int BATCH_EVENTS = 100_000;
+
+    @BeforeAll
+    static void createOrders() throws SQLException {
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            statement.execute("""
+                    CREATE TABLE order_table (
+                        id bigint PRIMARY KEY,
+                        user_email varchar(255),
+                        order_date timestamp(6),
+                        status varchar(32),
+                        total_price numeric(38,2),
+                        item_count int)""");
+        }
+    }
+
+    @BeforeEach
+    void resetStatuses() throws SQLException {
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            statement.execute("TRUNCATE order_table");
+            statement.execute("INSERT INTO order_table SELECT g, 'user' || g || '@example.com', now(), 'NEW', 100.00, 1 "
+                    + "FROM generate_series(1, " + ORDERS + ") g");
+            statement.execute("VACUUM ANALYZE order_table");
+        }
+    }
+
+    private static Connection connect() throws SQLException {
+        return DriverManager.getConnection(POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword());
+    }
+
+    private static long[] events(int count) {
+        SplittableRandom random = new SplittableRandom(42);
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++)
+            ids[i] = 1 + random.nextInt(ORDERS);
+        return ids;
+    }
+
+    @Test
+    void perEventVsBatchUpdate() throws SQLException {
+        double single = perEvent(events(SINGLE_EVENTS));
+        for (int pollSize : new int[]{100, 500, 2000}) {
+            resetStatuses();
+            double batched = batched(events(BATCH_EVENTS), pollSize);
+            assertTrue(batched > single, "batch update should handle more events per second");
+        }
+    }
+
+    private double perEvent(long[] ids) throws SQLException {
+        try (Connection connection = connect();
+             PreparedStatement find = connection.prepareStatement(
+                     "SELECT id, user_email, order_date, status, total_price, item_count FROM order_table WHERE id = ?");
+             PreparedStatement save = connection.prepareStatement(
+                     "UPDATE order_table SET user_email = ?, order_date = ?, status = ?, total_price = ?, item_count = ? WHERE id = ?")) {
+            connection.setAutoCommit(false);
+            long start = System.nanoTime();
+            for (long id : ids) {
+                find.setLong(1, id);
+                try (ResultSet rs = find.executeQuery()) {
+                    rs.next();
+                    save.setString(1, rs.getString(2));
+                    save.setTimestamp(2, rs.getTimestamp(3));
+                    save.setString(3, "PAID");
+                    save.setBigDecimal(4, rs.getBigDecimal(5));
+                    save.setInt(5, rs.getInt(6));
+                    save.setLong(6, id);
+                }
+                save.executeUpdate();
+                connection.commit();
+            }
+            return report("findById + save per event", ids.length, System.nanoTime() - start);
+        }
+    }
+
+    private double batched(long[] ids, int pollSize) throws SQLException {
+        int paid = 0;
+        try (Connection connection = connect();
+             PreparedStatement update = connection.prepareStatement(
+                     "UPDATE order_table SET status = 'PAID' WHERE id = ANY (?) AND status = ANY (?)")) {
+            connection.setAutoCommit(false);
+            long start = System.nanoTime();
+            for (int from = 0; from < ids.length; from += pollSize) {
+                List<Long> poll = new ArrayList<>(pollSize);
+                for (int i = from; i < Math.min(ids.length, from + pollSize); i++)
+                    poll.add(ids[i]);
+                update.setArray(1, connection.createArrayOf("bigint", poll.toArray()));
+                update.setArray(2, connection.createArrayOf("varchar", new Object[]{"NEW", "WAITING_FOR_PAYMENT"}));
+                paid += update.executeUpdate();
+                connection.commit();
+            }
+            double perSecond = report("one UPDATE per poll of " + pollSize, ids.length, System.nanoTime() - start);
+            // повторные события по уже оплаченным заказам ничего не меняют
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery("SELECT count(*) FROM order_table WHERE status = 'PAID'")) {
+                rs.next();
+                assertEquals(rs.getInt(1), paid);
+            }
+            return perSecond;
+        }
+    }
+
+    private static double report(String name, int events, long nanos) {
+        double perSecond = events / (nanos / 1e9);
+        System.out.printf("%-32s %,12.0f events/s%n", name, perSecond);
+        return perSecond;
+    }
+}
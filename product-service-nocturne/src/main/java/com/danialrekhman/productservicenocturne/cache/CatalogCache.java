@@ -0,0 +1,139 @@
+package com.danialrekhman.productservicenocturne.cache;
+
+import com.danialrekhman.commonevents.CatalogChangedEvent;
+import com.danialrekhman.productservicenocturne.dto.CursorPage;
+import com.danialrekhman.productservicenocturne.dto.ProductResponseDTO;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Read-through кэш каталога: готовые DTO карточек и страниц листинга (дерево категорий держит
+ * {@link com.danialrekhman.productservicenocturne.category.CategoryTreeHolder}).
+ * <p>
+ * Снимки неизменяемы и отдаются всем читателям как есть. Изменение товара или категории
+ * сбрасывает затронутые записи после коммита и рассылается в топик {@value #TOPIC}, чтобы
+ * остальные реплики сбросили свои копии. Остатки меняются с каждым заказом и инвалидацию не
+ * вызывают — их свежесть ограничена TTL (у горячих товаров остаток подставляется из памяти).
+ * <p>
+ * Каждое изменение поднимает версию каталога ({@link #version()}), из которой строятся ETag-и
+ * списков. Версия — гибридные часы: не меньше текущего времени в мс и больше любой виденной,
+ * в том числе пришедшей в событии с другой реплики, поэтому переживает рестарт и не совпадает
+ * у разных состояний каталога. Поднимается только после сброса кэша: читатель, увидевший новую
+ * версию, уже не получит старый снимок.
+ */
+@Slf4j
+@Component
+public class CatalogCache {
+
+    public static final String TOPIC = "catalog-changed";
+    public static final String PRODUCT = "PRODUCT";
+    public static final String CATEGORY = "CATEGORY";
+    // массовое изменение товаров (импорт): сбрасывается всё, id нет
+    public static final String CATALOG = "CATALOG";
+
+    private final KafkaTemplate<String, CatalogChangedEvent> catalogKafkaTemplate;
+
+    private final Cache<Long, ProductResponseDTO> products;
+    private final Cache<String, CursorPage<ProductResponseDTO>> productPages;
+    private final AtomicLong version = new AtomicLong(System.currentTimeMillis());
+
+    public CatalogCache(KafkaTemplate<String, CatalogChangedEvent> catalogKafkaTemplate,
+                        MeterRegistry registry,
+                        @Value("${product.catalog.cache.max-products:10000}") long maxProducts,
+                        @Value("${product.catalog.cache.max-lists:1000}") long maxLists,
+                        @Value("${product.catalog.cache.ttl-seconds:30}") long ttlSeconds) {
+        this.catalogKafkaTemplate = catalogKafkaTemplate;
+        Duration ttl = Duration.ofSeconds(ttlSeconds);
+        products = CaffeineCacheMetrics.monitor(registry,
+                Caffeine.newBuilder().maximumSize(maxProducts).expireAfterWrite(ttl).recordStats().build(),
+                "catalog.products");
+        productPages = CaffeineCacheMetrics.monitor(registry,
+                Caffeine.newBuilder().maximumSize(maxLists).expireAfterWrite(ttl).recordStats().build(),
+                "catalog.product-pages");
+    }
+
+    public long version() {
+        return version.get();
+    }
+
+    // Исключение из loader (например, товар не найден) пробрасывается и не кэшируется
+    public ProductResponseDTO product(Long id, Function<Long, ProductResponseDTO> loader) {
+        return products.get(id, loader);
+    }
+
+    // key описывает запрос целиком: категория, сортировка, размер, курсор или номер страницы
+    public CursorPage<ProductResponseDTO> productPage(String key, Supplier<CursorPage<ProductResponseDTO>> loader) {
+        return productPages.get(key, k -> {
+            CursorPage<ProductResponseDTO> page = loader.get();
+            return new CursorPage<>(List.copyOf(page.getItems()), page.getNextCursor());
+        });
+    }
+
+    public void productChanged(Long id) {
+        changed(new CatalogChangedEvent(PRODUCT, id));
+    }
+
+    public void categoryChanged(Long id) {
+        changed(new CatalogChangedEvent(CATEGORY, id));
+    }
+
+    public void catalogChanged() {
+        changed(new CatalogChangedEvent(CATALOG, null));
+    }
+
+    // Событие от любой реплики, включая эту. Сброс и подъём версии идут под одним замком:
+    // версия не обгонит сброс, сделанный параллельным изменением
+    public synchronized void apply(CatalogChangedEvent event) {
+        if (CATEGORY.equals(event.getEntity()) || CATALOG.equals(event.getEntity())) {
+            // имя категории есть в каждой карточке товара
+            products.invalidateAll();
+            productPages.invalidateAll();
+        } else {
+            if (event.getId() != null)
+                products.invalidate(event.getId());
+            productPages.invalidateAll();
+        }
+        version.accumulateAndGet(event.getVersion(), Math::max);
+    }
+
+    // До коммита сбрасывать нельзя: параллельный читатель успел бы положить в кэш старую версию
+    private void changed(CatalogChangedEvent event) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidateAndPublish(event);
+                }
+            });
+        } else {
+            invalidateAndPublish(event);
+        }
+    }
+
+    private void invalidateAndPublish(CatalogChangedEvent event) {
+        synchronized (this) {
+            event.setVersion(Math.max(version.get() + 1, System.currentTimeMillis()));
+            apply(event);
+        }
+        catalogKafkaTemplate.send(TOPIC, String.valueOf(event.getId()), event)
+                .whenComplete((result, ex) -> {
+                    if (ex != null)
+                        log.warn("Failed to publish catalog change {} {}, other replicas stay stale until TTL",
+                                event.getEntity(), event.getId(), ex);
+                });
+    }
+}
@@ -0,0 +1,50 @@
+package com.danialrekhman.productservicenocturne.cache;
+
+import com.danialrekhman.productservicenocturne.category.CategoryTreeHolder;
+import com.danialrekhman.productservicenocturne.dto.ProductResponseDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * ETag-и каталога для условных GET. Считаются из версий в памяти, поэтому If-None-Match
+ * проверяется до запросов к базе и маппинга.
+ * <p>
+ * Списки товаров: версия каталога из {@link CatalogCache} и номер интервала TTL. Остатки версию
+ * не поднимают (как и кэш, они обновляются по TTL), интервал ограничивает, сколько клиент
+ * будет получать 304 со старым остатком. Карточка: версия товара (@Version), остаток и версия
+ * его категории, имя которой есть в карточке. Категории: отпечаток снимка дерева.
+ * ETag-и слабые: одинаковый ETag — равнозначное, а не побайтово то же тело.
+ */
+@Component
+public class CatalogETags {
+
+    private final CatalogCache catalogCache;
+    private final CategoryTreeHolder categoryTree;
+    private final long stockIntervalMillis;
+
+    public CatalogETags(CatalogCache catalogCache,
+                        CategoryTreeHolder categoryTree,
+                        @Value("${product.catalog.cache.ttl-seconds:30}") long ttlSeconds) {
+        this.catalogCache = catalogCache;
+        this.categoryTree = categoryTree;
+        this.stockIntervalMillis = Math.max(1, ttlSeconds) * 1000;
+    }
+
+    // Берётся до чтения тела: изменение между ними даст лишний 200, но не 304 на новые данные
+    public String productList() {
+        return "W/\"l" + Long.toString(catalogCache.version(), 36)
+                + "." + Long.toString(System.currentTimeMillis() / stockIntervalMillis, 36) + "\"";
+    }
+
+    public String product(ProductResponseDTO product) {
+        long categoryVersion = categoryTree.get().find(product.getCategoryId())
+                .map(category -> category.getVersion())
+                .orElse(0L);
+        return "W/\"p" + product.getId() + "." + product.getVersion() + "." + product.getQuantity()
+                + "." + categoryVersion + "\"";
+    }
+
+    public String categories() {
+        return "W/\"c" + Long.toString(categoryTree.get().version(), 36) + "\"";
+    }
+}
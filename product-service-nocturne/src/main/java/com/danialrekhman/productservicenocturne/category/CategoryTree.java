@@ -0,0 +1,164 @@
+package com.danialrekhman.productservicenocturne.category;
+
+import com.danialrekhman.productservicenocturne.dto.CategoryResponseDTO;
+import com.danialrekhman.productservicenocturne.repository.projection.CategoryRow;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+
+/**
+ * Неизменяемый снимок дерева категорий.
+ * <p>
+ * Категории лежат в порядке обхода в глубину (preorder): поддерево узла — непрерывный отрезок
+ * {@code [position, end]}, поэтому «потомок ли b узла a» — два сравнения, а список id поддерева —
+ * срез массива. DTO всех узлов собраны заранее, снизу вверх, и разделяются между запросами.
+ * Узлы, не достижимые от корней (цикл в parent_id), в снимок не попадают.
+ * <p>
+ * {@link #version()} — отпечаток (id, версия) всех категорий: меняется при любом изменении дерева
+ * и одинаков на всех репликах, прочитавших одно и то же состояние.
+ */
+@Slf4j
+public final class CategoryTree {
+
+    private final long[] ids;          // preorder
+    private final int[] ends;          // последняя позиция поддерева
+    private final Map<Long, Integer> positions;
+    private final List<CategoryResponseDTO> roots;
+    private final Map<Long, CategoryResponseDTO> nodes;
+    private final long version;
+
+    private CategoryTree(long[] ids, int[] ends, Map<Long, Integer> positions,
+                         List<CategoryResponseDTO> roots, Map<Long, CategoryResponseDTO> nodes, long version) {
+        this.ids = ids;
+        this.ends = ends;
+        this.positions = positions;
+        this.roots = roots;
+        this.nodes = nodes;
+        this.version = version;
+    }
+
+    public static CategoryTree of(List<CategoryRow> rows) {
+        Map<Long, CategoryRow> byId = new HashMap<>();
+        Map<Long, List<Long>> children = new HashMap<>();
+        List<Long> rootIds = new ArrayList<>();
+        rows.forEach(row -> byId.put(row.id(), row));
+        for (CategoryRow row : rows) {
+            if (row.parentId() == null || !byId.containsKey(row.parentId()))
+                rootIds.add(row.id());
+            else
+                children.computeIfAbsent(row.parentId(), id -> new ArrayList<>()).add(row.id());
+        }
+        rootIds.sort(null);
+        children.values().forEach(list -> list.sort(null));
+
+        // обход без рекурсии: глубина дерева не ограничена стеком
+        long[] ids = new long[rows.size()];
+        int[] ends = new int[rows.size()];
+        Map<Long, Integer> positions = new HashMap<>();
+        Deque<long[]> stack = new ArrayDeque<>(); // {id, позиция, 0 — вход / 1 — выход}
+        for (int r = rootIds.size() - 1; r >= 0; r--)
+            stack.push(new long[]{rootIds.get(r), -1, 0});
+        int next = 0;
+        while (!stack.isEmpty()) {
+            long[] frame = stack.pop();
+            long id = frame[0];
+            if (frame[2] == 1) {
+                ends[(int) frame[1]] = next - 1;
+                continue;
+            }
+            int position = next++;
+            ids[position] = id;
+            positions.put(id, position);
+            stack.push(new long[]{id, position, 1});
+            List<Long> kids = children.getOrDefault(id, List.of());
+            for (int c = kids.size() - 1; c >= 0; c--)
+                stack.push(new long[]{kids.get(c), -1, 0});
+        }
+        if (next < rows.size())
+            log.warn("{} categories are unreachable from root categories (parent cycle) and are left out of the tree",
+                    rows.size() - next);
+
+        // DTO снизу вверх: в обратном preorder дети всегда собраны раньше родителя
+        Map<Long, CategoryResponseDTO> nodes = new HashMap<>();
+        for (int position = next - 1; position >= 0; position--) {
+            CategoryRow row = byId.get(ids[position]);
+            List<CategoryResponseDTO> subcategories = children.getOrDefault(row.id(), List.of()).stream()
+                    .map(nodes::get)
+                    .toList();
+            nodes.put(row.id(), CategoryResponseDTO.builder()
+                    .id(row.id())
+                    .name(row.name())
+                    .parentId(row.parentId())
+                    .version(row.version())
+                    .subcategories(subcategories)
+                    .build());
+        }
+        List<CategoryResponseDTO> roots = rootIds.stream().map(nodes::get).toList();
+        return new CategoryTree(Arrays.copyOf(ids, next), Arrays.copyOf(ends, next),
+                Map.copyOf(positions), roots, Map.copyOf(nodes), fingerprint(rows));
+    }
+
+    // Порядок строк не важен: отпечатки строк складываются
+    private static long fingerprint(List<CategoryRow> rows) {
+        long hash = rows.size();
+        for (CategoryRow row : rows)
+            hash += mix(row.id() * 0x9E3779B97F4A7C15L + row.version());
+        return hash;
+    }
+
+    // финализатор splitmix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public boolean contains(Long id) {
+        return id != null && positions.containsKey(id);
+    }
+
+    public List<CategoryResponseDTO> roots() {
+        return roots;
+    }
+
+    public Optional<CategoryResponseDTO> find(Long id) {
+        return Optional.ofNullable(id != null ? nodes.get(id) : null);
+    }
+
+    // Сама категория и все её потомки в порядке обхода; пусто, если категории нет
+    public List<Long> subtreeIds(Long id) {
+        Integer position = id != null ? positions.get(id) : null;
+        if (position == null)
+            return List.of();
+        List<Long> subtree = new ArrayList<>(ends[position] - position + 1);
+        for (int i = position; i <= ends[position]; i++)
+            subtree.add(ids[i]);
+        return subtree;
+    }
+
+    // От корня к родителю
+    public List<Long> ancestorIds(Long id) {
+        LinkedList<Long> ancestors = new LinkedList<>();
+        CategoryResponseDTO node = id != null ? nodes.get(id) : null;
+        while (node != null && node.getParentId() != null) {
+            ancestors.addFirst(node.getParentId());
+            node = nodes.get(node.getParentId());
+        }
+        return ancestors;
+    }
+
+    // true, если descendant лежит в поддереве ancestor (включая совпадение)
+    public boolean isInSubtree(Long ancestor, Long descendant) {
+        Integer a = ancestor != null ? positions.get(ancestor) : null;
+        Integer d = descendant != null ? positions.get(descendant) : null;
+        return a != null && d != null && a <= d && d <= ends[a];
+    }
+}
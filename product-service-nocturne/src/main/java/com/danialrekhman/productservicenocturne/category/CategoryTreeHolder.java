@@ -0,0 +1,60 @@
+package com.danialrekhman.productservicenocturne.category;
+
+import com.danialrekhman.productservicenocturne.repository.CategoryRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Текущий снимок {@link CategoryTree}. Строится при первом обращении одним запросом и целиком
+ * заменяется новым после коммита изменения категории (на остальных репликах — по событию
+ * каталога). Читатели никогда не видят наполовину перестроенное дерево.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CategoryTreeHolder {
+
+    private final CategoryRepository categoryRepository;
+
+    private volatile CategoryTree tree;
+
+    public CategoryTree get() {
+        CategoryTree current = tree;
+        if (current == null) {
+            synchronized (this) {
+                if (tree == null)
+                    tree = build();
+                current = tree;
+            }
+        }
+        return current;
+    }
+
+    // До коммита перестраивать нельзя: запрос не увидит изменений этой транзакции
+    public void categoryChanged() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    rebuild();
+                }
+            });
+        } else {
+            rebuild();
+        }
+    }
+
+    // Перестройки идут по одной: снимок, прочитанный позже, не затрётся более старым
+    public synchronized void rebuild() {
+        tree = build();
+    }
+
+    private CategoryTree build() {
+        CategoryTree built = CategoryTree.of(categoryRepository.findAllRows());
+        log.debug("Category tree built: {} categories", built.size());
+        return built;
+    }
+}
@@ -1,15 +1,23 @@
 package com.danialrekhman.productservicenocturne.config;
 
+import com.danialrekhman.commonevents.CatalogChangedEvent;
 import com.danialrekhman.commonevents.ProductCheckMessage;
+import com.danialrekhman.commonevents.ProductReservationMessage;
+import com.danialrekhman.commonevents.ProductSnapshotEvent;
+import com.danialrekhman.productservicenocturne.snapshot.ProductSnapshotPublisher;
+import org.apache.kafka.clients.admin.NewTopic;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.core.*;
 import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer;
 import org.springframework.kafka.support.serializer.JsonDeserializer;
 import org.springframework.kafka.support.serializer.JsonSerializer;
 
@@ -20,6 +28,23 @@ import java.util.Map;
 @Configuration
 public class KafkaConfig {
 
+    // Резервирование обрабатывается пачками: до max-records записей за poll, брокер копит
+    // пачку до linger-ms (fetch.max.wait) или min-bytes. max-records=1 — обработка по одному сообщению
+    @Value("${product.reservation.batch.max-records:500}")
+    private int reservationBatchMaxRecords;
+
+    @Value("${product.reservation.batch.linger-ms:10}")
+    private int reservationBatchLingerMs;
+
+    @Value("${product.reservation.batch.min-bytes:16384}")
+    private int reservationBatchMinBytes;
+
+    private void putBatchProps(Map<String, Object> props) {
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, reservationBatchMaxRecords);
+        props.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, reservationBatchLingerMs);
+        props.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, reservationBatchMinBytes);
+    }
+
     // ================= PRODUCER =================
     @Bean
     public ProducerFactory<String, ProductCheckMessage> producerFactory() {
@@ -38,6 +63,68 @@ public class KafkaConfig {
         return new KafkaTemplate<>(pf);
     }
 
+    @Bean
+    public ProducerFactory<String, ProductReservationMessage> reservationProducerFactory() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+        props.put(JsonSerializer.ADD_TYPE_INFO_HEADERS, false);
+        return new DefaultKafkaProducerFactory<>(props);
+    }
+
+    @Bean
+    public KafkaTemplate<String, ProductReservationMessage> reservationKafkaTemplate(
+            ProducerFactory<String, ProductReservationMessage> reservationProducerFactory) {
+        return new KafkaTemplate<>(reservationProducerFactory);
+    }
+
+    @Bean
+    public ProducerFactory<String, CatalogChangedEvent> catalogProducerFactory() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+        props.put(JsonSerializer.ADD_TYPE_INFO_HEADERS, false);
+        return new DefaultKafkaProducerFactory<>(props);
+    }
+
+    @Bean
+    public KafkaTemplate<String, CatalogChangedEvent> catalogKafkaTemplate(
+            ProducerFactory<String, CatalogChangedEvent> catalogProducerFactory) {
+        return new KafkaTemplate<>(catalogProducerFactory);
+    }
+
+    // Снимки товаров: ключ — id товара, поэтому compaction оставляет последнюю запись на товар, а tombstone
+    // удалённого товара вычищается после delete.retention.ms
+    @Bean
+    public NewTopic productSnapshotsTopic() {
+        return TopicBuilder.name(ProductSnapshotPublisher.TOPIC)
+                .partitions(3)
+                .replicas(1)
+                .compact()
+                .build();
+    }
+
+    @Bean
+    public ProducerFactory<String, ProductSnapshotEvent> snapshotProducerFactory() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, JsonSerializer.class);
+        props.put(JsonSerializer.ADD_TYPE_INFO_HEADERS, false);
+        // снимки уходят пачкой за проход публикатора
+        props.put(ProducerConfig.LINGER_MS_CONFIG, 20);
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4");
+        return new DefaultKafkaProducerFactory<>(props);
+    }
+
+    @Bean
+    public KafkaTemplate<String, ProductSnapshotEvent> snapshotKafkaTemplate(
+            ProducerFactory<String, ProductSnapshotEvent> snapshotProducerFactory) {
+        return new KafkaTemplate<>(snapshotProducerFactory);
+    }
+
     // ================= CONSUMER =================
     @Bean
     public ConsumerFactory<String, ProductCheckMessage> consumerFactory() {
@@ -65,5 +152,105 @@ public class KafkaConfig {
         factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
         return factory;
     }
-}
 
+    @Bean
+    public ConsumerFactory<String, ProductCheckMessage> productCheckBatchConsumerFactory() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, "product-service-group");
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
+        props.put(JsonDeserializer.VALUE_DEFAULT_TYPE, ProductCheckMessage.class);
+        props.put(JsonDeserializer.TRUSTED_PACKAGES, "*");
+        putBatchProps(props);
+        return new DefaultKafkaConsumerFactory<>(props);
+    }
+
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, ProductCheckMessage>
+    productCheckBatchKafkaListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, ProductCheckMessage> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(productCheckBatchConsumerFactory());
+        factory.setConcurrency(3);
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        return factory;
+    }
+
+    @Bean
+    public ConsumerFactory<String, ProductReservationMessage> reservationConsumerFactory() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, "product-service-group");
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        // битая запись приходит в листенер как null и отклоняется сама, а не останавливает партицию
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ErrorHandlingDeserializer.class);
+        props.put(ErrorHandlingDeserializer.VALUE_DESERIALIZER_CLASS, JsonDeserializer.class);
+        props.put(JsonDeserializer.VALUE_DEFAULT_TYPE, ProductReservationMessage.class);
+        props.put(JsonDeserializer.TRUSTED_PACKAGES, "*");
+        putBatchProps(props);
+        return new DefaultKafkaConsumerFactory<>(props);
+    }
+
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, ProductReservationMessage>
+    reservationKafkaListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, ProductReservationMessage> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(reservationConsumerFactory());
+        factory.setConcurrency(3);
+        factory.setBatchListener(true);
+        factory.getContainerProperties().setAckMode(ContainerProperties.AckMode.MANUAL);
+        return factory;
+    }
+
+    // Инвалидация кэша каталога должна дойти до каждой реплики: у каждого экземпляра своя
+    // consumer group (groupId задаётся в листенере), читаем только новые события
+    @Bean
+    public ConsumerFactory<String, CatalogChangedEvent> catalogConsumerFactory() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, JsonDeserializer.class);
+        props.put(JsonDeserializer.VALUE_DEFAULT_TYPE, CatalogChangedEvent.class);
+        props.put(JsonDeserializer.TRUSTED_PACKAGES, "*");
+        return new DefaultKafkaConsumerFactory<>(props);
+    }
+
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, CatalogChangedEvent>
+    catalogKafkaListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, CatalogChangedEvent> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(catalogConsumerFactory());
+        return factory;
+    }
+
+    // Снимки товаров, опубликованные любой репликой, — сигнал об изменении остатка для локальных индексов.
+    // Нужен только ключ (id товара), поэтому значение не разбирается; своя группа на экземпляр, только новые записи
+    @Bean
+    public ConsumerFactory<String, String> snapshotSignalConsumerFactory() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, "localhost:9092");
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, 1000);
+        return new DefaultKafkaConsumerFactory<>(props);
+    }
+
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, String> snapshotSignalKafkaListenerContainerFactory() {
+        ConcurrentKafkaListenerContainerFactory<String, String> factory =
+                new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(snapshotSignalConsumerFactory());
+        factory.setBatchListener(true);
+        return factory;
+    }
+}
@@ -1,5 +1,6 @@
 package com.danialrekhman.productservicenocturne.controller;
 
+import com.danialrekhman.productservicenocturne.cache.CatalogETags;
 import com.danialrekhman.productservicenocturne.dto.CategoryRequestDTO;
 import com.danialrekhman.productservicenocturne.dto.CategoryResponseDTO;
 import com.danialrekhman.productservicenocturne.mapper.CategoryMapper;
@@ -10,6 +11,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import java.util.List;
 
@@ -20,33 +22,38 @@ public class CategoryController {
 
     private final CategoryService categoryService;
     private final CategoryMapper categoryMapper;
+    private final CatalogETags catalogETags;
 
+    // Чтение — из снимка дерева категорий, без запросов к базе; ETag — отпечаток того же снимка
     @GetMapping
-    public List<CategoryResponseDTO> getAllCategories() {
-        return categoryService.getAllCategories().stream()
-                .map(categoryMapper::toDto)
-                .toList();
+    public List<CategoryResponseDTO> getAllCategories(WebRequest request) {
+        if (request.checkNotModified(catalogETags.categories()))
+            return null;
+        return categoryService.getAllCategorySnapshots();
     }
 
     @GetMapping("/parent/{parentId}")
-    public List<CategoryResponseDTO> getSubcategories(@PathVariable Long parentId) {
-        return categoryService.getSubcategories(parentId).stream()
-                .map(categoryMapper::toDto)
-                .toList();
+    public List<CategoryResponseDTO> getSubcategories(@PathVariable Long parentId, WebRequest request) {
+        if (request.checkNotModified(catalogETags.categories()))
+            return null;
+        return categoryService.getSubcategorySnapshots(parentId);
     }
 
+    // Сначала проверка прав в сервисе, потом ETag
     @GetMapping("/{id}")
-    public ResponseEntity<CategoryResponseDTO> getCategoryById(@PathVariable Long id, Authentication authentication) {
-        Category category = categoryService.getCategoryById(id, authentication);
-        if (category == null) return ResponseEntity.notFound().build();
-        return ResponseEntity.ok(categoryMapper.toDto(category));
+    public ResponseEntity<CategoryResponseDTO> getCategoryById(@PathVariable Long id, Authentication authentication,
+                                                               WebRequest request) {
+        CategoryResponseDTO category = categoryService.getCategorySnapshot(id, authentication);
+        if (request.checkNotModified(catalogETags.categories()))
+            return null;
+        return ResponseEntity.ok(category);
     }
 
     @GetMapping("/parents")
-    public List<CategoryResponseDTO> getAllParentCategories() {
-        return categoryService.getAllParentCategories().stream()
-                .map(categoryMapper::toDto)
-                .toList();
+    public List<CategoryResponseDTO> getAllParentCategories(WebRequest request) {
+        if (request.checkNotModified(catalogETags.categories()))
+            return null;
+        return categoryService.getAllCategorySnapshots();
     }
 
     @PostMapping
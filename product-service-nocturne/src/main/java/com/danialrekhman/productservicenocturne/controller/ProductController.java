@@ -1,16 +1,27 @@
 package com.danialrekhman.productservicenocturne.controller;
 
+import com.danialrekhman.productservicenocturne.cache.CatalogETags;
+import com.danialrekhman.productservicenocturne.dto.CursorPage;
+import com.danialrekhman.productservicenocturne.dto.FacetedProductPageDTO;
+import com.danialrekhman.productservicenocturne.dto.ImportFormat;
+import com.danialrekhman.productservicenocturne.dto.ProductImportReportDTO;
 import com.danialrekhman.productservicenocturne.dto.ProductRequestDTO;
 import com.danialrekhman.productservicenocturne.dto.ProductResponseDTO;
+import com.danialrekhman.productservicenocturne.dto.ProductSearchPageDTO;
+import com.danialrekhman.productservicenocturne.dto.ProductSuggestionDTO;
 import com.danialrekhman.productservicenocturne.mapper.ProductMapper;
 import com.danialrekhman.productservicenocturne.model.Product;
+import com.danialrekhman.productservicenocturne.service.ProductImportService;
 import com.danialrekhman.productservicenocturne.service.ProductService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
+import java.io.InputStream;
 import java.util.List;
 
 @RestController
@@ -19,37 +30,89 @@ import java.util.List;
 public class ProductController {
 
     private final ProductService productService;
+    private final ProductImportService productImportService;
     private final ProductMapper productMapper;
+    private final CatalogETags catalogETags;
 
+    // Снимок карточки обычно уже в кэше, ETag считается из него; 304 — без сериализации тела
     @GetMapping("/{productId}")
-    public ResponseEntity<ProductResponseDTO> getProductById(@PathVariable Long productId) {
-        Product product = productService.getProductById(productId);
-        if (product == null) return ResponseEntity.notFound().build();
-        return ResponseEntity.ok(productMapper.toDto(product));
+    public ResponseEntity<ProductResponseDTO> getProductById(@PathVariable Long productId, WebRequest request) {
+        ProductResponseDTO product = productService.getProductSnapshot(productId);
+        if (request.checkNotModified(catalogETags.product(product)))
+            return null;
+        return ResponseEntity.ok(product);
     }
 
+    // Полнотекстовый поиск по названию и описанию, по релевантности
+    @GetMapping("/search")
+    public ResponseEntity<ProductSearchPageDTO> searchProducts(@RequestParam String q,
+                                                               @RequestParam(defaultValue = "0") int page,
+                                                               @RequestParam(defaultValue = "20") int size) {
+        return ResponseEntity.ok(productService.searchProducts(q, page, size));
+    }
+
+    @GetMapping("/search/suggest")
+    public ResponseEntity<List<ProductSuggestionDTO>> suggestProducts(@RequestParam String prefix,
+                                                                      @RequestParam(defaultValue = "10") int limit) {
+        return ResponseEntity.ok(productService.suggestProducts(prefix, limit));
+    }
+
+    // Старый адрес: первая страница поиска
     @GetMapping("/search/{keyword}")
-    public ResponseEntity<List<ProductResponseDTO>> searchProducts(@PathVariable String keyword) {
-        return ResponseEntity.ok(
-                productService.searchProducts(keyword).stream()
-                        .map(productMapper::toDto)
-                        .toList());
+    public ResponseEntity<List<ProductResponseDTO>> searchProductsByKeyword(@PathVariable String keyword) {
+        return ResponseEntity.ok(productService.searchProducts(keyword, 0, null).getItems());
     }
 
+    // Списки отвечают 304 по версии каталога (CatalogETags), не трогая кэш и базу.
+    // Постранично: cursor=nextCursor из ответа (keyset) или page=N (offset), sort=price,desc | name | id
     @GetMapping
-    public ResponseEntity<List<ProductResponseDTO>> getAllProducts() {
-        return ResponseEntity.ok(
-                productService.getAllProducts().stream()
-                        .map(productMapper::toDto)
-                        .toList());
+    public ResponseEntity<CursorPage<ProductResponseDTO>> getAllProducts(@RequestParam(required = false) String cursor,
+                                                                         @RequestParam(required = false) Integer page,
+                                                                         @RequestParam(defaultValue = "20") int size,
+                                                                         @RequestParam(required = false) String sort,
+                                                                         WebRequest request) {
+        if (request.checkNotModified(catalogETags.productList()))
+            return null;
+        return ResponseEntity.ok(productService.getProductPage(null, sort, cursor, page, size));
+    }
+
+    // Фасетный фильтр: category и price можно повторять (ИЛИ внутри фасета), price=25-50 из списка
+    // значений в ответе, inStock=true|false; в ответе — страница и счётчики всех фасетов
+    @GetMapping("/facets")
+    public ResponseEntity<FacetedProductPageDTO> filterProducts(@RequestParam(name = "category", required = false) List<Long> categoryIds,
+                                                                @RequestParam(name = "price", required = false) List<String> priceBands,
+                                                                @RequestParam(required = false) Boolean inStock,
+                                                                @RequestParam(defaultValue = "0") int page,
+                                                                @RequestParam(defaultValue = "20") int size,
+                                                                WebRequest request) {
+        if (request.checkNotModified(catalogETags.productList()))
+            return null;
+        return ResponseEntity.ok(productService.filterProducts(categoryIds, priceBands, inStock, page, size));
     }
 
     @GetMapping("/categories/{categoryId}")
-    public ResponseEntity<List<ProductResponseDTO>> getProductsByCategory(@PathVariable Long categoryId) {
-        return ResponseEntity.ok(
-                productService.getProductsByCategory(categoryId).stream()
-                        .map(productMapper::toDto)
-                        .toList());
+    public ResponseEntity<CursorPage<ProductResponseDTO>> getProductsByCategory(@PathVariable Long categoryId,
+                                                                                @RequestParam(required = false) String cursor,
+                                                                                @RequestParam(required = false) Integer page,
+                                                                                @RequestParam(defaultValue = "20") int size,
+                                                                                @RequestParam(required = false) String sort,
+                                                                                WebRequest request) {
+        if (request.checkNotModified(catalogETags.productList()))
+            return null;
+        return ResponseEntity.ok(productService.getProductPage(categoryId, sort, cursor, page, size));
+    }
+
+    // Товары категории и всех её подкатегорий, те же параметры пагинации
+    @GetMapping("/categories/{categoryId}/subtree")
+    public ResponseEntity<CursorPage<ProductResponseDTO>> getProductsByCategorySubtree(@PathVariable Long categoryId,
+                                                                                       @RequestParam(required = false) String cursor,
+                                                                                       @RequestParam(required = false) Integer page,
+                                                                                       @RequestParam(defaultValue = "20") int size,
+                                                                                       @RequestParam(required = false) String sort,
+                                                                                       WebRequest request) {
+        if (request.checkNotModified(catalogETags.productList()))
+            return null;
+        return ResponseEntity.ok(productService.getSubtreeProductPage(categoryId, sort, cursor, page, size));
     }
 
     @PostMapping
@@ -65,6 +128,21 @@ public class ProductController {
         return ResponseEntity.ok(productMapper.toDto(updated));
     }
 
+    // Массовый импорт: CSV с заголовком (name,description,price,quantity,available,category) или NDJSON
+    // с теми же полями. Тело читается потоком; в ответе — счётчики и строки с ошибками
+    @PostMapping(value = "/import", consumes = {"text/csv", "application/x-ndjson"})
+    public ResponseEntity<ProductImportReportDTO> importProducts(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                                                 InputStream body, Authentication authentication) {
+        return ResponseEntity.ok(productImportService.importProducts(body, ImportFormat.fromContentType(contentType), authentication));
+    }
+
+    // Массовое обновление цен существующих товаров: поля name и price
+    @PostMapping(value = "/prices", consumes = {"text/csv", "application/x-ndjson"})
+    public ResponseEntity<ProductImportReportDTO> updatePrices(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                                               InputStream body, Authentication authentication) {
+        return ResponseEntity.ok(productImportService.updatePrices(body, ImportFormat.fromContentType(contentType), authentication));
+    }
+
     @DeleteMapping("/{productId}")
     public ResponseEntity<Void> deleteProduct(@PathVariable Long productId, Authentication authentication) {
         productService.deleteProduct(productId, authentication);
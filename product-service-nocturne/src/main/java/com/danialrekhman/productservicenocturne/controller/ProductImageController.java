@@ -4,26 +4,43 @@ import com.danialrekhman.productservicenocturne.dto.ProductImageDTO;
 import com.danialrekhman.productservicenocturne.mapper.ProductImageMapper;
 import com.danialrekhman.productservicenocturne.model.ProductImage;
 import com.danialrekhman.productservicenocturne.service.ProductImageService;
-import lombok.AccessLevel;
+import com.danialrekhman.productservicenocturne.storage.ImageStore;
+import com.danialrekhman.productservicenocturne.storage.ImageVariant;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
-import lombok.experimental.FieldDefaults;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
-import java.util.stream.Collector;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/products")
 @RequiredArgsConstructor
 public class ProductImageController {
 
+    // атрибуты запроса Tomcat для отдачи файла через sendfile, как у его DefaultServlet
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+    // файл по ключу неизменен — кэшировать можно навсегда
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    private static final String FALLBACK = "public, max-age=60";
+
     private final ProductImageService productImageService;
     private final ProductImageMapper productImageMapper;
 
-    @PostMapping("/{productId}/images")
+    // Картинка по внешнему URL
+    @PostMapping(value = "/{productId}/images", consumes = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<ProductImageDTO> addImageToProduct(
             @PathVariable Long productId,
             @RequestBody ProductImageDTO dto, Authentication authentication) {
@@ -33,6 +50,76 @@ public class ProductImageController {
         return ResponseEntity.ok(productImageMapper.toDto(saved));
     }
 
+    // Загрузка файла (PNG, JPEG, GIF, WebP) в часть file; imageUrl в ответе указывает на /images/{key}
+    @PostMapping(value = "/{productId}/images", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<ProductImageDTO> uploadImage(@PathVariable Long productId,
+                                                       @RequestPart("file") MultipartFile file,
+                                                       Authentication authentication) {
+        ProductImage saved = productImageService.uploadImage(productId, file, authentication);
+        return ResponseEntity.ok(productImageMapper.toDto(saved));
+    }
+
+    // Содержимое загруженной картинки. ETag — хэш содержимого, поэтому 304 не требует чтения файла.
+    // Целый файл или один диапазон Tomcat отдаёт через sendfile — байты не проходят через heap;
+    // несколько диапазонов (multipart/byteranges) и другие контейнеры обслуживает Spring из Resource
+    @GetMapping("/images/{key}")
+    public ResponseEntity<Resource> getImageContent(@PathVariable String key, WebRequest webRequest,
+                                                    HttpServletRequest request, HttpServletResponse response) {
+        return serve(productImageService.getImageContent(key), IMMUTABLE, webRequest, request, response);
+    }
+
+    // Уменьшенная копия (thumb, list, zoom). Пока её нет (очередь рендера занята) — оригинал с коротким
+    // кэшем, чтобы клиент скоро перезапросил копию
+    @GetMapping("/images/{key}/{variant}")
+    public ResponseEntity<Resource> getImageVariant(@PathVariable String key, @PathVariable String variant,
+                                                    WebRequest webRequest,
+                                                    HttpServletRequest request, HttpServletResponse response) {
+        return productImageService.getImageVariant(key, ImageVariant.fromPath(variant))
+                .map(image -> serve(image, IMMUTABLE, webRequest, request, response))
+                .orElseGet(() -> serve(productImageService.getImageContent(key), FALLBACK, webRequest, request, response));
+    }
+
+    private ResponseEntity<Resource> serve(ImageStore.StoredImage image, String cacheControl, WebRequest webRequest,
+                                           HttpServletRequest request, HttpServletResponse response) {
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        String etag = "\"" + image.key() + "\"";
+        if (webRequest.checkNotModified(etag))
+            return null;
+
+        List<HttpRange> ranges = List.of();
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null || ifRange.equals(etag)) {
+            try {
+                ranges = HttpRange.parseRanges(request.getHeader(HttpHeaders.RANGE));
+            } catch (IllegalArgumentException e) {
+                return unsatisfiable(image);
+            }
+        }
+        if (ranges.size() <= 1 && "GET".equals(request.getMethod())
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            long start = 0;
+            long end = image.size() - 1;
+            if (!ranges.isEmpty()) {
+                start = ranges.getFirst().getRangeStart(image.size());
+                if (start >= image.size())
+                    return unsatisfiable(image);
+                end = ranges.getFirst().getRangeEnd(image.size());
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + image.size());
+            }
+            response.setContentType(image.contentType());
+            response.setContentLengthLong(end - start + 1);
+            request.setAttribute(SENDFILE_FILENAME, image.path().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return null;
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(image.contentType()))
+                .body(new FileSystemResource(image.path()));
+    }
+
     @DeleteMapping("/images/{imageId}")
     public ResponseEntity<String> deleteImage(@PathVariable Long imageId, Authentication authentication) {
         productImageService.deleteImage(imageId, authentication);
@@ -46,4 +133,10 @@ public class ProductImageController {
                         .map(productImageMapper::toDto)
                         .toList());
     }
-}
\ No newline at end of file
+
+    private static ResponseEntity<Resource> unsatisfiable(ImageStore.StoredImage image) {
+        return ResponseEntity.status(416)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes */" + image.size())
+                .build();
+    }
+}
@@ -5,14 +5,15 @@ import lombok.experimental.FieldDefaults;
 
 import java.util.List;
 
+// Неизменяемый снимок: один экземпляр из кэша каталога отдаётся всем запросам
 @Getter
-@Setter
 @Builder
 @AllArgsConstructor
-@FieldDefaults(level = AccessLevel.PRIVATE)
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 public class CategoryResponseDTO {
     Long id;
     String name;
     Long parentId;
+    long version;
     List<CategoryResponseDTO> subcategories;
 }
\ No newline at end of file
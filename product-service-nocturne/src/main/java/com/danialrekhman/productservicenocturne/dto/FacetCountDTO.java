@@ -0,0 +1,15 @@
+package com.danialrekhman.productservicenocturne.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+// Значение фасета: value — то, что передаётся в фильтр, label — для показа
+@Getter
+@Builder
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class FacetCountDTO {
+    String value;
+    String label;
+    long count;
+}
@@ -0,0 +1,23 @@
+package com.danialrekhman.productservicenocturne.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.util.List;
+
+// Страница отфильтрованного каталога со счётчиками всех фасетов. Счётчик значения учитывает
+// фильтры остальных фасетов, но не своего: выбор одной ценовой полосы не обнуляет соседние
+@Getter
+@Builder
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class FacetedProductPageDTO {
+    List<ProductResponseDTO> items;
+    long total;
+    int page;
+    int size;
+    // категория считается вместе с подкатегориями
+    List<FacetCountDTO> categories;
+    List<FacetCountDTO> prices;
+    List<FacetCountDTO> stock;
+}
@@ -3,6 +3,8 @@ package com.danialrekhman.productservicenocturne.dto;
 import lombok.*;
 import lombok.experimental.FieldDefaults;
 
+import java.util.Map;
+
 @Getter
 @Setter
 @Builder
@@ -11,4 +13,6 @@ import lombok.experimental.FieldDefaults;
 public class ProductImageDTO {
     Long id;
     String imageUrl;
+    // вариант (thumb, list, zoom) -> URL уменьшенной копии; пусто у картинок по внешнему URL
+    Map<String, String> variants;
 }
\ No newline at end of file
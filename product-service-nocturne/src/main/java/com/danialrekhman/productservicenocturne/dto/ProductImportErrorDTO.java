@@ -0,0 +1,15 @@
+package com.danialrekhman.productservicenocturne.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+// Отклонённая строка импорта: номер записи (с 1, без заголовка CSV), имя товара, если прочиталось
+@Getter
+@Builder
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class ProductImportErrorDTO {
+    long row;
+    String name;
+    String message;
+}
@@ -0,0 +1,20 @@
+package com.danialrekhman.productservicenocturne.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.util.List;
+
+// Итог импорта; errors — первые product.import.max-reported-errors ошибок, failed — все
+@Getter
+@Builder
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class ProductImportReportDTO {
+    long rows;
+    long inserted;
+    long updated;
+    long failed;
+    List<ProductImportErrorDTO> errors;
+    boolean errorsTruncated;
+}
@@ -6,11 +6,11 @@ import lombok.experimental.FieldDefaults;
 import java.math.BigDecimal;
 import java.util.List;
 
+// Неизменяемый снимок: один экземпляр из кэша каталога отдаётся всем запросам
 @Getter
-@Setter
-@Builder
+@Builder(toBuilder = true)
 @AllArgsConstructor
-@FieldDefaults(level = AccessLevel.PRIVATE)
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 public class ProductResponseDTO {
     Long id;
     String name;
@@ -20,5 +20,7 @@ public class ProductResponseDTO {
     Long categoryId;
     String categoryName;
     Integer quantity;
+    Boolean hotInventory;
     List<ProductImageDTO> images;
+    long version;
 }
\ No newline at end of file
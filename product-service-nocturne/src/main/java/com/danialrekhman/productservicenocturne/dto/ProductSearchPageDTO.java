@@ -0,0 +1,20 @@
+package com.danialrekhman.productservicenocturne.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.util.List;
+
+// Страница результатов поиска по релевантности
+@Getter
+@Builder
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class ProductSearchPageDTO {
+    List<ProductResponseDTO> items;
+    long total;
+    // false — совпадений не меньше total
+    boolean totalExact;
+    int page;
+    int size;
+}
@@ -0,0 +1,48 @@
+package com.danialrekhman.productservicenocturne.dto;
+
+import java.util.Locale;
+
+// Порядок листинга товаров; id — всегда последний ключ, чтобы порядок был полным и годился для keyset
+public enum ProductSort {
+    ID("id", true),
+    PRICE_ASC("price", true),
+    PRICE_DESC("price", false),
+    NAME_ASC("name", true),
+    NAME_DESC("name", false);
+
+    private final String property;
+    private final boolean ascending;
+
+    ProductSort(String property, boolean ascending) {
+        this.property = property;
+        this.ascending = ascending;
+    }
+
+    public String getProperty() {
+        return property;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    // Формат как у Spring Data: "price,desc", "name" (по возрастанию); пусто — по id
+    public static ProductSort parse(String value) {
+        if (value == null || value.isBlank())
+            return ID;
+        String[] parts = value.trim().toLowerCase(Locale.ROOT).split(",");
+        boolean descending = parts.length > 1 && parts[1].trim().equals("desc");
+        if (parts.length > 1 && !descending && !parts[1].trim().equals("asc"))
+            throw new IllegalArgumentException("Unknown sort direction: " + parts[1].trim() + ".");
+        return switch (parts[0].trim()) {
+            case "id" -> {
+                if (descending)
+                    throw new IllegalArgumentException("Sorting by id supports ascending order only.");
+                yield ID;
+            }
+            case "price" -> descending ? PRICE_DESC : PRICE_ASC;
+            case "name" -> descending ? NAME_DESC : NAME_ASC;
+            default -> throw new IllegalArgumentException("Unsupported sort property: " + parts[0].trim() + ".");
+        };
+    }
+}
@@ -0,0 +1,25 @@
+package com.danialrekhman.productservicenocturne.dto;
+
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+// Результат одной заявки из пачки: цены зарезервированных товаров либо причина отказа
+@Getter
+@AllArgsConstructor
+@FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
+public class ReservationOutcome {
+    boolean reserved;
+    Map<Long, BigDecimal> prices;
+    String message;
+
+    public static ReservationOutcome reserved(Map<Long, BigDecimal> prices) {
+        return new ReservationOutcome(true, prices, "Reserved");
+    }
+
+    public static ReservationOutcome rejected(String message) {
+        return new ReservationOutcome(false, Map.of(), message);
+    }
+}
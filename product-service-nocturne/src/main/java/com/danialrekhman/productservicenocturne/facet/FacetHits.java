@@ -0,0 +1,10 @@
+package com.danialrekhman.productservicenocturne.facet;
+
+import com.danialrekhman.productservicenocturne.dto.FacetCountDTO;
+
+import java.util.List;
+
+// id товаров страницы, число совпадений с фильтром и счётчики значений каждого фасета
+public record FacetHits(List<Long> productIds, long total,
+                        List<FacetCountDTO> categories, List<FacetCountDTO> prices, List<FacetCountDTO> stock) {
+}
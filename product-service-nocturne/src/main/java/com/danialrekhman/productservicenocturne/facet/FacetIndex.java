@@ -0,0 +1,374 @@
+package com.danialrekhman.productservicenocturne.facet;
+
+import com.danialrekhman.productservicenocturne.category.CategoryTree;
+import com.danialrekhman.productservicenocturne.category.CategoryTreeHolder;
+import com.danialrekhman.productservicenocturne.dto.CategoryResponseDTO;
+import com.danialrekhman.productservicenocturne.dto.FacetCountDTO;
+import com.danialrekhman.productservicenocturne.exception.ResourceNotFoundException;
+import com.danialrekhman.productservicenocturne.inventory.HotInventory;
+import com.danialrekhman.productservicenocturne.repository.ProductRepository;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductFacetRow;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Фасеты каталога (категория, ценовая полоса, наличие) на сжатых битовых картах.
+ * <p>
+ * Товар получает порядковый номер, каждое значение фасета — Roaring-bitmap номеров товаров с этим
+ * значением. Фильтр — пересечение/объединение карт, счётчик значения — мощность пересечения,
+ * страница — выборка номеров по позиции; в базу уходят только строки самой страницы.
+ * <p>
+ * Изменения приходят после коммита: товар помечается изменённым, и пачка помеченных товаров
+ * перечитывается одним запросом раз в {@code product.facet.refresh-interval-ms}, поэтому частые
+ * резервирования не добавляют запросов на каждое списание. Остаток горячего товара
+ * берётся из {@link HotInventory}. Изменения на других репликах приходят по Kafka: правки товара —
+ * событием catalog-changed, переход остатка через ноль — снимком в product-snapshots
+ * (StockChangedListener). Полная перестройка раз в {@code product.facet.rebuild-interval-ms}
+ * остаётся страховкой от потерянных сообщений.
+ */
+@Slf4j
+@Component
+public class FacetIndex implements SmartInitializingSingleton {
+
+    private final ProductRepository productRepository;
+    private final CategoryTreeHolder categoryTree;
+    private final HotInventory hotInventory;
+    private final int loadBatchSize;
+    // верхние границы полос по возрастанию; последняя полоса открыта сверху
+    private final BigDecimal[] priceBounds;
+    private final List<String> bandValues;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    private State state;
+
+    // Номер товара никогда не переиспользуется: удалённый просто исчезает из всех карт
+    private static final class State {
+        final Map<Long, Integer> ordinals = new HashMap<>();
+        long[] ids = new long[1024];
+        long[] categories = new long[1024];  // 0 — без категории
+        byte[] bands = new byte[1024];        // -1 — без цены
+        int next;
+
+        final RoaringBitmap live = new RoaringBitmap();
+        final RoaringBitmap inStock = new RoaringBitmap();
+        final Map<Long, RoaringBitmap> byCategory = new HashMap<>();
+        final RoaringBitmap[] byBand;
+
+        State(int bandCount) {
+            byBand = new RoaringBitmap[bandCount];
+            for (int b = 0; b < bandCount; b++)
+                byBand[b] = new RoaringBitmap();
+        }
+    }
+
+    public FacetIndex(ProductRepository productRepository,
+                      CategoryTreeHolder categoryTree,
+                      HotInventory hotInventory,
+                      MeterRegistry registry,
+                      @Value("${product.facet.load-batch-size:5000}") int loadBatchSize,
+                      @Value("${product.facet.price-bands:25,50,100,250}") BigDecimal[] priceBounds) {
+        this.productRepository = productRepository;
+        this.categoryTree = categoryTree;
+        this.hotInventory = hotInventory;
+        this.loadBatchSize = loadBatchSize;
+        this.priceBounds = priceBounds.clone();
+        Arrays.sort(this.priceBounds);
+        List<String> values = new ArrayList<>();
+        BigDecimal lower = BigDecimal.ZERO;
+        for (BigDecimal upper : this.priceBounds) {
+            values.add(lower.toPlainString() + "-" + upper.toPlainString());
+            lower = upper;
+        }
+        values.add(lower.toPlainString() + "-");
+        this.bandValues = List.copyOf(values);
+        this.state = new State(bandValues.size());
+        Gauge.builder("product.facet.products", this, FacetIndex::size)
+                .description("Products in the facet index")
+                .register(registry);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        rebuild();
+    }
+
+    // Фильтр: категории (с подкатегориями) и полосы цены — ИЛИ внутри фасета, И между фасетами;
+    // inStock = null — наличие не важно. Товары идут в порядке номеров (при перестройке — по id)
+    public FacetHits filter(Collection<Long> categoryIds, Collection<String> priceBands, Boolean inStock,
+                            int offset, int limit) {
+        CategoryTree tree = categoryTree.get();
+        lock.readLock().lock();
+        try {
+            State s = state;
+            RoaringBitmap byCategory = categoryFilter(s, tree, categoryIds);
+            RoaringBitmap byPrice = priceFilter(s, priceBands);
+            RoaringBitmap byStock = inStock == null ? null
+                    : inStock ? s.inStock : RoaringBitmap.andNot(s.live, s.inStock);
+
+            RoaringBitmap matches = intersect(s.live, byCategory, byPrice, byStock);
+            List<Long> page = new ArrayList<>(Math.min(limit, matches.getCardinality()));
+            if (offset < matches.getCardinality() && limit > 0) {
+                PeekableIntIterator it = matches.getIntIterator();
+                it.advanceIfNeeded(matches.select(offset));
+                while (it.hasNext() && page.size() < limit)
+                    page.add(s.ids[it.next()]);
+            }
+            return new FacetHits(page, matches.getCardinality(),
+                    categoryCounts(s, tree, intersect(s.live, byPrice, byStock)),
+                    priceCounts(s, intersect(s.live, byCategory, byStock)),
+                    stockCounts(s, intersect(s.live, byCategory, byPrice)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // До коммита перечитывать нельзя: транзакция ещё может откатиться
+    public void productChanged(Long productId) {
+        productsChanged(List.of(productId));
+    }
+
+    public void productsChanged(Collection<Long> productIds) {
+        if (productIds.isEmpty())
+            return;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    dirty.addAll(productIds);
+                }
+            });
+        } else {
+            dirty.addAll(productIds);
+        }
+    }
+
+    // Обновление и перестройка не пересекаются: иначе перестройка могла бы прочитать строку до
+    // коммита, а пометка об изменении оказалась бы уже израсходована
+    @Scheduled(fixedDelayString = "${product.facet.refresh-interval-ms:500}")
+    public synchronized void refresh() {
+        if (dirty.isEmpty())
+            return;
+        List<Long> ids = new ArrayList<>(dirty);
+        dirty.removeAll(ids);
+        for (int from = 0; from < ids.size(); from += loadBatchSize) {
+            List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + loadBatchSize));
+            Map<Long, ProductFacetRow> rows = new HashMap<>();
+            productRepository.findFacetRowsByIdIn(chunk).forEach(row -> rows.put(row.id(), row));
+            lock.writeLock().lock();
+            try {
+                for (Long id : chunk) {
+                    ProductFacetRow row = rows.get(id);
+                    if (row != null)
+                        put(state, row);
+                    else
+                        remove(state, id);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    // Новый индекс строится в стороне и подменяет старый целиком
+    @Scheduled(fixedDelayString = "${product.facet.rebuild-interval-ms:300000}",
+            initialDelayString = "${product.facet.rebuild-interval-ms:300000}")
+    public synchronized void rebuild() {
+        long started = System.nanoTime();
+        State fresh = new State(bandValues.size());
+        long afterId = 0;
+        List<ProductFacetRow> batch;
+        do {
+            batch = productRepository.findFacetRowsAfter(afterId, Limit.of(loadBatchSize));
+            batch.forEach(row -> put(fresh, row));
+            if (!batch.isEmpty())
+                afterId = batch.get(batch.size() - 1).id();
+        } while (batch.size() == loadBatchSize);
+        fresh.live.runOptimize();
+        fresh.inStock.runOptimize();
+        fresh.byCategory.values().forEach(RoaringBitmap::runOptimize);
+        for (RoaringBitmap band : fresh.byBand)
+            band.runOptimize();
+        lock.writeLock().lock();
+        try {
+            state = fresh;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.debug("Facet index built: {} products in {} ms",
+                fresh.live.getCardinality(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return state.live.getCardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void put(State s, ProductFacetRow row) {
+        Integer existing = s.ordinals.get(row.id());
+        int ordinal;
+        if (existing != null) {
+            ordinal = existing;
+            clear(s, ordinal);
+        } else {
+            ordinal = s.next++;
+            if (ordinal == s.ids.length) {
+                s.ids = Arrays.copyOf(s.ids, ordinal * 2);
+                s.categories = Arrays.copyOf(s.categories, ordinal * 2);
+                s.bands = Arrays.copyOf(s.bands, ordinal * 2);
+            }
+            s.ids[ordinal] = row.id();
+            s.ordinals.put(row.id(), ordinal);
+        }
+        s.live.add(ordinal);
+        long category = row.categoryId() != null ? row.categoryId() : 0;
+        s.categories[ordinal] = category;
+        if (category != 0)
+            s.byCategory.computeIfAbsent(category, c -> new RoaringBitmap()).add(ordinal);
+        int band = band(row.price());
+        s.bands[ordinal] = (byte) band;
+        if (band >= 0)
+            s.byBand[band].add(ordinal);
+        int quantity = hotInventory.isHot(row.id()) ? hotInventory.available(row.id()) : row.quantity();
+        if (row.available() && quantity > 0)
+            s.inStock.add(ordinal);
+    }
+
+    private void remove(State s, Long productId) {
+        Integer ordinal = s.ordinals.remove(productId);
+        if (ordinal != null) {
+            clear(s, ordinal);
+            s.live.remove(ordinal);
+        }
+    }
+
+    private void clear(State s, int ordinal) {
+        RoaringBitmap category = s.byCategory.get(s.categories[ordinal]);
+        if (category != null) {
+            category.remove(ordinal);
+            if (category.isEmpty())
+                s.byCategory.remove(s.categories[ordinal]);
+        }
+        if (s.bands[ordinal] >= 0)
+            s.byBand[s.bands[ordinal]].remove(ordinal);
+        s.inStock.remove(ordinal);
+    }
+
+    private int band(BigDecimal price) {
+        if (price == null)
+            return -1;
+        for (int b = 0; b < priceBounds.length; b++) {
+            if (price.compareTo(priceBounds[b]) < 0)
+                return b;
+        }
+        return priceBounds.length;
+    }
+
+    private RoaringBitmap categoryFilter(State s, CategoryTree tree, Collection<Long> categoryIds) {
+        if (categoryIds == null || categoryIds.isEmpty())
+            return null;
+        RoaringBitmap union = new RoaringBitmap();
+        for (Long categoryId : categoryIds) {
+            List<Long> subtree = tree.subtreeIds(categoryId);
+            if (subtree.isEmpty())
+                throw new ResourceNotFoundException("Category with id " + categoryId + " not found.");
+            for (Long id : subtree) {
+                RoaringBitmap products = s.byCategory.get(id);
+                if (products != null)
+                    union.or(products);
+            }
+        }
+        return union;
+    }
+
+    private RoaringBitmap priceFilter(State s, Collection<String> priceBands) {
+        if (priceBands == null || priceBands.isEmpty())
+            return null;
+        RoaringBitmap union = new RoaringBitmap();
+        for (String value : priceBands) {
+            int band = bandValues.indexOf(value);
+            if (band < 0)
+                throw new IllegalArgumentException("Unknown price band '" + value + "'. Expected one of " + bandValues + ".");
+            union.or(s.byBand[band]);
+        }
+        return union;
+    }
+
+    // null — фасет не ограничивает выборку
+    private static RoaringBitmap intersect(RoaringBitmap live, RoaringBitmap... filters) {
+        RoaringBitmap result = live;
+        for (RoaringBitmap filter : filters) {
+            if (filter != null)
+                result = RoaringBitmap.and(result, filter);
+        }
+        return result;
+    }
+
+    // Считаем только прямые товары каждой категории и складываем их вверх по дереву:
+    // товар лежит ровно в одной категории, поэтому сумма по детям не задваивает
+    private List<FacetCountDTO> categoryCounts(State s, CategoryTree tree, RoaringBitmap base) {
+        Map<Long, Long> counts = new HashMap<>();
+        s.byCategory.forEach((categoryId, products) -> {
+            long direct = RoaringBitmap.andCardinality(base, products);
+            if (direct == 0)
+                return;
+            counts.merge(categoryId, direct, Long::sum);
+            tree.ancestorIds(categoryId).forEach(ancestor -> counts.merge(ancestor, direct, Long::sum));
+        });
+        List<FacetCountDTO> facets = new ArrayList<>();
+        Deque<CategoryResponseDTO> stack = new ArrayDeque<>();
+        tree.roots().reversed().forEach(stack::push);
+        while (!stack.isEmpty()) {
+            CategoryResponseDTO category = stack.pop();
+            Long count = counts.get(category.getId());
+            if (count == null)
+                continue;
+            facets.add(FacetCountDTO.builder()
+                    .value(String.valueOf(category.getId()))
+                    .label(category.getName())
+                    .count(count)
+                    .build());
+            category.getSubcategories().reversed().forEach(stack::push);
+        }
+        return facets;
+    }
+
+    private List<FacetCountDTO> priceCounts(State s, RoaringBitmap base) {
+        List<FacetCountDTO> facets = new ArrayList<>(bandValues.size());
+        for (int b = 0; b < bandValues.size(); b++) {
+            facets.add(FacetCountDTO.builder()
+                    .value(bandValues.get(b))
+                    .label(bandValues.get(b))
+                    .count(RoaringBitmap.andCardinality(base, s.byBand[b]))
+                    .build());
+        }
+        return facets;
+    }
+
+    private List<FacetCountDTO> stockCounts(State s, RoaringBitmap base) {
+        long inStock = RoaringBitmap.andCardinality(base, s.inStock);
+        return List.of(
+                FacetCountDTO.builder().value("true").label("In stock").count(inStock).build(),
+                FacetCountDTO.builder().value("false").label("Out of stock").count(base.getCardinality() - inStock).build());
+    }
+}
@@ -3,10 +3,12 @@ package com.danialrekhman.productservicenocturne.handler;
 import com.danialrekhman.productservicenocturne.dto.ApiError;
 import com.danialrekhman.productservicenocturne.exception.CustomAccessDeniedException;
 import com.danialrekhman.productservicenocturne.exception.DuplicateResourceException;
+import com.danialrekhman.productservicenocturne.exception.InvalidCursorException;
 import com.danialrekhman.productservicenocturne.exception.ResourceNotFoundException;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.context.request.WebRequest;
@@ -41,6 +43,19 @@ public class GlobalExceptionHandler extends ResponseEntityExceptionHandler {
         return new ResponseEntity<>(apiError, apiError.getStatus());
     }
 
+    // Карточку успели изменить между чтением и сохранением (@Version)
+    @ExceptionHandler(ObjectOptimisticLockingFailureException.class)
+    public ResponseEntity<Object> handleOptimisticLockingFailure(ObjectOptimisticLockingFailureException ex) {
+        ApiError apiError = new ApiError(HttpStatus.CONFLICT, "Concurrent modification", "Resource was modified concurrently, retry the request.");
+        return new ResponseEntity<>(apiError, apiError.getStatus());
+    }
+
+    @ExceptionHandler(InvalidCursorException.class)
+    public ResponseEntity<Object> handleInvalidCursorException(InvalidCursorException ex) {
+        ApiError apiError = new ApiError(HttpStatus.BAD_REQUEST, "Invalid cursor", ex.getMessage());
+        return new ResponseEntity<>(apiError, apiError.getStatus());
+    }
+
     @ExceptionHandler(IllegalArgumentException.class)
     public ResponseEntity<Object> handleIllegalArgumentException(IllegalArgumentException ex) {
         ApiError apiError = new ApiError(HttpStatus.BAD_REQUEST, "Incorrect request", ex.getMessage());
@@ -0,0 +1,356 @@
+package com.danialrekhman.productservicenocturne.inventory;
+
+import com.danialrekhman.productservicenocturne.model.Product;
+import com.danialrekhman.productservicenocturne.repository.ProductRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Остатки товаров с флагом {@code hot_inventory} (лимитированные релизы), которые держатся в памяти.
+ * <p>
+ * Резерв списывается из {@link StripedStock} без блокировок и без похода в базу. Изменения
+ * пишутся в локальный {@link InventoryJournal} (одна запись и один fsync на пачку заявок) до того,
+ * как резерв подтверждается, а в таблицу product доезжают пачками по расписанию (write-behind):
+ * на товар один UPDATE с суммарной дельтой и номером последней применённой записи.
+ * <p>
+ * При старте хвост журнала, не дошедший до базы, применяется к product, после чего счётчики
+ * инициализируются из базы. Флаг товара читается только при старте — включение и выключение
+ * горячего режима вступает в силу после перезапуска.
+ * <p>
+ * Остатки в памяти одного процесса, поэтому горячий экземпляр сервиса должен быть единственным —
+ * это обеспечивает {@link HotInventoryLease}. Он же единственный пишет inventory_sequence, так что
+ * номера записей журнала монотонны для каждого товара.
+ */
+@Slf4j
+@Component
+public class HotInventory implements SmartInitializingSingleton {
+
+    public record Reservation(Map<Long, Integer> quantities, Map<Long, BigDecimal> prices) {
+    }
+
+    private static final class Sku {
+        final StripedStock stock;
+        volatile BigDecimal price;
+        volatile boolean available;
+
+        Sku(StripedStock stock, BigDecimal price, boolean available) {
+            this.stock = stock;
+            this.price = price;
+            this.available = available;
+        }
+    }
+
+    private final ProductRepository productRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final HotInventoryLease lease;
+
+    private final boolean enabled;
+    private final Path journalDirectory;
+    private final boolean fsync;
+    private final int stripes;
+
+    private final Map<Long, Sku> skus = new ConcurrentHashMap<>();
+
+    // журнал, sequence и несброшенные дельты меняются только под этим замком
+    private final Object journalLock = new Object();
+    private InventoryJournal journal;
+    private long lastSequence;
+    private long flushedSequence;
+    private Map<Long, Integer> pending = new HashMap<>();
+
+    private final Counter rejectedCounter;
+    private final Counter lostDeltasCounter;
+    private final Timer flushTimer;
+
+    public HotInventory(ProductRepository productRepository,
+                        TransactionTemplate transactionTemplate,
+                        HotInventoryLease lease,
+                        MeterRegistry registry,
+                        @Value("${product.inventory.hot.enabled:false}") boolean enabled,
+                        @Value("${product.inventory.hot.journal-dir:./data/inventory-journal}") String journalDirectory,
+                        @Value("${product.inventory.hot.fsync:true}") boolean fsync,
+                        @Value("${product.inventory.hot.stripes:8}") int stripes) {
+        this.productRepository = productRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.lease = lease;
+        this.enabled = enabled;
+        this.journalDirectory = Path.of(journalDirectory);
+        this.fsync = fsync;
+        this.stripes = stripes;
+
+        Gauge.builder("product.inventory.hot.unflushed", this, h -> h.unflushedEntries())
+                .description("Journal entries of hot products not yet written to the database")
+                .register(registry);
+        Gauge.builder("product.inventory.hot.products", skus, Map::size)
+                .description("Products whose stock is held in memory")
+                .register(registry);
+        rejectedCounter = Counter.builder("product.inventory.hot.rejected")
+                .description("Hot product reservations rejected for lack of stock")
+                .register(registry);
+        lostDeltasCounter = Counter.builder("product.inventory.hot.rejected.deltas")
+                .description("Journal deltas the database refused because stock would go negative")
+                .register(registry);
+        flushTimer = Timer.builder("product.inventory.hot.flush")
+                .description("Write-behind flush of hot product stock to the database")
+                .register(registry);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        // до старта Kafka-листенеров: ни одна заявка не придёт раньше, чем остатки восстановлены
+        lease.acquire(enabled);
+        if (enabled)
+            recover();
+    }
+
+    public boolean isHot(Long productId) {
+        return skus.containsKey(productId);
+    }
+
+    public int available(Long productId) {
+        Sku sku = skus.get(productId);
+        return sku != null ? sku.stock.available() : 0;
+    }
+
+    // Списывает все позиции или ни одной. null — товар недоступен или остатка не хватило.
+    // Резерв держится только в памяти, пока не передан в commit
+    public Reservation tryReserve(Map<Long, Integer> quantities) {
+        Map<Long, Integer> taken = new HashMap<>();
+        Map<Long, BigDecimal> prices = new HashMap<>();
+        for (Map.Entry<Long, Integer> line : quantities.entrySet()) {
+            Sku sku = skus.get(line.getKey());
+            if (sku == null || !sku.available || !sku.stock.tryTake(line.getValue())) {
+                taken.forEach((id, amount) -> skus.get(id).stock.put(amount));
+                rejectedCounter.increment();
+                return null;
+            }
+            taken.put(line.getKey(), line.getValue());
+            prices.put(line.getKey(), sku.price);
+        }
+        return new Reservation(taken, prices);
+    }
+
+    // Записывает резервы в журнал. Если вызвано внутри транзакции и она откатится,
+    // остаток вернётся в память и компенсирующая запись попадёт в журнал
+    public void commit(List<Reservation> reservations) {
+        if (reservations.isEmpty())
+            return;
+        Map<Long, Integer> deltas = new HashMap<>();
+        reservations.forEach(r -> r.quantities().forEach((id, amount) -> deltas.merge(id, -amount, Integer::sum)));
+        try {
+            journal(deltas);
+        } catch (RuntimeException e) {
+            cancel(reservations);
+            throw e;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_ROLLED_BACK)
+                        reservations.forEach(r -> r.quantities().forEach(HotInventory.this::putBack));
+                }
+            });
+        }
+    }
+
+    // Возвращает резерв, который не был передан в commit; в журнал ничего не пишется
+    public void cancel(List<Reservation> reservations) {
+        reservations.forEach(r -> r.quantities().forEach((id, amount) -> {
+            Sku sku = skus.get(id);
+            if (sku != null)
+                sku.stock.put(amount);
+        }));
+    }
+
+    // Возврат и правка остатка внутри транзакции применяются только после её коммита: откат не должен
+    // оставить в памяти и журнале сток, которого в базе не было
+    public void release(Long productId, int amount) {
+        afterCommit(() -> putBack(productId, amount));
+    }
+
+    public void adjustTo(Long productId, int quantity) {
+        afterCommit(() -> adjustNow(productId, quantity));
+    }
+
+    private void putBack(Long productId, int amount) {
+        Sku sku = skus.get(productId);
+        if (sku == null || amount <= 0)
+            return;
+        journal(Map.of(productId, amount));
+        sku.stock.put(amount);
+    }
+
+    // Новый остаток, заданный администратором: в журнал идёт разница с текущим
+    private void adjustNow(Long productId, int quantity) {
+        Sku sku = skus.get(productId);
+        if (sku == null)
+            return;
+        int delta = quantity - sku.stock.available();
+        if (delta > 0) {
+            journal(Map.of(productId, delta));
+            sku.stock.put(delta);
+        } else if (delta < 0) {
+            int taken = sku.stock.takeUpTo(-delta);
+            if (taken > 0) {
+                try {
+                    journal(Map.of(productId, -taken));
+                } catch (RuntimeException e) {
+                    sku.stock.put(taken);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public void refresh(Long productId, BigDecimal price, boolean available) {
+        afterCommit(() -> {
+            Sku sku = skus.get(productId);
+            if (sku != null) {
+                sku.price = price;
+                sku.available = available;
+            }
+        });
+    }
+
+    public void untrack(Long productId) {
+        skus.remove(productId);
+    }
+
+    // Сбрасывает накопленные дельты в базу: на товар один UPDATE, всё в одной транзакции.
+    // Не вышло — дельты возвращаются в очередь, журнал не трогается
+    @Scheduled(fixedDelayString = "${product.inventory.hot.flush-interval-ms:200}")
+    public synchronized void flush() {
+        Map<Long, Integer> batch;
+        long through;
+        synchronized (journalLock) {
+            if (journal == null || pending.isEmpty())
+                return;
+            batch = pending;
+            pending = new HashMap<>();
+            through = lastSequence;
+        }
+        List<Long> refused = new ArrayList<>();
+        try {
+            flushTimer.record(() -> transactionTemplate.executeWithoutResult(status ->
+                    batch.forEach((id, delta) -> {
+                        if (productRepository.applyInventoryJournal(id, delta, through) == 0)
+                            refused.add(id);
+                    })));
+        } catch (RuntimeException e) {
+            synchronized (journalLock) {
+                batch.forEach((id, delta) -> pending.merge(id, delta, Integer::sum));
+            }
+            log.warn("Hot inventory flush through sequence {} failed, will retry", through, e);
+            return;
+        }
+        synchronized (journalLock) {
+            flushedSequence = through;
+            journal.truncateThrough(through);
+        }
+        // сток в памяти не уходит в минус, поэтому отказ значит, что остаток в базе меняли в обход журнала
+        for (Long id : refused) {
+            lostDeltasCounter.increment();
+            log.error("Hot inventory delta {} for product {} through sequence {} was not applied: "
+                    + "it is already applied or stock would go negative", batch.get(id), id, through);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+        synchronized (journalLock) {
+            if (journal != null)
+                journal.close();
+            journal = null;
+        }
+    }
+
+    long unflushedEntries() {
+        synchronized (journalLock) {
+            return lastSequence - flushedSequence;
+        }
+    }
+
+    void recover() {
+        InventoryJournal recovered = new InventoryJournal(journalDirectory, fsync);
+        List<InventoryJournal.Entry> entries = recovered.readAll();
+        long maxSequence = productRepository.findMaxInventorySequence();
+        if (!entries.isEmpty()) {
+            Map<Long, List<InventoryJournal.Entry>> byProduct = new HashMap<>();
+            entries.forEach(e -> byProduct.computeIfAbsent(e.productId(), id -> new ArrayList<>()).add(e));
+            transactionTemplate.executeWithoutResult(status -> {
+                for (Product product : productRepository.findAllById(byProduct.keySet())) {
+                    // записи, уже применённые до падения, отсекаются по inventory_sequence
+                    List<InventoryJournal.Entry> tail = byProduct.get(product.getId()).stream()
+                            .filter(e -> e.sequence() > product.getInventorySequence())
+                            .toList();
+                    if (tail.isEmpty())
+                        continue;
+                    int delta = tail.stream().mapToInt(InventoryJournal.Entry::delta).sum();
+                    long through = tail.get(tail.size() - 1).sequence();
+                    if (productRepository.applyInventoryJournal(product.getId(), delta, through) == 0) {
+                        lostDeltasCounter.increment();
+                        log.error("Journal delta {} for product {} through sequence {} would make stock negative",
+                                delta, product.getId(), through);
+                    }
+                }
+            });
+            maxSequence = Math.max(maxSequence, entries.get(entries.size() - 1).sequence());
+            log.info("Replayed {} hot inventory journal entries for {} products", entries.size(), byProduct.size());
+        }
+        recovered.truncateThrough(maxSequence);
+
+        for (Product product : productRepository.findByHotInventoryTrue())
+            skus.put(product.getId(), new Sku(new StripedStock(stripes, product.getQuantity()),
+                    product.getPrice(), product.isAvailable()));
+
+        synchronized (journalLock) {
+            journal = recovered;
+            lastSequence = maxSequence;
+            flushedSequence = maxSequence;
+        }
+        log.info("Hot inventory holds {} products", skus.size());
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private void journal(Map<Long, Integer> deltas) {
+        synchronized (journalLock) {
+            if (journal == null)
+                throw new IllegalStateException("Hot inventory journal is not open.");
+            List<InventoryJournal.Entry> entries = new ArrayList<>(deltas.size());
+            for (Map.Entry<Long, Integer> delta : deltas.entrySet())
+                entries.add(new InventoryJournal.Entry(++lastSequence, delta.getKey(), delta.getValue()));
+            journal.append(entries);
+            deltas.forEach((id, delta) -> pending.merge(id, delta, Integer::sum));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.danialrekhman.productservicenocturne.inventory;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Единственный владелец горячих остатков.
+ * <p>
+ * Остатки {@link HotInventory} живут в памяти одного процесса, поэтому горячий режим допустим только
+ * для единственного экземпляра сервиса. Экземпляр с {@code product.inventory.hot.enabled=true} берёт
+ * исключительную advisory-блокировку Postgres, остальные — разделяемую: второй горячий экземпляр
+ * или обычный экземпляр рядом с горячим не стартуют. Блокировка сессионная и держится на выделенном
+ * соединении до остановки сервиса.
+ */
+@Slf4j
+@Component
+public class HotInventoryLease {
+
+    static final long LOCK_KEY = 0x4E4F4354484F5449L; // "NOCTHOTI"
+
+    private final DataSource dataSource;
+    private Connection connection;
+
+    public HotInventoryLease(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public synchronized void acquire(boolean exclusive) {
+        if (connection != null)
+            return;
+        try {
+            Connection candidate = dataSource.getConnection();
+            candidate.setAutoCommit(true);
+            boolean locked;
+            try (PreparedStatement statement = candidate.prepareStatement(exclusive
+                    ? "SELECT pg_try_advisory_lock(?)" : "SELECT pg_try_advisory_lock_shared(?)")) {
+                statement.setLong(1, LOCK_KEY);
+                try (ResultSet rs = statement.executeQuery()) {
+                    locked = rs.next() && rs.getBoolean(1);
+                }
+            }
+            if (!locked) {
+                candidate.close();
+                throw new IllegalStateException(exclusive
+                        ? "Hot inventory requires a single product-service instance, but other instances are running."
+                        : "A product-service instance with hot inventory is running; it must be the only instance.");
+            }
+            connection = candidate;
+            log.info("Took the {} hot inventory lock", exclusive ? "exclusive" : "shared");
+        } catch (SQLException e) {
+            throw new IllegalStateException("Cannot take the hot inventory lock.", e);
+        }
+    }
+
+    // Соединение возвращается в пул, поэтому блокировку нужно снять явно
+    @PreDestroy
+    public synchronized void release() {
+        if (connection == null)
+            return;
+        try (Connection held = connection) {
+            try (PreparedStatement statement = held.prepareStatement("SELECT pg_advisory_unlock_all()")) {
+                statement.execute();
+            }
+        } catch (SQLException e) {
+            log.warn("Cannot release the hot inventory lock", e);
+        } finally {
+            connection = null;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.danialrekhman.productservicenocturne.inventory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Журнал изменений остатка горячих товаров: append-only файлы-сегменты на локальном диске.
+ * <p>
+ * Запись фиксированной длины: sequence, id товара, дельта и CRC32C. Пачка записей пишется
+ * одним write и одним fsync (group commit). Оборванная при падении запись в хвосте сегмента
+ * не проходит CRC и при чтении отбрасывается вместе со всем, что за ней.
+ * Сегменты, целиком применённые к базе, удаляются в {@link #truncateThrough(long)}.
+ * <p>
+ * Не потокобезопасен — доступ сериализует {@link HotInventory}.
+ */
+public class InventoryJournal implements Closeable {
+
+    record Entry(long sequence, long productId, int delta) {
+    }
+
+    static final int RECORD_BYTES = 8 + 8 + 4 + 4;
+    private static final String PREFIX = "inventory-";
+    private static final String SUFFIX = ".journal";
+
+    private final Path directory;
+    private final boolean fsync;
+    // закрытые сегменты -> последняя sequence в них
+    private final Map<Path, Long> closedSegments = new LinkedHashMap<>();
+
+    private FileChannel current;
+    private Path currentPath;
+    private long currentLastSequence;
+
+    public InventoryJournal(Path directory, boolean fsync) {
+        this.directory = directory;
+        this.fsync = fsync;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create inventory journal directory " + directory, e);
+        }
+    }
+
+    // Читает все сегменты, оставшиеся с прошлого запуска, в порядке записи
+    public List<Entry> readAll() {
+        List<Entry> entries = new ArrayList<>();
+        for (Path segment : segments()) {
+            long last = 0;
+            for (Entry entry : readSegment(segment)) {
+                entries.add(entry);
+                last = entry.sequence();
+            }
+            if (!segment.equals(currentPath))
+                closedSegments.put(segment, last);
+        }
+        return entries;
+    }
+
+    public void append(List<Entry> entries) {
+        if (entries.isEmpty())
+            return;
+        ByteBuffer buffer = ByteBuffer.allocate(entries.size() * RECORD_BYTES);
+        CRC32C crc = new CRC32C();
+        for (Entry entry : entries) {
+            int start = buffer.position();
+            buffer.putLong(entry.sequence()).putLong(entry.productId()).putInt(entry.delta());
+            crc.reset();
+            crc.update(buffer.array(), start, RECORD_BYTES - 4);
+            buffer.putInt((int) crc.getValue());
+        }
+        buffer.flip();
+        try {
+            if (current == null)
+                open(entries.get(0).sequence());
+            while (buffer.hasRemaining())
+                current.write(buffer);
+            if (fsync)
+                current.force(false);
+        } catch (IOException e) {
+            // в сегменте мог остаться обрывок записи: следующие пачки пойдут в новый файл
+            Path failed = currentPath;
+            closeQuietly();
+            throw new UncheckedIOException("Cannot append to inventory journal " + failed, e);
+        }
+        currentLastSequence = entries.get(entries.size() - 1).sequence();
+    }
+
+    // Все записи до sequence включительно уже в базе: текущий сегмент закрывается,
+    // закрытые сегменты, не содержащие более новых записей, удаляются
+    public void truncateThrough(long sequence) {
+        try {
+            if (current != null) {
+                current.close();
+                closedSegments.put(currentPath, currentLastSequence);
+                current = null;
+                currentPath = null;
+            }
+            Iterator<Map.Entry<Path, Long>> it = closedSegments.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Path, Long> segment = it.next();
+                if (segment.getValue() <= sequence) {
+                    Files.deleteIfExists(segment.getKey());
+                    it.remove();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot truncate inventory journal in " + directory, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (current == null)
+            return;
+        try {
+            current.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot close inventory journal " + currentPath, e);
+        } finally {
+            closedSegments.put(currentPath, currentLastSequence);
+            current = null;
+            currentPath = null;
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (current != null)
+                current.close();
+        } catch (IOException ignored) {
+            // файл всё равно больше не используется
+        }
+        if (currentPath != null)
+            closedSegments.put(currentPath, currentLastSequence);
+        current = null;
+        currentPath = null;
+    }
+
+    private void open(long firstSequence) throws IOException {
+        currentPath = directory.resolve(PREFIX + String.format("%020d", firstSequence) + SUFFIX);
+        current = FileChannel.open(currentPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private List<Path> segments() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().startsWith(PREFIX)
+                            && p.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list inventory journal directory " + directory, e);
+        }
+    }
+
+    private List<Entry> readSegment(Path segment) {
+        List<Entry> entries = new ArrayList<>();
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+            while (true) {
+                record.clear();
+                if (!readFully(channel, record))
+                    break;
+                crc.reset();
+                crc.update(record.array(), 0, RECORD_BYTES - 4);
+                record.flip();
+                Entry entry = new Entry(record.getLong(), record.getLong(), record.getInt());
+                if (record.getInt() != (int) crc.getValue())
+                    break; // оборванная запись — дальше читать нечего
+                entries.add(entry);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read inventory journal " + segment, e);
+        }
+        return entries;
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0)
+                return false; // конец файла или неполная запись в хвосте
+        }
+        return true;
+    }
+}
@@ -0,0 +1,72 @@
+package com.danialrekhman.productservicenocturne.inventory;
+
+import com.danialrekhman.productservicenocturne.repository.StockReservationRepository;
+import com.danialrekhman.productservicenocturne.service.ProductService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Возвращает на склад резервы, которые заказ так и не подтвердил: order-service упал между ответом
+ * product-service и сохранением заказа, или ответ пришёл, когда его уже никто не ждал.
+ * <p>
+ * Каждая порция — отдельная транзакция ({@link ProductService#expireReservations}): до batch-size строк
+ * берутся по частичному индексу неподтверждённых резервов в порядке истечения, поэтому проход не
+ * зависит от размера журнала. Порции выбираются, пока они полные, но не больше max-batches-per-run
+ * за тик. Строки блокируются с SKIP LOCKED — реплики сервиса не мешают друг другу.
+ * <p>
+ * Истёкший резерв помечается EXPIRED: подтверждение, которое придёт позже, попробует списать сток заново
+ * ({@link ProductService#confirmReservations}).
+ */
+@Slf4j
+@Component
+public class ReservationExpirySweeper implements SmartInitializingSingleton {
+
+    private final ProductService productService;
+    private final StockReservationRepository stockReservationRepository;
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+    private final Counter expiredCounter;
+
+    public ReservationExpirySweeper(ProductService productService,
+                                    StockReservationRepository stockReservationRepository,
+                                    MeterRegistry registry,
+                                    @Value("${product.reservation.expiry.batch-size:1000}") int batchSize,
+                                    @Value("${product.reservation.expiry.max-batches-per-run:100}") int maxBatchesPerRun) {
+        this.productService = productService;
+        this.stockReservationRepository = stockReservationRepository;
+        this.batchSize = batchSize;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+        this.expiredCounter = Counter.builder("product.reservation.expired")
+                .description("Unconfirmed reservations returned to stock after their TTL")
+                .register(registry);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        stockReservationRepository.upgradeStatusCheck();
+        stockReservationRepository.createExpiryIndex();
+    }
+
+    @Scheduled(fixedDelayString = "${product.reservation.expiry.sweep-interval-ms:5000}")
+    public void sweep() {
+        int total = 0;
+        try {
+            for (int i = 0; i < maxBatchesPerRun; i++) {
+                int expired = productService.expireReservations(batchSize);
+                total += expired;
+                expiredCounter.increment(expired);
+                if (expired < batchSize)
+                    break;
+            }
+        } catch (Exception e) {
+            log.error("Reservation expiry batch failed, will retry", e);
+        }
+        if (total > 0)
+            log.warn("Returned {} expired unconfirmed reservations to stock", total);
+    }
+}
@@ -0,0 +1,100 @@
+package com.danialrekhman.productservicenocturne.inventory;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Остаток одного товара, разложенный по нескольким атомарным счётчикам (полосам).
+ * <p>
+ * Поток списывает из «своей» полосы одним CAS, поэтому покупатели одного товара не бьются
+ * за одну ячейку. Если своей полосы не хватает, недостающее добирается из соседних; не
+ * набралось — взятое возвращается. Ни одна полоса не уходит ниже нуля, значит продать больше,
+ * чем лежит на складе, нельзя. Обратная сторона: при остатке, размазанном по полосам, и
+ * гонке двух покупателей за последние штуки один из них может получить отказ, хотя сумма
+ * ещё позволяла — после нескольких попыток заявка отклоняется.
+ */
+final class StripedStock {
+
+    // 16 int-ов = 64 байта: соседние полосы не делят кэш-линию
+    private static final int PAD = 16;
+    private static final int ATTEMPTS = 3;
+
+    private final AtomicIntegerArray cells;
+    private final int stripes;
+
+    StripedStock(int stripes, int quantity) {
+        if (stripes <= 0)
+            throw new IllegalArgumentException("Stripes must be greater than 0.");
+        this.stripes = stripes;
+        this.cells = new AtomicIntegerArray(stripes * PAD);
+        int initial = Math.max(quantity, 0);
+        for (int i = 0; i < stripes; i++)
+            cells.set(i * PAD, initial / stripes + (i < initial % stripes ? 1 : 0));
+    }
+
+    boolean tryTake(int amount) {
+        if (amount <= 0)
+            throw new IllegalArgumentException("Amount must be greater than 0.");
+        int home = home();
+        int index = home * PAD;
+        for (int v = cells.get(index); v >= amount; v = cells.get(index)) {
+            if (cells.compareAndSet(index, v, v - amount))
+                return true;
+        }
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            int[] taken = new int[stripes];
+            if (collect(home, amount, taken) == amount)
+                return true;
+            giveBack(taken);
+            if (available() < amount)
+                return false;
+        }
+        return false;
+    }
+
+    // Забирает сколько есть, но не больше amount; возвращает фактически взятое
+    int takeUpTo(int amount) {
+        if (amount <= 0)
+            return 0;
+        return collect(home(), amount, new int[stripes]);
+    }
+
+    void put(int amount) {
+        if (amount > 0)
+            cells.getAndAdd(home() * PAD, amount);
+    }
+
+    int available() {
+        int sum = 0;
+        for (int i = 0; i < stripes; i++)
+            sum += cells.get(i * PAD);
+        return sum;
+    }
+
+    private int collect(int home, int amount, int[] taken) {
+        int need = amount;
+        for (int i = 0; i < stripes && need > 0; i++) {
+            int stripe = (home + i) % stripes;
+            int index = stripe * PAD;
+            for (int v = cells.get(index); v > 0 && need > 0; v = cells.get(index)) {
+                int take = Math.min(v, need);
+                if (cells.compareAndSet(index, v, v - take)) {
+                    taken[stripe] += take;
+                    need -= take;
+                }
+            }
+        }
+        return amount - need;
+    }
+
+    private void giveBack(int[] taken) {
+        for (int i = 0; i < stripes; i++) {
+            if (taken[i] > 0)
+                cells.getAndAdd(i * PAD, taken[i]);
+        }
+    }
+
+    private int home() {
+        long mixed = Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L;
+        return (int) ((mixed >>> 32) % stripes);
+    }
+}
@@ -0,0 +1,41 @@
+package com.danialrekhman.productservicenocturne.kafka.listener;
+
+import com.danialrekhman.commonevents.CatalogChangedEvent;
+import com.danialrekhman.productservicenocturne.cache.CatalogCache;
+import com.danialrekhman.productservicenocturne.category.CategoryTreeHolder;
+import com.danialrekhman.productservicenocturne.facet.FacetIndex;
+import com.danialrekhman.productservicenocturne.search.ProductSearchEngine;
+import lombok.RequiredArgsConstructor;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+@RequiredArgsConstructor
+@Component
+public class CatalogChangedListener {
+
+    private final CatalogCache catalogCache;
+    private final ProductSearchEngine productSearchEngine;
+    private final CategoryTreeHolder categoryTree;
+    private final FacetIndex facetIndex;
+
+    // Своя группа на экземпляр: событие получают все реплики, а не одна из группы
+    @KafkaListener(topics = CatalogCache.TOPIC,
+            groupId = "#{'product-service-catalog-' + T(java.util.UUID).randomUUID()}",
+            containerFactory = "catalogKafkaListenerContainerFactory")
+    public void onCatalogChanged(CatalogChangedEvent event) {
+        catalogCache.apply(event);
+        // своё же событие переиндексирует товар повторно — безвредно
+        if (CatalogCache.PRODUCT.equals(event.getEntity()) && event.getId() != null) {
+            productSearchEngine.productChanged(event.getId());
+            facetIndex.productChanged(event.getId());
+        }
+        // дерево категорий перестраиваем и на своей реплике — второй раз, но дёшево (один запрос)
+        if (CatalogCache.CATEGORY.equals(event.getEntity()))
+            categoryTree.rebuild();
+        // массовый импорт: списка id в событии нет, перечитываем индексы целиком
+        if (CatalogCache.CATALOG.equals(event.getEntity())) {
+            productSearchEngine.reindexAll();
+            facetIndex.rebuild();
+        }
+    }
+}
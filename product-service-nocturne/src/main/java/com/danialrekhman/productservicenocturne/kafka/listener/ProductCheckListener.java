@@ -1,15 +1,21 @@
 package com.danialrekhman.productservicenocturne.kafka.listener;
 
 import com.danialrekhman.commonevents.ProductCheckMessage;
-import com.danialrekhman.productservicenocturne.model.Product;
+import com.danialrekhman.productservicenocturne.dto.ReservationOutcome;
 import com.danialrekhman.productservicenocturne.service.ProductService;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
 
 import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
+@Slf4j
 @RequiredArgsConstructor
 @Component
 public class ProductCheckListener {
@@ -17,30 +23,36 @@ public class ProductCheckListener {
     private final KafkaTemplate<String, ProductCheckMessage> kafkaTemplate;
     private final ProductService productService;
 
-    @KafkaListener(topics = "product-check", groupId = "product-service-group")
-    public void onMessage(ProductCheckMessage request) {
-        boolean ok = false;
-        BigDecimal price = BigDecimal.ZERO;
-
+    // Весь poll резервируется одной транзакцией: по одной блокировке и одному UPDATE на товар,
+    // заявки удовлетворяются в порядке поступления, после чего отправляются все ответы.
+    // Заявка без товара отклоняется сама и не роняет пачку
+    @KafkaListener(topics = "product-check",
+            groupId = "product-service-group",
+            containerFactory = "productCheckBatchKafkaListenerContainerFactory")
+    public void onMessages(List<ProductCheckMessage> requests, Acknowledgment ack) {
+        List<ProductCheckMessage> valid = requests.stream().filter(request -> request.getProductId() != null).toList();
+        List<ReservationOutcome> reserved;
         try {
-            Product product = productService.getProductById(request.getProductId());
-            if (product != null && product.isAvailable() && product.getQuantity() >= request.getQuantity()) {
-                if (productService.reserveStock(product.getId(), request.getQuantity())) {
-                    ok = true;
-                    price = product.getPrice();
-                }
-            }
+            reserved = valid.isEmpty() ? List.of() : productService.reserveStockBatch(valid.stream()
+                    .map(request -> Map.of(request.getProductId(), request.getQuantity()))
+                    .toList());
         } catch (Exception e) {
-            ok = false;
+            log.warn("Batch of {} product checks failed", valid.size(), e);
+            reserved = valid.stream().map(r -> ReservationOutcome.rejected("Not enough stock")).toList();
         }
-
-        request.setAvailable(ok);
-        request.setPriceAtOrder(price);
-        request.setMessage(ok ? "Reserved" : "Not enough stock");
-
-        kafkaTemplate.send("product-check-response", request.getCorrelationId(), request);
+        Iterator<ReservationOutcome> next = reserved.iterator();
+        List<ReservationOutcome> outcomes = requests.stream()
+                .map(request -> request.getProductId() != null ? next.next() : ReservationOutcome.rejected("Not enough stock"))
+                .toList();
+
+        for (int i = 0; i < requests.size(); i++) {
+            ProductCheckMessage request = requests.get(i);
+            ReservationOutcome outcome = outcomes.get(i);
+            request.setAvailable(outcome.isReserved());
+            request.setPriceAtOrder(outcome.isReserved() ? outcome.getPrices().get(request.getProductId()) : BigDecimal.ZERO);
+            request.setMessage(outcome.isReserved() ? "Reserved" : "Not enough stock");
+            kafkaTemplate.send("product-check-response", request.getCorrelationId(), request);
+        }
+        ack.acknowledge();
     }
 }
-
-
-
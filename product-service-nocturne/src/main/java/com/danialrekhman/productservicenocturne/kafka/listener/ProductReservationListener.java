@@ -0,0 +1,125 @@
+package com.danialrekhman.productservicenocturne.kafka.listener;
+
+import com.danialrekhman.commonevents.ProductReservationLine;
+import com.danialrekhman.commonevents.ProductReservationMessage;
+import com.danialrekhman.productservicenocturne.dto.ReservationOutcome;
+import com.danialrekhman.productservicenocturne.service.ProductService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class ProductReservationListener {
+
+    private final KafkaTemplate<String, ProductReservationMessage> reservationKafkaTemplate;
+    private final ProductService productService;
+
+    // Заказы из одного poll-а резервируются вместе (см. ProductService.reserveStockBatch):
+    // каждый заказ целиком или никак, в порядке поступления. Заявка без позиций или с позицией без товара
+    // отклоняется сама по себе и в пачку не попадает; если пачка всё же падает, заявки резервируются
+    // по одной, и отказ получает только та, на которой падает резерв
+    @KafkaListener(topics = "product-reserve",
+            groupId = "product-service-group",
+            containerFactory = "reservationKafkaListenerContainerFactory")
+    public void onMessages(List<ConsumerRecord<String, ProductReservationMessage>> records, Acknowledgment ack) {
+        ReservationOutcome[] outcomes = new ReservationOutcome[records.size()];
+        List<Integer> valid = new ArrayList<>(records.size());
+        List<Map<Long, Integer>> requests = new ArrayList<>(records.size());
+        // correlationId — ключ журнала резервов: повторно доставленный заказ получает прежний ответ
+        List<String> reservationIds = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            ProductReservationMessage request = records.get(i).value();
+            if (request == null)
+                continue;
+            try {
+                requests.add(quantities(request));
+                reservationIds.add(request.getCorrelationId());
+                valid.add(i);
+            } catch (IllegalArgumentException e) {
+                outcomes[i] = ReservationOutcome.rejected(e.getMessage());
+            }
+        }
+
+        List<ReservationOutcome> reserved;
+        try {
+            reserved = requests.isEmpty() ? List.of() : productService.reserveStockBatch(reservationIds, requests);
+        } catch (Exception e) {
+            log.warn("Batch of {} reservations failed, reserving one by one", requests.size(), e);
+            reserved = new ArrayList<>(requests.size());
+            for (int j = 0; j < requests.size(); j++)
+                reserved.add(reserveOne(reservationIds.get(j), requests.get(j)));
+        }
+        for (int j = 0; j < valid.size(); j++)
+            outcomes[valid.get(j)] = reserved.get(j);
+
+        for (int i = 0; i < records.size(); i++) {
+            ProductReservationMessage request = records.get(i).value();
+            if (request == null) {
+                log.warn("Skipping empty reservation record at {}-{}@{}",
+                        records.get(i).topic(), records.get(i).partition(), records.get(i).offset());
+                continue;
+            }
+            ReservationOutcome outcome = outcomes[i];
+            List<ProductReservationLine> items = request.getItems() == null ? List.of() : request.getItems();
+            if (outcome.isReserved()) {
+                items.forEach(line -> line.setPriceAtOrder(outcome.getPrices().get(line.getProductId())));
+            } else {
+                log.info("Reservation {} rejected: {}", request.getCorrelationId(), outcome.getMessage());
+                items.forEach(line -> {
+                    if (line != null)
+                        line.setPriceAtOrder(BigDecimal.ZERO);
+                });
+            }
+            request.setAvailable(outcome.isReserved());
+            request.setMessage(outcome.getMessage());
+            reservationKafkaTemplate.send(replyTopic(records.get(i)), request.getCorrelationId(), request);
+        }
+        ack.acknowledge();
+    }
+
+    private ReservationOutcome reserveOne(String reservationId, Map<Long, Integer> request) {
+        List<String> ids = new ArrayList<>(1);
+        ids.add(reservationId);
+        try {
+            return productService.reserveStockBatch(ids, List.of(request)).get(0);
+        } catch (Exception e) {
+            log.warn("Reservation {} failed", reservationId, e);
+            return ReservationOutcome.rejected(e.getMessage());
+        }
+    }
+
+    // одна и та же позиция может встречаться в заказе несколько раз; заявку без товара отклоняем до пачки
+    static Map<Long, Integer> quantities(ProductReservationMessage request) {
+        if (request.getItems() == null || request.getItems().isEmpty())
+            throw new IllegalArgumentException("Reservation " + request.getCorrelationId() + " has no items.");
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        for (ProductReservationLine line : request.getItems()) {
+            if (line == null || line.getProductId() == null)
+                throw new IllegalArgumentException("Reservation " + request.getCorrelationId() + " has a line without product id.");
+            quantities.merge(line.getProductId(), line.getQuantity(), Integer::sum);
+        }
+        return quantities;
+    }
+
+    // каждый инстанс order-service указывает свой топик ответа, чтобы ответ попал к тому,
+    // кто держит ожидающий future; старые клиенты без заголовка получают общий топик
+    private String replyTopic(ConsumerRecord<String, ProductReservationMessage> record) {
+        Header header = record.headers().lastHeader(KafkaHeaders.REPLY_TOPIC);
+        return header != null ? new String(header.value(), StandardCharsets.UTF_8) : "product-reserve-response";
+    }
+}
@@ -0,0 +1,48 @@
+package com.danialrekhman.productservicenocturne.kafka.listener;
+
+import com.danialrekhman.commonevents.ProductReservationMessage;
+import com.danialrekhman.productservicenocturne.service.ProductService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Objects;
+
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class ReservationConfirmListener {
+
+    static final String EXPIRED_TOPIC = "reservation-expired";
+
+    private final ProductService productService;
+    private final KafkaTemplate<String, ProductReservationMessage> reservationKafkaTemplate;
+
+    // order-service подтверждает резерв через outbox в транзакции сохранения заказа; вся пачка — один UPDATE.
+    // Повтор доставки безопасен: подтверждается только RESERVED. Резервы, истёкшие до подтверждения,
+    // которые не удалось списать заново, уходят в reservation-expired уже после коммита. Повторная доставка
+    // подтверждения их больше не вернёт (резерв уже RELEASED), поэтому неотправленное уведомление пишется в лог
+    @KafkaListener(topics = "reservation-confirm",
+            groupId = "product-service-group",
+            containerFactory = "reservationKafkaListenerContainerFactory")
+    public void onConfirm(List<ProductReservationMessage> confirmations, Acknowledgment ack) {
+        List<String> lost = productService.confirmReservations(
+                confirmations.stream().filter(Objects::nonNull).map(ProductReservationMessage::getCorrelationId).toList());
+        for (String reservationId : lost) {
+            ProductReservationMessage expired = ProductReservationMessage.builder()
+                    .correlationId(reservationId)
+                    .available(false)
+                    .message("Reservation " + reservationId + " expired before the order was confirmed.")
+                    .build();
+            reservationKafkaTemplate.send(EXPIRED_TOPIC, reservationId, expired).whenComplete((result, e) -> {
+                if (e != null)
+                    log.error("Failed to report expired reservation {}, its order needs to be failed manually", reservationId, e);
+            });
+        }
+        ack.acknowledge();
+    }
+}
@@ -0,0 +1,39 @@
+package com.danialrekhman.productservicenocturne.kafka.listener;
+
+import com.danialrekhman.productservicenocturne.facet.FacetIndex;
+import com.danialrekhman.productservicenocturne.snapshot.ProductSnapshotPublisher;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+@Slf4j
+@RequiredArgsConstructor
+@Component
+public class StockChangedListener {
+
+    private final FacetIndex facetIndex;
+
+    // Резерв, списавший последний товар на другой реплике, меняет уровень остатка в снимке, а снимок
+    // уходит в product-snapshots: все реплики перечитывают такие товары в фасетах сразу, а не через
+    // rebuild-interval-ms. Свои же снимки перечитываются повторно — безвредно, пачкой
+    @KafkaListener(topics = ProductSnapshotPublisher.TOPIC,
+            groupId = "#{'product-service-stock-' + T(java.util.UUID).randomUUID()}",
+            containerFactory = "snapshotSignalKafkaListenerContainerFactory")
+    public void onSnapshots(List<ConsumerRecord<String, String>> records) {
+        Set<Long> ids = new LinkedHashSet<>();
+        for (ConsumerRecord<String, String> record : records) {
+            try {
+                ids.add(Long.valueOf(record.key()));
+            } catch (NumberFormatException e) {
+                log.warn("Skipping product snapshot with key '{}'", record.key());
+            }
+        }
+        facetIndex.productsChanged(ids);
+    }
+}
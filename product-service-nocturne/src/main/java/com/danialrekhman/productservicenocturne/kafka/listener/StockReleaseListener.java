@@ -1,20 +1,67 @@
 package com.danialrekhman.productservicenocturne.kafka.listener;
 
 import com.danialrekhman.commonevents.ProductCheckMessage;
+import com.danialrekhman.commonevents.ProductReservationMessage;
 import com.danialrekhman.productservicenocturne.service.ProductService;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.listener.BatchListenerFailedException;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
 
+import java.util.List;
+import java.util.Map;
+
+// Возврат стока идемпотентен (см. ProductService.releaseReservation), поэтому при ошибке сообщение
+// можно просто доставить ещё раз: offset подтверждается только после коммита возврата
+@Slf4j
 @RequiredArgsConstructor
 @Component
 public class StockReleaseListener {
 
     private final ProductService productService;
 
+    // Возврат резерва заказа целиком по его correlationId. Каждая запись — своя транзакция: битая запись
+    // пропускается, а на сбое BatchListenerFailedException с её индексом — error handler закоммитит
+    // offset-ы до неё и повторит только её, уже возвращённые резервы второй раз не трогаются
+    @KafkaListener(topics = "reservation-release",
+            groupId = "product-service-group",
+            containerFactory = "reservationKafkaListenerContainerFactory")
+    public void onReservationRelease(List<ProductReservationMessage> requests, Acknowledgment ack) {
+        for (int i = 0; i < requests.size(); i++) {
+            ProductReservationMessage request = requests.get(i);
+            Map<Long, Integer> quantities;
+            try {
+                quantities = ProductReservationListener.quantities(request);
+            } catch (RuntimeException e) {
+                log.warn("Skipping malformed reservation release {}", request == null ? null : request.getCorrelationId(), e);
+                continue;
+            }
+            try {
+                if (!productService.releaseReservation(request.getCorrelationId(), quantities))
+                    log.info("Reservation {} was already released or consumed", request.getCorrelationId());
+            } catch (IllegalArgumentException e) {
+                // повтор не поможет: id не UUID
+                log.warn("Skipping reservation release {}: {}", request.getCorrelationId(), e.getMessage());
+            } catch (RuntimeException e) {
+                throw new BatchListenerFailedException("Failed to release reservation " + request.getCorrelationId(), e, i);
+            }
+        }
+        ack.acknowledge();
+    }
+
+    // Старый формат: одна позиция на сообщение со своим correlationId, который и защищает от повтора
     @KafkaListener(topics = "stock-release", groupId = "product-service-group")
-    public void onRelease(ProductCheckMessage request) {
-        productService.releaseStock(request.getProductId(), request.getQuantity());
+    public void onRelease(ProductCheckMessage request, Acknowledgment ack) {
+        if (request.getProductId() == null || request.getQuantity() <= 0) {
+            log.warn("Skipping malformed stock release {}", request.getCorrelationId());
+            ack.acknowledge();
+            return;
+        }
+        if (!productService.releaseReservation(request.getCorrelationId(),
+                Map.of(request.getProductId(), request.getQuantity())))
+            log.info("Duplicate stock release {} ignored", request.getCorrelationId());
+        ack.acknowledge();
     }
 }
-
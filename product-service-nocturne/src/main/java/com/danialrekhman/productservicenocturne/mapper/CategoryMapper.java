@@ -5,7 +5,7 @@ import com.danialrekhman.productservicenocturne.dto.CategoryResponseDTO;
 import com.danialrekhman.productservicenocturne.model.Category;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
+import java.util.List;
 
 @Component
 public class CategoryMapper {
@@ -15,11 +15,12 @@ public class CategoryMapper {
                 .id(category.getId())
                 .name(category.getName())
                 .parentId(category.getParent() != null ? category.getParent().getId() : null)
+                .version(category.getVersion())
                 .subcategories(category.getSubcategories() != null
                         ? category.getSubcategories().stream()
                         .map(this::toDto)
                         .toList()
-                        : new ArrayList<>())
+                        : List.of())
                 .build();
     }
 
@@ -2,6 +2,7 @@ package com.danialrekhman.productservicenocturne.mapper;
 
 import com.danialrekhman.productservicenocturne.dto.ProductImageDTO;
 import com.danialrekhman.productservicenocturne.model.ProductImage;
+import com.danialrekhman.productservicenocturne.storage.ImageVariant;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -11,6 +12,7 @@ public class ProductImageMapper {
         return ProductImageDTO.builder()
                 .id(image.getId())
                 .imageUrl(image.getImageUrl())
+                .variants(ImageVariant.urls(image.getStorageKey()))
                 .build();
     }
 
@@ -1,18 +1,21 @@
 package com.danialrekhman.productservicenocturne.mapper;
 
 import com.danialrekhman.productservicenocturne.dto.*;
+import com.danialrekhman.productservicenocturne.inventory.HotInventory;
 import com.danialrekhman.productservicenocturne.model.Category;
 import com.danialrekhman.productservicenocturne.model.Product;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductListRow;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Component;
 
-import java.util.ArrayList;
+import java.util.List;
 
 @Component
 @RequiredArgsConstructor
 public class ProductMapper {
 
     private final ProductImageMapper productImageMapper;
+    private final HotInventory hotInventory;
 
     public ProductResponseDTO toDto(Product product) {
         return ProductResponseDTO.builder()
@@ -23,12 +26,33 @@ public class ProductMapper {
                 .available(product.isAvailable())
                 .categoryId(product.getCategory() != null ? product.getCategory().getId() : null)
                 .categoryName(product.getCategory() != null ? product.getCategory().getName() : null)
-                .quantity(product.getQuantity())
+                // у горячих товаров база отстаёт от памяти на интервал write-behind
+                .quantity(hotInventory.isHot(product.getId())
+                        ? hotInventory.available(product.getId())
+                        : product.getQuantity())
+                .hotInventory(product.isHotInventory())
                 .images(product.getImages() != null
                         ? product.getImages().stream()
                         .map(productImageMapper::toDto)
                         .toList()
-                        : new ArrayList<>())
+                        : List.of())
+                .version(product.getVersion())
+                .build();
+    }
+
+    public ProductResponseDTO toDto(ProductListRow row, List<ProductImageDTO> images) {
+        return ProductResponseDTO.builder()
+                .id(row.id())
+                .name(row.name())
+                .description(row.description())
+                .price(row.price())
+                .available(row.available())
+                .categoryId(row.categoryId())
+                .categoryName(row.categoryName())
+                .quantity(row.quantity())
+                .hotInventory(row.hotInventory())
+                .images(images)
+                .version(row.version())
                 .build();
     }
 
@@ -25,6 +25,10 @@ public class Category {
     @Column(nullable = false)
     String name;
 
+    @Version
+    @Column(nullable = false, columnDefinition = "bigint default 0")
+    long version;
+
     // Parent category (can be null)
     @ManyToOne
     @JoinColumn(name = "parent_id")
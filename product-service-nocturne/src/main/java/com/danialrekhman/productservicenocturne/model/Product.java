@@ -3,13 +3,24 @@ package com.danialrekhman.productservicenocturne.model;
 import jakarta.persistence.*;
 import lombok.*;
 import lombok.experimental.FieldDefaults;
+import org.hibernate.annotations.DynamicUpdate;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "product")
+@Table(name = "product", indexes = {
+        // keyset-листинг: (ключ сортировки, id), в том числе внутри категории
+        @Index(name = "idx_product_price_id", columnList = "price, id"),
+        @Index(name = "idx_product_name_id", columnList = "name, id"),
+        // имя — естественный ключ товара, по нему идёт upsert массового импорта
+        @Index(name = "ux_product_name", columnList = "name", unique = true),
+        @Index(name = "idx_product_category_id", columnList = "category_id, id"),
+        @Index(name = "idx_product_category_price_id", columnList = "category_id, price, id"),
+        @Index(name = "idx_product_category_name_id", columnList = "category_id, name, id")
+})
+@DynamicUpdate // UPDATE только изменённых колонок — сохранение карточки не затирает остаток, списанный параллельно
 @Builder
 @Getter
 @Setter
@@ -38,6 +49,20 @@ public class Product {
     @Column(nullable = false)
     private int quantity;
 
+    // Остаток держит HotInventory в памяти, в базу он доезжает пачками (write-behind)
+    @Column(name = "hot_inventory", nullable = false, columnDefinition = "boolean default false")
+    private boolean hotInventory;
+
+    // Последняя запись журнала HotInventory, уже применённая к quantity
+    @Column(name = "inventory_sequence", nullable = false, columnDefinition = "bigint default 0")
+    private long inventorySequence;
+
+    // Растёт при каждом сохранении карточки и при изменении её картинок. Списания остатка идут мимо
+    // сущности (UPDATE ... quantity) и версию не трогают — иначе правка карточки конфликтовала бы с заказами
+    @Version
+    @Column(nullable = false, columnDefinition = "bigint default 0")
+    private long version;
+
     @ManyToOne
     @JoinColumn(name = "category_id", nullable = false)
     private Category category;
@@ -5,7 +5,7 @@ import lombok.*;
 import lombok.experimental.FieldDefaults;
 
 @Entity
-@Table(name = "product_image")
+@Table(name = "product_image", indexes = @Index(name = "idx_product_image_storage_key", columnList = "storage_key"))
 @Getter
 @Setter
 @NoArgsConstructor
@@ -21,6 +21,10 @@ public class ProductImage {
     @Column(nullable = false)
     String imageUrl;
 
+    // Ключ файла в ImageStore у загруженных картинок; null — картинка по внешнему URL
+    @Column(name = "storage_key", length = 80)
+    String storageKey;
+
     @ManyToOne
     @JoinColumn(name = "product_id")
     Product product;
@@ -0,0 +1,11 @@
+package com.danialrekhman.productservicenocturne.model;
+
+// Состояние резерва в журнале: RESERVED — сток списан, но заказ ещё не подтвердил резерв (истекает по TTL);
+// CONSUMED — заказ сохранён, резерв не истекает и возвращается только отменой; RELEASED — сток возвращён;
+// EXPIRED — сток возвращён по TTL, опоздавшее подтверждение ещё может списать его заново
+public enum ReservationStatus {
+    RESERVED,
+    RELEASED,
+    CONSUMED,
+    EXPIRED
+}
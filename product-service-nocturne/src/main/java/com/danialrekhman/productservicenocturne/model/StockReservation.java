@@ -0,0 +1,47 @@
+package com.danialrekhman.productservicenocturne.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import lombok.experimental.FieldDefaults;
+
+import java.time.Instant;
+import java.util.UUID;
+
+// Журнал резервов: одна строка на correlationId заявки. Пишется и читается через StockReservationRepository
+// в той же транзакции, что и списание или возврат стока. Ключ — uuid (16 байт), а не текст;
+// индекс по (status, updated_at) нужен очистке, которая удаляет только завершённые записи.
+// Истёкшие резервы ищутся по частичному индексу (expires_at) WHERE status = 'RESERVED' — он создаётся
+// при старте (StockReservationRepository.createExpiryIndex) и содержит только неподтверждённые резервы
+@Entity
+@Table(name = "stock_reservation",
+        indexes = @Index(name = "idx_stock_reservation_status_updated", columnList = "status, updated_at"))
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@FieldDefaults(level = AccessLevel.PRIVATE)
+public class StockReservation {
+
+    @Id
+    @Column(name = "reservation_id")
+    UUID reservationId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 8)
+    ReservationStatus status;
+
+    // Позиции резерва "id:количество:цена;..." — по ним возвращается сток и повторяется ответ
+    @Column(nullable = false, columnDefinition = "text")
+    String lines;
+
+    // Неподтверждённый резерв после этого момента возвращает ReservationExpirySweeper
+    @Column(name = "expires_at")
+    Instant expiresAt;
+
+    @Column(name = "created_at", nullable = false)
+    Instant createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    Instant updatedAt;
+}
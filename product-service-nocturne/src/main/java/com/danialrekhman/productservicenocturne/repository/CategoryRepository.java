@@ -1,8 +1,10 @@
 package com.danialrekhman.productservicenocturne.repository;
 
 import com.danialrekhman.productservicenocturne.model.Category;
+import com.danialrekhman.productservicenocturne.repository.projection.CategoryRow;
 import jakarta.transaction.Transactional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -16,4 +18,9 @@ public interface CategoryRepository extends JpaRepository<Category, Long> {
     List<Category> findAllByParentId(Long parentId);
 
     List<Category> findAllByParentIsNull();
-}
\ No newline at end of file
+
+    @Query("""
+            SELECT new com.danialrekhman.productservicenocturne.repository.projection.CategoryRow(c.id, c.name, p.id, c.version)
+            FROM Category c LEFT JOIN c.parent p ORDER BY c.id""")
+    List<CategoryRow> findAllRows();
+}
@@ -0,0 +1,80 @@
+package com.danialrekhman.productservicenocturne.repository;
+
+import com.danialrekhman.productservicenocturne.repository.projection.ProductImportRow;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductUpsertResult;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.util.List;
+
+// Массовая запись товаров в Postgres: пачка строк уходит одним запросом, колонки — массивами через
+// unnest, поэтому текст запроса и число параметров не зависят от размера пачки и план переиспользуется.
+// Имена в пачке должны быть уникальны: ON CONFLICT не обновляет одну строку дважды
+@Repository
+@RequiredArgsConstructor
+public class ProductBulkRepository {
+
+    // xmax = 0 только у только что вставленной строки. Остаток горячего товара живёт в HotInventory —
+    // импорт его не перезаписывает
+    private static final String UPSERT = """
+            INSERT INTO product (name, description, price, quantity, available, category_id,
+                                 hot_inventory, inventory_sequence, version)
+            SELECT r.name, r.description, r.price, r.quantity, r.available, r.category_id, false, 0, 0
+            FROM unnest(?::varchar[], ?::varchar[], ?::numeric[], ?::int[], ?::boolean[], ?::bigint[])
+                 AS r(name, description, price, quantity, available, category_id)
+            ON CONFLICT (name) DO UPDATE SET
+                description = EXCLUDED.description,
+                price = EXCLUDED.price,
+                quantity = CASE WHEN product.hot_inventory THEN product.quantity ELSE EXCLUDED.quantity END,
+                available = EXCLUDED.available,
+                category_id = EXCLUDED.category_id,
+                version = product.version + 1
+            RETURNING id, name, price, available, (xmax = 0) AS inserted""";
+
+    private static final String UPDATE_PRICES = """
+            UPDATE product p SET price = r.price, version = p.version + 1
+            FROM unnest(?::varchar[], ?::numeric[]) AS r(name, price)
+            WHERE p.name = r.name
+            RETURNING p.id, p.name, p.price, p.available, false AS inserted""";
+
+    private static final RowMapper<ProductUpsertResult> RESULT = (rs, rowNum) -> new ProductUpsertResult(
+            rs.getLong("id"), rs.getString("name"), rs.getBigDecimal("price"),
+            rs.getBoolean("available"), rs.getBoolean("inserted"));
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public List<ProductUpsertResult> upsert(List<ProductImportRow> rows) {
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(UPSERT);
+            statement.setArray(1, connection.createArrayOf("varchar",
+                    rows.stream().map(ProductImportRow::name).toArray(String[]::new)));
+            statement.setArray(2, connection.createArrayOf("varchar",
+                    rows.stream().map(ProductImportRow::description).toArray(String[]::new)));
+            statement.setArray(3, connection.createArrayOf("numeric",
+                    rows.stream().map(ProductImportRow::price).toArray(BigDecimal[]::new)));
+            statement.setArray(4, connection.createArrayOf("int4",
+                    rows.stream().map(ProductImportRow::quantity).toArray(Integer[]::new)));
+            statement.setArray(5, connection.createArrayOf("bool",
+                    rows.stream().map(ProductImportRow::available).toArray(Boolean[]::new)));
+            statement.setArray(6, connection.createArrayOf("int8",
+                    rows.stream().map(ProductImportRow::categoryId).toArray(Long[]::new)));
+            return statement;
+        }, RESULT);
+    }
+
+    // Возвращает только найденные товары — остальных имён в базе нет
+    public List<ProductUpsertResult> updatePrices(List<ProductImportRow> rows) {
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(UPDATE_PRICES);
+            statement.setArray(1, connection.createArrayOf("varchar",
+                    rows.stream().map(ProductImportRow::name).toArray(String[]::new)));
+            statement.setArray(2, connection.createArrayOf("numeric",
+                    rows.stream().map(ProductImportRow::price).toArray(BigDecimal[]::new)));
+            return statement;
+        }, RESULT);
+    }
+}
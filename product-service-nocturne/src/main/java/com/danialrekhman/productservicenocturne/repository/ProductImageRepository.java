@@ -1,14 +1,30 @@
 package com.danialrekhman.productservicenocturne.repository;
 
 import com.danialrekhman.productservicenocturne.model.ProductImage;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductImageRow;
 import jakarta.transaction.Transactional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 @Repository
 public interface ProductImageRepository extends JpaRepository <ProductImage, Long> {
 
     List<ProductImage> findProductImagesByProductId(Long productId);
+
+    // Картинки всей страницы листинга одним запросом
+    @Query("""
+            SELECT new com.danialrekhman.productservicenocturne.repository.projection.ProductImageRow(
+                i.product.id, i.id, i.imageUrl, i.storageKey)
+            FROM ProductImage i WHERE i.product.id IN :productIds ORDER BY i.id""")
+    List<ProductImageRow> findRowsByProductIdIn(@Param("productIds") Collection<Long> productIds);
+
+    // Какие из файлов ImageStore ещё используются картинками
+    @Query("SELECT DISTINCT i.storageKey FROM ProductImage i WHERE i.storageKey IN :keys")
+    Set<String> findStorageKeysIn(@Param("keys") Collection<String> keys);
 }
\ No newline at end of file
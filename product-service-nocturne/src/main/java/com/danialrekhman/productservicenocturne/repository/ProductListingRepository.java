@@ -0,0 +1,19 @@
+package com.danialrekhman.productservicenocturne.repository;
+
+import com.danialrekhman.productservicenocturne.dto.ProductSort;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductListRow;
+
+import java.util.Collection;
+import java.util.List;
+
+// Листинг каталога с сортировкой, keyset- и offset-пагинацией; реализация — ProductListingRepositoryImpl
+public interface ProductListingRepository {
+
+    // categoryIds — категории листинга (null — весь каталог); afterKey/afterId — значения последней
+    // строки предыдущей страницы (null — с начала); offset применяется только без них
+    List<ProductListRow> findListingPage(Collection<Long> categoryIds, ProductSort sort,
+                                         Object afterKey, Long afterId, int offset, int limit);
+
+    // Строки листинга по набору id (порядок не гарантирован) — для выдачи поиска
+    List<ProductListRow> findListRowsByIdIn(Collection<Long> ids);
+}
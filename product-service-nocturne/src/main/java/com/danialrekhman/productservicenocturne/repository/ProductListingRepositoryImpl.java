@@ -0,0 +1,72 @@
+package com.danialrekhman.productservicenocturne.repository;
+
+import com.danialrekhman.productservicenocturne.dto.ProductSort;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductListRow;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import org.hibernate.jpa.HibernateHints;
+
+import java.util.Collection;
+import java.util.List;
+
+// JPQL собирается из фиксированного набора сортировок (ProductSort), пользовательский ввод
+// попадает в запрос только параметрами
+class ProductListingRepositoryImpl implements ProductListingRepository {
+
+    private static final String SELECT = """
+            SELECT new com.danialrekhman.productservicenocturne.repository.projection.ProductListRow(
+                p.id, p.name, p.description, p.price, p.available, p.quantity, p.hotInventory, c.id, c.name, p.version)
+            FROM Product p LEFT JOIN p.category c""";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<ProductListRow> findListingPage(Collection<Long> categoryIds, ProductSort sort,
+                                                Object afterKey, Long afterId, int offset, int limit) {
+        StringBuilder jpql = new StringBuilder(SELECT);
+        String and = " WHERE ";
+        if (categoryIds != null) {
+            jpql.append(and).append("p.category.id IN :categoryIds");
+            and = " AND ";
+        }
+        String cmp = sort.isAscending() ? ">" : "<";
+        if (afterId != null) {
+            if (sort == ProductSort.ID) {
+                jpql.append(and).append("p.id > :afterId");
+            } else {
+                String key = "p." + sort.getProperty();
+                jpql.append(and).append("(").append(key).append(' ').append(cmp).append(" :afterKey OR (")
+                        .append(key).append(" = :afterKey AND p.id ").append(cmp).append(" :afterId))");
+            }
+        }
+        String direction = sort.isAscending() ? " ASC" : " DESC";
+        jpql.append(" ORDER BY ");
+        if (sort != ProductSort.ID)
+            jpql.append("p.").append(sort.getProperty()).append(direction).append(", ");
+        jpql.append("p.id").append(direction);
+
+        TypedQuery<ProductListRow> query = entityManager.createQuery(jpql.toString(), ProductListRow.class)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .setMaxResults(limit);
+        if (categoryIds != null)
+            query.setParameter("categoryIds", categoryIds);
+        if (afterId != null) {
+            query.setParameter("afterId", afterId);
+            if (sort != ProductSort.ID)
+                query.setParameter("afterKey", afterKey);
+        } else if (offset > 0) {
+            query.setFirstResult(offset);
+        }
+        return query.getResultList();
+    }
+
+    @Override
+    public List<ProductListRow> findListRowsByIdIn(Collection<Long> ids) {
+        return entityManager.createQuery(SELECT + " WHERE p.id IN :ids", ProductListRow.class)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .setParameter("ids", ids)
+                .getResultList();
+    }
+}
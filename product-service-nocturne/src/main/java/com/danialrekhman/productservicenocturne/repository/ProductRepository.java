@@ -1,18 +1,25 @@
 package com.danialrekhman.productservicenocturne.repository;
 
 import com.danialrekhman.productservicenocturne.model.Product;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductFacetRow;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductSearchDocument;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductStock;
+import jakarta.persistence.LockModeType;
 import jakarta.transaction.Transactional;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface ProductRepository  extends JpaRepository<Product, Long> {
+public interface ProductRepository  extends JpaRepository<Product, Long>, ProductListingRepository {
 
     boolean existsByName(String name);
 
@@ -20,15 +27,26 @@ public interface ProductRepository  extends JpaRepository<Product, Long> {
 
     List<Product> findByCategoryId(Long categoryId);
 
-    List<Product> findByAvailableTrue();
+    // Поднимает версию товара при коммите, даже если сама строка не менялась (картинки живут в своей таблице)
+    @Lock(LockModeType.OPTIMISTIC_FORCE_INCREMENT)
+    Optional<Product> findAndIncrementVersionById(Long id);
 
-    List<Product> findByCategoryIdAndAvailableTrue(Long categoryId);
-
-    List<Product> findByNameContainingIgnoreCase(String name);
+    Optional<Product> findByIdAndQuantityGreaterThan(Long id, int minQuantity);
 
-    List<Product> findByQuantityGreaterThan(int minQuantity);
+    // Блокирует строки на время транзакции; порядок по id одинаков у всех потребителей — без deadlock-ов.
+    // Читаются только складские колонки, сущность Product не создаётся
+    @Query(value = "SELECT id, price, quantity, available FROM product WHERE id IN (:ids) ORDER BY id FOR UPDATE",
+            nativeQuery = true)
+    List<ProductStock> findStockForUpdate(@Param("ids") Collection<Long> ids);
 
-    Optional<Product> findByIdAndQuantityGreaterThan(Long id, int minQuantity);
+    // Проверка и списание одним запросом: нет окна между чтением остатка и UPDATE.
+    // Пусто — товара нет, он недоступен или остатка не хватает
+    @Transactional
+    @Query(value = """
+            UPDATE product SET quantity = quantity - :amount
+            WHERE id = :id AND available AND quantity >= :amount
+            RETURNING id, price, quantity, available""", nativeQuery = true)
+    Optional<ProductStock> reserveAndReturnStock(@Param("id") Long id, @Param("amount") int amount);
 
     @Modifying
     @Query("UPDATE Product p SET p.quantity = p.quantity - :amount WHERE p.id = :id AND p.quantity >= :amount")
@@ -37,4 +55,39 @@ public interface ProductRepository  extends JpaRepository<Product, Long> {
     @Modifying
     @Query("UPDATE Product p SET p.quantity = p.quantity + :amount WHERE p.id = :id")
     int increaseStock(@Param("id") Long id, @Param("amount") int amount);
-}
\ No newline at end of file
+
+    List<Product> findByHotInventoryTrue();
+
+    // Применяет накопленные записи журнала HotInventory; условие по sequence делает повтор безопасным,
+    // остаток в минус не уходит — такая дельта не применяется (0 строк)
+    @Modifying
+    @Query("""
+            UPDATE Product p SET p.quantity = p.quantity + :delta, p.inventorySequence = :sequence
+            WHERE p.id = :id AND p.inventorySequence < :sequence AND p.quantity + :delta >= 0""")
+    int applyInventoryJournal(@Param("id") Long id, @Param("delta") int delta, @Param("sequence") long sequence);
+
+    @Query("SELECT COALESCE(MAX(p.inventorySequence), 0) FROM Product p")
+    long findMaxInventorySequence();
+
+    // Документы для поискового индекса пачками по id
+    @Query("""
+            SELECT new com.danialrekhman.productservicenocturne.repository.projection.ProductSearchDocument(p.id, p.name, p.description)
+            FROM Product p WHERE p.id > :afterId ORDER BY p.id""")
+    List<ProductSearchDocument> findSearchDocumentsAfter(@Param("afterId") long afterId, Limit limit);
+
+    @Query("SELECT new com.danialrekhman.productservicenocturne.repository.projection.ProductSearchDocument(p.id, p.name, p.description) FROM Product p WHERE p.id = :id")
+    Optional<ProductSearchDocument> findSearchDocument(@Param("id") Long id);
+
+    // Поля фасетов пачками по id — для построения FacetIndex
+    @Query("""
+            SELECT new com.danialrekhman.productservicenocturne.repository.projection.ProductFacetRow(
+                p.id, c.id, p.price, p.available, p.quantity)
+            FROM Product p LEFT JOIN p.category c WHERE p.id > :afterId ORDER BY p.id""")
+    List<ProductFacetRow> findFacetRowsAfter(@Param("afterId") long afterId, Limit limit);
+
+    @Query("""
+            SELECT new com.danialrekhman.productservicenocturne.repository.projection.ProductFacetRow(
+                p.id, c.id, p.price, p.available, p.quantity)
+            FROM Product p LEFT JOIN p.category c WHERE p.id IN :ids""")
+    List<ProductFacetRow> findFacetRowsByIdIn(@Param("ids") Collection<Long> ids);
+}
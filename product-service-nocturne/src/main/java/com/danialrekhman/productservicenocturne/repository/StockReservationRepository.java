@@ -0,0 +1,251 @@
+package com.danialrekhman.productservicenocturne.repository;
+
+import com.danialrekhman.productservicenocturne.model.ReservationStatus;
+import com.danialrekhman.productservicenocturne.repository.projection.ReservationLedgerEntry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.*;
+
+// Журнал резервов (таблица stock_reservation). Пачки передаются массивами через unnest, как в
+// ProductBulkRepository. Все методы, кроме purge, должны вызываться в транзакции списания или возврата
+// стока: строка журнала блокируется вместе с ним, и параллельный повтор той же заявки ждёт коммита
+@Repository
+@RequiredArgsConstructor
+public class StockReservationRepository {
+
+    // Занимает correlationId-ы; уже известные (повтор доставки) в ответ не попадают
+    private static final String CLAIM = """
+            INSERT INTO stock_reservation (reservation_id, status, lines, expires_at, created_at, updated_at)
+            SELECT id, 'RESERVED', '', now() + ? * interval '1 second', now(), now() FROM unnest(?::uuid[]) AS id
+            ON CONFLICT DO NOTHING
+            RETURNING reservation_id""";
+
+    private static final String RECORD = """
+            UPDATE stock_reservation s SET lines = r.lines
+            FROM unnest(?::uuid[], ?::text[]) AS r(id, lines)
+            WHERE s.reservation_id = r.id""";
+
+    // Возврат возможен только из RESERVED или CONSUMED (отмена оформленного заказа): повторный release
+    // не найдёт строку, а истёкший резерв (EXPIRED) сток уже вернул
+    private static final String RELEASE = """
+            UPDATE stock_reservation SET status = 'RELEASED', updated_at = now()
+            WHERE reservation_id = ? AND status IN ('RESERVED', 'CONSUMED')
+            RETURNING lines""";
+
+    private static final String CONFIRM = """
+            UPDATE stock_reservation SET status = 'CONSUMED', updated_at = now()
+            WHERE reservation_id = ANY (?::uuid[]) AND status = 'RESERVED'
+            RETURNING reservation_id""";
+
+    // Подтверждение, опоздавшее после истечения: строка занимается сразу, поэтому повторная доставка
+    // подтверждения и отмена заказа ждут коммита и видят уже CONSUMED или RELEASED
+    private static final String RECLAIM = """
+            UPDATE stock_reservation SET status = 'CONSUMED', updated_at = now()
+            WHERE reservation_id = ANY (?::uuid[]) AND status = 'EXPIRED'
+            RETURNING reservation_id, lines""";
+
+    private static final String MARK_RELEASED = """
+            UPDATE stock_reservation SET status = 'RELEASED', updated_at = now()
+            WHERE reservation_id = ANY (?::uuid[])""";
+
+    // Порция истёкших резервов по частичному индексу в порядке истечения. SKIP LOCKED: несколько реплик
+    // делят работу, а резерв, который сейчас подтверждается или возвращается, берётся в следующий проход.
+    // EXPIRED, а не RELEASED: опоздавшее подтверждение должно отличать истечение от отмены заказа
+    private static final String EXPIRE = """
+            UPDATE stock_reservation SET status = 'EXPIRED', updated_at = now()
+            WHERE reservation_id IN (
+                SELECT reservation_id FROM stock_reservation
+                WHERE status = 'RESERVED' AND expires_at < now()
+                ORDER BY expires_at
+                LIMIT ?
+                FOR UPDATE SKIP LOCKED)
+            RETURNING lines""";
+
+    // Резерв, выданный до появления журнала: запоминаем сам возврат, чтобы не вернуть сток дважды
+    private static final String INSERT_RELEASED = """
+            INSERT INTO stock_reservation (reservation_id, status, lines, created_at, updated_at)
+            VALUES (?, 'RELEASED', ?, now(), now())
+            ON CONFLICT DO NOTHING""";
+
+    // Удаление порциями: короткие транзакции и блокировки, индекс (status, updated_at) выбирает порцию
+    private static final String PURGE = """
+            DELETE FROM stock_reservation WHERE reservation_id IN (
+                SELECT reservation_id FROM stock_reservation
+                WHERE status IN ('RELEASED', 'CONSUMED', 'EXPIRED') AND updated_at < ?
+                LIMIT ?)""";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // Частичный индекс по неподтверждённым резервам: подтверждённые и возвращённые строки в него не входят,
+    // поэтому он остаётся маленьким при любом размере журнала. CONCURRENTLY не блокирует запись в журнал
+    // на время построения, но не работает внутри транзакции — вызывать только вне @Transactional.
+    // Прерванное построение оставляет невалидный индекс, который IF NOT EXISTS пропустил бы: его пересоздаём
+    public void createExpiryIndex() {
+        Boolean valid = jdbcTemplate.query("""
+                SELECT i.indisvalid FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid
+                WHERE c.relname = 'idx_stock_reservation_expiry'""",
+                rs -> rs.next() ? rs.getBoolean(1) : null);
+        if (Boolean.TRUE.equals(valid))
+            return;
+        if (valid != null)
+            jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS idx_stock_reservation_expiry");
+        jdbcTemplate.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_stock_reservation_expiry "
+                + "ON stock_reservation (expires_at) WHERE status = 'RESERVED'");
+    }
+
+    // Hibernate создаёт таблицу с CHECK по значениям enum-а, а ddl-auto=update его не обновляет: в таблице,
+    // созданной до появления EXPIRED, ограничение заменяется. NOT VALID — без проверки существующих строк
+    public void upgradeStatusCheck() {
+        Integer stale = jdbcTemplate.queryForObject("""
+                SELECT count(*) FROM pg_constraint
+                WHERE conname = 'stock_reservation_status_check' AND pg_get_constraintdef(oid) NOT LIKE '%EXPIRED%'""",
+                Integer.class);
+        if (stale == null || stale == 0)
+            return;
+        jdbcTemplate.execute("ALTER TABLE stock_reservation DROP CONSTRAINT stock_reservation_status_check, "
+                + "ADD CONSTRAINT stock_reservation_status_check "
+                + "CHECK (status IN ('RESERVED', 'RELEASED', 'CONSUMED', 'EXPIRED')) NOT VALID");
+    }
+
+    public Set<UUID> claim(Collection<UUID> ids, long ttlSeconds) {
+        if (ids.isEmpty())
+            return Set.of();
+        return new HashSet<>(jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(CLAIM);
+            statement.setLong(1, ttlSeconds);
+            statement.setArray(2, connection.createArrayOf("uuid", ids.toArray(UUID[]::new)));
+            return statement;
+        }, (rs, rowNum) -> rs.getObject("reservation_id", UUID.class)));
+    }
+
+    public Map<UUID, ReservationLedgerEntry> find(Collection<UUID> ids) {
+        if (ids.isEmpty())
+            return Map.of();
+        Map<UUID, ReservationLedgerEntry> entries = new HashMap<>();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                    "SELECT reservation_id, status, lines FROM stock_reservation WHERE reservation_id = ANY (?::uuid[])");
+            statement.setArray(1, connection.createArrayOf("uuid", ids.toArray(UUID[]::new)));
+            return statement;
+        }, rs -> {
+            entries.put(rs.getObject("reservation_id", UUID.class),
+                    decode(ReservationStatus.valueOf(rs.getString("status")), rs.getString("lines")));
+        });
+        return entries;
+    }
+
+    // Позиции выданных резервов для занятых claim-ом строк
+    public void record(Map<UUID, ReservationLedgerEntry> entries) {
+        if (entries.isEmpty())
+            return;
+        List<UUID> ids = new ArrayList<>(entries.keySet());
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(RECORD);
+            statement.setArray(1, connection.createArrayOf("uuid", ids.toArray(UUID[]::new)));
+            statement.setArray(2, connection.createArrayOf("text",
+                    ids.stream().map(id -> encode(entries.get(id))).toArray(String[]::new)));
+            return statement;
+        });
+    }
+
+    // Отклонённые заявки не оставляют следа: повтор будет обработан заново
+    public void delete(Collection<UUID> ids) {
+        if (ids.isEmpty())
+            return;
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(
+                    "DELETE FROM stock_reservation WHERE reservation_id = ANY (?::uuid[])");
+            statement.setArray(1, connection.createArrayOf("uuid", ids.toArray(UUID[]::new)));
+            return statement;
+        });
+    }
+
+    // Переводит RESERVED в RELEASED и возвращает количества, которые нужно вернуть на склад
+    public Optional<Map<Long, Integer>> release(UUID id) {
+        List<String> lines = jdbcTemplate.query(RELEASE, (rs, rowNum) -> rs.getString("lines"), id);
+        return lines.stream().findFirst().map(encoded -> decode(ReservationStatus.RELEASED, encoded).quantities());
+    }
+
+    // Переводит RESERVED в CONSUMED; возвращает подтверждённые id
+    public Set<UUID> confirm(Collection<UUID> ids) {
+        if (ids.isEmpty())
+            return Set.of();
+        return new HashSet<>(jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(CONFIRM);
+            statement.setArray(1, connection.createArrayOf("uuid", ids.toArray(UUID[]::new)));
+            return statement;
+        }, (rs, rowNum) -> rs.getObject("reservation_id", UUID.class)));
+    }
+
+    // Помечает до limit истёкших резервов как EXPIRED и отдаёт их количества
+    public List<Map<Long, Integer>> expire(int limit) {
+        return jdbcTemplate.query(EXPIRE,
+                (rs, rowNum) -> decode(ReservationStatus.EXPIRED, rs.getString("lines")).quantities(), limit);
+    }
+
+    // Переводит EXPIRED в CONSUMED и отдаёт количества, которые нужно списать заново
+    public Map<UUID, Map<Long, Integer>> reclaim(Collection<UUID> ids) {
+        if (ids.isEmpty())
+            return Map.of();
+        Map<UUID, Map<Long, Integer>> reclaimed = new LinkedHashMap<>();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(RECLAIM);
+            statement.setArray(1, connection.createArrayOf("uuid", ids.toArray(UUID[]::new)));
+            return statement;
+        }, rs -> {
+            reclaimed.put(rs.getObject("reservation_id", UUID.class),
+                    decode(ReservationStatus.CONSUMED, rs.getString("lines")).quantities());
+        });
+        return reclaimed;
+    }
+
+    public void markReleased(Collection<UUID> ids) {
+        if (ids.isEmpty())
+            return;
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(MARK_RELEASED);
+            statement.setArray(1, connection.createArrayOf("uuid", ids.toArray(UUID[]::new)));
+            return statement;
+        });
+    }
+
+    public boolean insertReleased(UUID id, Map<Long, Integer> quantities) {
+        return jdbcTemplate.update(INSERT_RELEASED, id,
+                encode(new ReservationLedgerEntry(ReservationStatus.RELEASED, quantities, Map.of()))) == 1;
+    }
+
+    public int purge(Instant olderThan, int limit) {
+        return jdbcTemplate.update(PURGE, Timestamp.from(olderThan), limit);
+    }
+
+    // "id:количество:цена;..." — цены нет у записей, созданных возвратом
+    static String encode(ReservationLedgerEntry entry) {
+        StringJoiner joiner = new StringJoiner(";");
+        new TreeMap<>(entry.quantities()).forEach((id, quantity) -> {
+            BigDecimal price = entry.prices().get(id);
+            joiner.add(price == null ? id + ":" + quantity : id + ":" + quantity + ":" + price.toPlainString());
+        });
+        return joiner.toString();
+    }
+
+    static ReservationLedgerEntry decode(ReservationStatus status, String lines) {
+        Map<Long, Integer> quantities = new LinkedHashMap<>();
+        Map<Long, BigDecimal> prices = new HashMap<>();
+        if (!lines.isEmpty()) {
+            for (String line : lines.split(";")) {
+                String[] parts = line.split(":");
+                Long id = Long.valueOf(parts[0]);
+                quantities.put(id, Integer.valueOf(parts[1]));
+                if (parts.length > 2)
+                    prices.put(id, new BigDecimal(parts[2]));
+            }
+        }
+        return new ReservationLedgerEntry(status, quantities, prices);
+    }
+}
@@ -0,0 +1,5 @@
+package com.danialrekhman.productservicenocturne.repository.projection;
+
+// Категория без связей: всё дерево читается одним запросом
+public record CategoryRow(Long id, String name, Long parentId, long version) {
+}
@@ -0,0 +1,7 @@
+package com.danialrekhman.productservicenocturne.repository.projection;
+
+import java.math.BigDecimal;
+
+// Поля товара, по которым строятся фасеты каталога
+public record ProductFacetRow(Long id, Long categoryId, BigDecimal price, boolean available, int quantity) {
+}
@@ -0,0 +1,4 @@
+package com.danialrekhman.productservicenocturne.repository.projection;
+
+public record ProductImageRow(Long productId, Long id, String imageUrl, String storageKey) {
+}
@@ -0,0 +1,8 @@
+package com.danialrekhman.productservicenocturne.repository.projection;
+
+import java.math.BigDecimal;
+
+// Проверенная строка импорта; для обновления цен заполнены только name и price
+public record ProductImportRow(String name, String description, BigDecimal price, int quantity,
+                               boolean available, Long categoryId) {
+}
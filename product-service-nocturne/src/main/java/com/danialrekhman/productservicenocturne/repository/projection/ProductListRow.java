@@ -0,0 +1,16 @@
+package com.danialrekhman.productservicenocturne.repository.projection;
+
+import java.math.BigDecimal;
+
+// Строка листинга: колонки товара и имя категории одним запросом, без загрузки сущностей
+public record ProductListRow(Long id,
+                             String name,
+                             String description,
+                             BigDecimal price,
+                             boolean available,
+                             int quantity,
+                             boolean hotInventory,
+                             Long categoryId,
+                             String categoryName,
+                             long version) {
+}
@@ -0,0 +1,5 @@
+package com.danialrekhman.productservicenocturne.repository.projection;
+
+// Текстовые поля товара для построения поискового индекса
+public record ProductSearchDocument(Long id, String name, String description) {
+}
@@ -0,0 +1,15 @@
+package com.danialrekhman.productservicenocturne.repository.projection;
+
+import java.math.BigDecimal;
+
+// Складские поля товара без загрузки сущности (категории, изображений)
+public interface ProductStock {
+
+    Long getId();
+
+    BigDecimal getPrice();
+
+    int getQuantity();
+
+    boolean isAvailable();
+}
@@ -0,0 +1,7 @@
+package com.danialrekhman.productservicenocturne.repository.projection;
+
+import java.math.BigDecimal;
+
+// Строка, записанная импортом: inserted = false — товар с таким именем уже был и обновлён
+public record ProductUpsertResult(Long id, String name, BigDecimal price, boolean available, boolean inserted) {
+}
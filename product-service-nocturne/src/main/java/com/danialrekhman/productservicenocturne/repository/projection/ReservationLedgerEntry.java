@@ -0,0 +1,11 @@
+package com.danialrekhman.productservicenocturne.repository.projection;
+
+import com.danialrekhman.productservicenocturne.model.ReservationStatus;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+// Запись журнала резервов: количества по товарам и цены, с которыми резерв был выдан
+public record ReservationLedgerEntry(ReservationStatus status, Map<Long, Integer> quantities,
+                                     Map<Long, BigDecimal> prices) {
+}
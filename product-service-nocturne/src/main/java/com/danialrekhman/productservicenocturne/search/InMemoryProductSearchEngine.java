@@ -0,0 +1,682 @@
+package com.danialrekhman.productservicenocturne.search;
+
+import com.danialrekhman.productservicenocturne.dto.ProductSuggestionDTO;
+import com.danialrekhman.productservicenocturne.repository.ProductRepository;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductSearchDocument;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Инвертированный индекс в памяти процесса с ранжированием BM25.
+ * <p>
+ * Каждый товар — документ с внутренним номером; постинги терма хранят номера по возрастанию и вес
+ * вхождений (слово в названии считается за {@value #NAME_BOOST} слова описания). Поиск идёт
+ * документ за документом с отсечением MaxScore: когда набрано {@code product.search.max-results}
+ * совпадений, термы, которые уже не могут поднять документ в топ, только досчитываются, а не
+ * перебираются, и total становится нижней оценкой.
+ * <p>
+ * Автодополнение ищет по названиям: отдельные постинги упорядочены по (число слов в названии,
+ * номер документа), поэтому первые {@code limit} совпадений — сразу лучшие, и перебор
+ * останавливается на них.
+ * <p>
+ * Изменённый товар получает новый номер, старый помечается удалённым; когда удалённых становится
+ * много, постинги переписываются без них. Индекс строится при старте из базы и обновляется после
+ * коммита изменений товара, а на остальных репликах — по событию каталога.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "product.search.engine", havingValue = "memory", matchIfMissing = true)
+public class InMemoryProductSearchEngine implements ProductSearchEngine, SmartInitializingSingleton {
+
+    static final float NAME_BOOST = 3f;
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    // сколько термов с таким префиксом участвует в автодополнении
+    private static final int MAX_PREFIX_EXPANSIONS = 4096;
+
+    // Постинги терма; на каждый блок из BLOCK позиций — наибольший вес и наименьшая длина документа,
+    // из них верхняя граница вклада блока для пропуска блоков, которые не попадут в топ
+    private static final class Postings {
+        static final int BLOCK_SHIFT = 7;
+
+        int[] docs = new int[4];
+        float[] weights = new float[4];
+        float[] blockWeights = new float[1];
+        float[] blockLengths = new float[1];
+        int size;
+        float maxWeight;
+        float minLength = Float.MAX_VALUE;
+
+        void add(int doc, float weight, float length) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            int block = size >>> BLOCK_SHIFT;
+            if (block == blockWeights.length) {
+                blockWeights = Arrays.copyOf(blockWeights, block * 2);
+                blockLengths = Arrays.copyOf(blockLengths, block * 2);
+            }
+            if ((size & ((1 << BLOCK_SHIFT) - 1)) == 0) {
+                blockWeights[block] = weight;
+                blockLengths[block] = length;
+            } else {
+                blockWeights[block] = Math.max(blockWeights[block], weight);
+                blockLengths[block] = Math.min(blockLengths[block], length);
+            }
+            docs[size] = doc;
+            weights[size++] = weight;
+            maxWeight = Math.max(maxWeight, weight);
+            minLength = Math.min(minLength, length);
+        }
+
+        // последний номер документа в блоке позиции at
+        int blockEnd(int at) {
+            return docs[Math.min(size, ((at >>> BLOCK_SHIFT) + 1) << BLOCK_SHIFT) - 1];
+        }
+
+        // первая позиция не раньше from с номером >= doc (галопом, затем бинарный поиск)
+        int advance(int from, int doc) {
+            int step = 1;
+            int hi = from;
+            while (hi < size && docs[hi] < doc) {
+                from = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            int lo = from;
+            hi = Math.min(hi, size);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (docs[mid] < doc)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    // Ключ — (число слов в названии << 32) | номер документа: короткие названия впереди
+    private static final class NamePostings {
+        long[] keys = new long[4];
+        int size;
+        int sorted;
+
+        void add(long key) {
+            if (size == keys.length)
+                keys = Arrays.copyOf(keys, size * 2);
+            keys[size++] = key;
+        }
+
+        // одиночные вставки — сдвигом, пачка при загрузке — сортировкой
+        void normalize() {
+            if (size - sorted > 8) {
+                Arrays.sort(keys, 0, size);
+            } else {
+                for (int i = sorted; i < size; i++) {
+                    long key = keys[i];
+                    int at = Arrays.binarySearch(keys, 0, i, key);
+                    at = at >= 0 ? at : -at - 1;
+                    System.arraycopy(keys, at, keys, at + 1, i - at);
+                    keys[at] = key;
+                }
+            }
+            sorted = size;
+        }
+
+        int advance(int from, long key) {
+            int at = Arrays.binarySearch(keys, from, size, key);
+            return at >= 0 ? at : -at - 1;
+        }
+    }
+
+    // Отобранные документы: min-heap, в корне худший
+    private final class TopDocs {
+        final int[] docs;
+        final float[] scores;
+        int size;
+
+        TopDocs(int capacity) {
+            docs = new int[capacity];
+            scores = new float[capacity];
+        }
+
+        boolean full() {
+            return size == docs.length;
+        }
+
+        float threshold() {
+            return scores[0];
+        }
+
+        void offer(int doc, float score) {
+            if (docs.length == 0)
+                return;
+            if (size < docs.length) {
+                int i = size++;
+                docs[i] = doc;
+                scores[i] = score;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (!better(parent, i))
+                        break;
+                    swap(parent, i);
+                    i = parent;
+                }
+            } else if (better(score, doc, scores[0], docs[0])) {
+                docs[0] = doc;
+                scores[0] = score;
+                siftDown(size);
+            }
+        }
+
+        // по убыванию score, при равенстве — по возрастанию id товара
+        int[] drain() {
+            int[] result = new int[size];
+            for (int i = size - 1; i >= 0; i--) {
+                result[i] = docs[0];
+                docs[0] = docs[i];
+                scores[0] = scores[i];
+                siftDown(i);
+            }
+            size = 0;
+            return result;
+        }
+
+        private void siftDown(int size) {
+            int i = 0;
+            while (true) {
+                int left = 2 * i + 1;
+                if (left >= size)
+                    return;
+                int worst = left;
+                if (left + 1 < size && better(left, left + 1))
+                    worst = left + 1;
+                if (!better(i, worst))
+                    return;
+                swap(i, worst);
+                i = worst;
+            }
+        }
+
+        private boolean better(int a, int b) {
+            return better(scores[a], docs[a], scores[b], docs[b]);
+        }
+
+        private boolean better(float sa, int da, float sb, int db) {
+            return sa != sb ? sa > sb : productIds[da] < productIds[db];
+        }
+
+        private void swap(int a, int b) {
+            int doc = docs[a];
+            docs[a] = docs[b];
+            docs[b] = doc;
+            float score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+    }
+
+    private final ProductRepository productRepository;
+    private final int loadBatchSize;
+    private final int trackTotalHits;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // всё ниже меняется только под write lock
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final TreeMap<String, NamePostings> nameTerms = new TreeMap<>();
+    private final Map<Long, Integer> docByProduct = new HashMap<>();
+    private long[] productIds = new long[1024];
+    private String[] names = new String[1024];
+    private float[] lengths = new float[1024];
+    private final BitSet deleted = new BitSet();
+    private int docCount;
+    private int deletedCount;
+    private double totalLength;
+
+    private final Timer searchTimer;
+    private final Timer suggestTimer;
+
+    public InMemoryProductSearchEngine(ProductRepository productRepository,
+                                       MeterRegistry registry,
+                                       @Value("${product.search.load-batch-size:5000}") int loadBatchSize,
+                                       @Value("${product.search.max-results:1000}") int trackTotalHits) {
+        this.productRepository = productRepository;
+        this.loadBatchSize = loadBatchSize;
+        this.trackTotalHits = trackTotalHits;
+        Gauge.builder("product.search.documents", this, InMemoryProductSearchEngine::size)
+                .description("Products in the in-memory search index")
+                .register(registry);
+        Gauge.builder("product.search.terms", terms, TreeMap::size)
+                .description("Distinct terms in the in-memory search index")
+                .register(registry);
+        searchTimer = Timer.builder("product.search.query").tag("type", "search")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+        suggestTimer = Timer.builder("product.search.query").tag("type", "suggest")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        reindexAll();
+    }
+
+    // Тот же проход пачками, что и при старте: документы заменяются на месте, поиск не прерывается.
+    // Удалённых товаров массовые изменения не порождают, их убирает productChanged
+    @Override
+    public void reindexAll() {
+        long started = System.nanoTime();
+        long afterId = 0;
+        List<ProductSearchDocument> batch;
+        do {
+            batch = productRepository.findSearchDocumentsAfter(afterId, Limit.of(loadBatchSize));
+            index(batch);
+            if (!batch.isEmpty())
+                afterId = batch.get(batch.size() - 1).id();
+        } while (batch.size() == loadBatchSize);
+        lock.writeLock().lock();
+        try {
+            if (deletedCount > 1024 && deletedCount > docCount / 4)
+                compact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Search index built: {} products, {} terms in {} ms",
+                size(), terms.size(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    @Override
+    public SearchHits search(String query, int offset, int limit) {
+        List<String> tokens = SearchTokenizer.tokenize(query).stream().distinct().toList();
+        if (tokens.isEmpty() || limit <= 0)
+            return SearchHits.empty();
+        return searchTimer.record(() -> {
+            lock.readLock().lock();
+            try {
+                return maxScore(tokens, offset + limit, offset);
+            } finally {
+                lock.readLock().unlock();
+            }
+        });
+    }
+
+    @Override
+    public List<ProductSuggestionDTO> suggest(String prefix, int limit) {
+        List<String> tokens = SearchTokenizer.tokenize(prefix);
+        if (tokens.isEmpty() || limit <= 0)
+            return List.of();
+        return suggestTimer.record(() -> {
+            lock.readLock().lock();
+            try {
+                return suggest(tokens, limit);
+            } finally {
+                lock.readLock().unlock();
+            }
+        });
+    }
+
+    // До коммита индексировать нельзя: транзакция ещё может откатиться
+    @Override
+    public void productChanged(Long productId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    reindex(productId);
+                }
+            });
+        } else {
+            reindex(productId);
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return docCount - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void reindex(Long productId) {
+        Optional<ProductSearchDocument> document = productRepository.findSearchDocument(productId);
+        lock.writeLock().lock();
+        try {
+            remove(productId);
+            document.ifPresent(d -> add(d).normalize());
+            if (deletedCount > 1024 && deletedCount > docCount / 4)
+                compact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void index(List<ProductSearchDocument> documents) {
+        lock.writeLock().lock();
+        try {
+            Set<NamePostings> touched = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (ProductSearchDocument document : documents) {
+                remove(document.id());
+                touched.addAll(add(document).touched());
+            }
+            touched.forEach(NamePostings::normalize);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private record Added(List<NamePostings> touched) {
+        void normalize() {
+            touched.forEach(NamePostings::normalize);
+        }
+    }
+
+    private Added add(ProductSearchDocument document) {
+        Map<String, Float> weights = new LinkedHashMap<>();
+        List<String> nameTokens = SearchTokenizer.tokenize(document.name());
+        List<String> descriptionTokens = SearchTokenizer.tokenize(document.description());
+        nameTokens.forEach(t -> weights.merge(t, NAME_BOOST, Float::sum));
+        descriptionTokens.forEach(t -> weights.merge(t, 1f, Float::sum));
+
+        int doc = docCount++;
+        if (doc == productIds.length) {
+            int length = doc * 2;
+            productIds = Arrays.copyOf(productIds, length);
+            names = Arrays.copyOf(names, length);
+            lengths = Arrays.copyOf(lengths, length);
+        }
+        productIds[doc] = document.id();
+        names[doc] = document.name();
+        lengths[doc] = nameTokens.size() * NAME_BOOST + descriptionTokens.size();
+        totalLength += lengths[doc];
+        docByProduct.put(document.id(), doc);
+        weights.forEach((term, weight) -> terms.computeIfAbsent(term, t -> new Postings()).add(doc, weight, lengths[doc]));
+
+        long key = (long) nameTokens.size() << 32 | doc;
+        List<NamePostings> touched = new ArrayList<>();
+        for (String term : new LinkedHashSet<>(nameTokens)) {
+            NamePostings postings = nameTerms.computeIfAbsent(term, t -> new NamePostings());
+            postings.add(key);
+            touched.add(postings);
+        }
+        return new Added(touched);
+    }
+
+    private void remove(Long productId) {
+        Integer doc = docByProduct.remove(productId);
+        if (doc == null)
+            return;
+        deleted.set(doc);
+        deletedCount++;
+        totalLength -= lengths[doc];
+        names[doc] = null;
+    }
+
+    // Переписывает постинги без удалённых документов; номера живых сдвигаются, порядок сохраняется
+    private void compact() {
+        int[] remap = new int[docCount];
+        int next = 0;
+        for (int doc = 0; doc < docCount; doc++) {
+            if (deleted.get(doc)) {
+                remap[doc] = -1;
+                continue;
+            }
+            remap[doc] = next;
+            productIds[next] = productIds[doc];
+            names[next] = names[doc];
+            lengths[next] = lengths[doc];
+            docByProduct.put(productIds[next], next);
+            next++;
+        }
+        Iterator<Map.Entry<String, Postings>> it = terms.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Postings> entry = it.next();
+            Postings old = entry.getValue();
+            Postings postings = new Postings();
+            for (int i = 0; i < old.size; i++) {
+                int doc = remap[old.docs[i]];
+                if (doc >= 0)
+                    postings.add(doc, old.weights[i], lengths[doc]);
+            }
+            if (postings.size == 0)
+                it.remove();
+            else
+                entry.setValue(postings);
+        }
+        Iterator<NamePostings> nameIt = nameTerms.values().iterator();
+        while (nameIt.hasNext()) {
+            NamePostings postings = nameIt.next();
+            int size = 0;
+            for (int i = 0; i < postings.size; i++) {
+                long key = postings.keys[i];
+                int doc = remap[(int) key];
+                if (doc >= 0)
+                    postings.keys[size++] = (key & 0xFFFFFFFF00000000L) | doc;
+            }
+            postings.size = size;
+            postings.sorted = size;
+            if (size == 0)
+                nameIt.remove();
+        }
+        Arrays.fill(names, next, docCount, null);
+        docCount = next;
+        deleted.clear();
+        deletedCount = 0;
+    }
+
+    // Документ за документом по постингам всех термов запроса (OR). Термы упорядочены по верхней
+    // границе вклада; пока не набрано trackTotalHits совпадений, считается каждое. Дальше термы,
+    // сумма границ которых не дотягивает до худшего в топе, перестают порождать кандидатов и только
+    // досчитываются к документам остальных, а блоки постингов с низкой границей пропускаются
+    private SearchHits maxScore(List<String> tokens, int k, int offset) {
+        List<Postings> lists = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            Postings postings = terms.get(token);
+            if (postings != null)
+                lists.add(postings);
+        }
+        if (lists.isEmpty())
+            return SearchHits.empty();
+
+        int live = docCount - deletedCount;
+        float base = K1 * (1 - B);
+        float perLength = live == 0 ? 0 : (float) (K1 * B * live / totalLength);
+        int n = lists.size();
+        Postings[] postings = new Postings[n];
+        float[] idf = new float[n];
+        float[] bound = new float[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            Postings p = lists.get(i);
+            // df включает ещё не вычищенные удалённые документы — не даём idf уйти в минус
+            idf[i] = (float) Math.log(1 + Math.max(live - p.size, 0) / (p.size + 0.5)) * (K1 + 1);
+            bound[i] = idf[i] * p.maxWeight / (p.maxWeight + base + perLength * p.minLength);
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> bound[i]));
+        float[] idfs = new float[n];
+        float[] cumulative = new float[n];
+        for (int i = 0; i < n; i++) {
+            postings[i] = lists.get(order[i]);
+            idfs[i] = idf[order[i]];
+            cumulative[i] = (i > 0 ? cumulative[i - 1] : 0) + bound[order[i]];
+        }
+
+        int[] pos = new int[n];
+        TopDocs top = new TopDocs(k);
+        long hits = 0;
+        boolean pruning = false;
+        float threshold = Float.NEGATIVE_INFINITY;
+        int essential = 0;
+        boolean anyDeleted = deletedCount > 0;
+        int windowEnd = -1;
+        while (essential < n) {
+            int doc = Integer.MAX_VALUE;
+            for (int i = essential; i < n; i++) {
+                if (pos[i] < postings[i].size)
+                    doc = Math.min(doc, postings[i].docs[pos[i]]);
+            }
+            if (doc == Integer.MAX_VALUE)
+                break;
+            if (doc > windowEnd && pruning && top.full()) {
+                // окно до конца ближайшего блока: если даже максимумы блоков не дотягивают до топа,
+                // окно пропускается целиком, иначе его документы считаются без повторной проверки
+                int upTo = Integer.MAX_VALUE;
+                for (int i = essential; i < n; i++) {
+                    if (pos[i] < postings[i].size)
+                        upTo = Math.min(upTo, postings[i].blockEnd(pos[i]));
+                }
+                // список, чей следующий документ дальше окна, в окне ничего не добавит
+                float windowBound = essential > 0 ? cumulative[essential - 1] : 0;
+                for (int i = essential; i < n; i++) {
+                    Postings p = postings[i];
+                    if (pos[i] < p.size && p.docs[pos[i]] <= upTo) {
+                        int block = pos[i] >>> Postings.BLOCK_SHIFT;
+                        float weight = p.blockWeights[block];
+                        windowBound += idfs[i] * weight / (weight + base + perLength * p.blockLengths[block]);
+                    }
+                }
+                if (windowBound < threshold) {
+                    for (int i = essential; i < n; i++) {
+                        if (pos[i] < postings[i].size)
+                            pos[i] = postings[i].advance(pos[i], upTo + 1);
+                    }
+                    continue;
+                }
+                windowEnd = upTo;
+            }
+            float score = 0;
+            for (int i = essential; i < n; i++) {
+                Postings p = postings[i];
+                if (pos[i] < p.size && p.docs[pos[i]] == doc)
+                    score += contribution(idfs[i], p.weights[pos[i]++], doc, base, perLength);
+            }
+            boolean competitive = true;
+            for (int i = essential - 1; i >= 0; i--) {
+                if (score + cumulative[i] < threshold) {
+                    competitive = false;
+                    break;
+                }
+                Postings p = postings[i];
+                pos[i] = p.advance(pos[i], doc);
+                if (pos[i] < p.size && p.docs[pos[i]] == doc)
+                    score += contribution(idfs[i], p.weights[pos[i]++], doc, base, perLength);
+            }
+            if (!competitive || (anyDeleted && deleted.get(doc)))
+                continue;
+            if (!pruning && ++hits >= trackTotalHits)
+                pruning = true;
+            top.offer(doc, score);
+            if (pruning && top.full()) {
+                threshold = top.threshold();
+                while (essential < n && cumulative[essential] < threshold)
+                    essential++;
+            }
+        }
+
+        int[] docs = top.drain();
+        List<Long> ids = new ArrayList<>(Math.max(0, docs.length - offset));
+        for (int i = offset; i < docs.length; i++)
+            ids.add(productIds[docs[i]]);
+        return new SearchHits(ids, hits, !pruning);
+    }
+
+    private float contribution(float idf, float weight, int doc, float base, float perLength) {
+        return idf * weight / (weight + base + perLength * lengths[doc]);
+    }
+
+    // Все слова, кроме последнего, должны быть в названии целиком, последнее — префиксом слова
+    // названия. Перебор идёт по самому короткому из списков: постингам самого редкого полного слова
+    // или объединению постингов слов с префиксом; остальные условия проверяются для каждого кандидата
+    private List<ProductSuggestionDTO> suggest(List<String> tokens, int limit) {
+        String prefix = tokens.get(tokens.size() - 1);
+        List<NamePostings> required = new ArrayList<>();
+        for (String token : new LinkedHashSet<>(tokens.subList(0, tokens.size() - 1))) {
+            NamePostings postings = nameTerms.get(token);
+            if (postings == null)
+                return List.of();
+            required.add(postings);
+        }
+        List<NamePostings> expansions = new ArrayList<>();
+        long expandedSize = 0;
+        for (NamePostings postings : nameTerms.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+            expansions.add(postings);
+            expandedSize += postings.size;
+            if (expansions.size() == MAX_PREFIX_EXPANSIONS)
+                break;
+        }
+        if (expansions.isEmpty())
+            return List.of();
+        required.sort(Comparator.comparingInt(p -> p.size));
+
+        List<ProductSuggestionDTO> suggestions = new ArrayList<>(limit);
+        int[] pos = new int[required.size()];
+        if (!required.isEmpty() && required.get(0).size <= expandedSize) {
+            NamePostings driver = required.get(0);
+            for (int i = 0; i < driver.size && suggestions.size() < limit; i++) {
+                long key = driver.keys[i];
+                if (accept(key, required, pos, 1) && namePrefixed((int) key, prefix))
+                    suggestions.add(new ProductSuggestionDTO(productIds[(int) key], names[(int) key]));
+            }
+            return suggestions;
+        }
+
+        // слияние постингов всех раскрытий префикса в общем порядке ключей
+        PriorityQueue<int[]> merge = new PriorityQueue<>(Comparator.comparingLong(c -> expansions.get(c[0]).keys[c[1]]));
+        for (int i = 0; i < expansions.size(); i++)
+            merge.add(new int[]{i, 0});
+        long last = -1;
+        while (!merge.isEmpty() && suggestions.size() < limit) {
+            int[] cursor = merge.poll();
+            NamePostings postings = expansions.get(cursor[0]);
+            long key = postings.keys[cursor[1]];
+            if (++cursor[1] < postings.size)
+                merge.add(cursor);
+            if (key == last)
+                continue;
+            last = key;
+            if (accept(key, required, pos, 0))
+                suggestions.add(new ProductSuggestionDTO(productIds[(int) key], names[(int) key]));
+        }
+        return suggestions;
+    }
+
+    // Ключи приходят по возрастанию, поэтому позиции в проверяемых списках только растут
+    private boolean accept(long key, List<NamePostings> required, int[] pos, int from) {
+        if (deletedCount > 0 && deleted.get((int) key))
+            return false;
+        for (int i = from; i < required.size(); i++) {
+            NamePostings postings = required.get(i);
+            pos[i] = postings.advance(pos[i], key);
+            if (pos[i] == postings.size || postings.keys[pos[i]] != key)
+                return false;
+        }
+        return true;
+    }
+
+    private boolean namePrefixed(int doc, String prefix) {
+        for (String token : SearchTokenizer.tokenize(names[doc])) {
+            if (token.startsWith(prefix))
+                return true;
+        }
+        return false;
+    }
+}
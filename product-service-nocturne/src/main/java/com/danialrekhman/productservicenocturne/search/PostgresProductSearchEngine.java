@@ -0,0 +1,97 @@
+package com.danialrekhman.productservicenocturne.search;
+
+import com.danialrekhman.productservicenocturne.dto.ProductSuggestionDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Поиск средствами Postgres: взвешенный tsvector (название — A, описание — B) по выражению,
+ * покрытому GIN-индексом, ранжирование ts_rank_cd. Индекс поддерживает сама база, поэтому
+ * {@link #productChanged} ничего не делает. Конфигурация 'simple' — без стемминга, как и у
+ * индекса в памяти.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "product.search.engine", havingValue = "postgres")
+public class PostgresProductSearchEngine implements ProductSearchEngine, SmartInitializingSingleton {
+
+    // выражение должно совпадать с индексом буква в букву, иначе планировщик его не использует
+    private static final String VECTOR = """
+            (setweight(to_tsvector('simple', coalesce(name, '')), 'A') \
+            || setweight(to_tsvector('simple', coalesce(description, '')), 'B'))""";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final int trackTotalHits;
+
+    public PostgresProductSearchEngine(NamedParameterJdbcTemplate jdbcTemplate,
+                                       @Value("${product.search.max-results:1000}") int trackTotalHits) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.trackTotalHits = trackTotalHits;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        jdbcTemplate.getJdbcTemplate().execute(
+                "CREATE INDEX IF NOT EXISTS idx_product_search ON product USING GIN (" + VECTOR + ")");
+        log.info("Product search uses Postgres full-text index idx_product_search");
+    }
+
+    @Override
+    public SearchHits search(String query, int offset, int limit) {
+        List<String> tokens = SearchTokenizer.tokenize(query);
+        if (tokens.isEmpty() || limit <= 0)
+            return SearchHits.empty();
+        // токены состоят только из букв и цифр — операторы tsquery в них не попадут
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("query", String.join(" | ", tokens))
+                .addValue("offset", offset)
+                .addValue("limit", limit)
+                .addValue("track", trackTotalHits);
+        List<Long> ids = jdbcTemplate.queryForList("""
+                SELECT id FROM product, to_tsquery('simple', :query) q
+                WHERE %1$s @@ q
+                ORDER BY ts_rank_cd(%1$s, q) DESC, id
+                OFFSET :offset LIMIT :limit""".formatted(VECTOR), params, Long.class);
+        // точный count по всем совпадениям дорог — считаем до порога, как и индекс в памяти
+        Long total = jdbcTemplate.queryForObject("""
+                SELECT count(*) FROM (
+                    SELECT 1 FROM product WHERE %s @@ to_tsquery('simple', :query) LIMIT :track
+                ) matches""".formatted(VECTOR), params, Long.class);
+        long count = total != null ? total : 0;
+        return new SearchHits(ids, count, count < trackTotalHits);
+    }
+
+    @Override
+    public List<ProductSuggestionDTO> suggest(String prefix, int limit) {
+        List<String> tokens = SearchTokenizer.tokenize(prefix);
+        if (tokens.isEmpty() || limit <= 0)
+            return List.of();
+        String query = tokens.stream().collect(Collectors.joining(" & ")) + ":*";
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("query", query)
+                .addValue("limit", limit);
+        return jdbcTemplate.query("""
+                SELECT id, name FROM product, to_tsquery('simple', :query) q
+                WHERE %1$s @@ q
+                ORDER BY ts_rank_cd(%1$s, q) DESC, id
+                LIMIT :limit""".formatted(VECTOR), params,
+                (rs, rowNum) -> new ProductSuggestionDTO(rs.getLong("id"), rs.getString("name")));
+    }
+
+    @Override
+    public void productChanged(Long productId) {
+        // tsvector вычисляется из строки product, GIN-индекс обновляется вместе с ней
+    }
+
+    @Override
+    public void reindexAll() {
+    }
+}
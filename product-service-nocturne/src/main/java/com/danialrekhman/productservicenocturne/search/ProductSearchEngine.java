@@ -0,0 +1,25 @@
+package com.danialrekhman.productservicenocturne.search;
+
+import com.danialrekhman.productservicenocturne.dto.ProductSuggestionDTO;
+
+import java.util.List;
+
+/**
+ * Полнотекстовый поиск по названию и описанию товара.
+ * Реализация выбирается свойством product.search.engine: memory (по умолчанию) — инвертированный
+ * индекс в памяти процесса, postgres — tsvector с GIN-индексом.
+ */
+public interface ProductSearchEngine {
+
+    // Ранжированный поиск: совпадение с любым словом запроса, название весит больше описания
+    SearchHits search(String query, int offset, int limit);
+
+    // Автодополнение: все слова запроса, последнее — как префикс
+    List<ProductSuggestionDTO> suggest(String prefix, int limit);
+
+    // Товар создан, изменён или удалён; вызывается внутри транзакции изменения или из события каталога
+    void productChanged(Long productId);
+
+    // Изменилось много товаров сразу (массовый импорт); вызывается после коммита
+    void reindexAll();
+}
@@ -0,0 +1,12 @@
+package com.danialrekhman.productservicenocturne.search;
+
+import java.util.List;
+
+// id товаров в порядке релевантности и число совпадений; totalExact = false — total лишь нижняя
+// оценка: совпадений больше, чем движок считает точно (product.search.max-results)
+public record SearchHits(List<Long> productIds, long total, boolean totalExact) {
+
+    public static SearchHits empty() {
+        return new SearchHits(List.of(), 0, true);
+    }
+}
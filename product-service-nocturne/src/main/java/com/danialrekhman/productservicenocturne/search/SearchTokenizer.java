@@ -0,0 +1,32 @@
+package com.danialrekhman.productservicenocturne.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Токены — непрерывные последовательности букв и цифр в нижнем регистре (латиница и кириллица одинаково)
+final class SearchTokenizer {
+
+    static final int MAX_TOKEN_LENGTH = 64;
+
+    private SearchTokenizer() {
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null)
+            return tokens;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                String token = text.substring(start, Math.min(i, start + MAX_TOKEN_LENGTH)).toLowerCase(Locale.ROOT);
+                tokens.add(token);
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+}
@@ -1,5 +1,6 @@
 package com.danialrekhman.productservicenocturne.service;
 
+import com.danialrekhman.productservicenocturne.dto.CategoryResponseDTO;
 import com.danialrekhman.productservicenocturne.model.Category;
 import org.springframework.security.core.Authentication;
 
@@ -17,6 +18,12 @@ public interface CategoryService {
 
     List<Category> getAllCategories();
 
+    List<CategoryResponseDTO> getAllCategorySnapshots();
+
+    CategoryResponseDTO getCategorySnapshot(Long id, Authentication authentication);
+
+    List<CategoryResponseDTO> getSubcategorySnapshots(Long parentId);
+
     List<Category> getSubcategories(Long parentId);
 
     List<Category> getAllParentCategories();
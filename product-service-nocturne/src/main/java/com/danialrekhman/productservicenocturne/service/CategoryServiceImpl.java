@@ -1,5 +1,8 @@
 package com.danialrekhman.productservicenocturne.service;
 
+import com.danialrekhman.productservicenocturne.cache.CatalogCache;
+import com.danialrekhman.productservicenocturne.category.CategoryTreeHolder;
+import com.danialrekhman.productservicenocturne.dto.CategoryResponseDTO;
 import com.danialrekhman.productservicenocturne.exception.CustomAccessDeniedException;
 import com.danialrekhman.productservicenocturne.exception.DuplicateResourceException;
 import com.danialrekhman.productservicenocturne.exception.ResourceNotFoundException;
@@ -18,6 +21,8 @@ import java.util.List;
 public class CategoryServiceImpl implements CategoryService {
 
     private final CategoryRepository categoryRepository;
+    private final CatalogCache catalogCache;
+    private final CategoryTreeHolder categoryTree;
 
     @Transactional
     @Override
@@ -28,7 +33,10 @@ public class CategoryServiceImpl implements CategoryService {
             throw new DuplicateResourceException("Category with name '" + category.getName() + "' already exists.");
         if (category.getSubcategories() != null)
             category.getSubcategories().forEach(sub -> sub.setParent(category));
-        return categoryRepository.save(category);
+        Category saved = categoryRepository.save(category);
+        categoryTree.categoryChanged();
+        catalogCache.categoryChanged(saved.getId());
+        return saved;
     }
 
     @Transactional
@@ -45,11 +53,17 @@ public class CategoryServiceImpl implements CategoryService {
         if (updatedCategory.getParent() != null && updatedCategory.getParent().getId() != null) {
             if (updatedCategory.getParent().getId().equals(id))
                 throw new IllegalArgumentException("Category cannot be a parent of itself. Parent ID: " + id + ". Category ID: " + id + ".");
+            if (categoryTree.get().isInSubtree(id, updatedCategory.getParent().getId()))
+                throw new IllegalArgumentException("Category " + id + " cannot be moved under its own subcategory "
+                        + updatedCategory.getParent().getId() + ".");
             Category parent = categoryRepository.findById(updatedCategory.getParent().getId())
                     .orElseThrow(() -> new ResourceNotFoundException("Parent category with id " + updatedCategory.getParent().getId() + " not found."));
             existingCategory.setParent(parent);
         } else existingCategory.setParent(null);
-        return categoryRepository.save(existingCategory);
+        Category saved = categoryRepository.save(existingCategory);
+        categoryTree.categoryChanged();
+        catalogCache.categoryChanged(id);
+        return saved;
     }
 
     @Transactional
@@ -60,6 +74,8 @@ public class CategoryServiceImpl implements CategoryService {
         Category category = categoryRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Category with id " + id + " not found."));
         categoryRepository.delete(category);
+        categoryTree.categoryChanged();
+        catalogCache.categoryChanged(id);
     }
 
     @Override
@@ -76,6 +92,27 @@ public class CategoryServiceImpl implements CategoryService {
         return categoryRepository.findAll();
     }
 
+    // Корни дерева; каждая категория встречается в ответе один раз — внутри своего родителя
+    @Override
+    public List<CategoryResponseDTO> getAllCategorySnapshots() {
+        return categoryTree.get().roots();
+    }
+
+    @Override
+    public CategoryResponseDTO getCategorySnapshot(Long id, Authentication authentication) {
+        if(!isAdmin(authentication))
+            throw new CustomAccessDeniedException("Only admin can retrieve category.");
+        return categoryTree.get().find(id)
+                .orElseThrow(() -> new ResourceNotFoundException("Category with id " + id + " not found."));
+    }
+
+    @Override
+    public List<CategoryResponseDTO> getSubcategorySnapshots(Long parentId) {
+        return categoryTree.get().find(parentId)
+                .orElseThrow(() -> new ResourceNotFoundException("Parent category not found."))
+                .getSubcategories();
+    }
+
     @Override
     public List<Category> getSubcategories(Long parentId) {
         categoryRepository.findById(parentId)
@@ -0,0 +1,58 @@
+package com.danialrekhman.productservicenocturne.service;
+
+import com.danialrekhman.productservicenocturne.dto.ProductSort;
+import com.danialrekhman.productservicenocturne.exception.InvalidCursorException;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductListRow;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Позиция в листинге товаров: сортировка, значение её ключа и id последней строки страницы.
+ * Клиенту отдаётся непрозрачной base64url-строкой; курсор действителен только для той же сортировки.
+ */
+record ProductCursor(ProductSort sort, Object key, Long id) {
+
+    private static final char SEPARATOR = '|';
+
+    static ProductCursor of(ProductSort sort, ProductListRow row) {
+        Object key = switch (sort) {
+            case ID -> null;
+            case PRICE_ASC, PRICE_DESC -> row.price();
+            case NAME_ASC, NAME_DESC -> row.name();
+        };
+        return new ProductCursor(sort, key, row.id());
+    }
+
+    String encode() {
+        String raw = sort.name() + SEPARATOR + (key != null ? key.toString() : "") + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // null или пустая строка — первая страница
+    static ProductCursor decode(String token, ProductSort expectedSort) {
+        if (token == null || token.isBlank())
+            return null;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            // имя товара может содержать разделитель: сортировка — до первого, id — после последнего
+            int first = raw.indexOf(SEPARATOR);
+            int last = raw.lastIndexOf(SEPARATOR);
+            if (first < 0 || first == last)
+                throw new InvalidCursorException("Malformed cursor: " + token);
+            ProductSort sort = ProductSort.valueOf(raw.substring(0, first));
+            if (sort != expectedSort)
+                throw new InvalidCursorException("Cursor was issued for sort " + sort + ", not " + expectedSort + ".");
+            String key = raw.substring(first + 1, last);
+            Long id = Long.parseLong(raw.substring(last + 1));
+            return switch (sort) {
+                case ID -> new ProductCursor(sort, null, id);
+                case PRICE_ASC, PRICE_DESC -> new ProductCursor(sort, new BigDecimal(key), id);
+                case NAME_ASC, NAME_DESC -> new ProductCursor(sort, key, id);
+            };
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException("Malformed cursor: " + token);
+        }
+    }
+}
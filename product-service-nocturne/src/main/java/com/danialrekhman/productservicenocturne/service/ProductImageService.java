@@ -1,14 +1,27 @@
 package com.danialrekhman.productservicenocturne.service;
 
 import com.danialrekhman.productservicenocturne.model.ProductImage;
+import com.danialrekhman.productservicenocturne.storage.ImageStore;
+import com.danialrekhman.productservicenocturne.storage.ImageVariant;
 import org.springframework.security.core.Authentication;
+import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
+import java.util.Optional;
 
 public interface ProductImageService {
 
     ProductImage addImageToProduct(Long productId, ProductImage image, Authentication authentication);
 
+    // Сохраняет файл в ImageStore и добавляет товару картинку со ссылкой на него
+    ProductImage uploadImage(Long productId, MultipartFile file, Authentication authentication);
+
+    // Файл загруженной картинки по ключу из её URL, без обращения к базе
+    ImageStore.StoredImage getImageContent(String key);
+
+    // Уменьшенная копия; пусто, если её сейчас нет и не удалось нарисовать (отдаётся оригинал)
+    Optional<ImageStore.StoredImage> getImageVariant(String key, ImageVariant variant);
+
     void deleteImage(Long imageId, Authentication authentication);
 
     List<ProductImage> getImagesByProduct(Long productId, Authentication authentication);
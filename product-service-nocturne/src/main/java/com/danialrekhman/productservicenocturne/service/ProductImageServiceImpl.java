@@ -1,39 +1,106 @@
 package com.danialrekhman.productservicenocturne.service;
 
+import com.danialrekhman.productservicenocturne.cache.CatalogCache;
 import com.danialrekhman.productservicenocturne.exception.CustomAccessDeniedException;
 import com.danialrekhman.productservicenocturne.exception.ResourceNotFoundException;
 import com.danialrekhman.productservicenocturne.model.Product;
 import com.danialrekhman.productservicenocturne.model.ProductImage;
 import com.danialrekhman.productservicenocturne.repository.ProductImageRepository;
 import com.danialrekhman.productservicenocturne.repository.ProductRepository;
+import com.danialrekhman.productservicenocturne.storage.ImageDerivatives;
+import com.danialrekhman.productservicenocturne.storage.ImageStore;
+import com.danialrekhman.productservicenocturne.storage.ImageVariant;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
 import java.util.List;
+import java.util.Optional;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class ProductImageServiceImpl implements ProductImageService {
 
     private final ProductImageRepository productImageRepository;
     private final ProductRepository productRepository;
+    private final CatalogCache catalogCache;
+    private final ImageStore imageStore;
+    private final ImageDerivatives imageDerivatives;
+
+    @Value("${product.images.orphan-grace-seconds:3600}")
+    private long orphanGraceSeconds = 3600;
 
     @Transactional
     @Override
     public ProductImage addImageToProduct(Long productId, ProductImage image, Authentication authentication) {
         if(!isAdmin(authentication))
             throw new CustomAccessDeniedException("Only admin can add image to product.");
-        Product product = productRepository.findById(productId)
+        Product product = productRepository.findAndIncrementVersionById(productId)
                 .orElseThrow(() -> new ResourceNotFoundException("Product with id " + productId + " not found for image creation."));
         image.setProduct(product);
-        return productImageRepository.save(image);
+        ProductImage saved = productImageRepository.save(image);
+        catalogCache.productChanged(productId);
+        return saved;
+    }
+
+    @Transactional
+    @Override
+    public ProductImage uploadImage(Long productId, MultipartFile file, Authentication authentication) {
+        if (!isAdmin(authentication))
+            throw new CustomAccessDeniedException("Only admin can add image to product.");
+        if (file == null || file.isEmpty())
+            throw new IllegalArgumentException("Image file is empty.");
+        ImageStore.StoredImage stored;
+        try (InputStream content = file.getInputStream()) {
+            stored = imageStore.store(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read uploaded image", e);
+        }
+        // если транзакция откатится, файл без ссылок уберёт sweep
+        ProductImage image = ProductImage.builder()
+                .imageUrl(ImageStore.URL_PREFIX + stored.key())
+                .storageKey(stored.key())
+                .build();
+        ProductImage saved = addImageToProduct(productId, image, authentication);
+        afterCommit(() -> imageDerivatives.generate(stored));
+        return saved;
+    }
+
+    @Override
+    public ImageStore.StoredImage getImageContent(String key) {
+        return imageStore.find(key)
+                .orElseThrow(() -> new ResourceNotFoundException("Image " + key + " not found."));
+    }
+
+    @Override
+    public Optional<ImageStore.StoredImage> getImageVariant(String key, ImageVariant variant) {
+        return imageDerivatives.get(getImageContent(key), variant);
+    }
+
+    // Файлы, на которые не ссылается ни одна картинка дольше grace-периода
+    @Scheduled(fixedDelayString = "${product.images.sweep-interval-ms:3600000}",
+            initialDelayString = "${product.images.sweep-interval-ms:3600000}")
+    public void sweepOrphanedImages() {
+        int deleted = imageStore.sweep(Instant.now().minusSeconds(orphanGraceSeconds), productImageRepository::findStorageKeysIn);
+        if (deleted > 0)
+            log.info("Deleted {} orphaned image files", deleted);
     }
 
     @Transactional
@@ -44,6 +111,10 @@ public class ProductImageServiceImpl implements ProductImageService {
         ProductImage image = productImageRepository.findById(imageId)
                 .orElseThrow(() -> new ResourceNotFoundException("Image with id " + imageId + " not found for deletion."));
         productImageRepository.delete(image);
+        if (image.getProduct() != null) {
+            productRepository.findAndIncrementVersionById(image.getProduct().getId());
+            catalogCache.productChanged(image.getProduct().getId());
+        }
     }
 
     @Transactional(readOnly = true)
@@ -56,6 +127,19 @@ public class ProductImageServiceImpl implements ProductImageService {
         return productImageRepository.findProductImagesByProductId(productId);
     }
 
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
     private boolean isAdmin(Authentication authentication) {
         return authentication.getAuthorities().stream()
                 .map(GrantedAuthority::getAuthority)
@@ -0,0 +1,16 @@
+package com.danialrekhman.productservicenocturne.service;
+
+import com.danialrekhman.productservicenocturne.dto.ImportFormat;
+import com.danialrekhman.productservicenocturne.dto.ProductImportReportDTO;
+import org.springframework.security.core.Authentication;
+
+import java.io.InputStream;
+
+public interface ProductImportService {
+
+    // Создаёт или обновляет товары по имени; строки с ошибками пропускаются и попадают в отчёт
+    ProductImportReportDTO importProducts(InputStream body, ImportFormat format, Authentication authentication);
+
+    // Меняет только цены существующих товаров (колонки name, price)
+    ProductImportReportDTO updatePrices(InputStream body, ImportFormat format, Authentication authentication);
+}
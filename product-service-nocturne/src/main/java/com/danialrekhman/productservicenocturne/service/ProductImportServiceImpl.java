@@ -0,0 +1,351 @@
+package com.danialrekhman.productservicenocturne.service;
+
+import com.danialrekhman.productservicenocturne.cache.CatalogCache;
+import com.danialrekhman.productservicenocturne.category.CategoryTree;
+import com.danialrekhman.productservicenocturne.category.CategoryTreeHolder;
+import com.danialrekhman.productservicenocturne.dto.CategoryResponseDTO;
+import com.danialrekhman.productservicenocturne.dto.ImportFormat;
+import com.danialrekhman.productservicenocturne.dto.ProductImportErrorDTO;
+import com.danialrekhman.productservicenocturne.dto.ProductImportReportDTO;
+import com.danialrekhman.productservicenocturne.exception.CustomAccessDeniedException;
+import com.danialrekhman.productservicenocturne.facet.FacetIndex;
+import com.danialrekhman.productservicenocturne.inventory.HotInventory;
+import com.danialrekhman.productservicenocturne.repository.ProductBulkRepository;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductImportRow;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductUpsertResult;
+import com.danialrekhman.productservicenocturne.search.ProductSearchEngine;
+import com.danialrekhman.productservicenocturne.snapshot.ProductSnapshotPublisher;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.cfg.JsonNodeFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvParser;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Массовый импорт товаров из CSV (с заголовком) или NDJSON.
+ * <p>
+ * Тело читается потоком: в памяти только текущая пачка из product.import.chunk-size строк и первые
+ * product.import.max-reported-errors ошибок, поэтому размер файла не ограничен памятью. Каждая
+ * пачка — один upsert по имени (своя транзакция): упавшая пачка не откатывает уже записанные, её
+ * строки попадают в отчёт. Категория — id или уникальное имя, ищется в снимке дерева без запросов.
+ * Кэш, поиск и фасеты обновляются один раз в конце, целиком, а не на каждый товар.
+ */
+@Slf4j
+@Service
+public class ProductImportServiceImpl implements ProductImportService {
+
+    static final int MAX_NAME = 255;
+    static final int MAX_DESCRIPTION = 1000;
+
+    private static final CsvMapper CSV = CsvMapper.builder()
+            .enable(CsvParser.Feature.TRIM_SPACES)
+            .enable(CsvParser.Feature.SKIP_EMPTY_LINES)
+            .build();
+    // цены как написаны: без double и без обрезки нулей (10.50 остаётся 10.50)
+    private static final ObjectMapper JSON = JsonMapper.builder()
+            .enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)
+            .disable(JsonNodeFeature.STRIP_TRAILING_BIGDECIMAL_ZEROES)
+            .build();
+
+    private final ProductBulkRepository productBulkRepository;
+    private final CategoryTreeHolder categoryTree;
+    private final CatalogCache catalogCache;
+    private final ProductSearchEngine productSearchEngine;
+    private final FacetIndex facetIndex;
+    private final HotInventory hotInventory;
+    private final ProductSnapshotPublisher productSnapshots;
+    private final int chunkSize;
+    private final int maxReportedErrors;
+
+    public ProductImportServiceImpl(ProductBulkRepository productBulkRepository,
+                                    CategoryTreeHolder categoryTree,
+                                    CatalogCache catalogCache,
+                                    ProductSearchEngine productSearchEngine,
+                                    FacetIndex facetIndex,
+                                    HotInventory hotInventory,
+                                    ProductSnapshotPublisher productSnapshots,
+                                    @Value("${product.import.chunk-size:1000}") int chunkSize,
+                                    @Value("${product.import.max-reported-errors:1000}") int maxReportedErrors) {
+        this.productBulkRepository = productBulkRepository;
+        this.categoryTree = categoryTree;
+        this.catalogCache = catalogCache;
+        this.productSearchEngine = productSearchEngine;
+        this.facetIndex = facetIndex;
+        this.hotInventory = hotInventory;
+        this.productSnapshots = productSnapshots;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.maxReportedErrors = Math.max(0, maxReportedErrors);
+    }
+
+    @Override
+    public ProductImportReportDTO importProducts(InputStream body, ImportFormat format, Authentication authentication) {
+        if (!isAdmin(authentication))
+            throw new CustomAccessDeniedException("Only admin can import products.");
+        Categories categories = new Categories(categoryTree.get());
+        Report report = run(body, format, node -> productRow(node, categories), productBulkRepository::upsert);
+        if (report.inserted + report.updated > 0) {
+            // своя реплика обновит поиск и фасеты ещё раз по событию каталога — безвредно
+            catalogCache.catalogChanged();
+            productSearchEngine.reindexAll();
+            facetIndex.rebuild();
+        }
+        log.info("Product import: {} rows, {} inserted, {} updated, {} failed",
+                report.rows, report.inserted, report.updated, report.failed);
+        return report.toDto();
+    }
+
+    @Override
+    public ProductImportReportDTO updatePrices(InputStream body, ImportFormat format, Authentication authentication) {
+        if (!isAdmin(authentication))
+            throw new CustomAccessDeniedException("Only admin can update prices.");
+        Report report = run(body, format, this::priceRow, productBulkRepository::updatePrices);
+        if (report.updated > 0) {
+            // поисковый индекс цен не хранит
+            catalogCache.catalogChanged();
+            facetIndex.rebuild();
+        }
+        log.info("Price update: {} rows, {} updated, {} failed", report.rows, report.updated, report.failed);
+        return report.toDto();
+    }
+
+    private Report run(InputStream body, ImportFormat format, Function<JsonNode, ProductImportRow> validator,
+                       Function<List<ProductImportRow>, List<ProductUpsertResult>> writer) {
+        Report report = new Report(maxReportedErrors);
+        // имя -> номер строки и сама строка; повтор имени в пачке вытесняет предыдущую
+        Map<String, Map.Entry<Long, ProductImportRow>> chunk = new HashMap<>();
+        try (MappingIterator<JsonNode> records = reader(format).readValues(body)) {
+            while (records.hasNextValue()) {
+                long row = ++report.rows;
+                JsonNode node;
+                try {
+                    node = records.nextValue();
+                } catch (IOException e) {
+                    // после битой записи позиция в потоке не определена — дальше не читаем
+                    report.reject(row, null, "Malformed record, import stopped: " + e.getMessage());
+                    break;
+                }
+                ProductImportRow validated;
+                try {
+                    validated = validator.apply(node);
+                } catch (IllegalArgumentException e) {
+                    report.reject(row, text(node, "name"), e.getMessage());
+                    continue;
+                }
+                Map.Entry<Long, ProductImportRow> previous = chunk.put(validated.name(), Map.entry(row, validated));
+                if (previous != null)
+                    report.reject(previous.getKey(), validated.name(), "Superseded by row " + row + " with the same name.");
+                if (chunk.size() >= chunkSize)
+                    flush(chunk, writer, report);
+            }
+        } catch (IOException e) {
+            report.reject(report.rows + 1, null, "Malformed input, import stopped: " + e.getMessage());
+        }
+        flush(chunk, writer, report);
+        return report;
+    }
+
+    private ObjectReader reader(ImportFormat format) {
+        return switch (format) {
+            case CSV -> CSV.readerFor(JsonNode.class).with(CSV.schemaWithHeader());
+            case NDJSON -> JSON.readerFor(JsonNode.class);
+        };
+    }
+
+    private void flush(Map<String, Map.Entry<Long, ProductImportRow>> chunk,
+                       Function<List<ProductImportRow>, List<ProductUpsertResult>> writer, Report report) {
+        if (chunk.isEmpty())
+            return;
+        // один порядок блокировок строк у параллельных импортов — без взаимных блокировок
+        List<Map.Entry<Long, ProductImportRow>> entries = chunk.values().stream()
+                .sorted(Comparator.comparing(e -> e.getValue().name()))
+                .toList();
+        chunk.clear();
+        List<ProductUpsertResult> results;
+        try {
+            results = writer.apply(entries.stream().map(Map.Entry::getValue).toList());
+        } catch (DataAccessException e) {
+            log.warn("Import chunk of {} rows rejected", entries.size(), e);
+            String message = "Chunk rejected by the database: " + e.getMostSpecificCause().getMessage();
+            entries.forEach(entry -> report.reject(entry.getKey(), entry.getValue().name(), message));
+            return;
+        }
+        Set<String> written = new HashSet<>();
+        List<Long> ids = new ArrayList<>(results.size());
+        for (ProductUpsertResult result : results) {
+            written.add(result.name());
+            ids.add(result.id());
+            if (result.inserted())
+                report.inserted++;
+            else
+                report.updated++;
+            hotInventory.refresh(result.id(), result.price(), result.available());
+        }
+        // снимки пачки уходят по одному на товар, без полной сверки каталога
+        productSnapshots.productsChanged(ids);
+        for (Map.Entry<Long, ProductImportRow> entry : entries) {
+            if (!written.contains(entry.getValue().name()))
+                report.reject(entry.getKey(), entry.getValue().name(), "Product not found.");
+        }
+    }
+
+    private ProductImportRow productRow(JsonNode node, Categories categories) {
+        String name = name(node);
+        String description = text(node, "description");
+        if (description == null)
+            description = "";
+        if (description.length() > MAX_DESCRIPTION)
+            throw new IllegalArgumentException("Description is longer than " + MAX_DESCRIPTION + " characters.");
+        BigDecimal price = price(node);
+        int quantity = 0;
+        String quantityText = text(node, "quantity");
+        if (quantityText != null) {
+            try {
+                quantity = Integer.parseInt(quantityText);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Quantity '" + quantityText + "' is not an integer.");
+            }
+            if (quantity < 0)
+                throw new IllegalArgumentException("Quantity cannot be negative.");
+        }
+        boolean available = true;
+        String availableText = text(node, "available");
+        if (availableText != null) {
+            if (availableText.equalsIgnoreCase("true"))
+                available = true;
+            else if (availableText.equalsIgnoreCase("false"))
+                available = false;
+            else
+                throw new IllegalArgumentException("Available must be true or false.");
+        }
+        Long categoryId = categories.resolve(text(node, "category"));
+        return new ProductImportRow(name, description, price, quantity, available, categoryId);
+    }
+
+    private ProductImportRow priceRow(JsonNode node) {
+        return new ProductImportRow(name(node), null, price(node), 0, true, null);
+    }
+
+    private static String name(JsonNode node) {
+        String name = text(node, "name");
+        if (name == null)
+            throw new IllegalArgumentException("Name is required.");
+        if (name.length() > MAX_NAME)
+            throw new IllegalArgumentException("Name is longer than " + MAX_NAME + " characters.");
+        return name;
+    }
+
+    private static BigDecimal price(JsonNode node) {
+        String text = text(node, "price");
+        if (text == null)
+            throw new IllegalArgumentException("Price is required.");
+        BigDecimal price;
+        try {
+            price = new BigDecimal(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Price '" + text + "' is not a number.");
+        }
+        if (price.signum() < 0)
+            throw new IllegalArgumentException("Price cannot be negative.");
+        return price;
+    }
+
+    // Пустая ячейка CSV и null в JSON — значения нет
+    private static String text(JsonNode node, String field) {
+        JsonNode value = node != null ? node.get(field) : null;
+        if (value == null || value.isNull() || value.isContainerNode())
+            return null;
+        String text = value.asText().trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    private boolean isAdmin(Authentication authentication) {
+        return authentication.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority)
+                .anyMatch(role -> role.equals("ROLE_ADMIN"));
+    }
+
+    // Категории по id и по имени из одного снимка дерева на весь импорт
+    private static final class Categories {
+
+        private final CategoryTree tree;
+        private final Map<String, Long> byName = new HashMap<>();
+        private final Set<String> ambiguous = new HashSet<>();
+
+        Categories(CategoryTree tree) {
+            this.tree = tree;
+            Deque<CategoryResponseDTO> stack = new ArrayDeque<>(tree.roots());
+            while (!stack.isEmpty()) {
+                CategoryResponseDTO category = stack.pop();
+                if (byName.putIfAbsent(category.getName(), category.getId()) != null)
+                    ambiguous.add(category.getName());
+                stack.addAll(category.getSubcategories());
+            }
+        }
+
+        Long resolve(String category) {
+            if (category == null)
+                throw new IllegalArgumentException("Category is required.");
+            if (ambiguous.contains(category))
+                throw new IllegalArgumentException("Category name '" + category + "' is not unique, use the category id.");
+            Long id = byName.get(category);
+            if (id != null)
+                return id;
+            try {
+                id = Long.valueOf(category);
+            } catch (NumberFormatException e) {
+                id = null;
+            }
+            if (id == null || !tree.contains(id))
+                throw new IllegalArgumentException("Category '" + category + "' not found.");
+            return id;
+        }
+    }
+
+    private static final class Report {
+
+        private final int maxReportedErrors;
+        private final List<ProductImportErrorDTO> errors = new ArrayList<>();
+        private long rows;
+        private long inserted;
+        private long updated;
+        private long failed;
+
+        Report(int maxReportedErrors) {
+            this.maxReportedErrors = maxReportedErrors;
+        }
+
+        void reject(long row, String name, String message) {
+            failed++;
+            if (errors.size() < maxReportedErrors)
+                errors.add(new ProductImportErrorDTO(row, name, message));
+        }
+
+        ProductImportReportDTO toDto() {
+            errors.sort(Comparator.comparingLong(ProductImportErrorDTO::getRow));
+            return ProductImportReportDTO.builder()
+                    .rows(rows)
+                    .inserted(inserted)
+                    .updated(updated)
+                    .failed(failed)
+                    .errors(List.copyOf(errors))
+                    .errorsTruncated(failed > errors.size())
+                    .build();
+        }
+    }
+}
@@ -1,9 +1,17 @@
 package com.danialrekhman.productservicenocturne.service;
 
+import com.danialrekhman.productservicenocturne.dto.CursorPage;
+import com.danialrekhman.productservicenocturne.dto.FacetedProductPageDTO;
+import com.danialrekhman.productservicenocturne.dto.ProductResponseDTO;
+import com.danialrekhman.productservicenocturne.dto.ProductSearchPageDTO;
+import com.danialrekhman.productservicenocturne.dto.ProductSuggestionDTO;
+import com.danialrekhman.productservicenocturne.dto.ReservationOutcome;
 import com.danialrekhman.productservicenocturne.model.Product;
 import org.springframework.security.core.Authentication;
 
+import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
 
 public interface ProductService {
 
@@ -19,11 +27,34 @@ public interface ProductService {
 
         List<Product> getProductsByCategory(Long categoryId);
 
-        List<Product> searchProducts(String keyword);
+        ProductSearchPageDTO searchProducts(String query, Integer page, Integer size);
+
+        List<ProductSuggestionDTO> suggestProducts(String prefix, Integer limit);
+
+        FacetedProductPageDTO filterProducts(List<Long> categoryIds, List<String> priceBands, Boolean inStock,
+                                             Integer page, Integer size);
+
+        ProductResponseDTO getProductSnapshot(Long id);
+
+        CursorPage<ProductResponseDTO> getProductPage(Long categoryId, String sort, String cursor, Integer page, Integer size);
+
+        CursorPage<ProductResponseDTO> getSubtreeProductPage(Long categoryId, String sort, String cursor, Integer page, Integer size);
 
         boolean isAvailableById(Long id);
 
         boolean reserveStock(Long productId, int amount);
 
+        Map<Long, BigDecimal> reserveStock(Map<Long, Integer> quantities);
+
+        List<ReservationOutcome> reserveStockBatch(List<Map<Long, Integer>> requests);
+
+        List<ReservationOutcome> reserveStockBatch(List<String> reservationIds, List<Map<Long, Integer>> requests);
+
         void releaseStock(Long productId, int amount);
+
+        boolean releaseReservation(String reservationId, Map<Long, Integer> quantities);
+
+        List<String> confirmReservations(List<String> reservationIds);
+
+        int expireReservations(int limit);
 }
\ No newline at end of file
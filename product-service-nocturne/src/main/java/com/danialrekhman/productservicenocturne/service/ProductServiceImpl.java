@@ -1,27 +1,88 @@
 package com.danialrekhman.productservicenocturne.service;
 
+import com.danialrekhman.productservicenocturne.cache.CatalogCache;
+import com.danialrekhman.productservicenocturne.category.CategoryTreeHolder;
+import com.danialrekhman.productservicenocturne.dto.FacetedProductPageDTO;
+import com.danialrekhman.productservicenocturne.dto.CursorPage;
+import com.danialrekhman.productservicenocturne.dto.ProductImageDTO;
+import com.danialrekhman.productservicenocturne.dto.ProductResponseDTO;
+import com.danialrekhman.productservicenocturne.dto.ProductSearchPageDTO;
+import com.danialrekhman.productservicenocturne.dto.ProductSort;
+import com.danialrekhman.productservicenocturne.dto.ProductSuggestionDTO;
+import com.danialrekhman.productservicenocturne.dto.ReservationOutcome;
 import com.danialrekhman.productservicenocturne.exception.CustomAccessDeniedException;
 import com.danialrekhman.productservicenocturne.exception.DuplicateResourceException;
+import com.danialrekhman.productservicenocturne.exception.InsufficientStockException;
 import com.danialrekhman.productservicenocturne.exception.ResourceNotFoundException;
+import com.danialrekhman.productservicenocturne.facet.FacetHits;
+import com.danialrekhman.productservicenocturne.facet.FacetIndex;
+import com.danialrekhman.productservicenocturne.inventory.HotInventory;
+import com.danialrekhman.productservicenocturne.mapper.ProductMapper;
 import com.danialrekhman.productservicenocturne.model.Category;
 import com.danialrekhman.productservicenocturne.model.Product;
+import com.danialrekhman.productservicenocturne.model.ReservationStatus;
 import com.danialrekhman.productservicenocturne.repository.CategoryRepository;
+import com.danialrekhman.productservicenocturne.repository.ProductImageRepository;
 import com.danialrekhman.productservicenocturne.repository.ProductRepository;
+import com.danialrekhman.productservicenocturne.repository.StockReservationRepository;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductListRow;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductStock;
+import com.danialrekhman.productservicenocturne.repository.projection.ReservationLedgerEntry;
+import com.danialrekhman.productservicenocturne.search.ProductSearchEngine;
+import com.danialrekhman.productservicenocturne.search.SearchHits;
+import com.danialrekhman.productservicenocturne.snapshot.ProductSnapshotPublisher;
+import com.danialrekhman.productservicenocturne.storage.ImageVariant;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
-import java.util.List;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class ProductServiceImpl implements ProductService {
 
     private final ProductRepository productRepository;
     private final CategoryRepository categoryRepository;
+    private final HotInventory hotInventory;
+    private final CatalogCache catalogCache;
+    private final ProductMapper productMapper;
+    private final ProductImageRepository productImageRepository;
+    private final ProductSearchEngine productSearchEngine;
+    private final CategoryTreeHolder categoryTree;
+    private final FacetIndex facetIndex;
+    private final ProductSnapshotPublisher productSnapshots;
+    private final StockReservationRepository stockReservationRepository;
+
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int DEFAULT_SUGGESTIONS = 10;
+
+    @Value("${product.listing.max-page-size:100}")
+    private int maxPageSize = 100;
+
+    // глубже поиск не листается: ранжирование всё равно отбирает offset + size лучших
+    @Value("${product.search.max-results:1000}")
+    private int maxSearchResults = 1000;
+
+    // завершённые записи журнала резервов хранятся столько, сколько возможен повтор доставки
+    @Value("${product.reservation.ledger.retention-hours:168}")
+    private long ledgerRetentionHours = 168;
+
+    @Value("${product.reservation.ledger.purge-batch-size:10000}")
+    private int ledgerPurgeBatchSize = 10000;
+
+    // неподтверждённый заказом резерв возвращается на склад через столько секунд
+    @Value("${product.reservation.ttl-seconds:900}")
+    private long reservationTtlSeconds = 900;
 
     @Transactional
     @Override
@@ -42,7 +103,12 @@ public class ProductServiceImpl implements ProductService {
                             "Category with id " + product.getCategory().getId() + " not found for product creation."));
             product.setCategory(category);
         }
-        return productRepository.save(product);
+        Product saved = productRepository.save(product);
+        catalogCache.productChanged(saved.getId());
+        productSearchEngine.productChanged(saved.getId());
+        facetIndex.productChanged(saved.getId());
+        productSnapshots.productChanged(saved.getId());
+        return saved;
     }
 
     @Transactional
@@ -75,12 +141,23 @@ public class ProductServiceImpl implements ProductService {
         if (updatedProduct.isAvailable() != existingProduct.isAvailable()) {
             existingProduct.setAvailable(updatedProduct.isAvailable());
         }
-        if (updatedProduct.getQuantity() != existingProduct.getQuantity()) {
+        if (hotInventory.isHot(id)) {
+            // остаток горячего товара живёт в памяти, колонку quantity обновляет только write-behind
+            if (updatedProduct.getQuantity() < 0)
+                throw new IllegalArgumentException("Quantity must be non-negative.");
+            hotInventory.adjustTo(id, updatedProduct.getQuantity());
+            hotInventory.refresh(id, existingProduct.getPrice(), existingProduct.isAvailable());
+        } else if (updatedProduct.getQuantity() != existingProduct.getQuantity()) {
             if (updatedProduct.getQuantity() < 0)
                 throw new IllegalArgumentException("Quantity must be non-negative.");
             existingProduct.setQuantity(updatedProduct.getQuantity());
         }
-        return productRepository.save(existingProduct);
+        Product saved = productRepository.save(existingProduct);
+        catalogCache.productChanged(id);
+        productSearchEngine.productChanged(id);
+        facetIndex.productChanged(id);
+        productSnapshots.productChanged(id);
+        return saved;
     }
 
     @Transactional
@@ -91,6 +168,11 @@ public class ProductServiceImpl implements ProductService {
         Product product = productRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Product with id " + id + " not found for deletion."));
         productRepository.delete(product);
+        hotInventory.untrack(id);
+        catalogCache.productChanged(id);
+        productSearchEngine.productChanged(id);
+        facetIndex.productChanged(id);
+        productSnapshots.productChanged(id);
     }
 
     @Override
@@ -113,10 +195,156 @@ public class ProductServiceImpl implements ProductService {
         return productRepository.findByCategoryId(categoryId);
     }
 
+    // Ранжирует ProductSearchEngine, карточки собираются теми же двумя запросами, что и листинг
+    @Transactional(readOnly = true)
+    @Override
+    public ProductSearchPageDTO searchProducts(String query, Integer page, Integer size) {
+        int limit = Math.clamp(size != null ? size : DEFAULT_PAGE_SIZE, 1, maxPageSize);
+        int pageNumber = page != null ? page : 0;
+        if (pageNumber < 0)
+            throw new IllegalArgumentException("Page must be non-negative.");
+        long offset = (long) pageNumber * limit;
+        if (offset >= maxSearchResults)
+            throw new IllegalArgumentException("Search results are limited to the first " + maxSearchResults + ".");
+        SearchHits hits = productSearchEngine.search(query, (int) offset, (int) Math.min(limit, maxSearchResults - offset));
+
+        Map<Long, ProductResponseDTO> byId = new HashMap<>();
+        if (!hits.productIds().isEmpty())
+            toDtos(productRepository.findListRowsByIdIn(hits.productIds())).forEach(dto -> byId.put(dto.getId(), dto));
+        // порядок релевантности; товар, удалённый после ранжирования, пропускается
+        List<ProductResponseDTO> items = hits.productIds().stream()
+                .map(byId::get)
+                .filter(Objects::nonNull)
+                .map(this::withLiveStock)
+                .toList();
+        return ProductSearchPageDTO.builder()
+                .items(items)
+                .total(hits.total())
+                .totalExact(hits.totalExact())
+                .page(pageNumber)
+                .size(limit)
+                .build();
+    }
+
+    @Override
+    public List<ProductSuggestionDTO> suggestProducts(String prefix, Integer limit) {
+        return productSearchEngine.suggest(prefix, Math.clamp(limit != null ? limit : DEFAULT_SUGGESTIONS, 1, maxPageSize));
+    }
+
+    // Фильтр и счётчики считает FacetIndex в памяти; из базы — только строки и картинки страницы
     @Transactional(readOnly = true)
     @Override
-    public List<Product> searchProducts(String keyword) {
-        return productRepository.findByNameContainingIgnoreCase(keyword);
+    public FacetedProductPageDTO filterProducts(List<Long> categoryIds, List<String> priceBands, Boolean inStock,
+                                                Integer page, Integer size) {
+        int limit = Math.clamp(size != null ? size : DEFAULT_PAGE_SIZE, 1, maxPageSize);
+        int pageNumber = page != null ? page : 0;
+        if (pageNumber < 0)
+            throw new IllegalArgumentException("Page must be non-negative.");
+        FacetHits hits = facetIndex.filter(categoryIds, priceBands, inStock, Math.multiplyExact(pageNumber, limit), limit);
+
+        Map<Long, ProductResponseDTO> byId = new HashMap<>();
+        if (!hits.productIds().isEmpty())
+            toDtos(productRepository.findListRowsByIdIn(hits.productIds())).forEach(dto -> byId.put(dto.getId(), dto));
+        List<ProductResponseDTO> items = hits.productIds().stream()
+                .map(byId::get)
+                .filter(Objects::nonNull)
+                .map(this::withLiveStock)
+                .toList();
+        return FacetedProductPageDTO.builder()
+                .items(items)
+                .total(hits.total())
+                .page(pageNumber)
+                .size(limit)
+                .categories(hits.categories())
+                .prices(hits.prices())
+                .stock(hits.stock())
+                .build();
+    }
+
+    @Transactional(readOnly = true)
+    @Override
+    public ProductResponseDTO getProductSnapshot(Long id) {
+        return withLiveStock(catalogCache.product(id, key -> productMapper.toDto(getProductById(key))));
+    }
+
+    // Страница листинга: один запрос за строками (проекция с именем категории) и один за картинками
+    // всей страницы. cursor — keyset-продолжение, page — offset для неглубоких страниц; при наличии
+    // cursor page игнорируется. nextCursor выдаётся всегда, когда дальше есть данные
+    @Transactional(readOnly = true)
+    @Override
+    public CursorPage<ProductResponseDTO> getProductPage(Long categoryId, String sort, String cursor, Integer page, Integer size) {
+        return listingPage(String.valueOf(categoryId), categoryId != null ? List.of(categoryId) : null,
+                categoryId, sort, cursor, page, size);
+    }
+
+    // Категория и все её подкатегории: id поддерева берутся из снимка дерева, в базу уходит тот же
+    // один запрос листинга с IN по ним
+    @Transactional(readOnly = true)
+    @Override
+    public CursorPage<ProductResponseDTO> getSubtreeProductPage(Long categoryId, String sort, String cursor, Integer page, Integer size) {
+        List<Long> categoryIds = categoryTree.get().subtreeIds(categoryId);
+        if (categoryIds.isEmpty())
+            throw new ResourceNotFoundException("Category with id " + categoryId + " not found.");
+        return listingPage("tree:" + categoryId, categoryIds, null, sort, cursor, page, size);
+    }
+
+    // checkCategoryId — категория, существование которой проверяется при пустой выдаче
+    private CursorPage<ProductResponseDTO> listingPage(String scope, Collection<Long> categoryIds, Long checkCategoryId,
+                                                       String sort, String cursor, Integer page, Integer size) {
+        ProductSort order = ProductSort.parse(sort);
+        ProductCursor after = ProductCursor.decode(cursor, order);
+        int limit = Math.clamp(size != null ? size : DEFAULT_PAGE_SIZE, 1, maxPageSize);
+        if (page != null && page < 0)
+            throw new IllegalArgumentException("Page must be non-negative.");
+        int offset = after == null && page != null ? Math.multiplyExact(page, limit) : 0;
+        String key = scope + "|" + order + "|" + limit + "|" + (after != null ? cursor : "page:" + offset);
+        return withLiveStock(catalogCache.productPage(key,
+                () -> loadPage(categoryIds, checkCategoryId, order, after, offset, limit)));
+    }
+
+    private CursorPage<ProductResponseDTO> loadPage(Collection<Long> categoryIds, Long checkCategoryId, ProductSort order,
+                                                    ProductCursor after, int offset, int limit) {
+        // на строку больше, чтобы знать, есть ли следующая страница
+        List<ProductListRow> rows = productRepository.findListingPage(categoryIds, order,
+                after != null ? after.key() : null, after != null ? after.id() : null, offset, limit + 1);
+        if (rows.isEmpty() && checkCategoryId != null && !categoryRepository.existsById(checkCategoryId))
+            throw new ResourceNotFoundException("Category with id " + checkCategoryId + " not found.");
+        boolean more = rows.size() > limit;
+        if (more)
+            rows = rows.subList(0, limit);
+
+        String nextCursor = more ? ProductCursor.of(order, rows.get(rows.size() - 1)).encode() : null;
+        return new CursorPage<>(toDtos(rows), nextCursor);
+    }
+
+    // Картинки всех строк одним запросом
+    private List<ProductResponseDTO> toDtos(List<ProductListRow> rows) {
+        Map<Long, List<ProductImageDTO>> images = new HashMap<>();
+        if (!rows.isEmpty()) {
+            productImageRepository.findRowsByProductIdIn(rows.stream().map(ProductListRow::id).toList())
+                    .forEach(image -> images.computeIfAbsent(image.productId(), id -> new ArrayList<>())
+                            .add(ProductImageDTO.builder()
+                                    .id(image.id())
+                                    .imageUrl(image.imageUrl())
+                                    .variants(ImageVariant.urls(image.storageKey()))
+                                    .build()));
+        }
+        return rows.stream()
+                .map(row -> productMapper.toDto(row, images.getOrDefault(row.id(), List.of())))
+                .toList();
+    }
+
+    // Снимок из кэша может быть старше остатка горячего товара — остаток берётся из памяти
+    private ProductResponseDTO withLiveStock(ProductResponseDTO dto) {
+        if (!hotInventory.isHot(dto.getId()))
+            return dto;
+        return dto.toBuilder().quantity(hotInventory.available(dto.getId())).build();
+    }
+
+    private CursorPage<ProductResponseDTO> withLiveStock(CursorPage<ProductResponseDTO> page) {
+        if (page.getItems().stream().noneMatch(dto -> hotInventory.isHot(dto.getId())))
+            return page;
+        return page.map(this::withLiveStock);
     }
 
     @Override
@@ -127,15 +355,346 @@ public class ProductServiceImpl implements ProductService {
     @Transactional
     @Override
     public boolean reserveStock(Long productId, int amount) {
-        return productRepository.decreaseStock(productId, amount) > 0;
+        if (hotInventory.isHot(productId)) {
+            HotInventory.Reservation reservation = hotInventory.tryReserve(Map.of(productId, amount));
+            if (reservation == null)
+                return false;
+            hotInventory.commit(List.of(reservation));
+            soldOut(List.of(productId));
+            return true;
+        }
+        Optional<ProductStock> stock = productRepository.reserveAndReturnStock(productId, amount);
+        stock.ifPresent(this::soldOut);
+        return stock.isPresent();
+    }
+
+    // Резервирует все позиции заказа в одной транзакции: каждая позиция — один UPDATE ... RETURNING,
+    // который сам проверяет доступность и остаток и возвращает цену. Если хотя бы одной не хватает,
+    // исключение откатывает уже списанные остатки. Строки блокируются в порядке id,
+    // чтобы параллельные заказы с пересекающимися товарами не ловили deadlock.
+    @Transactional
+    @Override
+    public Map<Long, BigDecimal> reserveStock(Map<Long, Integer> quantities) {
+        if (quantities == null || quantities.isEmpty())
+            throw new IllegalArgumentException("Reservation must contain at least one product.");
+        if (quantities.keySet().stream().anyMatch(hotInventory::isHot)) {
+            quantities.forEach((id, amount) -> {
+                if (amount <= 0)
+                    throw new IllegalArgumentException("Quantity for product with id " + id + " must be greater than 0.");
+            });
+            ReservationOutcome outcome = reserveStockBatch(List.of(quantities)).get(0);
+            if (!outcome.isReserved())
+                throw new InsufficientStockException(outcome.getMessage());
+            return outcome.getPrices();
+        }
+        Map<Long, BigDecimal> prices = new HashMap<>();
+        for (Long id : quantities.keySet().stream().sorted().toList()) {
+            int amount = quantities.get(id);
+            if (amount <= 0)
+                throw new IllegalArgumentException("Quantity for product with id " + id + " must be greater than 0.");
+            ProductStock stock = productRepository.reserveAndReturnStock(id, amount)
+                    .orElseThrow(() -> new InsufficientStockException(
+                            "Product with id " + id + " is not available in quantity " + amount + "."));
+            prices.put(id, stock.getPrice());
+            soldOut(stock);
+        }
+        return prices;
+    }
+
+    // Пачка заявок из одного poll-а: строки товаров читаются один раз под блокировкой,
+    // заявки удовлетворяются в порядке поступления по остатку в памяти (заявка целиком или никак),
+    // затем на каждый товар — один UPDATE на суммарное списание. Горячая строка блокируется
+    // один раз на пачку, а не на каждое сообщение. Позиции горячих товаров (HotInventory)
+    // в базу не ходят: списываются из памяти и одной пачкой пишутся в журнал.
+    @Transactional
+    @Override
+    public List<ReservationOutcome> reserveStockBatch(List<Map<Long, Integer>> requests) {
+        // одна заявка на один товар — блокирующее чтение не нужно, хватает одного UPDATE ... RETURNING
+        if (requests.size() == 1 && requests.get(0).size() == 1) {
+            Map.Entry<Long, Integer> line = requests.get(0).entrySet().iterator().next();
+            if (!hotInventory.isHot(line.getKey()))
+                return List.of(reserveSingleLine(line));
+        }
+
+        Set<Long> ids = new TreeSet<>();
+        requests.forEach(request -> request.keySet().stream()
+                .filter(id -> !hotInventory.isHot(id))
+                .forEach(ids::add));
+        Map<Long, ProductStock> products = new HashMap<>();
+        if (!ids.isEmpty())
+            productRepository.findStockForUpdate(ids).forEach(p -> products.put(p.getId(), p));
+
+        Map<Long, Integer> remaining = new HashMap<>();
+        products.values().forEach(p -> remaining.put(p.getId(), p.getQuantity()));
+        Map<Long, Integer> taken = new TreeMap<>();
+        List<HotInventory.Reservation> hotTaken = new ArrayList<>();
+
+        List<ReservationOutcome> outcomes = new ArrayList<>(requests.size());
+        for (Map<Long, Integer> request : requests) {
+            Map<Long, Integer> hotLines = new HashMap<>();
+            Map<Long, Integer> lines = new HashMap<>();
+            request.forEach((id, amount) -> (hotInventory.isHot(id) ? hotLines : lines).put(id, amount));
+
+            String rejection = request.isEmpty()
+                    ? "Reservation must contain at least one product."
+                    : checkRequest(lines, products, remaining);
+            if (rejection == null)
+                rejection = checkAmounts(hotLines);
+            HotInventory.Reservation hot = null;
+            if (rejection == null && !hotLines.isEmpty()) {
+                hot = hotInventory.tryReserve(hotLines);
+                if (hot == null)
+                    rejection = "Not enough stock for products with ids " + new TreeSet<>(hotLines.keySet()) + ".";
+            }
+            if (rejection != null) {
+                outcomes.add(ReservationOutcome.rejected(rejection));
+                continue;
+            }
+            Map<Long, BigDecimal> prices = new HashMap<>();
+            lines.forEach((id, amount) -> {
+                remaining.merge(id, -amount, Integer::sum);
+                taken.merge(id, amount, Integer::sum);
+                prices.put(id, products.get(id).getPrice());
+            });
+            if (hot != null) {
+                hotTaken.add(hot);
+                prices.putAll(hot.prices());
+            }
+            outcomes.add(ReservationOutcome.reserved(prices));
+        }
+
+        try {
+            // строки заблокированы, остаток проверен выше — UPDATE не может не пройти
+            taken.forEach((id, amount) -> {
+                if (productRepository.decreaseStock(id, amount) == 0)
+                    throw new IllegalStateException("Stock of product " + id + " changed under lock.");
+            });
+        } catch (RuntimeException e) {
+            hotInventory.cancel(hotTaken);
+            throw e;
+        }
+        hotInventory.commit(hotTaken);
+        productSnapshots.productsChanged(List.copyOf(taken.keySet()));
+        soldOut(taken.keySet().stream().filter(id -> remaining.get(id) == 0).toList());
+        soldOut(hotTaken.stream().flatMap(reservation -> reservation.quantities().keySet().stream()).distinct().toList());
+        return outcomes;
+    }
+
+    // Заявки с correlationId сверяются с журналом резервов в той же транзакции, что и списание:
+    // повторная доставка заявки получает прежний ответ и сток второй раз не списывает.
+    // Заявки без id (или с id не в формате UUID) журнал не ведёт
+    @Transactional
+    @Override
+    public List<ReservationOutcome> reserveStockBatch(List<String> reservationIds, List<Map<Long, Integer>> requests) {
+        List<UUID> ids = reservationIds.stream().map(ProductServiceImpl::ledgerId).toList();
+        Set<UUID> claimed = stockReservationRepository.claim(
+                ids.stream().filter(Objects::nonNull).distinct().toList(), reservationTtlSeconds);
+        Map<UUID, ReservationLedgerEntry> previous = stockReservationRepository.find(
+                ids.stream().filter(id -> id != null && !claimed.contains(id)).distinct().toList());
+
+        // id, встреченный в пачке второй раз, получает ответ первого вхождения
+        List<Map<Long, Integer>> fresh = new ArrayList<>();
+        Set<UUID> firstSeen = new HashSet<>();
+        for (int i = 0; i < requests.size(); i++) {
+            UUID id = ids.get(i);
+            if (id == null || (claimed.contains(id) && firstSeen.add(id)))
+                fresh.add(requests.get(i));
+        }
+        Iterator<ReservationOutcome> freshOutcomes = fresh.isEmpty()
+                ? Collections.emptyIterator()
+                : reserveStockBatch(fresh).iterator();
+
+        Map<UUID, ReservationOutcome> decided = new HashMap<>();
+        Map<UUID, ReservationLedgerEntry> granted = new HashMap<>();
+        List<UUID> rejected = new ArrayList<>();
+        List<ReservationOutcome> outcomes = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            UUID id = ids.get(i);
+            ReservationOutcome outcome;
+            if (id == null) {
+                outcome = freshOutcomes.next();
+            } else if (claimed.contains(id)) {
+                outcome = decided.get(id);
+                if (outcome == null) {
+                    outcome = freshOutcomes.next();
+                    decided.put(id, outcome);
+                    if (outcome.isReserved())
+                        granted.put(id, new ReservationLedgerEntry(ReservationStatus.RESERVED, requests.get(i), outcome.getPrices()));
+                    else
+                        rejected.add(id);
+                }
+            } else {
+                outcome = previousOutcome(id, previous.get(id));
+            }
+            outcomes.add(outcome);
+        }
+        stockReservationRepository.record(granted);
+        stockReservationRepository.delete(rejected);
+        return outcomes;
+    }
+
+    private ReservationOutcome previousOutcome(UUID id, ReservationLedgerEntry entry) {
+        if (entry == null)
+            return ReservationOutcome.rejected("Reservation " + id + " is being processed.");
+        if (entry.status() == ReservationStatus.RELEASED)
+            return ReservationOutcome.rejected("Reservation " + id + " was already released.");
+        if (entry.status() == ReservationStatus.EXPIRED)
+            return ReservationOutcome.rejected("Reservation " + id + " has expired.");
+        return ReservationOutcome.reserved(entry.prices());
+    }
+
+    private ReservationOutcome reserveSingleLine(Map.Entry<Long, Integer> line) {
+        Long id = line.getKey();
+        if (line.getValue() <= 0)
+            return ReservationOutcome.rejected("Quantity for product with id " + id + " must be greater than 0.");
+        return productRepository.reserveAndReturnStock(id, line.getValue())
+                .map(stock -> {
+                    soldOut(stock);
+                    return ReservationOutcome.reserved(Map.of(id, stock.getPrice()));
+                })
+                .orElseGet(() -> ReservationOutcome.rejected(
+                        "Product with id " + id + " is not available in quantity " + line.getValue() + "."));
+    }
+
+    private String checkRequest(Map<Long, Integer> request, Map<Long, ProductStock> products, Map<Long, Integer> remaining) {
+        for (Map.Entry<Long, Integer> line : request.entrySet()) {
+            ProductStock product = products.get(line.getKey());
+            if (product == null || !product.isAvailable())
+                return "Product with id " + line.getKey() + " is not available.";
+            if (line.getValue() <= 0)
+                return "Quantity for product with id " + line.getKey() + " must be greater than 0.";
+            if (remaining.get(line.getKey()) < line.getValue())
+                return "Not enough stock for product with id " + line.getKey() + ".";
+        }
+        return null;
+    }
+
+    private String checkAmounts(Map<Long, Integer> request) {
+        for (Map.Entry<Long, Integer> line : request.entrySet()) {
+            if (line.getValue() <= 0)
+                return "Quantity for product with id " + line.getKey() + " must be greater than 0.";
+        }
+        return null;
     }
 
     @Transactional
     @Override
     public void releaseStock(Long productId, int amount) {
+        // возврат может вернуть товар в наличие
+        facetIndex.productChanged(productId);
+        productSnapshots.productChanged(productId);
+        if (hotInventory.isHot(productId)) {
+            hotInventory.release(productId, amount);
+            return;
+        }
         productRepository.increaseStock(productId, amount);
     }
 
+    // Возврат резерва целиком по журналу (и неподтверждённого, и подтверждённого заказом). Переход в RELEASED — один UPDATE,
+    // поэтому повторная доставка, двойная отмена и параллельный повтор возвращают сток один раз.
+    // Резерв без записи в журнале (выдан до его появления) возвращается по позициям из сообщения,
+    // а сам возврат записывается как RELEASED. false — возвращать было нечего
+    @Transactional
+    @Override
+    public boolean releaseReservation(String reservationId, Map<Long, Integer> quantities) {
+        UUID id = ledgerId(reservationId);
+        if (id == null)
+            throw new IllegalArgumentException("Reservation id must be a UUID, got '" + reservationId + "'.");
+        Map<Long, Integer> released = stockReservationRepository.release(id).orElse(null);
+        if (released == null && stockReservationRepository.insertReleased(id, quantities))
+            released = quantities;
+        if (released == null)
+            return false;
+        new TreeMap<>(released).forEach(this::releaseStock);
+        return true;
+    }
+
+    // Заказ сохранён: резерв больше не истекает. Подтверждение, опоздавшее после TTL, списывает сток
+    // истёкшего резерва заново в той же транзакции; если стока уже нет, резерв закрывается как RELEASED,
+    // а его id возвращается — order-service должен перевести такой заказ в FAILED.
+    // Отменённый резерв (RELEASED) подтверждение не трогает
+    @Transactional
+    @Override
+    public List<String> confirmReservations(List<String> reservationIds) {
+        List<UUID> ids = reservationIds.stream().map(ProductServiceImpl::ledgerId).filter(Objects::nonNull).distinct().toList();
+        Set<UUID> confirmed = stockReservationRepository.confirm(ids);
+        if (confirmed.size() == ids.size())
+            return List.of();
+        Map<UUID, Map<Long, Integer>> expired = stockReservationRepository.reclaim(
+                ids.stream().filter(id -> !confirmed.contains(id)).toList());
+        if (expired.isEmpty())
+            return List.of();
+
+        List<UUID> expiredIds = new ArrayList<>(expired.keySet());
+        List<ReservationOutcome> outcomes = reserveStockBatch(expiredIds.stream().map(expired::get).toList());
+        List<UUID> lost = new ArrayList<>();
+        for (int i = 0; i < expiredIds.size(); i++) {
+            if (!outcomes.get(i).isReserved()) {
+                lost.add(expiredIds.get(i));
+                log.warn("Reservation {} was confirmed after it had expired and cannot be restored: {}",
+                        expiredIds.get(i), outcomes.get(i).getMessage());
+            }
+        }
+        stockReservationRepository.markReleased(lost);
+        if (lost.size() < expiredIds.size())
+            log.info("Restored {} reservations confirmed after they had expired", expiredIds.size() - lost.size());
+        return lost.stream().map(UUID::toString).toList();
+    }
+
+    // Одна порция истёкших резервов: количества складываются по товару, и каждый товар обновляется
+    // один раз в порядке id — как при резервировании, без deadlock-ов
+    @Transactional
+    @Override
+    public int expireReservations(int limit) {
+        List<Map<Long, Integer>> expired = stockReservationRepository.expire(limit);
+        Map<Long, Integer> quantities = new TreeMap<>();
+        expired.forEach(lines -> lines.forEach((id, amount) -> quantities.merge(id, amount, Integer::sum)));
+        quantities.forEach(this::releaseStock);
+        return expired.size();
+    }
+
+    // Очистка журнала порциями; RESERVED не трогается — такой резерв ещё может истечь или быть возвращён
+    @Scheduled(fixedDelayString = "${product.reservation.ledger.purge-interval-ms:3600000}",
+            initialDelayString = "${product.reservation.ledger.purge-interval-ms:3600000}")
+    public void purgeReservationLedger() {
+        Instant olderThan = Instant.now().minus(Duration.ofHours(ledgerRetentionHours));
+        int total = 0;
+        int deleted;
+        do {
+            deleted = stockReservationRepository.purge(olderThan, ledgerPurgeBatchSize);
+            total += deleted;
+        } while (deleted == ledgerPurgeBatchSize);
+        if (total > 0)
+            log.info("Purged {} finished reservations from the ledger", total);
+    }
+
+    private static UUID ledgerId(String reservationId) {
+        if (reservationId == null)
+            return null;
+        try {
+            return UUID.fromString(reservationId);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Фасет наличия меняется, только когда остаток дошёл до нуля; снимок — и на границе LOW,
+    // поэтому помечается при каждом списании (неизменившийся снимок публикатор не отправит)
+    private void soldOut(ProductStock stock) {
+        productSnapshots.productChanged(stock.getId());
+        if (stock.getQuantity() == 0)
+            facetIndex.productChanged(stock.getId());
+    }
+
+    // Горячие товары: остаток в памяти уже списан, FacetIndex сам прочитает его при обновлении
+    private void soldOut(Collection<Long> productIds) {
+        productSnapshots.productsChanged(List.copyOf(productIds));
+        List<Long> empty = productIds.stream()
+                .filter(id -> !hotInventory.isHot(id) || hotInventory.available(id) == 0)
+                .toList();
+        facetIndex.productsChanged(empty);
+    }
+
     private boolean isAdmin(Authentication authentication) {
         return authentication.getAuthorities().stream()
                 .map(GrantedAuthority::getAuthority)
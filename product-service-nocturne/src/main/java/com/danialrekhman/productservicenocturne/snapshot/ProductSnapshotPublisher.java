@@ -0,0 +1,176 @@
+package com.danialrekhman.productservicenocturne.snapshot;
+
+import com.danialrekhman.commonevents.ProductSnapshotEvent;
+import com.danialrekhman.commonevents.StockLevel;
+import com.danialrekhman.productservicenocturne.inventory.HotInventory;
+import com.danialrekhman.productservicenocturne.repository.ProductRepository;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductFacetRow;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Снимки товаров (цена, доступность, грубый остаток) в log-compacted топике {@value #TOPIC}.
+ * <p>
+ * Ключ записи — id товара, поэтому после compaction в топике остаётся по одной последней записи на товар,
+ * и потребитель (реплика цен в order-service) восстанавливает каталог, прочитав топик с начала.
+ * Удалённый товар публикуется как tombstone.
+ * <p>
+ * Изменения помечаются после коммита и перечитываются пачкой раз в
+ * {@code product.snapshot.refresh-interval-ms}, как в FacetIndex. Публикуется только снимок, который
+ * отличается от последнего отправленного: списание, не перешедшее границу {@link StockLevel},
+ * сообщения не порождает; неудачная отправка возвращает товар в очередь. Полная сверка при старте и раз в
+ * {@code product.snapshot.resync-interval-ms} догоняет изменения, сделанные другими репликами сервиса.
+ */
+@Slf4j
+@Component
+public class ProductSnapshotPublisher implements SmartInitializingSingleton {
+
+    public static final String TOPIC = "product-snapshots";
+
+    private record Snapshot(BigDecimal price, boolean available, StockLevel stockLevel) {
+    }
+
+    private final ProductRepository productRepository;
+    private final HotInventory hotInventory;
+    private final KafkaTemplate<String, ProductSnapshotEvent> snapshotKafkaTemplate;
+    private final int loadBatchSize;
+    private final int lowStockThreshold;
+    private final Counter publishedCounter;
+
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    // последний отправленный снимок; запись удаляется, если отправка не удалась
+    private final Map<Long, Snapshot> published = new ConcurrentHashMap<>();
+
+    public ProductSnapshotPublisher(ProductRepository productRepository,
+                                    HotInventory hotInventory,
+                                    KafkaTemplate<String, ProductSnapshotEvent> snapshotKafkaTemplate,
+                                    MeterRegistry registry,
+                                    @Value("${product.snapshot.load-batch-size:5000}") int loadBatchSize,
+                                    @Value("${product.snapshot.low-stock-threshold:10}") int lowStockThreshold) {
+        this.productRepository = productRepository;
+        this.hotInventory = hotInventory;
+        this.snapshotKafkaTemplate = snapshotKafkaTemplate;
+        this.loadBatchSize = loadBatchSize;
+        this.lowStockThreshold = lowStockThreshold;
+        this.publishedCounter = Counter.builder("product.snapshot.published")
+                .description("Product snapshots and tombstones sent to the compacted topic")
+                .register(registry);
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        resync();
+    }
+
+    // До коммита перечитывать нельзя: транзакция ещё может откатиться
+    public void productChanged(Long productId) {
+        productsChanged(List.of(productId));
+    }
+
+    public void productsChanged(Collection<Long> productIds) {
+        if (productIds.isEmpty())
+            return;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    dirty.addAll(productIds);
+                }
+            });
+        } else {
+            dirty.addAll(productIds);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${product.snapshot.refresh-interval-ms:500}")
+    public synchronized void publishChanges() {
+        if (dirty.isEmpty())
+            return;
+        List<Long> ids = new ArrayList<>(dirty);
+        dirty.removeAll(ids);
+        for (int from = 0; from < ids.size(); from += loadBatchSize) {
+            List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + loadBatchSize));
+            Map<Long, ProductFacetRow> rows = new HashMap<>();
+            productRepository.findFacetRowsByIdIn(chunk).forEach(row -> rows.put(row.id(), row));
+            for (Long id : chunk) {
+                ProductFacetRow row = rows.get(id);
+                if (row != null)
+                    publish(row);
+                else
+                    delete(id);
+            }
+        }
+    }
+
+    // Сверка всего каталога порциями по id; товары, которых больше нет, получают tombstone
+    @Scheduled(fixedDelayString = "${product.snapshot.resync-interval-ms:300000}",
+            initialDelayString = "${product.snapshot.resync-interval-ms:300000}")
+    public synchronized void resync() {
+        long started = System.nanoTime();
+        Set<Long> gone = new HashSet<>(published.keySet());
+        int sent = 0;
+        long afterId = 0;
+        List<ProductFacetRow> batch;
+        do {
+            batch = productRepository.findFacetRowsAfter(afterId, Limit.of(loadBatchSize));
+            for (ProductFacetRow row : batch) {
+                gone.remove(row.id());
+                if (publish(row))
+                    sent++;
+            }
+            if (!batch.isEmpty())
+                afterId = batch.get(batch.size() - 1).id();
+        } while (batch.size() == loadBatchSize);
+        gone.forEach(this::delete);
+        log.debug("Product snapshots resynced: {} sent, {} deleted in {} ms",
+                sent, gone.size(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    StockLevel stockLevel(int quantity) {
+        if (quantity <= 0)
+            return StockLevel.OUT_OF_STOCK;
+        return quantity < lowStockThreshold ? StockLevel.LOW : StockLevel.IN_STOCK;
+    }
+
+    private boolean publish(ProductFacetRow row) {
+        int quantity = hotInventory.isHot(row.id()) ? hotInventory.available(row.id()) : row.quantity();
+        Snapshot snapshot = new Snapshot(row.price(), row.available(), stockLevel(quantity));
+        if (snapshot.equals(published.put(row.id(), snapshot)))
+            return false;
+        ProductSnapshotEvent event = new ProductSnapshotEvent(row.id(), row.price(), row.available(), snapshot.stockLevel());
+        send(row.id(), event, snapshot);
+        return true;
+    }
+
+    private void delete(Long id) {
+        published.remove(id);
+        send(id, null, null);
+    }
+
+    private void send(Long id, ProductSnapshotEvent event, Snapshot snapshot) {
+        snapshotKafkaTemplate.send(TOPIC, String.valueOf(id), event).whenComplete((result, e) -> {
+            if (e == null) {
+                publishedCounter.increment();
+                return;
+            }
+            // товар перечитается и уйдёт заново со следующей пачкой
+            log.warn("Failed to publish snapshot of product {}", id, e);
+            if (snapshot != null)
+                published.remove(id, snapshot);
+            dirty.add(id);
+        });
+    }
+}
@@ -0,0 +1,368 @@
+package com.danialrekhman.productservicenocturne.storage;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.*;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Уменьшенные копии загруженных картинок ({@link ImageVariant}) в дисковом кэше.
+ * <p>
+ * Копии рисуются на ограниченном пуле: заранее после загрузки и лениво при первом запросе.
+ * Параллельные запросы одной копии ждут один рендер. Очередь пула ограничена: если она полна или
+ * рендер не успел за render-timeout-ms, запрос получает пустой результат и отдаётся оригинал,
+ * а копия, уже поставленная в очередь, всё равно ляжет в кэш. Оригинал декодируется с
+ * прореживанием (subsampling) почти до размера копии, поэтому большой файл не разворачивается в
+ * heap целиком; картинки больше max-pixels не обрабатываются.
+ * <p>
+ * Кэш — LRU по суммарному размеру файлов (max-bytes). Порядок доступа живёт в памяти, после
+ * рестарта восстанавливается по дате изменения файлов. Ключ копии выводится из ключа оригинала,
+ * поэтому копия так же неизменна и кэшируется клиентами навсегда. WebP в JDK не декодируется —
+ * для него копий нет.
+ */
+@Slf4j
+@Component
+public class ImageDerivatives implements SmartInitializingSingleton {
+
+    private static final String TMP = "tmp";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long maxPixels;
+    private final long renderTimeoutMs;
+    private final ThreadPoolExecutor executor;
+
+    // ключ копии -> рендер в процессе
+    private final ConcurrentHashMap<String, CompletableFuture<Optional<ImageStore.StoredImage>>> inFlight =
+            new ConcurrentHashMap<>();
+    // ключ копии -> размер файла, в порядке доступа; под замком lru
+    private final LinkedHashMap<String, Long> lru = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+    // копии, совпадающие с оригиналом (он не больше варианта): файла нет, отдаётся оригинал
+    private final Cache<String, Boolean> unchanged = Caffeine.newBuilder().maximumSize(100_000).build();
+    private final AtomicLong renders = new AtomicLong();
+
+    public ImageDerivatives(MeterRegistry registry,
+                            @Value("${product.images.dir:./data/images}") String imagesDirectory,
+                            @Value("${product.images.derivatives.max-bytes:1073741824}") long maxBytes,
+                            @Value("${product.images.derivatives.max-pixels:40000000}") long maxPixels,
+                            @Value("${product.images.derivatives.threads:2}") int threads,
+                            @Value("${product.images.derivatives.queue-capacity:256}") int queueCapacity,
+                            @Value("${product.images.derivatives.render-timeout-ms:5000}") long renderTimeoutMs) {
+        this.directory = Path.of(imagesDirectory).resolve("derived");
+        this.maxBytes = maxBytes;
+        this.maxPixels = maxPixels;
+        this.renderTimeoutMs = renderTimeoutMs;
+        try {
+            Files.createDirectories(directory.resolve(TMP));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create image derivatives directory " + directory, e);
+        }
+        ThreadFactory threadFactory = Thread.ofPlatform().name("image-render-", 0).daemon(true).factory();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        Gauge.builder("product.images.derivatives.bytes", this, ImageDerivatives::cachedBytes)
+                .description("Bytes of resized product images in the disk cache")
+                .register(registry);
+        Gauge.builder("product.images.derivatives.queue", executor, e -> e.getQueue().size())
+                .description("Image renders waiting for a worker")
+                .register(registry);
+    }
+
+    // Файлы кэша с прошлого запуска: давно изменённые — первые кандидаты на вытеснение
+    @Override
+    public void afterSingletonsInstantiated() {
+        record Cached(String key, long size, long modified) {
+        }
+        List<Cached> cached = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(directory, 2)) {
+            files.filter(Files::isRegularFile).forEach(path -> {
+                try {
+                    if (path.getParent().getFileName().toString().equals(TMP))
+                        Files.deleteIfExists(path);
+                    else
+                        cached.add(new Cached(path.getFileName().toString(), Files.size(path),
+                                Files.getLastModifiedTime(path).toMillis()));
+                } catch (IOException e) {
+                    log.warn("Cannot read cached image {}", path, e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list image derivatives directory " + directory, e);
+        }
+        cached.sort(Comparator.comparingLong(Cached::modified));
+        synchronized (lru) {
+            cached.forEach(c -> {
+                lru.put(c.key(), c.size());
+                totalBytes += c.size();
+            });
+        }
+        evict(null);
+        log.info("Image derivative cache: {} files, {} bytes", cached.size(), cachedBytes());
+    }
+
+    // Готовая копия или пусто, если её нельзя получить сейчас (отдаётся оригинал)
+    public Optional<ImageStore.StoredImage> get(ImageStore.StoredImage source, ImageVariant variant) {
+        String key = key(source.key(), variant);
+        if (key == null)
+            return Optional.empty();
+        if (unchanged.getIfPresent(key) != null)
+            return Optional.of(source);
+        Optional<ImageStore.StoredImage> cached = cached(key);
+        if (cached.isPresent())
+            return cached;
+        CompletableFuture<Optional<ImageStore.StoredImage>> render = render(source, variant, key);
+        if (render == null)
+            return Optional.empty();
+        try {
+            return render.get(renderTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.debug("Render of {} is still running, serving the original", key);
+            return Optional.empty();
+        } catch (ExecutionException e) {
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+    }
+
+    // После загрузки: все копии в фоне, без ожидания; при полной очереди их нарисует первый запрос
+    public void generate(ImageStore.StoredImage source) {
+        for (ImageVariant variant : ImageVariant.values()) {
+            String key = key(source.key(), variant);
+            if (key != null && unchanged.getIfPresent(key) == null && cached(key).isEmpty())
+                render(source, variant, key);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    long cachedBytes() {
+        synchronized (lru) {
+            return totalBytes;
+        }
+    }
+
+    long renders() {
+        return renders.get();
+    }
+
+    // Ключ копии: хэш оригинала, вариант и формат — JPEG остаётся JPEG, PNG и GIF становятся PNG
+    static String key(String sourceKey, ImageVariant variant) {
+        int dot = sourceKey.lastIndexOf('.');
+        String format = switch (sourceKey.substring(dot + 1)) {
+            case "jpg" -> "jpg";
+            case "png", "gif" -> "png";
+            default -> null;
+        };
+        return format != null ? sourceKey.substring(0, dot) + "-" + variant.path() + "." + format : null;
+    }
+
+    private Optional<ImageStore.StoredImage> cached(String key) {
+        if (unchanged.getIfPresent(key) != null)
+            return Optional.empty();
+        synchronized (lru) {
+            if (lru.get(key) == null)
+                return Optional.empty();
+        }
+        Path path = path(key);
+        try {
+            return Optional.of(new ImageStore.StoredImage(key, path, Files.size(path), ImageStore.contentType(key)));
+        } catch (NoSuchFileException e) {
+            // файл удалили в обход кэша — нарисуем заново
+            forget(key);
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read image " + key, e);
+        }
+    }
+
+    // Один рендер на ключ: второй запрос получает тот же future. null — очередь полна
+    private CompletableFuture<Optional<ImageStore.StoredImage>> render(ImageStore.StoredImage source,
+                                                                       ImageVariant variant, String key) {
+        CompletableFuture<Optional<ImageStore.StoredImage>> future = new CompletableFuture<>();
+        CompletableFuture<Optional<ImageStore.StoredImage>> running = inFlight.putIfAbsent(key, future);
+        if (running != null)
+            return running;
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(renderNow(source, variant, key));
+                } catch (Throwable t) {
+                    log.warn("Cannot render {} of image {}", variant, source.key(), t);
+                    future.completeExceptionally(t);
+                } finally {
+                    inFlight.remove(key, future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, future);
+            future.complete(Optional.empty());
+            return null;
+        }
+        return future;
+    }
+
+    private Optional<ImageStore.StoredImage> renderNow(ImageStore.StoredImage source, ImageVariant variant,
+                                                       String key) throws IOException {
+        // пока ждали в очереди, копию мог нарисовать другой запрос
+        if (unchanged.getIfPresent(key) != null)
+            return Optional.of(source);
+        Optional<ImageStore.StoredImage> cached = cached(key);
+        if (cached.isPresent())
+            return cached;
+        renders.incrementAndGet();
+        BufferedImage image;
+        int width;
+        int height;
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.path().toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : Collections.emptyIterator();
+            if (!readers.hasNext())
+                return Optional.empty();
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                width = reader.getWidth(0);
+                height = reader.getHeight(0);
+                if ((long) width * height > maxPixels) {
+                    log.warn("Image {} is {}x{}, larger than the render limit", source.key(), width, height);
+                    return Optional.empty();
+                }
+                if (Math.max(width, height) <= variant.getMaxSize()) {
+                    unchanged.put(key, Boolean.TRUE);
+                    return Optional.of(source);
+                }
+                ImageReadParam param = reader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.max(width, height) / (variant.getMaxSize() * 2));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+        double scale = (double) variant.getMaxSize() / Math.max(width, height);
+        BufferedImage resized = resize(image, Math.max(1, (int) Math.round(width * scale)),
+                Math.max(1, (int) Math.round(height * scale)), key.endsWith(".png"));
+
+        Path tmp = Files.createTempFile(directory.resolve(TMP), "render-", ".part");
+        try {
+            write(resized, tmp, key.endsWith(".png") ? "png" : "jpeg");
+            Path target = path(key);
+            Files.createDirectories(target.getParent());
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            long size = Files.size(target);
+            synchronized (lru) {
+                Long previous = lru.put(key, size);
+                totalBytes += size - (previous != null ? previous : 0);
+            }
+            evict(key);
+            return Optional.of(new ImageStore.StoredImage(key, target, size, ImageStore.contentType(key)));
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // Уменьшение в несколько шагов не более чем вдвое: билинейная интерполяция за один большой шаг
+    // даёт «лесенку»
+    private static BufferedImage resize(BufferedImage image, int width, int height, boolean alpha) {
+        int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = image;
+        int w = image.getWidth();
+        int h = image.getHeight();
+        do {
+            w = Math.max(width, w / 2);
+            h = Math.max(height, h / 2);
+            BufferedImage step = new BufferedImage(w, h, type);
+            Graphics2D g = step.createGraphics();
+            try {
+                if (!alpha) {
+                    g.setColor(Color.WHITE); // у JPEG нет прозрачности
+                    g.fillRect(0, 0, w, h);
+                }
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.drawImage(current, 0, 0, w, h, null);
+            } finally {
+                g.dispose();
+            }
+            current = step;
+        } while (w != width || h != height);
+        return current;
+    }
+
+    private static void write(BufferedImage image, Path file, String format) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file.toFile())) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (format.equals("jpeg")) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(0.85f);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    // Вытесняет самые давно запрошенные копии, пока кэш больше лимита; keep — только что записанная
+    private void evict(String keep) {
+        List<String> evicted = new ArrayList<>();
+        synchronized (lru) {
+            Iterator<Map.Entry<String, Long>> eldest = lru.entrySet().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                if (entry.getKey().equals(keep))
+                    continue;
+                totalBytes -= entry.getValue();
+                evicted.add(entry.getKey());
+                eldest.remove();
+            }
+        }
+        for (String key : evicted) {
+            try {
+                Files.deleteIfExists(path(key));
+            } catch (IOException e) {
+                log.warn("Cannot delete cached image {}", key, e);
+            }
+        }
+    }
+
+    private void forget(String key) {
+        synchronized (lru) {
+            Long size = lru.remove(key);
+            if (size != null)
+                totalBytes -= size;
+        }
+    }
+
+    private Path path(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key);
+    }
+}
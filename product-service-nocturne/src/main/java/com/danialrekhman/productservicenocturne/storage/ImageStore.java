@@ -0,0 +1,205 @@
+package com.danialrekhman.productservicenocturne.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Картинки товаров на локальном диске, адресуемые содержимым.
+ * <p>
+ * Ключ файла — SHA-256 содержимого и расширение по сигнатуре формата ({@code <hex>.png}), лежит в
+ * {@code <dir>/<первые 2 символа>/<ключ>}. Одинаковые файлы хранятся один раз, а файл по ключу никогда
+ * не меняется — поэтому его можно кэшировать навсегда, а ETag — это сам хэш. Загрузка пишется во
+ * временный файл, хэшируется на лету и переносится на место атомарным rename: читатель не увидит
+ * недописанный файл.
+ * <p>
+ * Удаление картинки файл не трогает (его может использовать другая картинка или загрузка, ещё не
+ * закоммиченная) — файлы без ссылок убирает {@link #sweep}, если они старше grace-периода.
+ */
+@Slf4j
+@Component
+public class ImageStore {
+
+    public record StoredImage(String key, Path path, long size, String contentType) {
+    }
+
+    // картинки и их варианты отдаёт ProductImageController
+    public static final String URL_PREFIX = "/api/products/images/";
+
+    private static final Pattern KEY = Pattern.compile("[0-9a-f]{64}\\.(png|jpg|gif|webp)");
+    private static final Map<String, String> CONTENT_TYPES = Map.of(
+            "png", "image/png",
+            "jpg", "image/jpeg",
+            "gif", "image/gif",
+            "webp", "image/webp");
+    private static final String TMP = "tmp";
+
+    private final Path directory;
+    private final long maxBytes;
+
+    public ImageStore(@Value("${product.images.dir:./data/images}") String directory,
+                      @Value("${product.images.max-bytes:10485760}") long maxBytes) {
+        this.directory = Path.of(directory);
+        this.maxBytes = maxBytes;
+        try {
+            Files.createDirectories(this.directory.resolve(TMP));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create image directory " + directory, e);
+        }
+    }
+
+    public StoredImage store(InputStream content) {
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(directory.resolve(TMP), "upload-", ".part");
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            byte[] head = new byte[12];
+            int headLength;
+            long size;
+            try (InputStream in = new DigestInputStream(content, sha256);
+                 OutputStream out = Files.newOutputStream(tmp)) {
+                headLength = in.readNBytes(head, 0, head.length);
+                out.write(head, 0, headLength);
+                size = copy(in, out, headLength);
+            }
+            String extension = extension(head, headLength);
+            if (extension == null)
+                throw new IllegalArgumentException("Unsupported image format. Use PNG, JPEG, GIF or WebP.");
+            String key = HexFormat.of().formatHex(sha256.digest()) + "." + extension;
+            Path target = path(key);
+            Files.createDirectories(target.getParent());
+            if (Files.exists(target)) {
+                // такой файл уже есть; свежая дата защищает его от sweep, пока новая ссылка не закоммичена
+                Files.setLastModifiedTime(target, FileTime.from(Instant.now()));
+            } else {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+                tmp = null;
+            }
+            return new StoredImage(key, target, size, CONTENT_TYPES.get(extension));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot store image", e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                    log.warn("Cannot delete temporary upload {}", tmp, e);
+                }
+            }
+        }
+    }
+
+    public Optional<StoredImage> find(String key) {
+        if (key == null || !KEY.matcher(key).matches())
+            return Optional.empty();
+        Path path = path(key);
+        try {
+            return Optional.of(new StoredImage(key, path, Files.size(path), contentType(key)));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read image " + key, e);
+        }
+    }
+
+    // Удаляет файлы старше olderThan, ключей которых нет среди referenced (проверка — пачками)
+    public int sweep(Instant olderThan, Function<Collection<String>, Set<String>> referenced) {
+        // недописанные загрузки, брошенные при падении
+        try (Stream<Path> parts = Files.list(directory.resolve(TMP))) {
+            parts.filter(path -> lastModified(path).isBefore(olderThan)).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    log.warn("Cannot delete temporary upload {}", path, e);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list image directory " + directory, e);
+        }
+        List<Path> candidates;
+        try (Stream<Path> files = Files.walk(directory, 2)) {
+            candidates = files
+                    .filter(path -> KEY.matcher(path.getFileName().toString()).matches())
+                    .filter(path -> lastModified(path).isBefore(olderThan))
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot list image directory " + directory, e);
+        }
+        int deleted = 0;
+        for (int from = 0; from < candidates.size(); from += 500) {
+            List<Path> batch = candidates.subList(from, Math.min(from + 500, candidates.size()));
+            Set<String> used = referenced.apply(batch.stream().map(p -> p.getFileName().toString()).toList());
+            for (Path path : batch) {
+                if (used.contains(path.getFileName().toString()))
+                    continue;
+                try {
+                    // загрузка того же файла могла обновить дату, пока шла проверка
+                    if (lastModified(path).isBefore(olderThan) && Files.deleteIfExists(path))
+                        deleted++;
+                } catch (IOException e) {
+                    log.warn("Cannot delete orphaned image {}", path, e);
+                }
+            }
+        }
+        return deleted;
+    }
+
+    public static String contentType(String key) {
+        return CONTENT_TYPES.get(key.substring(key.lastIndexOf('.') + 1));
+    }
+
+    private Path path(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private long copy(InputStream in, OutputStream out, long total) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            total += read;
+            if (total > maxBytes)
+                throw new IllegalArgumentException("Image is larger than " + maxBytes + " bytes.");
+            out.write(buffer, 0, read);
+        }
+        return total;
+    }
+
+    private static Instant lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toInstant();
+        } catch (IOException e) {
+            return Instant.MAX;
+        }
+    }
+
+    // Формат по сигнатуре, а не по имени файла или Content-Type клиента
+    static String extension(byte[] head, int length) {
+        if (length >= 8 && (head[0] & 0xFF) == 0x89 && head[1] == 'P' && head[2] == 'N' && head[3] == 'G')
+            return "png";
+        if (length >= 3 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xD8 && (head[2] & 0xFF) == 0xFF)
+            return "jpg";
+        if (length >= 6 && head[0] == 'G' && head[1] == 'I' && head[2] == 'F' && head[3] == '8')
+            return "gif";
+        if (length >= 12 && head[0] == 'R' && head[1] == 'I' && head[2] == 'F' && head[3] == 'F'
+                && head[8] == 'W' && head[9] == 'E' && head[10] == 'B' && head[11] == 'P')
+            return "webp";
+        return null;
+    }
+}
@@ -0,0 +1,44 @@
+package com.danialrekhman.productservicenocturne.storage;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Уменьшенные копии загруженной картинки: наибольшая сторона не больше maxSize, пропорции сохраняются
+public enum ImageVariant {
+    THUMB(120),
+    LIST(320),
+    ZOOM(1200);
+
+    private final int maxSize;
+
+    ImageVariant(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public String path() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    public static ImageVariant fromPath(String value) {
+        for (ImageVariant variant : values()) {
+            if (variant.path().equalsIgnoreCase(value))
+                return variant;
+        }
+        throw new IllegalArgumentException("Unknown image variant '" + value + "'. Use thumb, list or zoom.");
+    }
+
+    // URL всех вариантов для DTO; у картинок по внешнему URL вариантов нет
+    public static Map<String, String> urls(String storageKey) {
+        if (storageKey == null)
+            return Map.of();
+        Map<String, String> urls = new LinkedHashMap<>();
+        for (ImageVariant variant : values())
+            urls.put(variant.path(), ImageStore.URL_PREFIX + storageKey + "/" + variant.path());
+        return urls;
+    }
+}
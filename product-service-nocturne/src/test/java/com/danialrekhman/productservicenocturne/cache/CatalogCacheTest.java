@@ -0,0 +1,140 @@
+package com.danialrekhman.productservicenocturne.cache;
+
+import com.danialrekhman.commonevents.CatalogChangedEvent;
+import com.danialrekhman.productservicenocturne.dto.CursorPage;
+import com.danialrekhman.productservicenocturne.dto.ProductResponseDTO;
+import com.danialrekhman.productservicenocturne.exception.ResourceNotFoundException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CatalogCacheTest {
+
+    @Mock
+    private KafkaTemplate<String, CatalogChangedEvent> kafkaTemplate;
+
+    private SimpleMeterRegistry registry;
+    private CatalogCache cache;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        cache = new CatalogCache(kafkaTemplate, registry, 100, 100, 60);
+    }
+
+    private ProductResponseDTO load(Long id) {
+        loads.incrementAndGet();
+        return ProductResponseDTO.builder().id(id).name("Vinyl " + id).build();
+    }
+
+    private CursorPage<ProductResponseDTO> loadPage() {
+        loads.incrementAndGet();
+        return new CursorPage<>(new ArrayList<>(List.of(load(1L), load(2L))), null);
+    }
+
+    @Test
+    void product_LoadsOnceAndServesSameSnapshot() {
+        ProductResponseDTO first = cache.product(1L, this::load);
+        ProductResponseDTO second = cache.product(1L, this::load);
+
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+        assertEquals(1.0, registry.get("cache.gets").tag("cache", "catalog.products").tag("result", "hit")
+                .functionCounter().count());
+    }
+
+    @Test
+    void lists_AreUnmodifiableSnapshots() {
+        CursorPage<ProductResponseDTO> page = cache.productPage("null|ID|20|page:0", this::loadPage);
+
+        assertThrows(UnsupportedOperationException.class, () -> page.getItems().add(load(3L)));
+    }
+
+    @Test
+    void product_WhenLoaderFails_NothingIsCached() {
+        assertThrows(ResourceNotFoundException.class, () -> cache.product(9L, id -> {
+            throw new ResourceNotFoundException("Product with id 9 not found for retrieval.");
+        }));
+
+        assertEquals(9L, cache.product(9L, this::load).getId());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void productChanged_InvalidatesProductAndListsAndPublishes() {
+        when(kafkaTemplate.send(anyString(), anyString(), any()))
+                .thenReturn(CompletableFuture.<SendResult<String, CatalogChangedEvent>>completedFuture(null));
+        cache.product(1L, this::load);
+        cache.product(2L, this::load);
+        cache.productPage("null|ID|20|page:0", this::loadPage);
+        loads.set(0);
+
+        cache.productChanged(1L);
+
+        cache.product(1L, this::load);
+        cache.product(2L, this::load);
+        cache.productPage("null|ID|20|page:0", this::loadPage);
+        // 1 карточка + страница из двух; карточка 2 осталась в кэше
+        assertEquals(4, loads.get());
+
+        ArgumentCaptor<CatalogChangedEvent> event = ArgumentCaptor.forClass(CatalogChangedEvent.class);
+        verify(kafkaTemplate).send(eq(CatalogCache.TOPIC), eq("1"), event.capture());
+        assertEquals(CatalogCache.PRODUCT, event.getValue().getEntity());
+        assertEquals(1L, event.getValue().getId());
+    }
+
+    @Test
+    void apply_CategoryEventFromOtherReplica_InvalidatesProductsAndPages() {
+        cache.product(1L, this::load);
+        cache.productPage("null|ID|20|page:0", this::loadPage);
+        loads.set(0);
+
+        cache.apply(new CatalogChangedEvent(CatalogCache.CATEGORY, 5L));
+
+        cache.product(1L, this::load);
+        cache.productPage("null|ID|20|page:0", this::loadPage);
+        // карточка + страница из двух
+        assertEquals(4, loads.get());
+        verifyNoInteractions(kafkaTemplate);
+    }
+
+    @Test
+    void version_GrowsOnEveryChangeAndFollowsOtherReplicas() {
+        when(kafkaTemplate.send(anyString(), anyString(), any()))
+                .thenReturn(CompletableFuture.<SendResult<String, CatalogChangedEvent>>completedFuture(null));
+        long initial = cache.version();
+
+        cache.productChanged(1L);
+        cache.productChanged(2L);
+
+        ArgumentCaptor<CatalogChangedEvent> events = ArgumentCaptor.forClass(CatalogChangedEvent.class);
+        verify(kafkaTemplate, times(2)).send(eq(CatalogCache.TOPIC), anyString(), events.capture());
+        long first = events.getAllValues().get(0).getVersion();
+        long second = events.getAllValues().get(1).getVersion();
+        assertTrue(initial < first && first < second);
+        assertEquals(second, cache.version());
+
+        // версия с другой реплики впереди — догоняем; позади — не откатываемся
+        cache.apply(new CatalogChangedEvent(CatalogCache.PRODUCT, 3L, second + 1000));
+        assertEquals(second + 1000, cache.version());
+        cache.apply(new CatalogChangedEvent(CatalogCache.PRODUCT, 3L, first));
+        assertEquals(second + 1000, cache.version());
+    }
+}
@@ -0,0 +1,84 @@
+package com.danialrekhman.productservicenocturne.cache;
+
+import com.danialrekhman.commonevents.CatalogChangedEvent;
+import com.danialrekhman.productservicenocturne.category.CategoryTree;
+import com.danialrekhman.productservicenocturne.category.CategoryTreeHolder;
+import com.danialrekhman.productservicenocturne.dto.ProductResponseDTO;
+import com.danialrekhman.productservicenocturne.repository.projection.CategoryRow;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class CatalogETagsTest {
+
+    @Mock
+    private KafkaTemplate<String, CatalogChangedEvent> kafkaTemplate;
+
+    @Mock
+    private CategoryTreeHolder categoryTree;
+
+    private CatalogCache cache;
+    private CatalogETags etags;
+
+    @BeforeEach
+    void setUp() {
+        cache = new CatalogCache(kafkaTemplate, new SimpleMeterRegistry(), 100, 100, 60);
+        etags = new CatalogETags(cache, categoryTree, 60);
+    }
+
+    @Test
+    void productList_ChangesWithCatalogVersion() {
+        String before = etags.productList();
+        assertEquals(before, etags.productList());
+
+        cache.apply(new CatalogChangedEvent(CatalogCache.PRODUCT, 1L, cache.version() + 1));
+
+        assertNotEquals(before, etags.productList());
+    }
+
+    @Test
+    void product_DependsOnVersionStockAndCategory() {
+        when(categoryTree.get()).thenReturn(tree(0));
+        ProductResponseDTO product = ProductResponseDTO.builder().id(7L).categoryId(1L).quantity(3).version(2).build();
+        String etag = etags.product(product);
+
+        assertEquals(etag, etags.product(product.toBuilder().build()));
+        assertNotEquals(etag, etags.product(product.toBuilder().version(3).build()));
+        assertNotEquals(etag, etags.product(product.toBuilder().quantity(2).build()));
+
+        // категорию переименовали — имя в карточке другое
+        when(categoryTree.get()).thenReturn(tree(1));
+        assertNotEquals(etag, etags.product(product));
+    }
+
+    @Test
+    void matchingIfNoneMatch_IsNotModified() {
+        when(categoryTree.get()).thenReturn(tree(0));
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/categories");
+        request.addHeader("If-None-Match", etags.categories());
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertTrue(new ServletWebRequest(request, response).checkNotModified(etags.categories()));
+        assertEquals(304, response.getStatus());
+
+        when(categoryTree.get()).thenReturn(tree(1));
+        assertFalse(new ServletWebRequest(request, new MockHttpServletResponse()).checkNotModified(etags.categories()));
+    }
+
+    private static CategoryTree tree(long version) {
+        return CategoryTree.of(List.of(new CategoryRow(1L, "Vinyl", null, version)));
+    }
+}
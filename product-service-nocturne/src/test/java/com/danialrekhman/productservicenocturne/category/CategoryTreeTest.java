@@ -0,0 +1,86 @@
+package com.danialrekhman.productservicenocturne.category;
+
+import com.danialrekhman.productservicenocturne.dto.CategoryResponseDTO;
+import com.danialrekhman.productservicenocturne.repository.projection.CategoryRow;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CategoryTreeTest {
+
+    //  1 Music          6 Merch
+    //  ├ 2 Vinyl        └ 7 Shirts
+    //  │ ├ 4 Jazz
+    //  │ └ 5 Rock
+    //  └ 3 Cassettes
+    private static final List<CategoryRow> ROWS = List.of(
+            new CategoryRow(5L, "Rock", 2L, 0),
+            new CategoryRow(1L, "Music", null, 0),
+            new CategoryRow(7L, "Shirts", 6L, 0),
+            new CategoryRow(3L, "Cassettes", 1L, 0),
+            new CategoryRow(2L, "Vinyl", 1L, 0),
+            new CategoryRow(6L, "Merch", null, 0),
+            new CategoryRow(4L, "Jazz", 2L, 0));
+
+    private final CategoryTree tree = CategoryTree.of(ROWS);
+
+    @Test
+    void roots_ContainEachCategoryOnceNestedUnderItsParent() {
+        List<CategoryResponseDTO> roots = tree.roots();
+
+        assertEquals(List.of(1L, 6L), roots.stream().map(CategoryResponseDTO::getId).toList());
+        CategoryResponseDTO vinyl = roots.get(0).getSubcategories().get(0);
+        assertEquals("Vinyl", vinyl.getName());
+        assertEquals(List.of(4L, 5L), vinyl.getSubcategories().stream().map(CategoryResponseDTO::getId).toList());
+        assertSame(vinyl, tree.find(2L).orElseThrow());
+        assertThrows(UnsupportedOperationException.class, () -> vinyl.getSubcategories().clear());
+    }
+
+    @Test
+    void subtreeIds_AreContiguousPreorderRange() {
+        assertEquals(List.of(1L, 2L, 4L, 5L, 3L), tree.subtreeIds(1L));
+        assertEquals(List.of(2L, 4L, 5L), tree.subtreeIds(2L));
+        assertEquals(List.of(7L), tree.subtreeIds(7L));
+        assertTrue(tree.subtreeIds(99L).isEmpty());
+        assertTrue(tree.subtreeIds(null).isEmpty());
+    }
+
+    @Test
+    void ancestorsAndSubtreeMembership() {
+        assertEquals(List.of(1L, 2L), tree.ancestorIds(5L));
+        assertTrue(tree.ancestorIds(6L).isEmpty());
+        assertTrue(tree.isInSubtree(1L, 5L));
+        assertTrue(tree.isInSubtree(2L, 2L));
+        assertFalse(tree.isInSubtree(2L, 3L));
+        assertFalse(tree.isInSubtree(6L, 4L));
+        assertFalse(tree.isInSubtree(5L, 1L));
+    }
+
+    @Test
+    void parentCycle_IsLeftOutOfTree() {
+        CategoryTree broken = CategoryTree.of(List.of(
+                new CategoryRow(1L, "Music", null, 0),
+                new CategoryRow(2L, "A", 3L, 0),
+                new CategoryRow(3L, "B", 2L, 0)));
+
+        assertEquals(1, broken.size());
+        assertFalse(broken.contains(2L));
+        assertTrue(broken.ancestorIds(2L).isEmpty());
+    }
+
+    @Test
+    void version_ChangesWithAnyCategoryButNotWithRowOrder() {
+        CategoryTree renamed = CategoryTree.of(ROWS.stream()
+                .map(row -> row.id() == 4L ? new CategoryRow(4L, "Bebop", 2L, 1) : row)
+                .toList());
+        CategoryTree reordered = CategoryTree.of(ROWS.reversed());
+        CategoryTree removed = CategoryTree.of(ROWS.subList(0, ROWS.size() - 1));
+
+        assertEquals(tree.version(), reordered.version());
+        assertNotEquals(tree.version(), renamed.version());
+        assertNotEquals(tree.version(), removed.version());
+        assertEquals(1, renamed.find(4L).orElseThrow().getVersion());
+    }
+}
@@ -0,0 +1,152 @@
+package com.danialrekhman.productservicenocturne.facet;
+
+import com.danialrekhman.productservicenocturne.category.CategoryTree;
+import com.danialrekhman.productservicenocturne.category.CategoryTreeHolder;
+import com.danialrekhman.productservicenocturne.dto.FacetCountDTO;
+import com.danialrekhman.productservicenocturne.exception.ResourceNotFoundException;
+import com.danialrekhman.productservicenocturne.inventory.HotInventory;
+import com.danialrekhman.productservicenocturne.repository.ProductRepository;
+import com.danialrekhman.productservicenocturne.repository.projection.CategoryRow;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductFacetRow;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class FacetIndexTest {
+
+    @Mock
+    private ProductRepository productRepository;
+
+    @Mock
+    private CategoryTreeHolder categoryTree;
+
+    @Mock
+    private HotInventory hotInventory;
+
+    private FacetIndex index;
+
+    // 1 Music ─ 2 Vinyl ─ 3 Jazz; 4 Merch
+    @BeforeEach
+    void setUp() {
+        lenient().when(categoryTree.get()).thenReturn(CategoryTree.of(List.of(
+                new CategoryRow(1L, "Music", null, 0),
+                new CategoryRow(2L, "Vinyl", 1L, 0),
+                new CategoryRow(3L, "Jazz", 2L, 0),
+                new CategoryRow(4L, "Merch", null, 0))));
+        when(productRepository.findFacetRowsAfter(anyLong(), any(Limit.class))).thenReturn(List.of(
+                row(10, 2L, "19.99", 5),
+                row(11, 3L, "30", 0),
+                row(12, 3L, "45", 2),
+                row(13, 4L, "12", 9),
+                row(14, 1L, "300", 1),
+                row(15, null, "60", 3)));
+        index = new FacetIndex(productRepository, categoryTree, hotInventory, new SimpleMeterRegistry(),
+                100, new BigDecimal[]{new BigDecimal("25"), new BigDecimal("50"), new BigDecimal("100")});
+        index.rebuild();
+    }
+
+    @Test
+    void noFilter_ReturnsAllProductsWithCounts() {
+        FacetHits hits = index.filter(null, null, null, 0, 10);
+
+        assertEquals(List.of(10L, 11L, 12L, 13L, 14L, 15L), hits.productIds());
+        assertEquals(6, hits.total());
+        // категория считается с подкатегориями, порядок — обход дерева
+        assertEquals(Map.of("1", 4L, "2", 3L, "3", 2L, "4", 1L), counts(hits.categories()));
+        assertEquals(List.of("1", "2", "3", "4"), hits.categories().stream().map(FacetCountDTO::getValue).toList());
+        assertEquals(Map.of("0-25", 2L, "25-50", 2L, "50-100", 1L, "100-", 1L), counts(hits.prices()));
+        assertEquals(Map.of("true", 5L, "false", 1L), counts(hits.stock()));
+    }
+
+    @Test
+    void filters_CombineAndCountsIgnoreOwnFacet() {
+        FacetHits hits = index.filter(List.of(2L), List.of("25-50"), true, 0, 10);
+
+        assertEquals(List.of(12L), hits.productIds());
+        assertEquals(1, hits.total());
+        // полосы цены посчитаны по категории и наличию, без фильтра по самой цене
+        assertEquals(Map.of("0-25", 1L, "25-50", 1L, "50-100", 0L, "100-", 0L), counts(hits.prices()));
+        // категории — по цене и наличию
+        assertEquals(Map.of("1", 1L, "2", 1L, "3", 1L), counts(hits.categories()));
+        // наличие — по категории и цене
+        assertEquals(Map.of("true", 1L, "false", 1L), counts(hits.stock()));
+    }
+
+    @Test
+    void multipleValuesOfOneFacet_AreUnion() {
+        FacetHits hits = index.filter(List.of(3L, 4L), List.of("0-25", "25-50"), null, 0, 10);
+
+        assertEquals(List.of(11L, 12L, 13L), hits.productIds());
+    }
+
+    @Test
+    void paging_SelectsByPosition() {
+        FacetHits hits = index.filter(null, null, true, 2, 2);
+
+        assertEquals(List.of(13L, 14L), hits.productIds());
+        assertEquals(5, hits.total());
+        assertTrue(index.filter(null, null, true, 5, 2).productIds().isEmpty());
+    }
+
+    @Test
+    void refresh_AppliesCommittedChangesInOneQuery() {
+        when(productRepository.findFacetRowsByIdIn(any())).thenReturn(List.of(
+                row(11, 4L, "30", 7),
+                row(16, 2L, "80", 1)));
+
+        index.productsChanged(List.of(10L, 11L, 16L));
+        index.refresh();
+
+        FacetHits hits = index.filter(List.of(4L), null, true, 0, 10);
+        assertEquals(List.of(11L, 13L), hits.productIds());
+        // 10 удалён, 16 добавлен
+        assertEquals(List.of(11L, 12L, 13L, 14L, 15L, 16L), index.filter(null, null, null, 0, 10).productIds());
+        verify(productRepository, times(1)).findFacetRowsByIdIn(any());
+
+        index.refresh();
+        verify(productRepository, times(1)).findFacetRowsByIdIn(any());
+    }
+
+    @Test
+    void hotProductStock_IsReadFromMemory() {
+        when(hotInventory.isHot(10L)).thenReturn(true);
+        when(hotInventory.available(10L)).thenReturn(0);
+        when(productRepository.findFacetRowsByIdIn(any())).thenReturn(List.of(row(10, 2L, "19.99", 5)));
+
+        index.productChanged(10L);
+        index.refresh();
+
+        assertFalse(index.filter(null, null, true, 0, 10).productIds().contains(10L));
+    }
+
+    @Test
+    void unknownValues_AreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> index.filter(null, List.of("1-2"), null, 0, 10));
+        assertThrows(ResourceNotFoundException.class, () -> index.filter(List.of(99L), null, null, 0, 10));
+    }
+
+    private static ProductFacetRow row(long id, Long categoryId, String price, int quantity) {
+        return new ProductFacetRow(id, categoryId, new BigDecimal(price), true, quantity);
+    }
+
+    private static Map<String, Long> counts(List<FacetCountDTO> facets) {
+        return facets.stream().collect(Collectors.toMap(FacetCountDTO::getValue, FacetCountDTO::getCount,
+                (a, b) -> a, LinkedHashMap::new));
+    }
+}
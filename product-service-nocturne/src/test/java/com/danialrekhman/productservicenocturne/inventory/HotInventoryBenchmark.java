@@ -0,0 +1,113 @@
+package com.danialrekhman.productservicenocturne.inventory;
+
+import com.danialrekhman.productservicenocturne.model.Product;
+import com.danialrekhman.productservicenocturne.repository.ProductRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Нагрузочный замер горячего товара: N потоков выкупают один SKU.
+ * Сравнивается один общий CAS-счётчик (все потоки бьются за одну ячейку, как за одну строку
+ * product), одни полосы {@link StripedStock} и HotInventory целиком — с журналом без fsync и
+ * с fsync на каждую заявку (в листенерах fsync один на пачку poll-а).
+ * <p>
+ * Запуск: {@code mvn test -Dtest=HotInventoryBenchmark -Dbenchmark=true}
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class HotInventoryBenchmark {
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors() * 2;
+    private static final int STOCK = 1_000_000_000; // не кончается за время замера
+    private static final long DURATION_MS = 3_000;
+
+    @TempDir
+    Path journalDir;
+
+    @Test
+    void singleCounterVsStripes() throws Exception {
+        AtomicInteger single = new AtomicInteger(STOCK);
+        run("single counter (one row)", amount -> {
+            for (int v = single.get(); v >= amount; v = single.get()) {
+                if (single.compareAndSet(v, v - amount))
+                    return true;
+            }
+            return false;
+        });
+
+        StripedStock stripes = new StripedStock(THREADS, STOCK);
+        run("striped counters only", stripes::tryTake);
+
+        HotInventory noFsync = inventory(journalDir.resolve("no-fsync"), false);
+        run("striped, journal without fsync", amount -> reserve(noFsync, amount));
+
+        HotInventory fsync = inventory(journalDir.resolve("fsync"), true);
+        run("striped, fsync per reservation", amount -> reserve(fsync, amount));
+    }
+
+    private static boolean reserve(HotInventory inventory, int amount) {
+        HotInventory.Reservation reservation = inventory.tryReserve(Map.of(1L, amount));
+        if (reservation == null)
+            return false;
+        inventory.commit(List.of(reservation));
+        return true;
+    }
+
+    private static HotInventory inventory(Path dir, boolean fsync) {
+        Product product = new Product();
+        product.setId(1L);
+        product.setPrice(new BigDecimal("35.00"));
+        product.setQuantity(STOCK);
+        product.setAvailable(true);
+        ProductRepository repository = mock(ProductRepository.class);
+        when(repository.findByHotInventoryTrue()).thenReturn(List.of(product));
+        HotInventory inventory = new HotInventory(repository, new TransactionTemplate(mock(PlatformTransactionManager.class)),
+                mock(HotInventoryLease.class), new SimpleMeterRegistry(), true, dir.toString(), fsync, THREADS);
+        inventory.afterSingletonsInstantiated();
+        return inventory;
+    }
+
+    private static void run(String name, IntPredicate reserve) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch go = new CountDownLatch(1);
+        LongAdder granted = new LongAdder();
+        LongAdder attempts = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        for (int t = 0; t < THREADS; t++) {
+            pool.submit(() -> {
+                go.await();
+                while (System.nanoTime() < deadline) {
+                    attempts.increment();
+                    if (reserve.test(1))
+                        granted.increment();
+                }
+                return null;
+            });
+        }
+        go.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(DURATION_MS * 10, TimeUnit.MILLISECONDS));
+        assertTrue(granted.sum() <= STOCK);
+        System.out.printf("%-34s threads=%d  %,12d reservations/s  (%,d attempts, %,d granted)%n",
+                name, THREADS, granted.sum() * 1000 / DURATION_MS, attempts.sum(), granted.sum());
+    }
+}
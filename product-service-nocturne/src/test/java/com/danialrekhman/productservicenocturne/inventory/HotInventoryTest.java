@@ -0,0 +1,254 @@
+package com.danialrekhman.productservicenocturne.inventory;
+
+import com.danialrekhman.productservicenocturne.model.Product;
+import com.danialrekhman.productservicenocturne.repository.ProductRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class HotInventoryTest {
+
+    @Mock
+    private ProductRepository productRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private HotInventoryLease lease;
+
+    @TempDir
+    Path journalDir;
+
+    private SimpleMeterRegistry registry;
+    private Product vinyl;
+    private Product poster;
+
+    @BeforeEach
+    void setUp() {
+        vinyl = product(1L, "35.00", 1000);
+        poster = product(2L, "10.00", 3);
+    }
+
+    private static Product product(Long id, String price, int quantity) {
+        Product product = new Product();
+        product.setId(id);
+        product.setPrice(new BigDecimal(price));
+        product.setQuantity(quantity);
+        product.setAvailable(true);
+        product.setHotInventory(true);
+        return product;
+    }
+
+    private HotInventory start(Product... hot) {
+        registry = new SimpleMeterRegistry();
+        when(productRepository.findByHotInventoryTrue()).thenReturn(List.of(hot));
+        HotInventory inventory = new HotInventory(productRepository, new TransactionTemplate(transactionManager), lease,
+                registry, true, journalDir.toString(), false, 8);
+        inventory.afterSingletonsInstantiated();
+        return inventory;
+    }
+
+    @Test
+    void concurrentReservations_NeverOversell() throws Exception {
+        HotInventory inventory = start(vinyl);
+        int threads = 32;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        AtomicInteger granted = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            pool.submit(() -> {
+                go.await();
+                for (int i = 0; i < 200; i++) {
+                    HotInventory.Reservation r = inventory.tryReserve(Map.of(1L, 1 + i % 3));
+                    if (r != null) {
+                        inventory.commit(List.of(r));
+                        granted.addAndGet(r.quantities().get(1L));
+                    }
+                }
+                return null;
+            });
+        }
+        go.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+
+        // спрос 32 * 200 заявок по 1-3 штуки заведомо больше 1000
+        assertEquals(1000, granted.get());
+        assertEquals(0, inventory.available(1L));
+        assertNull(inventory.tryReserve(Map.of(1L, 1)));
+    }
+
+    @Test
+    void tryReserve_IsAllOrNothingAcrossProducts() {
+        HotInventory inventory = start(vinyl, poster);
+
+        assertNull(inventory.tryReserve(Map.of(1L, 2, 2L, 4)));
+
+        assertEquals(1000, inventory.available(1L));
+        assertEquals(3, inventory.available(2L));
+    }
+
+    @Test
+    void flush_WritesOneUpdatePerProductAndTruncatesJournal() throws IOException {
+        HotInventory inventory = start(vinyl, poster);
+        inventory.commit(List.of(inventory.tryReserve(Map.of(1L, 2, 2L, 1))));
+        inventory.commit(List.of(inventory.tryReserve(Map.of(1L, 3))));
+        inventory.release(2L, 1);
+
+        inventory.flush();
+
+        verify(productRepository).applyInventoryJournal(1L, -5, 4L);
+        verify(productRepository).applyInventoryJournal(2L, 0, 4L);
+        assertEquals(0, inventory.unflushedEntries());
+        assertEquals(0, journalFiles().size());
+    }
+
+    @Test
+    void flush_WhenDatabaseFails_KeepsDeltasForNextRun() {
+        HotInventory inventory = start(vinyl);
+        inventory.commit(List.of(inventory.tryReserve(Map.of(1L, 4))));
+        when(productRepository.applyInventoryJournal(1L, -4, 1L))
+                .thenThrow(new IllegalStateException("db down"))
+                .thenReturn(1);
+
+        inventory.flush();
+        assertEquals(1, inventory.unflushedEntries());
+
+        inventory.flush();
+        verify(productRepository, times(2)).applyInventoryJournal(1L, -4, 1L);
+        assertEquals(0, inventory.unflushedEntries());
+    }
+
+    @Test
+    void recover_ReplaysJournalTailNotYetInDatabase() {
+        HotInventory crashed = start(vinyl);
+        crashed.commit(List.of(crashed.tryReserve(Map.of(1L, 10))));
+        crashed.commit(List.of(crashed.tryReserve(Map.of(1L, 5))));
+        // процесс падает до flush: в базе остаток 1000, первая запись уже применена (sequence 1)
+        vinyl.setInventorySequence(1L);
+        when(productRepository.findAllById(any())).thenReturn(List.of(vinyl));
+        when(productRepository.applyInventoryJournal(1L, -5, 2L)).thenAnswer(inv -> {
+            vinyl.setQuantity(vinyl.getQuantity() - 5);
+            return 1;
+        });
+
+        HotInventory restarted = start(vinyl);
+
+        verify(productRepository).applyInventoryJournal(1L, -5, 2L);
+        assertEquals(995, restarted.available(1L));
+        assertTrue(journalFiles().isEmpty());
+    }
+
+    @Test
+    void recover_IgnoresTornRecordAtJournalTail() throws IOException {
+        HotInventory crashed = start(vinyl);
+        crashed.commit(List.of(crashed.tryReserve(Map.of(1L, 7))));
+        Path segment = journalFiles().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+            channel.write(java.nio.ByteBuffer.wrap(new byte[]{0, 0, 0, 0, 0, 0, 0, 2, 0, 0})); // обрыв записи
+        }
+        when(productRepository.findAllById(any())).thenReturn(List.of(vinyl));
+
+        start(vinyl);
+
+        verify(productRepository).applyInventoryJournal(1L, -7, 1L);
+        verify(productRepository, never()).applyInventoryJournal(anyLong(), anyInt(), eq(2L));
+    }
+
+    @Test
+    void start_TakesExclusiveLease() {
+        start(vinyl);
+
+        verify(lease).acquire(true);
+    }
+
+    @Test
+    void releaseAndAdjust_InsideTransaction_ApplyOnlyAfterCommit() {
+        HotInventory inventory = start(vinyl);
+        inventory.commit(List.of(inventory.tryReserve(Map.of(1L, 10))));
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            inventory.release(1L, 4);
+            inventory.adjustTo(1L, 500);
+            assertEquals(990, inventory.available(1L));
+            // откат: ни память, ни журнал не меняются
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+            assertEquals(990, inventory.available(1L));
+            assertEquals(1, inventory.unflushedEntries());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            inventory.release(1L, 4);
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            assertEquals(994, inventory.available(1L));
+            assertEquals(2, inventory.unflushedEntries());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void flush_DeltaRefusedByDatabaseIsCounted() {
+        HotInventory inventory = start(vinyl);
+        inventory.commit(List.of(inventory.tryReserve(Map.of(1L, 4))));
+        when(productRepository.applyInventoryJournal(1L, -4, 1L)).thenReturn(0);
+
+        inventory.flush();
+
+        // повтор не поможет: журнал усечён, отказ виден в метрике и логе
+        assertEquals(0, inventory.unflushedEntries());
+        assertEquals(1.0, registry.counter("product.inventory.hot.rejected.deltas").count());
+    }
+
+    @Test
+    void commit_WithoutOpenJournal_ReturnsStockToMemory() {
+        HotInventory inventory = start(vinyl);
+        HotInventory.Reservation reservation = inventory.tryReserve(Map.of(1L, 3));
+        inventory.shutdown();
+
+        assertThrows(IllegalStateException.class, () -> inventory.commit(List.of(reservation)));
+        assertEquals(1000, inventory.available(1L));
+    }
+
+    private List<Path> journalFiles() {
+        try (Stream<Path> files = Files.list(journalDir)) {
+            return files.filter(p -> Files.isRegularFile(p)).toList();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.danialrekhman.productservicenocturne.inventory;
+
+import com.danialrekhman.productservicenocturne.repository.StockReservationRepository;
+import com.danialrekhman.productservicenocturne.service.ProductService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+class ReservationExpirySweeperTest {
+
+    private final ProductService productService = mock(ProductService.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void sweep_TakesBatchesUntilOneIsNotFull() {
+        when(productService.expireReservations(10)).thenReturn(10, 10, 4);
+
+        new ReservationExpirySweeper(productService, mock(StockReservationRepository.class), registry, 10, 100).sweep();
+
+        verify(productService, times(3)).expireReservations(10);
+        assertEquals(24, registry.get("product.reservation.expired").counter().count());
+    }
+
+    @Test
+    void sweep_StopsAtBatchLimitAndSurvivesFailures() {
+        when(productService.expireReservations(10)).thenReturn(10);
+
+        new ReservationExpirySweeper(productService, mock(StockReservationRepository.class), registry, 10, 2).sweep();
+        verify(productService, times(2)).expireReservations(10);
+
+        // сбой порции не выходит из sweep: планировщик не теряет задачу, уже возвращённое остаётся в счётчике
+        when(productService.expireReservations(10)).thenReturn(10).thenThrow(new IllegalStateException("connection lost"));
+        assertDoesNotThrow(new ReservationExpirySweeper(productService, mock(StockReservationRepository.class), registry, 10, 2)::sweep);
+        verify(productService, times(4)).expireReservations(10);
+        assertEquals(30, registry.get("product.reservation.expired").counter().count());
+    }
+
+    @Test
+    void start_PreparesLedgerSchemaBeforeSweeping() {
+        StockReservationRepository repository = mock(StockReservationRepository.class);
+
+        new ReservationExpirySweeper(productService, repository, registry, 10, 2).afterSingletonsInstantiated();
+
+        InOrder inOrder = inOrder(repository);
+        inOrder.verify(repository).upgradeStatusCheck();
+        inOrder.verify(repository).createExpiryIndex();
+    }
+}
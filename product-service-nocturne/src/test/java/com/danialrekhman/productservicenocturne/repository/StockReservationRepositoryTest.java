@@ -0,0 +1,135 @@
+package com.danialrekhman.productservicenocturne.repository;
+
+import com.danialrekhman.productservicenocturne.model.ReservationStatus;
+import com.danialrekhman.productservicenocturne.repository.projection.ReservationLedgerEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SQL журнала резервов на настоящем Postgres: unnest, ON CONFLICT, RETURNING и переходы статусов
+ * моками не проверить. Без Docker тест пропускается.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class StockReservationRepositoryTest {
+
+    @Container
+    static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private JdbcTemplate jdbcTemplate;
+    private StockReservationRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(new DriverManagerDataSource(
+                POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword()));
+        jdbcTemplate.execute("DROP TABLE IF EXISTS stock_reservation");
+        // так таблицу создаёт Hibernate (ddl-auto) до появления EXPIRED
+        jdbcTemplate.execute("""
+                CREATE TABLE stock_reservation (
+                    reservation_id uuid PRIMARY KEY,
+                    status varchar(8) NOT NULL CHECK (status IN ('RESERVED', 'RELEASED', 'CONSUMED')),
+                    lines text NOT NULL,
+                    expires_at timestamp(6) with time zone,
+                    created_at timestamp(6) with time zone NOT NULL,
+                    updated_at timestamp(6) with time zone NOT NULL)""");
+        repository = new StockReservationRepository(jdbcTemplate);
+        repository.upgradeStatusCheck();
+        repository.createExpiryIndex();
+    }
+
+    private ReservationStatus status(UUID id) {
+        return repository.find(List.of(id)).get(id).status();
+    }
+
+    @Test
+    void claim_RepeatedIdIsNotClaimedTwice() {
+        UUID id = UUID.randomUUID();
+
+        assertEquals(Set.of(id), repository.claim(List.of(id), 60));
+        assertEquals(Set.of(), repository.claim(List.of(id), 60));
+
+        repository.record(Map.of(id, new ReservationLedgerEntry(ReservationStatus.RESERVED,
+                Map.of(2L, 1, 1L, 3), Map.of(1L, new BigDecimal("19.99")))));
+        ReservationLedgerEntry entry = repository.find(List.of(id)).get(id);
+        assertEquals(ReservationStatus.RESERVED, entry.status());
+        assertEquals(Map.of(1L, 3, 2L, 1), entry.quantities());
+        assertEquals(new BigDecimal("19.99"), entry.prices().get(1L));
+    }
+
+    @Test
+    void confirmAndRelease_ReturnStockOnce() {
+        UUID id = UUID.randomUUID();
+        repository.claim(List.of(id), 60);
+        repository.record(Map.of(id, new ReservationLedgerEntry(ReservationStatus.RESERVED, Map.of(1L, 2), Map.of())));
+
+        assertEquals(Set.of(id), repository.confirm(List.of(id)));
+        assertEquals(Set.of(), repository.confirm(List.of(id)));
+        assertEquals(Optional.of(Map.of(1L, 2)), repository.release(id));
+        assertEquals(Optional.empty(), repository.release(id));
+        assertEquals(ReservationStatus.RELEASED, status(id));
+
+        // возврат резерва без записи в журнале запоминается один раз
+        UUID legacy = UUID.randomUUID();
+        assertTrue(repository.insertReleased(legacy, Map.of(1L, 1)));
+        assertFalse(repository.insertReleased(legacy, Map.of(1L, 1)));
+    }
+
+    @Test
+    void expire_TakesOnlyOverdueReservationsAndLateConfirmReclaimsThem() {
+        UUID overdue = UUID.randomUUID();
+        UUID fresh = UUID.randomUUID();
+        repository.claim(List.of(overdue), -1);
+        repository.claim(List.of(fresh), 60);
+        repository.record(Map.of(
+                overdue, new ReservationLedgerEntry(ReservationStatus.RESERVED, Map.of(1L, 4), Map.of()),
+                fresh, new ReservationLedgerEntry(ReservationStatus.RESERVED, Map.of(1L, 1), Map.of())));
+
+        assertEquals(List.of(Map.of(1L, 4)), repository.expire(10));
+        assertEquals(List.of(), repository.expire(10));
+        assertEquals(ReservationStatus.EXPIRED, status(overdue));
+        assertEquals(ReservationStatus.RESERVED, status(fresh));
+
+        // истёкший резерв уже вернул сток: отмена его не трогает, опоздавшее подтверждение занимает заново
+        assertEquals(Optional.empty(), repository.release(overdue));
+        assertEquals(Set.of(), repository.confirm(List.of(overdue)));
+        assertEquals(Map.of(overdue, Map.of(1L, 4)), repository.reclaim(List.of(overdue, fresh)));
+        assertEquals(ReservationStatus.CONSUMED, status(overdue));
+        assertEquals(Map.of(), repository.reclaim(List.of(overdue)));
+    }
+
+    @Test
+    void purge_RemovesOnlyFinishedReservations() {
+        UUID reserved = UUID.randomUUID();
+        UUID released = UUID.randomUUID();
+        repository.claim(List.of(reserved, released), 60);
+        repository.markReleased(List.of(released));
+
+        assertEquals(1, repository.purge(Instant.now().plusSeconds(1), 100));
+        assertEquals(Set.of(reserved), repository.find(List.of(reserved, released)).keySet());
+    }
+
+    @Test
+    void startup_IsRepeatableAndLeavesValidExpiryIndex() {
+        repository.upgradeStatusCheck();
+        repository.createExpiryIndex();
+
+        assertEquals(Boolean.TRUE, jdbcTemplate.queryForObject("""
+                SELECT i.indisvalid FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid
+                WHERE c.relname = 'idx_stock_reservation_expiry'""", Boolean.class));
+    }
+}
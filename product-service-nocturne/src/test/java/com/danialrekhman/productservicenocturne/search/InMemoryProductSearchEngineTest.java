@@ -0,0 +1,135 @@
+package com.danialrekhman.productservicenocturne.search;
+
+import com.danialrekhman.productservicenocturne.dto.ProductSuggestionDTO;
+import com.danialrekhman.productservicenocturne.repository.ProductRepository;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductSearchDocument;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class InMemoryProductSearchEngineTest {
+
+    @Mock
+    private ProductRepository productRepository;
+
+    private InMemoryProductSearchEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        engine = new InMemoryProductSearchEngine(productRepository, new SimpleMeterRegistry(), 2, 1000);
+        // три пачки по два документа, последняя неполная
+        when(productRepository.findSearchDocumentsAfter(anyLong(), eq(Limit.of(2)))).thenAnswer(inv -> {
+            long after = inv.getArgument(0);
+            return documents().stream().filter(d -> d.id() > after).limit(2).toList();
+        });
+        engine.afterSingletonsInstantiated();
+    }
+
+    private static List<ProductSearchDocument> documents() {
+        return List.of(
+                new ProductSearchDocument(1L, "Black Vinyl Record", "Heavy 180g pressing of a classic album"),
+                new ProductSearchDocument(2L, "Cassette Tape", "Retro tape with vinyl-like warmth"),
+                new ProductSearchDocument(3L, "Vinyl Cleaning Kit", "Brush and fluid for records"),
+                new ProductSearchDocument(4L, "Turntable", "Belt drive player for records"),
+                new ProductSearchDocument(5L, "Винил Кино", "Группа крови, переиздание"));
+    }
+
+    @Test
+    void search_RanksNameMatchesAboveDescriptionMatches() {
+        SearchHits hits = engine.search("vinyl", 0, 10);
+
+        assertEquals(3, hits.total());
+        assertEquals(2L, hits.productIds().get(2)); // только в описании
+        assertTrue(hits.productIds().subList(0, 2).containsAll(List.of(1L, 3L)));
+    }
+
+    @Test
+    void search_AnyTermMatches_AndPagesThroughRanking() {
+        SearchHits all = engine.search("Records, TAPE!", 0, 10);
+        SearchHits second = engine.search("records tape", 1, 2);
+
+        assertEquals(3, all.total()); // "record" в названии — другое слово, стемминга нет
+        assertEquals(3, second.total());
+        assertEquals(all.productIds().subList(1, 3), second.productIds());
+        assertTrue(engine.search("saxophone", 0, 10).productIds().isEmpty());
+        assertEquals(SearchHits.empty(), engine.search("  ,, ", 0, 10));
+    }
+
+    @Test
+    void search_CyrillicIsCaseInsensitive() {
+        assertEquals(List.of(5L), engine.search("ВИНИЛ", 0, 10).productIds());
+    }
+
+    @Test
+    void suggest_LastTokenIsPrefix_OtherTokensMustAllMatch() {
+        // описание в автодополнении не участвует: у товара 2 "vinyl" только там
+        assertEquals(List.of(1L, 3L), engine.suggest("vin", 5).stream()
+                .map(ProductSuggestionDTO::getId).sorted().toList());
+
+        List<ProductSuggestionDTO> narrowed = engine.suggest("vinyl cle", 5);
+        assertEquals(1, narrowed.size());
+        assertEquals("Vinyl Cleaning Kit", narrowed.get(0).getName());
+
+        assertTrue(engine.suggest("saxophone vin", 5).isEmpty());
+        assertEquals(1, engine.suggest("re", 1).size());
+        assertEquals(List.of(5L), engine.suggest("ки", 5).stream().map(ProductSuggestionDTO::getId).toList());
+    }
+
+    @Test
+    void search_PastTrackedHits_TotalIsLowerBoundAndRankingUnchanged() {
+        InMemoryProductSearchEngine tracked = new InMemoryProductSearchEngine(productRepository, new SimpleMeterRegistry(), 2, 1);
+        tracked.afterSingletonsInstantiated();
+
+        SearchHits exact = engine.search("vinyl records", 0, 2);
+        SearchHits pruned = tracked.search("vinyl records", 0, 2);
+
+        assertTrue(exact.totalExact());
+        assertEquals(4, exact.total());
+        assertFalse(pruned.totalExact());
+        assertEquals(1, pruned.total());
+        assertEquals(exact.productIds(), pruned.productIds());
+    }
+
+    @Test
+    void productChanged_ReindexesAndRemoves() {
+        when(productRepository.findSearchDocument(4L))
+                .thenReturn(Optional.of(new ProductSearchDocument(4L, "Vinyl Turntable", "Direct drive")));
+        when(productRepository.findSearchDocument(1L)).thenReturn(Optional.empty());
+
+        engine.productChanged(4L);
+        engine.productChanged(1L);
+
+        List<Long> vinyl = engine.search("vinyl", 0, 10).productIds();
+        assertEquals(3, vinyl.size());
+        assertTrue(vinyl.containsAll(List.of(2L, 3L, 4L)));
+        assertTrue(engine.search("belt", 0, 10).productIds().isEmpty());
+        assertEquals(4, engine.size());
+    }
+
+    @Test
+    void compaction_KeepsResultsAfterManyUpdates() {
+        when(productRepository.findSearchDocument(any())).thenAnswer(inv ->
+                documents().stream().filter(d -> d.id().equals(inv.getArgument(0))).findFirst());
+
+        for (int i = 0; i < 3000; i++)
+            engine.productChanged((long) (i % 5) + 1);
+
+        assertEquals(5, engine.size());
+        assertEquals(3, engine.search("vinyl", 0, 10).total());
+        assertEquals(List.of(4L), engine.search("turntable", 0, 10).productIds());
+    }
+}
@@ -0,0 +1,131 @@
+package com.danialrekhman.productservicenocturne.search;
+
+import com.danialrekhman.productservicenocturne.repository.ProductRepository;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductSearchDocument;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.domain.Limit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Задержка поиска и автодополнения на синтетическом каталоге из 1M товаров: словарь из 50k слов
+ * с распределением Ципфа (несколько очень частых слов, длинный хвост), название — 3 слова,
+ * описание — 12. Запросы берутся из того же распределения, так что частые слова попадают в них
+ * так же часто, как в реальной выдаче.
+ * <p>
+ * Запуск: {@code mvn test -Dtest=ProductSearchBenchmark -Dbenchmark=true}
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ProductSearchBenchmark {
+
+    private static final int PRODUCTS = 1_000_000;
+    private static final int VOCABULARY = 50_000;
+    private static final int QUERIES = 20_000;
+    private static final long P99_BUDGET_NANOS = 10_000_000;
+
+    private static final String[] SYLLABLES = {"ka", "lo", "mi", "ne", "ru", "so", "ta", "vi", "ze", "do",
+            "pa", "ri", "mo", "lu", "ve", "xa", "bo", "ce", "fi", "gu"};
+
+    private final String[] words = new String[VOCABULARY];
+    private final double[] cumulative = new double[VOCABULARY];
+
+    @Test
+    void searchAndSuggestOnMillionProducts() {
+        for (int i = 0; i < VOCABULARY; i++)
+            words[i] = word(i);
+        double sum = 0;
+        for (int i = 0; i < VOCABULARY; i++)
+            cumulative[i] = sum += 1.0 / (i + 1);
+        for (int i = 0; i < VOCABULARY; i++)
+            cumulative[i] /= sum;
+
+        ProductRepository repository = mock(ProductRepository.class);
+        when(repository.findSearchDocumentsAfter(anyLong(), any(Limit.class))).thenAnswer(inv -> {
+            long after = inv.getArgument(0);
+            int limit = inv.<Limit>getArgument(1).max();
+            List<ProductSearchDocument> batch = new ArrayList<>(limit);
+            for (long id = after + 1; id <= Math.min(PRODUCTS, after + limit); id++) {
+                SplittableRandom random = new SplittableRandom(id);
+                batch.add(new ProductSearchDocument(id, text(random, 3), text(random, 12)));
+            }
+            return batch;
+        });
+        InMemoryProductSearchEngine engine = new InMemoryProductSearchEngine(repository, new SimpleMeterRegistry(), 10_000, 1000);
+        long started = System.nanoTime();
+        engine.afterSingletonsInstantiated();
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        System.out.printf("indexed %,d products in %,d ms, heap used ~%,d MB%n", engine.size(),
+                (System.nanoTime() - started) / 1_000_000, (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+
+        SplittableRandom random = new SplittableRandom(42);
+        long[] search = measure(q -> engine.search(q, 0, 20), () -> text(random, 1 + random.nextInt(2)));
+        long[] searchDeep = measure(q -> engine.search(q, 200, 20), () -> text(random, 2));
+        long[] suggest = measure(q -> engine.suggest(q, 10), () -> {
+            String w = words[sample(random)];
+            return random.nextBoolean() ? w.substring(0, Math.min(3, w.length()))
+                    : words[sample(random)] + " " + w.substring(0, Math.min(2, w.length()));
+        });
+        report("search, 1-2 words, page 1", search);
+        report("search, 2 words, page 11", searchDeep);
+        report("suggest, prefix", suggest);
+        assertTrue(percentile(search, 0.99) < P99_BUDGET_NANOS);
+        assertTrue(percentile(suggest, 0.99) < P99_BUDGET_NANOS);
+    }
+
+    private static long[] measure(Consumer<String> query, java.util.function.Supplier<String> queries) {
+        for (int i = 0; i < QUERIES / 4; i++) // прогрев JIT
+            query.accept(queries.get());
+        long[] nanos = new long[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            String q = queries.get();
+            long start = System.nanoTime();
+            query.accept(q);
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        return nanos;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private static void report(String name, long[] sorted) {
+        System.out.printf("%-28s p50=%6.3f ms  p99=%6.3f ms  max=%7.3f ms%n", name,
+                percentile(sorted, 0.5) / 1e6, percentile(sorted, 0.99) / 1e6, sorted[sorted.length - 1] / 1e6);
+    }
+
+    private String text(SplittableRandom random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++)
+            text.append(i > 0 ? " " : "").append(words[sample(random)]);
+        return text.toString();
+    }
+
+    private int sample(SplittableRandom random) {
+        int i = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(VOCABULARY - 1, i >= 0 ? i : -i - 1);
+    }
+
+    private static String word(int i) {
+        StringBuilder word = new StringBuilder();
+        do {
+            word.append(SYLLABLES[i % SYLLABLES.length]);
+            i /= SYLLABLES.length;
+        } while (i > 0);
+        return word.toString();
+    }
+}
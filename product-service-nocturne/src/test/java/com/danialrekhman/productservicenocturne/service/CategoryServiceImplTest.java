@@ -1,10 +1,14 @@
 package com.danialrekhman.productservicenocturne.service;
 
+import com.danialrekhman.productservicenocturne.cache.CatalogCache;
+import com.danialrekhman.productservicenocturne.category.CategoryTree;
+import com.danialrekhman.productservicenocturne.category.CategoryTreeHolder;
 import com.danialrekhman.productservicenocturne.exception.CustomAccessDeniedException;
 import com.danialrekhman.productservicenocturne.exception.DuplicateResourceException;
 import com.danialrekhman.productservicenocturne.exception.ResourceNotFoundException;
 import com.danialrekhman.productservicenocturne.model.Category;
 import com.danialrekhman.productservicenocturne.repository.CategoryRepository;
+import com.danialrekhman.productservicenocturne.repository.projection.CategoryRow;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -28,6 +32,12 @@ class CategoryServiceImplTest {
     @Mock
     private CategoryRepository categoryRepository;
 
+    @Mock
+    private CatalogCache catalogCache;
+
+    @Mock
+    private CategoryTreeHolder categoryTree;
+
     @Mock
     private Authentication authentication;
 
@@ -124,6 +134,28 @@ class CategoryServiceImplTest {
         verify(categoryRepository, never()).save(any(Category.class));
     }
 
+    @Test
+    void updateCategory_MoveUnderOwnSubcategory_ThrowsIllegalArgument() {
+        mockAdminAuthentication();
+        Category grandchild = new Category();
+        grandchild.setId(3L);
+        Category updatedDetails = new Category();
+        updatedDetails.setName("Instruments");
+        updatedDetails.setParent(grandchild);
+
+        when(categoryRepository.findById(1L)).thenReturn(Optional.of(category));
+        when(categoryTree.get()).thenReturn(CategoryTree.of(List.of(
+                new CategoryRow(1L, "Instruments", null, 0),
+                new CategoryRow(2L, "Keys", 1L, 0),
+                new CategoryRow(3L, "Synths", 2L, 0))));
+
+        assertThrows(IllegalArgumentException.class, () ->
+                categoryService.updateCategory(1L, updatedDetails, authentication));
+
+        verify(categoryRepository, never()).save(any(Category.class));
+        verify(categoryTree, never()).categoryChanged();
+    }
+
     @Test
     void updateCategory_AsNonAdmin_ThrowsAccessDenied() {
         mockUserAuthentication();
@@ -144,6 +176,8 @@ class CategoryServiceImplTest {
 
         verify(categoryRepository, times(1)).findById(1L);
         verify(categoryRepository, times(1)).delete(category);
+        verify(categoryTree).categoryChanged();
+        verify(catalogCache).categoryChanged(1L);
     }
 
     @Test
@@ -231,4 +265,16 @@ class CategoryServiceImplTest {
         assertNull(parentCategories.get(0).getParent());
         verify(categoryRepository, times(1)).findAllByParentIsNull();
     }
+
+    @Test
+    void getSubcategorySnapshots_ServedFromTree() {
+        when(categoryTree.get()).thenReturn(CategoryTree.of(List.of(
+                new CategoryRow(1L, "Instruments", null, 0),
+                new CategoryRow(2L, "Keys", 1L, 0))));
+
+        assertEquals(List.of("Keys"), categoryService.getSubcategorySnapshots(1L).stream()
+                .map(c -> c.getName()).toList());
+        assertThrows(ResourceNotFoundException.class, () -> categoryService.getSubcategorySnapshots(9L));
+        verifyNoInteractions(categoryRepository);
+    }
 }
@@ -1,20 +1,25 @@
 package com.danialrekhman.productservicenocturne.service;
 
+import com.danialrekhman.productservicenocturne.cache.CatalogCache;
 import com.danialrekhman.productservicenocturne.exception.CustomAccessDeniedException;
 import com.danialrekhman.productservicenocturne.exception.ResourceNotFoundException;
 import com.danialrekhman.productservicenocturne.model.Product;
 import com.danialrekhman.productservicenocturne.model.ProductImage;
 import com.danialrekhman.productservicenocturne.repository.ProductImageRepository;
 import com.danialrekhman.productservicenocturne.repository.ProductRepository;
+import com.danialrekhman.productservicenocturne.storage.ImageDerivatives;
+import com.danialrekhman.productservicenocturne.storage.ImageStore;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -32,6 +37,15 @@ class ProductImageServiceImplTest {
     @Mock
     private ProductRepository productRepository;
 
+    @Mock
+    private CatalogCache catalogCache;
+
+    @Mock
+    private ImageStore imageStore;
+
+    @Mock
+    private ImageDerivatives imageDerivatives;
+
     @Mock
     private Authentication authentication;
 
@@ -71,7 +85,7 @@ class ProductImageServiceImplTest {
         ProductImage newImage = new ProductImage();
         newImage.setImageUrl("http://example.com/new_image.jpg");
 
-        when(productRepository.findById(productId)).thenReturn(Optional.of(product));
+        when(productRepository.findAndIncrementVersionById(productId)).thenReturn(Optional.of(product));
         when(productImageRepository.save(any(ProductImage.class))).thenReturn(productImage);
 
         ProductImage savedImage = productImageService.addImageToProduct(productId, newImage, authentication);
@@ -79,7 +93,7 @@ class ProductImageServiceImplTest {
         assertNotNull(savedImage);
         assertNotNull(savedImage.getProduct());
         assertEquals(productId, savedImage.getProduct().getId());
-        verify(productRepository, times(1)).findById(productId);
+        verify(productRepository, times(1)).findAndIncrementVersionById(productId);
         verify(productImageRepository, times(1)).save(newImage);
     }
 
@@ -96,15 +110,52 @@ class ProductImageServiceImplTest {
     @Test
     void addImageToProduct_ProductNotFound_ThrowsResourceNotFoundException() {
         mockAdminAuthentication();
-        when(productRepository.findById(productId)).thenReturn(Optional.empty());
+        when(productRepository.findAndIncrementVersionById(productId)).thenReturn(Optional.empty());
 
         assertThrows(ResourceNotFoundException.class, () ->
                 productImageService.addImageToProduct(productId, new ProductImage(), authentication));
 
-        verify(productRepository, times(1)).findById(productId);
+        verify(productRepository, times(1)).findAndIncrementVersionById(productId);
         verify(productImageRepository, never()).save(any());
     }
 
+    @Test
+    void uploadImage_AsAdmin_StoresFileAndLinksImage() {
+        mockAdminAuthentication();
+        String key = "a".repeat(64) + ".png";
+        MockMultipartFile file = new MockMultipartFile("file", "photo.png", "image/png", new byte[]{1, 2, 3});
+        when(imageStore.store(any())).thenReturn(new ImageStore.StoredImage(key, Path.of(key), 3, "image/png"));
+        when(productRepository.findAndIncrementVersionById(productId)).thenReturn(Optional.of(product));
+        when(productImageRepository.save(any(ProductImage.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        ProductImage saved = productImageService.uploadImage(productId, file, authentication);
+
+        assertEquals(key, saved.getStorageKey());
+        assertEquals("/api/products/images/" + key, saved.getImageUrl());
+        assertSame(product, saved.getProduct());
+        verify(catalogCache).productChanged(productId);
+        // копии рисуются заранее, в фоне
+        verify(imageDerivatives).generate(any(ImageStore.StoredImage.class));
+    }
+
+    @Test
+    void uploadImage_AsNonAdmin_DoesNotStoreFile() {
+        mockUserAuthentication();
+        MockMultipartFile file = new MockMultipartFile("file", new byte[]{1});
+
+        assertThrows(CustomAccessDeniedException.class, () ->
+                productImageService.uploadImage(productId, file, authentication));
+
+        verifyNoInteractions(imageStore, productImageRepository);
+    }
+
+    @Test
+    void getImageContent_UnknownKey_ThrowsResourceNotFoundException() {
+        when(imageStore.find("missing")).thenReturn(Optional.empty());
+
+        assertThrows(ResourceNotFoundException.class, () -> productImageService.getImageContent("missing"));
+    }
+
     @Test
     void deleteImage_AsAdmin_Success() {
         mockAdminAuthentication();
@@ -115,6 +166,7 @@ class ProductImageServiceImplTest {
 
         verify(productImageRepository, times(1)).findById(imageId);
         verify(productImageRepository, times(1)).delete(productImage);
+        verify(productRepository).findAndIncrementVersionById(productId);
     }
 
     @Test
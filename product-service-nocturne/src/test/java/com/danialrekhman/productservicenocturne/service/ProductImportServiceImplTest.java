@@ -0,0 +1,294 @@
+package com.danialrekhman.productservicenocturne.service;
+
+import com.danialrekhman.productservicenocturne.cache.CatalogCache;
+import com.danialrekhman.productservicenocturne.category.CategoryTree;
+import com.danialrekhman.productservicenocturne.category.CategoryTreeHolder;
+import com.danialrekhman.productservicenocturne.dto.ImportFormat;
+import com.danialrekhman.productservicenocturne.dto.ProductImportErrorDTO;
+import com.danialrekhman.productservicenocturne.dto.ProductImportReportDTO;
+import com.danialrekhman.productservicenocturne.exception.CustomAccessDeniedException;
+import com.danialrekhman.productservicenocturne.facet.FacetIndex;
+import com.danialrekhman.productservicenocturne.inventory.HotInventory;
+import com.danialrekhman.productservicenocturne.repository.ProductBulkRepository;
+import com.danialrekhman.productservicenocturne.repository.projection.CategoryRow;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductImportRow;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductUpsertResult;
+import com.danialrekhman.productservicenocturne.search.ProductSearchEngine;
+import com.danialrekhman.productservicenocturne.snapshot.ProductSnapshotPublisher;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ProductImportServiceImplTest {
+
+    @Mock
+    private ProductBulkRepository productBulkRepository;
+
+    @Mock
+    private CategoryTreeHolder categoryTree;
+
+    @Mock
+    private CatalogCache catalogCache;
+
+    @Mock
+    private ProductSearchEngine productSearchEngine;
+
+    @Mock
+    private FacetIndex facetIndex;
+
+    @Mock
+    private HotInventory hotInventory;
+
+    @Mock
+    private ProductSnapshotPublisher productSnapshots;
+
+    @Mock
+    private Authentication authentication;
+
+    private ProductImportServiceImpl importService;
+
+    // товары «в базе»: upsert вставляет новые имена и обновляет известные
+    private final Map<String, Long> stored = new HashMap<>();
+    private final AtomicLong ids = new AtomicLong(100);
+
+    @BeforeEach
+    void setUp() {
+        importService = new ProductImportServiceImpl(productBulkRepository, categoryTree, catalogCache,
+                productSearchEngine, facetIndex, hotInventory, productSnapshots, 2, 3);
+        stored.put("Existing", 1L);
+    }
+
+    private void mockAdminAuthentication() {
+        when(authentication.getAuthorities()).thenAnswer(invocation ->
+                Collections.singletonList(new SimpleGrantedAuthority("ROLE_ADMIN")));
+    }
+
+    private void mockCategories() {
+        when(categoryTree.get()).thenReturn(CategoryTree.of(List.of(
+                new CategoryRow(1L, "Guitars", null, 0),
+                new CategoryRow(2L, "Accessories", null, 0),
+                new CategoryRow(3L, "Strings", 1L, 0),
+                new CategoryRow(4L, "Strings", 2L, 0))));
+    }
+
+    private void mockUpsert() {
+        when(productBulkRepository.upsert(anyList())).thenAnswer(invocation -> {
+            List<ProductImportRow> rows = invocation.getArgument(0);
+            return rows.stream().map(row -> {
+                boolean inserted = !stored.containsKey(row.name());
+                Long id = stored.computeIfAbsent(row.name(), n -> ids.incrementAndGet());
+                return new ProductUpsertResult(id, row.name(), row.price(), row.available(), inserted);
+            }).toList();
+        });
+    }
+
+    private static InputStream body(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<ProductImportRow>> upsertedChunks(int times) {
+        ArgumentCaptor<List<ProductImportRow>> captor = ArgumentCaptor.forClass(List.class);
+        verify(productBulkRepository, times(times)).upsert(captor.capture());
+        return captor.getAllValues();
+    }
+
+    @Test
+    void importProducts_CsvInsertsAndUpdatesInChunks() {
+        mockAdminAuthentication();
+        mockCategories();
+        mockUpsert();
+
+        ProductImportReportDTO report = importService.importProducts(body("""
+                name,description,price,quantity,available,category
+                Existing,"Updated, with comma",10.50,3,true,Guitars
+                Capo,"Quick ""clip"" capo",12,5,,2
+
+                Tuner,,25.99,,false,3
+                """), ImportFormat.CSV, authentication);
+
+        assertEquals(3, report.getRows());
+        assertEquals(2, report.getInserted());
+        assertEquals(1, report.getUpdated());
+        assertEquals(0, report.getFailed());
+        assertTrue(report.getErrors().isEmpty());
+
+        List<List<ProductImportRow>> chunks = upsertedChunks(2);
+        // пачка отсортирована по имени
+        assertEquals(List.of(
+                new ProductImportRow("Capo", "Quick \"clip\" capo", new BigDecimal("12"), 5, true, 2L),
+                new ProductImportRow("Existing", "Updated, with comma", new BigDecimal("10.50"), 3, true, 1L)), chunks.get(0));
+        assertEquals(List.of(
+                new ProductImportRow("Tuner", "", new BigDecimal("25.99"), 0, false, 3L)), chunks.get(1));
+
+        verify(hotInventory).refresh(1L, new BigDecimal("10.50"), true);
+        // снимок на каждую записанную пачку
+        verify(productSnapshots, times(2)).productsChanged(anyList());
+        verify(catalogCache).catalogChanged();
+        verify(productSearchEngine).reindexAll();
+        verify(facetIndex).rebuild();
+    }
+
+    @Test
+    void importProducts_InvalidRowsAreReportedAndSkipped() {
+        mockAdminAuthentication();
+        mockCategories();
+        mockUpsert();
+
+        ProductImportReportDTO report = importService.importProducts(body("""
+                name,description,price,quantity,available,category
+                ,no name,1,1,true,1
+                Bad price,x,abc,1,true,1
+                Negative,x,-1,1,true,1
+                Good,x,5,1,true,Guitars
+                Strings set,x,5,1,true,Strings
+                """), ImportFormat.CSV, authentication);
+
+        assertEquals(5, report.getRows());
+        assertEquals(1, report.getInserted());
+        assertEquals(4, report.getFailed());
+        // в отчёте только первые три ошибки
+        assertTrue(report.isErrorsTruncated());
+        assertEquals(List.of(1L, 2L, 3L), report.getErrors().stream().map(ProductImportErrorDTO::getRow).toList());
+        assertEquals("Name is required.", report.getErrors().get(0).getMessage());
+        assertEquals("Bad price", report.getErrors().get(1).getName());
+        assertEquals("Price cannot be negative.", report.getErrors().get(2).getMessage());
+    }
+
+    @Test
+    void importProducts_AmbiguousOrUnknownCategoryIsRejected() {
+        mockAdminAuthentication();
+        mockCategories();
+
+        ProductImportReportDTO report = importService.importProducts(body("""
+                {"name": "Set", "description": "x", "price": 5, "category": "Strings"}
+                {"name": "Pick", "description": "x", "price": 1, "category": 99}
+                """), ImportFormat.NDJSON, authentication);
+
+        assertEquals(2, report.getFailed());
+        assertEquals("Category name 'Strings' is not unique, use the category id.", report.getErrors().get(0).getMessage());
+        assertEquals("Category '99' not found.", report.getErrors().get(1).getMessage());
+        verify(productBulkRepository, never()).upsert(anyList());
+        verify(catalogCache, never()).catalogChanged();
+    }
+
+    @Test
+    void importProducts_LaterRowWithSameNameWins() {
+        mockAdminAuthentication();
+        mockCategories();
+        mockUpsert();
+
+        ProductImportReportDTO report = importService.importProducts(body("""
+                {"name": "Capo", "description": "first", "price": 10.10, "category": 1}
+                {"name": "Capo", "description": "second", "price": 11.10, "category": 1}
+                """), ImportFormat.NDJSON, authentication);
+
+        assertEquals(1, report.getInserted());
+        assertEquals(1, report.getFailed());
+        assertEquals(1L, report.getErrors().get(0).getRow());
+        assertEquals("Superseded by row 2 with the same name.", report.getErrors().get(0).getMessage());
+        List<ProductImportRow> chunk = upsertedChunks(1).get(0);
+        assertEquals(1, chunk.size());
+        assertEquals("second", chunk.get(0).description());
+        assertEquals(new BigDecimal("11.10"), chunk.get(0).price());
+    }
+
+    @Test
+    void importProducts_MalformedNdjsonStopsImport() {
+        mockAdminAuthentication();
+        mockCategories();
+        mockUpsert();
+
+        ProductImportReportDTO report = importService.importProducts(body("""
+                {"name": "Capo", "description": "x", "price": 10, "category": 1}
+                {"name": "Broken", "price": }
+                {"name": "Tuner", "description": "x", "price": 10, "category": 1}
+                """), ImportFormat.NDJSON, authentication);
+
+        // строка до битой записи записана, после — нет
+        assertEquals(1, report.getInserted());
+        assertEquals(1, report.getFailed());
+        assertEquals(2L, report.getErrors().get(0).getRow());
+        assertTrue(report.getErrors().get(0).getMessage().startsWith("Malformed record, import stopped"));
+        assertEquals(List.of("Capo"), upsertedChunks(1).get(0).stream().map(ProductImportRow::name).toList());
+    }
+
+    @Test
+    void importProducts_RejectedChunkFailsItsRowsOnly() {
+        mockAdminAuthentication();
+        mockCategories();
+        when(productBulkRepository.upsert(anyList()))
+                .thenThrow(new DataIntegrityViolationException("constraint"))
+                .thenReturn(List.of(new ProductUpsertResult(7L, "Tuner", BigDecimal.ONE, true, true)));
+
+        ProductImportReportDTO report = importService.importProducts(body("""
+                name,description,price,category
+                Capo,x,1,1
+                Strap,x,1,1
+                Tuner,x,1,1
+                """), ImportFormat.CSV, authentication);
+
+        assertEquals(1, report.getInserted());
+        assertEquals(2, report.getFailed());
+        assertEquals(List.of("Capo", "Strap"), report.getErrors().stream().map(ProductImportErrorDTO::getName).toList());
+        assertTrue(report.getErrors().get(0).getMessage().startsWith("Chunk rejected by the database"));
+    }
+
+    @Test
+    void importProducts_NonAdmin_ThrowsException() {
+        when(authentication.getAuthorities()).thenAnswer(invocation ->
+                Collections.singletonList(new SimpleGrantedAuthority("ROLE_USER")));
+
+        assertThrows(CustomAccessDeniedException.class,
+                () -> importService.importProducts(body("name\n"), ImportFormat.CSV, authentication));
+        verifyNoInteractions(productBulkRepository, catalogCache);
+    }
+
+    @Test
+    void updatePrices_UnknownNamesAreReported() {
+        mockAdminAuthentication();
+        when(productBulkRepository.updatePrices(anyList())).thenReturn(List.of(
+                new ProductUpsertResult(1L, "Existing", new BigDecimal("9.99"), true, false)));
+
+        ProductImportReportDTO report = importService.updatePrices(body("""
+                name,price
+                Existing,9.99
+                Missing,5
+                """), ImportFormat.CSV, authentication);
+
+        assertEquals(1, report.getUpdated());
+        assertEquals(1, report.getFailed());
+        assertEquals("Missing", report.getErrors().get(0).getName());
+        assertEquals("Product not found.", report.getErrors().get(0).getMessage());
+        verify(hotInventory).refresh(1L, new BigDecimal("9.99"), true);
+        verify(catalogCache).catalogChanged();
+        verify(facetIndex).rebuild();
+        verify(productSearchEngine, never()).reindexAll();
+        verify(categoryTree, never()).get();
+    }
+
+    @Test
+    void fromContentType_RejectsUnsupportedType() {
+        assertEquals(ImportFormat.CSV, ImportFormat.fromContentType("text/csv; charset=UTF-8"));
+        assertEquals(ImportFormat.NDJSON, ImportFormat.fromContentType("application/x-ndjson"));
+        assertThrows(IllegalArgumentException.class, () -> ImportFormat.fromContentType("application/json"));
+    }
+}
@@ -0,0 +1,245 @@
+package com.danialrekhman.productservicenocturne.service;
+
+import com.danialrekhman.commonevents.CatalogChangedEvent;
+import com.danialrekhman.productservicenocturne.cache.CatalogCache;
+import com.danialrekhman.productservicenocturne.category.CategoryTreeHolder;
+import com.danialrekhman.productservicenocturne.dto.CursorPage;
+import com.danialrekhman.productservicenocturne.dto.FacetedProductPageDTO;
+import com.danialrekhman.productservicenocturne.dto.ProductResponseDTO;
+import com.danialrekhman.productservicenocturne.dto.ProductSearchPageDTO;
+import com.danialrekhman.productservicenocturne.exception.InvalidCursorException;
+import com.danialrekhman.productservicenocturne.exception.ResourceNotFoundException;
+import com.danialrekhman.productservicenocturne.facet.FacetIndex;
+import com.danialrekhman.productservicenocturne.inventory.HotInventory;
+import com.danialrekhman.productservicenocturne.mapper.ProductImageMapper;
+import com.danialrekhman.productservicenocturne.mapper.ProductMapper;
+import com.danialrekhman.productservicenocturne.model.Category;
+import com.danialrekhman.productservicenocturne.model.Product;
+import com.danialrekhman.productservicenocturne.model.ProductImage;
+import com.danialrekhman.productservicenocturne.repository.CategoryRepository;
+import com.danialrekhman.productservicenocturne.repository.ProductImageRepository;
+import com.danialrekhman.productservicenocturne.repository.ProductRepository;
+import com.danialrekhman.productservicenocturne.repository.StockReservationRepository;
+import com.danialrekhman.productservicenocturne.search.InMemoryProductSearchEngine;
+import com.danialrekhman.productservicenocturne.snapshot.ProductSnapshotPublisher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+// Листинг на встроенной H2: считаем реальные SQL-запросы на одну страницу
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+class ProductListingQueryCountTest {
+
+    @Autowired
+    private TestEntityManager em;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private ProductRepository productRepository;
+
+    @Autowired
+    private CategoryRepository categoryRepository;
+
+    @Autowired
+    private ProductImageRepository productImageRepository;
+
+    private ProductServiceImpl productService;
+    private InMemoryProductSearchEngine searchEngine;
+    private FacetIndex facetIndex;
+    private Statistics statistics;
+    private Category vinyl;
+    private Category empty;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        HotInventory hotInventory = mock(HotInventory.class);
+        searchEngine = new InMemoryProductSearchEngine(productRepository, new SimpleMeterRegistry(), 100, 1000);
+        CatalogCache catalogCache = new CatalogCache(mock(KafkaTemplate.class), new SimpleMeterRegistry(), 100, 100, 60);
+        CategoryTreeHolder categoryTree = new CategoryTreeHolder(categoryRepository);
+        facetIndex = new FacetIndex(productRepository, categoryTree, hotInventory, new SimpleMeterRegistry(),
+                100, new BigDecimal[]{new BigDecimal("12"), new BigDecimal("14")});
+        productService = new ProductServiceImpl(productRepository, categoryRepository, hotInventory, catalogCache,
+                new ProductMapper(new ProductImageMapper(), hotInventory), productImageRepository, searchEngine,
+                categoryTree, facetIndex, mock(ProductSnapshotPublisher.class), mock(StockReservationRepository.class));
+
+        vinyl = em.persist(Category.builder().name("Vinyl").subcategories(new ArrayList<>()).products(new ArrayList<>()).build());
+        empty = em.persist(Category.builder().name("Cassettes").subcategories(new ArrayList<>()).products(new ArrayList<>()).build());
+        for (int i = 1; i <= 30; i++) {
+            Product product = Product.builder()
+                    .name(String.format("Album %02d", (i * 7) % 31))
+                    .description("Limited pressing")
+                    .price(new BigDecimal(10 + i % 5))   // много одинаковых цен — проверка tie-break по id
+                    .available(true)
+                    .quantity(i)
+                    .category(vinyl)
+                    .images(new ArrayList<>())
+                    .build();
+            em.persist(product);
+            em.persist(ProductImage.builder().imageUrl("front-" + i + ".jpg").product(product).build());
+            em.persist(ProductImage.builder().imageUrl("back-" + i + ".jpg").product(product).build());
+        }
+        em.flush();
+        em.clear();
+        searchEngine.afterSingletonsInstantiated();
+        facetIndex.afterSingletonsInstantiated();
+
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    void page_UsesTwoQueriesRegardlessOfSize() {
+        CursorPage<ProductResponseDTO> page = productService.getProductPage(null, "price,desc", null, null, 25);
+
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertEquals(25, page.getItems().size());
+        assertNotNull(page.getNextCursor());
+        page.getItems().forEach(p -> {
+            assertEquals(2, p.getImages().size());
+            assertEquals("Vinyl", p.getCategoryName());
+        });
+        assertEquals(0, statistics.getEntityLoadCount()); // только проекции, сущности не создаются
+    }
+
+    @Test
+    void cursor_WalksWholeCatalogInSortOrderWithoutDuplicates() {
+        List<ProductResponseDTO> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            CursorPage<ProductResponseDTO> page = productService.getProductPage(null, "price,desc", cursor, null, 7);
+            seen.addAll(page.getItems());
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(5, pages);
+        assertEquals(30, seen.stream().map(ProductResponseDTO::getId).distinct().count());
+        List<ProductResponseDTO> expected = new ArrayList<>(seen);
+        expected.sort(Comparator.comparing(ProductResponseDTO::getPrice).reversed()
+                .thenComparing(ProductResponseDTO::getId, Comparator.reverseOrder()));
+        assertEquals(expected.stream().map(ProductResponseDTO::getId).toList(),
+                seen.stream().map(ProductResponseDTO::getId).toList());
+        assertEquals(2L * pages, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void categoryPage_ByNameWithOffset() {
+        CursorPage<ProductResponseDTO> first = productService.getProductPage(vinyl.getId(), "name", null, 0, 10);
+        CursorPage<ProductResponseDTO> second = productService.getProductPage(vinyl.getId(), "name", null, 1, 10);
+        CursorPage<ProductResponseDTO> viaCursor = productService.getProductPage(vinyl.getId(), "name", first.getNextCursor(), null, 10);
+
+        assertEquals(second.getItems().stream().map(ProductResponseDTO::getId).toList(),
+                viaCursor.getItems().stream().map(ProductResponseDTO::getId).toList());
+        assertTrue(first.getItems().get(9).getName().compareTo(second.getItems().get(0).getName()) <= 0);
+        assertEquals(6, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void subtreePage_IncludesProductsOfSubcategoriesInOneQuery() {
+        Category jazz = em.persist(Category.builder().name("Jazz").parent(em.find(Category.class, vinyl.getId()))
+                .subcategories(new ArrayList<>()).products(new ArrayList<>()).build());
+        Category bebop = em.persist(Category.builder().name("Bebop").parent(jazz)
+                .subcategories(new ArrayList<>()).products(new ArrayList<>()).build());
+        for (Category category : List.of(jazz, bebop))
+            em.persist(Product.builder().name(category.getName() + " Sampler").description("Compilation")
+                    .price(BigDecimal.ONE).available(true).quantity(1).category(category).images(new ArrayList<>()).build());
+        em.flush();
+        em.clear();
+        statistics.clear();
+
+        CursorPage<ProductResponseDTO> page = productService.getSubtreeProductPage(vinyl.getId(), "price", null, null, 5);
+
+        // снимок дерева (один раз) + строки + картинки
+        assertEquals(3, statistics.getPrepareStatementCount());
+        assertEquals(List.of("Bebop Sampler", "Jazz Sampler"),
+                page.getItems().subList(0, 2).stream().map(ProductResponseDTO::getName).sorted().toList());
+        statistics.clear();
+
+        CursorPage<ProductResponseDTO> jazzPage = productService.getSubtreeProductPage(jazz.getId(), null, null, null, 50);
+
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertEquals(2, jazzPage.getItems().size());
+        assertEquals(30, productService.getProductPage(vinyl.getId(), null, null, null, 50).getItems().size());
+        assertThrows(ResourceNotFoundException.class, () -> productService.getSubtreeProductPage(999L, null, null, null, 10));
+    }
+
+    @Test
+    void repeatedRequest_IsServedFromCache() {
+        productService.getProductPage(null, null, null, null, 10);
+        statistics.clear();
+
+        productService.getProductPage(null, null, null, null, 10);
+
+        assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void emptyCategory_ReturnsEmptyPageAndUnknownCategoryIsNotFound() {
+        CursorPage<ProductResponseDTO> page = productService.getProductPage(empty.getId(), null, null, null, 10);
+
+        assertTrue(page.getItems().isEmpty());
+        assertNull(page.getNextCursor());
+        assertThrows(ResourceNotFoundException.class, () -> productService.getProductPage(999L, null, null, null, 10));
+    }
+
+    @Test
+    void cursor_FromOtherSortIsRejected() {
+        String cursor = productService.getProductPage(null, "name", null, null, 5).getNextCursor();
+
+        assertThrows(InvalidCursorException.class, () -> productService.getProductPage(null, "price", cursor, null, 5));
+        assertThrows(InvalidCursorException.class, () -> productService.getProductPage(null, "name", "not-a-cursor", null, 5));
+        assertThrows(IllegalArgumentException.class, () -> productService.getProductPage(null, "rating", null, null, 5));
+    }
+
+    @Test
+    void search_HydratesRankedIdsWithTwoQueries() {
+        ProductSearchPageDTO page = productService.searchProducts("album 07", 0, 10);
+
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertEquals(30, page.getTotal());
+        assertEquals(10, page.getItems().size());
+        assertEquals("Album 07", page.getItems().get(0).getName()); // совпали оба слова
+        page.getItems().forEach(p -> assertEquals(2, p.getImages().size()));
+        assertThrows(IllegalArgumentException.class, () -> productService.searchProducts("album", 100, 10));
+    }
+
+    @Test
+    void facets_PageAndAllCountsWithTwoQueries() {
+        // категория считается в дереве один раз и дальше берётся из снимка
+        productService.filterProducts(null, null, null, 0, 1);
+        statistics.clear();
+
+        FacetedProductPageDTO page = productService.filterProducts(List.of(vinyl.getId()), List.of("12-14"), true, 0, 5);
+
+        assertEquals(2, statistics.getPrepareStatementCount());
+        assertEquals(12, page.getTotal()); // цены 12 и 13 — у 12 из 30 товаров
+        assertEquals(5, page.getItems().size());
+        page.getItems().forEach(p -> assertTrue(p.getPrice().compareTo(new BigDecimal("14")) < 0
+                && p.getPrice().compareTo(new BigDecimal("12")) >= 0));
+        assertEquals(List.of(12L, 12L, 6L), page.getPrices().stream().map(f -> f.getCount()).toList());
+        assertEquals(1, page.getCategories().size());
+        assertEquals(12, page.getCategories().get(0).getCount());
+    }
+}
@@ -1,15 +1,30 @@
 package com.danialrekhman.productservicenocturne.service;
 
+import com.danialrekhman.productservicenocturne.cache.CatalogCache;
+import com.danialrekhman.productservicenocturne.category.CategoryTreeHolder;
+import com.danialrekhman.productservicenocturne.facet.FacetIndex;
+import com.danialrekhman.productservicenocturne.dto.ProductResponseDTO;
+import com.danialrekhman.productservicenocturne.dto.ReservationOutcome;
 import com.danialrekhman.productservicenocturne.exception.CustomAccessDeniedException;
 import com.danialrekhman.productservicenocturne.exception.DuplicateResourceException;
+import com.danialrekhman.productservicenocturne.exception.InsufficientStockException;
 import com.danialrekhman.productservicenocturne.exception.ResourceNotFoundException;
+import com.danialrekhman.productservicenocturne.inventory.HotInventory;
+import com.danialrekhman.productservicenocturne.mapper.ProductMapper;
 import com.danialrekhman.productservicenocturne.model.Category;
 import com.danialrekhman.productservicenocturne.model.Product;
+import com.danialrekhman.productservicenocturne.model.ReservationStatus;
 import com.danialrekhman.productservicenocturne.repository.CategoryRepository;
 import com.danialrekhman.productservicenocturne.repository.ProductRepository;
+import com.danialrekhman.productservicenocturne.repository.StockReservationRepository;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductStock;
+import com.danialrekhman.productservicenocturne.repository.projection.ReservationLedgerEntry;
+import com.danialrekhman.productservicenocturne.search.ProductSearchEngine;
+import com.danialrekhman.productservicenocturne.snapshot.ProductSnapshotPublisher;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
@@ -18,12 +33,18 @@ import org.springframework.security.core.authority.SimpleGrantedAuthority;
 
 import java.math.BigDecimal;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -35,6 +56,30 @@ class ProductServiceImplTest {
     @Mock
     private CategoryRepository categoryRepository;
 
+    @Mock
+    private HotInventory hotInventory;
+
+    @Mock
+    private CatalogCache catalogCache;
+
+    @Mock
+    private ProductMapper productMapper;
+
+    @Mock
+    private ProductSearchEngine productSearchEngine;
+
+    @Mock
+    private CategoryTreeHolder categoryTree;
+
+    @Mock
+    private FacetIndex facetIndex;
+
+    @Mock
+    private ProductSnapshotPublisher productSnapshots;
+
+    @Mock
+    private StockReservationRepository stockReservationRepository;
+
     @Mock
     private Authentication authentication;
 
@@ -60,6 +105,15 @@ class ProductServiceImplTest {
         product.setAvailable(true);
     }
 
+    private static ProductStock stock(Long id, String price, int quantity, boolean available) {
+        return new ProductStock() {
+            public Long getId() { return id; }
+            public BigDecimal getPrice() { return new BigDecimal(price); }
+            public int getQuantity() { return quantity; }
+            public boolean isAvailable() { return available; }
+        };
+    }
+
     private void mockAdminAuthentication() {
         when(authentication.getAuthorities()).thenAnswer(invocation ->
                 Collections.singletonList(new SimpleGrantedAuthority("ROLE_ADMIN")));
@@ -151,6 +205,22 @@ class ProductServiceImplTest {
         assertEquals(0, new BigDecimal("2500.00").compareTo(updatedProduct.getPrice()));
         verify(productRepository).findById(1L);
         verify(productRepository).save(product);
+        verify(catalogCache).productChanged(1L);
+        verify(productSearchEngine).productChanged(1L);
+    }
+
+    @Test
+    void getProductSnapshot_ForHotProduct_UsesLiveStock() {
+        ProductResponseDTO cached = ProductResponseDTO.builder().id(1L).name("Fender Stratocaster").quantity(10).build();
+        when(catalogCache.product(eq(1L), any())).thenReturn(cached);
+        when(hotInventory.isHot(1L)).thenReturn(true);
+        when(hotInventory.available(1L)).thenReturn(4);
+
+        ProductResponseDTO snapshot = productService.getProductSnapshot(1L);
+
+        assertEquals(4, snapshot.getQuantity());
+        assertEquals(10, cached.getQuantity()); // снимок в кэше не меняется
+        verifyNoInteractions(productRepository);
     }
 
     @Test
@@ -235,22 +305,124 @@ class ProductServiceImplTest {
 
     @Test
     void reserveStock_WhenSufficient_ReturnsTrue() {
-        when(productRepository.decreaseStock(1L, 5)).thenReturn(1); // 1 означає, що 1 рядок було оновлено
+        when(productRepository.reserveAndReturnStock(1L, 5)).thenReturn(Optional.of(stock(1L, "1200.00", 5, true)));
 
         boolean result = productService.reserveStock(1L, 5);
 
         assertTrue(result);
-        verify(productRepository).decreaseStock(1L, 5);
+        verify(productRepository).reserveAndReturnStock(1L, 5);
     }
 
     @Test
     void reserveStock_WhenInsufficient_ReturnsFalse() {
-        when(productRepository.decreaseStock(1L, 15)).thenReturn(0); // 0 означає, що жоден рядок не було оновлено
+        when(productRepository.reserveAndReturnStock(1L, 15)).thenReturn(Optional.empty()); // жоден рядок не було оновлено
 
         boolean result = productService.reserveStock(1L, 15);
 
         assertFalse(result);
-        verify(productRepository).decreaseStock(1L, 15);
+        verify(productRepository).reserveAndReturnStock(1L, 15);
+    }
+
+    @Test
+    void reserveStockBatch_WhenAllAvailable_ReturnsPrices() {
+        when(productRepository.reserveAndReturnStock(1L, 2)).thenReturn(Optional.of(stock(1L, "1200.00", 8, true)));
+        when(productRepository.reserveAndReturnStock(2L, 1)).thenReturn(Optional.of(stock(2L, "300.00", 0, true)));
+
+        Map<Long, BigDecimal> prices = productService.reserveStock(Map.of(2L, 1, 1L, 2));
+
+        assertEquals(0, new BigDecimal("1200.00").compareTo(prices.get(1L)));
+        assertEquals(0, new BigDecimal("300.00").compareTo(prices.get(2L)));
+        InOrder inOrder = inOrder(productRepository);
+        inOrder.verify(productRepository).reserveAndReturnStock(1L, 2);
+        inOrder.verify(productRepository).reserveAndReturnStock(2L, 1);
+        // сущности Product не загружаются
+        verify(productRepository, never()).findAllById(any());
+        verify(productRepository, never()).findById(anyLong());
+    }
+
+    @Test
+    void reserveStockBatch_WhenOneLineInsufficient_ThrowsInsufficientStockException() {
+        when(productRepository.reserveAndReturnStock(1L, 2)).thenReturn(Optional.of(stock(1L, "1200.00", 8, true)));
+        when(productRepository.reserveAndReturnStock(2L, 50)).thenReturn(Optional.empty());
+
+        assertThrows(InsufficientStockException.class, () ->
+                productService.reserveStock(Map.of(1L, 2, 2L, 50)));
+    }
+
+    @Test
+    void reserveStockBatch_WhenQuantityNotPositive_DoesNotTouchStock() {
+        assertThrows(IllegalArgumentException.class, () ->
+                productService.reserveStock(Map.of(1L, 0)));
+        verify(productRepository, never()).reserveAndReturnStock(anyLong(), anyInt());
+    }
+
+    @Test
+    void reserveStockBatch_HotProductsAreReservedInMemory() {
+        when(hotInventory.isHot(anyLong())).thenAnswer(inv -> inv.getArgument(0).equals(7L));
+        HotInventory.Reservation hot = new HotInventory.Reservation(Map.of(7L, 1), Map.of(7L, new BigDecimal("49.99")));
+        when(hotInventory.tryReserve(Map.of(7L, 1))).thenReturn(hot);
+        when(hotInventory.tryReserve(Map.of(7L, 5))).thenReturn(null);
+        when(productRepository.findStockForUpdate(Set.of(1L))).thenReturn(List.of(stock(1L, "1200.00", 10, true)));
+        when(productRepository.decreaseStock(1L, 2)).thenReturn(1);
+
+        List<ReservationOutcome> outcomes = productService.reserveStockBatch(List.of(
+                Map.of(7L, 1, 1L, 2),
+                Map.of(7L, 5),
+                Map.of(7L, 1)));
+
+        assertTrue(outcomes.get(0).isReserved());
+        assertEquals(0, new BigDecimal("49.99").compareTo(outcomes.get(0).getPrices().get(7L)));
+        assertFalse(outcomes.get(1).isReserved());
+        assertTrue(outcomes.get(2).isReserved());
+        // горячий товар в базу не ходит, журнал пишется одной пачкой
+        verify(productRepository, never()).decreaseStock(eq(7L), anyInt());
+        verify(hotInventory).commit(List.of(hot, hot));
+    }
+
+    @Test
+    void reserveStockBatch_SingleLineUsesOneStatement() {
+        when(productRepository.reserveAndReturnStock(1L, 3)).thenReturn(Optional.of(stock(1L, "1200.00", 7, true)));
+
+        List<ReservationOutcome> outcomes = productService.reserveStockBatch(List.of(Map.of(1L, 3)));
+
+        assertTrue(outcomes.get(0).isReserved());
+        verify(productRepository, never()).findStockForUpdate(any());
+        verify(productRepository, never()).decreaseStock(anyLong(), anyInt());
+    }
+
+    @Test
+    void reserveStockBatch_GrantsInArrivalOrderWithOneUpdatePerProduct() {
+        when(productRepository.findStockForUpdate(Set.of(1L))).thenReturn(List.of(stock(1L, "1200.00", 5, true)));
+        when(productRepository.decreaseStock(1L, 5)).thenReturn(1);
+
+        List<ReservationOutcome> outcomes = productService.reserveStockBatch(List.of(
+                Map.of(1L, 3), Map.of(1L, 3), Map.of(1L, 2)));
+
+        assertTrue(outcomes.get(0).isReserved());
+        assertFalse(outcomes.get(1).isReserved());
+        assertTrue(outcomes.get(2).isReserved());
+        assertEquals(0, new BigDecimal("1200.00").compareTo(outcomes.get(2).getPrices().get(1L)));
+        verify(productRepository, times(1)).decreaseStock(anyLong(), anyInt());
+        verify(productRepository).decreaseStock(1L, 5);
+    }
+
+    @Test
+    void reserveStockBatch_RejectsWholeRequestWhenOneLineDoesNotFit() {
+        when(productRepository.findStockForUpdate(Set.of(1L, 2L, 3L)))
+                .thenReturn(List.of(stock(1L, "1200.00", 10, true), stock(2L, "300.00", 1, true)));
+        when(productRepository.decreaseStock(2L, 1)).thenReturn(1);
+
+        List<ReservationOutcome> outcomes = productService.reserveStockBatch(List.of(
+                Map.of(1L, 2, 2L, 5),
+                Map.of(3L, 1),
+                Map.of(2L, 1)));
+
+        assertFalse(outcomes.get(0).isReserved());
+        assertEquals("Product with id 3 is not available.", outcomes.get(1).getMessage());
+        assertTrue(outcomes.get(2).isReserved());
+        // product 1 был только в отклонённой заявке — его остаток не трогаем
+        verify(productRepository, never()).decreaseStock(eq(1L), anyInt());
+        verify(productRepository).decreaseStock(2L, 1);
     }
 
     @Test
@@ -259,4 +431,111 @@ class ProductServiceImplTest {
 
         verify(productRepository).increaseStock(1L, 5);
     }
+
+    @Test
+    void reserveStockBatch_RedeliveredReservationGetsPreviousOutcome() {
+        UUID redelivered = UUID.randomUUID();
+        UUID fresh = UUID.randomUUID();
+        when(stockReservationRepository.claim(List.of(redelivered, fresh), 900)).thenReturn(Set.of(fresh));
+        when(stockReservationRepository.find(List.of(redelivered))).thenReturn(Map.of(redelivered,
+                new ReservationLedgerEntry(ReservationStatus.RESERVED, Map.of(1L, 2), Map.of(1L, new BigDecimal("1200.00")))));
+        when(productRepository.reserveAndReturnStock(2L, 1)).thenReturn(Optional.of(stock(2L, "300.00", 4, true)));
+
+        List<ReservationOutcome> outcomes = productService.reserveStockBatch(
+                List.of(redelivered.toString(), fresh.toString(), fresh.toString()),
+                List.of(Map.of(1L, 2), Map.of(2L, 1), Map.of(2L, 1)));
+
+        assertEquals(new BigDecimal("1200.00"), outcomes.get(0).getPrices().get(1L));
+        assertTrue(outcomes.get(1).isReserved());
+        // повтор внутри пачки — тот же ответ, без второго списания
+        assertSame(outcomes.get(1), outcomes.get(2));
+        verify(productRepository, never()).reserveAndReturnStock(eq(1L), anyInt());
+        verify(productRepository, times(1)).reserveAndReturnStock(2L, 1);
+        verify(stockReservationRepository).record(Map.of(fresh,
+                new ReservationLedgerEntry(ReservationStatus.RESERVED, Map.of(2L, 1), Map.of(2L, new BigDecimal("300.00")))));
+    }
+
+    @Test
+    void reserveStockBatch_RejectedReservationLeavesNoLedgerEntry() {
+        UUID id = UUID.randomUUID();
+        when(stockReservationRepository.claim(List.of(id), 900)).thenReturn(Set.of(id));
+        when(productRepository.reserveAndReturnStock(1L, 9)).thenReturn(Optional.empty());
+
+        List<ReservationOutcome> outcomes = productService.reserveStockBatch(List.of(id.toString()), List.of(Map.of(1L, 9)));
+
+        assertFalse(outcomes.get(0).isReserved());
+        verify(stockReservationRepository).delete(List.of(id));
+        verify(stockReservationRepository).record(Map.of());
+    }
+
+    @Test
+    void releaseReservation_ReturnsLedgerQuantitiesOnce() {
+        UUID id = UUID.randomUUID();
+        when(stockReservationRepository.release(id))
+                .thenReturn(Optional.of(Map.of(1L, 2, 2L, 1)))
+                .thenReturn(Optional.empty());
+        when(stockReservationRepository.insertReleased(id, Map.of(1L, 2, 2L, 1))).thenReturn(false);
+
+        assertTrue(productService.releaseReservation(id.toString(), Map.of(1L, 2, 2L, 1)));
+        assertFalse(productService.releaseReservation(id.toString(), Map.of(1L, 2, 2L, 1)));
+
+        verify(productRepository, times(1)).increaseStock(1L, 2);
+        verify(productRepository, times(1)).increaseStock(2L, 1);
+    }
+
+    @Test
+    void releaseReservation_WithoutLedgerEntryReleasesMessageQuantities() {
+        UUID id = UUID.randomUUID();
+        when(stockReservationRepository.release(id)).thenReturn(Optional.empty());
+        when(stockReservationRepository.insertReleased(id, Map.of(1L, 3))).thenReturn(true);
+
+        assertTrue(productService.releaseReservation(id.toString(), Map.of(1L, 3)));
+
+        verify(productRepository).increaseStock(1L, 3);
+        assertThrows(IllegalArgumentException.class, () -> productService.releaseReservation("not-a-uuid", Map.of(1L, 3)));
+    }
+
+    @Test
+    void expireReservations_ReturnsStockOncePerProduct() {
+        when(stockReservationRepository.expire(100)).thenReturn(List.of(Map.of(2L, 1, 1L, 2), Map.of(1L, 3)));
+
+        assertEquals(2, productService.expireReservations(100));
+
+        InOrder inOrder = inOrder(productRepository);
+        inOrder.verify(productRepository).increaseStock(1L, 5);
+        inOrder.verify(productRepository).increaseStock(2L, 1);
+        verifyNoMoreInteractions(productRepository);
+    }
+
+    @Test
+    void confirmReservations_IgnoresAlreadyConfirmedAndReleased() {
+        UUID fresh = UUID.randomUUID();
+        UUID cancelled = UUID.randomUUID();
+        when(stockReservationRepository.confirm(List.of(fresh, cancelled))).thenReturn(Set.of(fresh));
+        when(stockReservationRepository.reclaim(List.of(cancelled))).thenReturn(Map.of());
+
+        assertEquals(List.of(), productService.confirmReservations(List.of(fresh.toString(), cancelled.toString(), "legacy")));
+
+        verify(productRepository, never()).decreaseStock(anyLong(), anyInt());
+        verify(productRepository, never()).increaseStock(anyLong(), anyInt());
+    }
+
+    @Test
+    void confirmReservations_AfterExpiry_TakesStockAgainOrReportsLostReservation() {
+        UUID restored = UUID.randomUUID();
+        UUID lost = UUID.randomUUID();
+        when(stockReservationRepository.confirm(List.of(restored, lost))).thenReturn(Set.of());
+        Map<UUID, Map<Long, Integer>> expired = new LinkedHashMap<>();
+        expired.put(restored, Map.of(1L, 3));
+        expired.put(lost, Map.of(1L, 4));
+        when(stockReservationRepository.reclaim(List.of(restored, lost))).thenReturn(expired);
+        when(productRepository.findStockForUpdate(Set.of(1L))).thenReturn(List.of(stock(1L, "1200.00", 5, true)));
+        when(productRepository.decreaseStock(1L, 3)).thenReturn(1);
+
+        assertEquals(List.of(lost.toString()),
+                productService.confirmReservations(List.of(restored.toString(), lost.toString())));
+
+        verify(productRepository).decreaseStock(1L, 3);
+        verify(stockReservationRepository).markReleased(List.of(lost));
+    }
 }
@@ -0,0 +1,164 @@
+package com.danialrekhman.productservicenocturne.service;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Нагрузочный замер резервирования на Postgres: заказ на одну транзакцию (блокировка строк заказа и
+ * UPDATE на позицию) против пачки poll-а в одной транзакции, как в
+ * {@link ProductService#reserveStockBatch(List)}: строки пачки блокируются один раз, остаток считается
+ * в памяти, на товар — один UPDATE. Заказы по 1–3 позиции из небольшого набора популярных товаров,
+ * несколько потоков-потребителей — как партиции топика product-reserve.
+ * <p>
+ * Запуск: {@code mvn test -Dtest=ReservationBatchBenchmark -Dbenchmark=true} (нужен Docker)
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@Testcontainers(disabledWithoutDocker = true)
+class ReservationBatchBenchmark {
+
+    @Container
+    static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:16-alpine");
+
+    private static final int PRODUCTS = 50;
+    private static final int CONSUMERS = 3;
+    private static final int BATCH = 500;
+    private static final long DURATION_MS = 5_000;
+
+    @BeforeAll
+    static void createProducts() throws SQLException {
+        try (Connection connection = connect(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE product (id bigint PRIMARY KEY, price numeric(19,2), quantity int, available boolean)");
+            statement.execute("INSERT INTO product SELECT g, 10.00, 1000000000, true FROM generate_series(1, " + PRODUCTS + ") g");
+        }
+    }
+
+    private static Connection connect() throws SQLException {
+        return DriverManager.getConnection(POSTGRES.getJdbcUrl(), POSTGRES.getUsername(), POSTGRES.getPassword());
+    }
+
+    private interface Strategy {
+        // возвращает число выполненных SQL-запросов
+        int reserve(Connection connection, List<Map<Long, Integer>> orders) throws SQLException;
+    }
+
+    @Test
+    void orderPerTransactionVsBatch() throws Exception {
+        double single = run("order per transaction", 1, (connection, orders) -> {
+            int statements = 0;
+            for (Map<Long, Integer> order : orders) {
+                lock(connection, order.keySet());
+                statements++;
+                for (Map.Entry<Long, Integer> line : new TreeMap<>(order).entrySet())
+                    statements += decrease(connection, line.getKey(), line.getValue());
+                connection.commit();
+            }
+            return statements;
+        });
+        double batched = run("batch of " + BATCH + " per transaction", BATCH, (connection, orders) -> {
+            Set<Long> ids = new TreeSet<>();
+            orders.forEach(order -> ids.addAll(order.keySet()));
+            Map<Long, Integer> remaining = lock(connection, ids);
+            Map<Long, Integer> taken = new TreeMap<>();
+            for (Map<Long, Integer> order : orders) {
+                if (order.entrySet().stream().allMatch(line -> remaining.get(line.getKey()) >= line.getValue())) {
+                    order.forEach((id, amount) -> {
+                        remaining.merge(id, -amount, Integer::sum);
+                        taken.merge(id, amount, Integer::sum);
+                    });
+                }
+            }
+            int statements = 1;
+            for (Map.Entry<Long, Integer> line : taken.entrySet())
+                statements += decrease(connection, line.getKey(), line.getValue());
+            connection.commit();
+            return statements;
+        });
+        assertTrue(batched > single, "batching should reserve more orders per second");
+    }
+
+    private static Map<Long, Integer> lock(Connection connection, Collection<Long> ids) throws SQLException {
+        Map<Long, Integer> quantities = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT id, quantity FROM product WHERE id = ANY (?) ORDER BY id FOR UPDATE")) {
+            statement.setArray(1, connection.createArrayOf("bigint", ids.toArray()));
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next())
+                    quantities.put(rs.getLong(1), rs.getInt(2));
+            }
+        }
+        return quantities;
+    }
+
+    private static int decrease(Connection connection, long id, int amount) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "UPDATE product SET quantity = quantity - ? WHERE id = ? AND quantity >= ?")) {
+            statement.setInt(1, amount);
+            statement.setLong(2, id);
+            statement.setInt(3, amount);
+            statement.executeUpdate();
+        }
+        return 1;
+    }
+
+    private static List<Map<Long, Integer>> orders(Random random, int count) {
+        List<Map<Long, Integer>> orders = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<Long, Integer> order = new HashMap<>();
+            int lines = 1 + random.nextInt(3);
+            while (order.size() < lines)
+                order.put(1L + random.nextInt(PRODUCTS), 1 + random.nextInt(2));
+            orders.add(order);
+        }
+        return orders;
+    }
+
+    private double run(String name, int pollSize, Strategy strategy) throws Exception {
+        LongAdder reserved = new LongAdder();
+        LongAdder statements = new LongAdder();
+        ExecutorService pool = Executors.newFixedThreadPool(CONSUMERS);
+        CountDownLatch start = new CountDownLatch(1);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < CONSUMERS; t++) {
+            long seed = t;
+            futures.add(pool.submit(() -> {
+                Random random = new Random(seed);
+                try (Connection connection = connect()) {
+                    connection.setAutoCommit(false);
+                    start.await();
+                    while (System.nanoTime() < deadline) {
+                        List<Map<Long, Integer>> orders = orders(random, pollSize);
+                        statements.add(strategy.reserve(connection, orders));
+                        reserved.add(orders.size());
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures)
+            future.get();
+        pool.shutdown();
+
+        double perSecond = reserved.sum() * 1000.0 / DURATION_MS;
+        System.out.printf("%-32s %,12.0f orders/s %8.2f statements/order%n",
+                name, perSecond, statements.sum() / (double) reserved.sum());
+        return perSecond;
+    }
+}
@@ -0,0 +1,134 @@
+package com.danialrekhman.productservicenocturne.snapshot;
+
+import com.danialrekhman.commonevents.ProductSnapshotEvent;
+import com.danialrekhman.commonevents.StockLevel;
+import com.danialrekhman.productservicenocturne.inventory.HotInventory;
+import com.danialrekhman.productservicenocturne.repository.ProductRepository;
+import com.danialrekhman.productservicenocturne.repository.projection.ProductFacetRow;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ProductSnapshotPublisherTest {
+
+    @Mock
+    private ProductRepository productRepository;
+
+    @Mock
+    private HotInventory hotInventory;
+
+    @Mock
+    private KafkaTemplate<String, ProductSnapshotEvent> kafkaTemplate;
+
+    private ProductSnapshotPublisher publisher;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(kafkaTemplate.send(anyString(), anyString(), any()))
+                .thenReturn(CompletableFuture.completedFuture(mock(SendResult.class)));
+        when(productRepository.findFacetRowsAfter(anyLong(), any(Limit.class))).thenReturn(List.of(
+                row(1, "19.99", true, 50),
+                row(2, "5.00", true, 3),
+                row(3, "7.50", false, 0)));
+        publisher = new ProductSnapshotPublisher(productRepository, hotInventory, kafkaTemplate,
+                new SimpleMeterRegistry(), 100, 10);
+        publisher.afterSingletonsInstantiated();
+    }
+
+    private static ProductFacetRow row(long id, String price, boolean available, int quantity) {
+        return new ProductFacetRow(id, null, new BigDecimal(price), available, quantity);
+    }
+
+    private ProductSnapshotEvent sent(long id) {
+        ArgumentCaptor<ProductSnapshotEvent> captor = ArgumentCaptor.forClass(ProductSnapshotEvent.class);
+        verify(kafkaTemplate, atLeastOnce()).send(eq(ProductSnapshotPublisher.TOPIC), eq(String.valueOf(id)), captor.capture());
+        return captor.getValue();
+    }
+
+    @Test
+    void resync_PublishesEveryProductKeyedById() {
+        verify(kafkaTemplate, times(3)).send(eq(ProductSnapshotPublisher.TOPIC), anyString(), any());
+        ProductSnapshotEvent first = sent(1);
+        assertEquals(new BigDecimal("19.99"), first.getPrice());
+        assertTrue(first.isAvailable());
+        assertEquals(StockLevel.IN_STOCK, first.getStockLevel());
+        assertEquals(StockLevel.LOW, sent(2).getStockLevel());
+        assertEquals(StockLevel.OUT_OF_STOCK, sent(3).getStockLevel());
+        assertFalse(sent(3).isAvailable());
+
+        // повторная сверка без изменений ничего не отправляет
+        publisher.resync();
+        verify(kafkaTemplate, times(3)).send(anyString(), anyString(), any());
+    }
+
+    @Test
+    void publishChanges_SendsOnlySnapshotsThatChanged() {
+        clearInvocations(kafkaTemplate);
+        // 50 -> 40 остаётся IN_STOCK, 3 -> 0 переходит в OUT_OF_STOCK
+        when(productRepository.findFacetRowsByIdIn(anyCollection())).thenReturn(List.of(
+                row(1, "19.99", true, 40),
+                row(2, "5.00", true, 0)));
+
+        publisher.productsChanged(List.of(1L, 2L));
+        publisher.publishChanges();
+
+        verify(kafkaTemplate, times(1)).send(anyString(), anyString(), any());
+        assertEquals(StockLevel.OUT_OF_STOCK, sent(2).getStockLevel());
+    }
+
+    @Test
+    void publishChanges_HotProductUsesInMemoryStock() {
+        clearInvocations(kafkaTemplate);
+        when(hotInventory.isHot(1L)).thenReturn(true);
+        when(hotInventory.available(1L)).thenReturn(4);
+        when(productRepository.findFacetRowsByIdIn(anyCollection())).thenReturn(List.of(row(1, "19.99", true, 50)));
+
+        publisher.productChanged(1L);
+        publisher.publishChanges();
+
+        assertEquals(StockLevel.LOW, sent(1).getStockLevel());
+    }
+
+    @Test
+    void publishChanges_DeletedProductGetsTombstone() {
+        clearInvocations(kafkaTemplate);
+        when(productRepository.findFacetRowsByIdIn(anyCollection())).thenReturn(List.of());
+
+        publisher.productChanged(3L);
+        publisher.publishChanges();
+
+        verify(kafkaTemplate).send(ProductSnapshotPublisher.TOPIC, "3", null);
+    }
+
+    @Test
+    void publishChanges_FailedSendIsRetried() {
+        clearInvocations(kafkaTemplate);
+        when(productRepository.findFacetRowsByIdIn(anyCollection())).thenReturn(List.of(row(1, "21.00", true, 50)));
+        when(kafkaTemplate.send(anyString(), anyString(), any()))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")))
+                .thenReturn(CompletableFuture.completedFuture(mock(SendResult.class)));
+
+        publisher.productChanged(1L);
+        publisher.publishChanges();
+        publisher.publishChanges();
+
+        verify(kafkaTemplate, times(2)).send(eq(ProductSnapshotPublisher.TOPIC), eq("1"), any());
+        assertEquals(new BigDecimal("21.00"), sent(1).getPrice());
+    }
+}
@@ -0,0 +1,147 @@
+package com.danialrekhman.productservicenocturne.storage;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageDerivativesTest {
+
+    @TempDir
+    Path dir;
+
+    private ImageDerivatives derivatives;
+
+    @AfterEach
+    void tearDown() {
+        if (derivatives != null)
+            derivatives.shutdown();
+    }
+
+    private ImageDerivatives derivatives(long maxBytes, int queueCapacity) {
+        derivatives = new ImageDerivatives(new SimpleMeterRegistry(), dir.toString(), maxBytes, 40_000_000,
+                1, queueCapacity, 10_000);
+        derivatives.afterSingletonsInstantiated();
+        return derivatives;
+    }
+
+    private ImageStore.StoredImage image(ImageStore store, int width, int height, String format, Color color) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(color);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return store.store(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    @Test
+    void get_RendersVariantOnceAndKeepsAspectRatio() throws Exception {
+        ImageStore store = new ImageStore(dir.toString(), 10_000_000);
+        ImageStore.StoredImage source = image(store, 1600, 800, "jpg", Color.RED);
+        ImageDerivatives derivatives = derivatives(100_000_000, 16);
+
+        ImageStore.StoredImage thumb = derivatives.get(source, ImageVariant.THUMB).orElseThrow();
+        ImageStore.StoredImage again = derivatives.get(source, ImageVariant.THUMB).orElseThrow();
+
+        assertEquals(thumb.path(), again.path());
+        assertEquals(1, derivatives.renders());
+        assertTrue(thumb.key().endsWith("-thumb.jpg"));
+        assertEquals("image/jpeg", thumb.contentType());
+        BufferedImage rendered = ImageIO.read(thumb.path().toFile());
+        assertEquals(120, rendered.getWidth());
+        assertEquals(60, rendered.getHeight());
+    }
+
+    @Test
+    void get_SmallImageIsServedAsIs() throws Exception {
+        ImageStore store = new ImageStore(dir.toString(), 10_000_000);
+        ImageStore.StoredImage source = image(store, 100, 50, "png", Color.BLUE);
+        ImageDerivatives derivatives = derivatives(100_000_000, 16);
+
+        assertEquals(source.key(), derivatives.get(source, ImageVariant.LIST).orElseThrow().key());
+        assertEquals(source.key(), derivatives.get(source, ImageVariant.LIST).orElseThrow().key());
+        // размеры прочитаны один раз
+        assertEquals(1, derivatives.renders());
+    }
+
+    @Test
+    void get_ConcurrentRequestsShareOneRender() throws Exception {
+        ImageStore store = new ImageStore(dir.toString(), 10_000_000);
+        ImageStore.StoredImage source = image(store, 2400, 1800, "png", Color.GREEN);
+        ImageDerivatives derivatives = derivatives(100_000_000, 16);
+
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Optional<ImageStore.StoredImage>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(clients.submit(() -> {
+                    start.await();
+                    return derivatives.get(source, ImageVariant.ZOOM);
+                }));
+            }
+            start.countDown();
+            for (Future<Optional<ImageStore.StoredImage>> result : results)
+                assertTrue(result.get(30, TimeUnit.SECONDS).orElseThrow().key().endsWith("-zoom.png"));
+        } finally {
+            clients.shutdownNow();
+        }
+        assertEquals(1, derivatives.renders());
+    }
+
+    @Test
+    void get_LeastRecentlyUsedVariantsAreEvicted() throws Exception {
+        ImageStore store = new ImageStore(dir.toString(), 10_000_000);
+        ImageStore.StoredImage red = image(store, 800, 800, "jpg", Color.RED);
+        ImageStore.StoredImage blue = image(store, 800, 800, "jpg", Color.BLUE);
+        ImageStore.StoredImage green = image(store, 800, 800, "jpg", Color.GREEN);
+        // узнаём размер одной копии и даём кэшу место ровно под две
+        ImageDerivatives probe = derivatives(100_000_000, 16);
+        long size = probe.get(red, ImageVariant.THUMB).orElseThrow().size();
+        probe.shutdown();
+        ImageDerivatives derivatives = derivatives(2 * size + size / 2, 16);
+
+        Path redThumb = derivatives.get(red, ImageVariant.THUMB).orElseThrow().path();
+        Path blueThumb = derivatives.get(blue, ImageVariant.THUMB).orElseThrow().path();
+        derivatives.get(red, ImageVariant.THUMB); // red — самый свежий
+        Path greenThumb = derivatives.get(green, ImageVariant.THUMB).orElseThrow().path();
+
+        assertTrue(Files.exists(redThumb));
+        assertFalse(Files.exists(blueThumb));
+        assertTrue(Files.exists(greenThumb));
+        assertTrue(derivatives.cachedBytes() <= 2 * size + size / 2);
+    }
+
+    @Test
+    void key_WebpHasNoVariants() {
+        assertNull(ImageDerivatives.key("a".repeat(64) + ".webp", ImageVariant.THUMB));
+        assertEquals("a".repeat(64) + "-list.png", ImageDerivatives.key("a".repeat(64) + ".gif", ImageVariant.LIST));
+    }
+
+    @Test
+    void urls_ListAllVariantsForStoredImages() {
+        String key = "a".repeat(64) + ".png";
+
+        assertEquals(Map.of(), ImageVariant.urls(null));
+        assertEquals("/api/products/images/" + key + "/thumb", ImageVariant.urls(key).get("thumb"));
+        assertEquals(3, ImageVariant.urls(key).size());
+        assertThrows(IllegalArgumentException.class, () -> ImageVariant.fromPath("huge"));
+    }
+}
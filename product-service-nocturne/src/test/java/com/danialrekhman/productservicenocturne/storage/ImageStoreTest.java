@@ -0,0 +1,103 @@
+package com.danialrekhman.productservicenocturne.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImageStoreTest {
+
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n', 0, 0, 0, 13, 'I', 'H', 'D', 'R'};
+
+    @TempDir
+    Path dir;
+
+    private static byte[] png(int extra) {
+        byte[] bytes = Arrays.copyOf(PNG, PNG.length + 1);
+        bytes[PNG.length] = (byte) extra;
+        return bytes;
+    }
+
+    @Test
+    void store_SameContentIsStoredOnce() throws Exception {
+        ImageStore store = new ImageStore(dir.toString(), 1024);
+
+        ImageStore.StoredImage first = store.store(new ByteArrayInputStream(png(1)));
+        ImageStore.StoredImage second = store.store(new ByteArrayInputStream(png(1)));
+        ImageStore.StoredImage other = store.store(new ByteArrayInputStream(png(2)));
+
+        assertEquals(first.key(), second.key());
+        assertNotEquals(first.key(), other.key());
+        assertTrue(first.key().endsWith(".png"));
+        assertEquals("image/png", first.contentType());
+        assertEquals(PNG.length + 1, first.size());
+        assertArrayEquals(png(1), Files.readAllBytes(first.path()));
+        assertEquals(first.path(), store.find(first.key()).orElseThrow().path());
+        // временные файлы не остаются
+        try (Stream<Path> parts = Files.list(dir.resolve("tmp"))) {
+            assertEquals(0, parts.count());
+        }
+    }
+
+    @Test
+    void store_RejectsUnknownFormatAndOversizedFiles() throws Exception {
+        ImageStore store = new ImageStore(dir.toString(), PNG.length);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> store.store(new ByteArrayInputStream("<svg onload=alert(1)>".getBytes())));
+        assertThrows(IllegalArgumentException.class, () -> store.store(new ByteArrayInputStream(png(1))));
+        assertNotNull(store.store(new ByteArrayInputStream(PNG)));
+        try (Stream<Path> parts = Files.list(dir.resolve("tmp"))) {
+            assertEquals(0, parts.count());
+        }
+    }
+
+    @Test
+    void find_RejectsKeysOutsideTheStore() {
+        ImageStore store = new ImageStore(dir.toString(), 1024);
+
+        assertTrue(store.find("../../etc/passwd").isEmpty());
+        assertTrue(store.find("a".repeat(64) + ".svg").isEmpty());
+        assertTrue(store.find("a".repeat(64) + ".png").isEmpty());
+    }
+
+    @Test
+    void sweep_DeletesOnlyOldUnreferencedFiles() throws Exception {
+        ImageStore store = new ImageStore(dir.toString(), 1024);
+        ImageStore.StoredImage referenced = store.store(new ByteArrayInputStream(png(1)));
+        ImageStore.StoredImage orphan = store.store(new ByteArrayInputStream(png(2)));
+        ImageStore.StoredImage fresh = store.store(new ByteArrayInputStream(png(3)));
+        FileTime old = FileTime.from(Instant.now().minusSeconds(7200));
+        Files.setLastModifiedTime(referenced.path(), old);
+        Files.setLastModifiedTime(orphan.path(), old);
+
+        int deleted = store.sweep(Instant.now().minusSeconds(3600), keys -> Set.of(referenced.key()));
+
+        assertEquals(1, deleted);
+        assertTrue(Files.exists(referenced.path()));
+        assertFalse(Files.exists(orphan.path()));
+        assertTrue(Files.exists(fresh.path()));
+    }
+
+    @Test
+    void store_ExistingFileIsProtectedFromSweep() throws Exception {
+        ImageStore store = new ImageStore(dir.toString(), 1024);
+        ImageStore.StoredImage image = store.store(new ByteArrayInputStream(png(1)));
+        Files.setLastModifiedTime(image.path(), FileTime.from(Instant.now().minusSeconds(7200)));
+
+        // повторная загрузка ещё не закоммичена, ссылок на файл нет
+        store.store(new ByteArrayInputStream(png(1)));
+
+        assertEquals(0, store.sweep(Instant.now().minusSeconds(3600), keys -> Set.of()));
+        assertTrue(Files.exists(image.path()));
+    }
+}